@@ -0,0 +1,22 @@
+@echo off
+
+REM Universal Password Manager
+REM Copyright (C) 2005-2013 Adrian Smith
+REM
+REM This file is part of Universal Password Manager.
+REM
+REM Universal Password Manager is free software; you can redistribute it and/or modify
+REM it under the terms of the GNU General Public License as published by
+REM the Free Software Foundation; either version 2 of the License, or
+REM (at your option) any later version.
+REM
+REM Universal Password Manager is distributed in the hope that it will be useful,
+REM but WITHOUT ANY WARRANTY; without even the implied warranty of
+REM MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+REM GNU General Public License for more details.
+REM
+REM You should have received a copy of the GNU General Public License
+REM along with Universal Password Manager; if not, write to the Free Software
+REM Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -cp "%~dp0upm.jar" com._17od.upm.cli.UPMCommandLine %*
@@ -0,0 +1,39 @@
+#!/bin/sh
+# ----------------------------------------------------------------------------
+# Universal Password Manager
+# Copyright (C) 2005-2013 Adrian Smith
+#
+# This file is part of Universal Password Manager.
+#
+# Universal Password Manager is free software; you can redistribute it and/or
+# modify it under the terms of the GNU General Public License as published by
+# the Free Software Foundation; either version 2 of the License, or
+# (at your option) any later version.
+#
+# Universal Password Manager is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with Universal Password Manager; if not, write to the Free Software
+# Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+# ----------------------------------------------------------------------------
+
+PRG="$0"
+
+# PRG may be a symbolic link so follow the links to the real program
+while [ -h "$PRG" ] ; do
+  ls=`ls -ld "$PRG"`
+  link=`expr "$ls" : '.*-> \(.*\)$'`
+  if expr "$link" : '/.*' > /dev/null; then
+    PRG="$link"
+  else
+    PRG="`dirname "$PRG"`/$link"
+  fi
+done
+
+UPM_HOME=`dirname "$PRG"`
+
+# The command line tool is short lived so compile quickly rather than well
+exec java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -cp "$UPM_HOME/upm.jar" com._17od.upm.cli.UPMCommandLine "$@"
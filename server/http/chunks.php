@@ -0,0 +1,235 @@
+<?php
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2011 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+    // Content addressed chunk store used by UPM's chunked transfer mode.
+    // Chunks are kept in the "chunks" sub directory, one file per chunk named
+    // after the SHA-256 hash of its contents.
+    //
+    //   POST action=missing hashes=h1,h2,...    list the hashes we don't have
+    //   POST action=put&hash=h (file "chunk")   store a chunk
+    //   POST action=commit name=n hashes=... expectedRevision=r revision=n [expectedHash=h]
+    //                                           build the file n from its chunks
+    //   GET  action=manifest&name=n             list the chunk hashes of file n
+    //   GET  action=get&hash=h                  get a chunk
+    //
+    // A commit publishes a new revision of the file just like publish.php
+    // does: it holds the same lock, only replaces the file if the revision
+    // currently published is expectedRevision (or, with no revision file,
+    // if the current file's hash is expectedHash) and records the new
+    // revision in NAME.revision. A conflict is replied to with
+    // REVISION_CONFLICT followed by the current revision.
+
+    define("CHUNK_DIR", "./chunks");
+    define("CHUNK_SIZE", 65536);
+
+    // Some error constants
+    define("INVALID_HASH", "INVALID_HASH");
+    define("INVALID_NAME", "INVALID_NAME");
+    define("CHUNK_WASNT_UPLOADED", "CHUNK_WASNT_UPLOADED");
+    define("CHUNK_HASH_MISMATCH", "CHUNK_HASH_MISMATCH");
+    define("MISSING_CHUNKS", "MISSING_CHUNKS");
+    define("FILE_WASNT_MOVED", "FILE_WASNT_MOVED");
+    define("INVALID_REVISION", "INVALID_REVISION");
+    define("REVISION_CONFLICT", "REVISION_CONFLICT");
+    define("UNKNOWN_ACTION", "UNKNOWN_ACTION");
+    define("OK", "OK");
+
+    function valid_hash($hash) {
+        return preg_match('/^[0-9a-f]{64}$/', $hash) == 1;
+    }
+
+    function hash_list($hashes) {
+        $list = array();
+        foreach (explode(',', $hashes) as $hash) {
+            $hash = trim($hash);
+            if ($hash == '') {
+                continue;
+            }
+            if (!valid_hash($hash)) {
+                die(INVALID_HASH);
+            }
+            $list[] = $hash;
+        }
+        return $list;
+    }
+
+    // Just take the filename so that someone can't put in a relative path and
+    // ensure none of the server scripts can be overwritten
+    function file_name($name) {
+        $name = basename($name);
+        if ($name == '' || substr($name, -4) == '.php' || $name == basename(CHUNK_DIR)) {
+            die(INVALID_NAME);
+        }
+        return $name;
+    }
+
+    // Split a file that was uploaded in one piece into chunks
+    function chunk_file($fileName) {
+        $manifest = '';
+        $fp = fopen($fileName, 'rb');
+        while (!feof($fp)) {
+            $chunk = fread($fp, CHUNK_SIZE);
+            if ($chunk === false || strlen($chunk) == 0) {
+                break;
+            }
+            $hash = hash('sha256', $chunk);
+            if (!file_exists(CHUNK_DIR.'/'.$hash)) {
+                file_put_contents(CHUNK_DIR.'/'.$hash, $chunk);
+            }
+            $manifest .= $hash."\n";
+        }
+        fclose($fp);
+        return $manifest;
+    }
+
+    if (!is_dir(CHUNK_DIR)) {
+        mkdir(CHUNK_DIR, 0700);
+    }
+
+    $action = isset($_REQUEST['action']) ? $_REQUEST['action'] : '';
+
+    if ($_SERVER['REQUEST_METHOD'] == 'POST') {
+
+        if ($action == 'missing') {
+            foreach (hash_list($_POST['hashes']) as $hash) {
+                if (!file_exists(CHUNK_DIR.'/'.$hash)) {
+                    echo $hash."\n";
+                }
+            }
+
+        } else if ($action == 'put') {
+            $hash = $_GET['hash'];
+            if (!valid_hash($hash)) {
+                die(INVALID_HASH);
+            }
+            if (!is_uploaded_file($_FILES['chunk']['tmp_name'])) {
+                die(CHUNK_WASNT_UPLOADED);
+            }
+            if (hash_file('sha256', $_FILES['chunk']['tmp_name']) != $hash) {
+                die(CHUNK_HASH_MISMATCH);
+            }
+            move_uploaded_file($_FILES['chunk']['tmp_name'], CHUNK_DIR.'/'.$hash);
+            echo OK;
+
+        } else if ($action == 'commit') {
+            $fileName = file_name($_POST['name']);
+            $hashes = hash_list($_POST['hashes']);
+            if (!preg_match('/^-?[0-9]+$/', $_POST['expectedRevision'])
+                    || !preg_match('/^[0-9]+$/', $_POST['revision'])) {
+                die(INVALID_REVISION);
+            }
+            $expectedRevision = intval($_POST['expectedRevision']);
+            $revision = intval($_POST['revision']);
+            $expectedHash = isset($_POST['expectedHash']) ? $_POST['expectedHash'] : '';
+            if ($expectedHash != '' && !valid_hash($expectedHash)) {
+                die(INVALID_HASH);
+            }
+            foreach ($hashes as $hash) {
+                if (!file_exists(CHUNK_DIR.'/'.$hash)) {
+                    die(MISSING_CHUNKS);
+                }
+            }
+
+            // Build the file under a temporary name and then rename it into
+            // place so readers never see a half written file
+            $tempFileName = tempnam('.', 'upm');
+            $fp = fopen($tempFileName, 'wb');
+            foreach ($hashes as $hash) {
+                fwrite($fp, file_get_contents(CHUNK_DIR.'/'.$hash));
+            }
+            fclose($fp);
+            chmod($tempFileName, 0644);
+
+            // The same lock and revision check as publish.php
+            $lock = fopen("./$fileName.lock", 'c');
+            flock($lock, LOCK_EX);
+
+            $revisionFile = "./$fileName.revision";
+            $conflict = false;
+            if (file_exists($revisionFile)) {
+                $currentRevision = intval(file_get_contents($revisionFile));
+                $conflict = $currentRevision != $expectedRevision;
+            } else if (file_exists("./$fileName")) {
+                // No revision yet so go by the contents of the current file
+                $currentRevision = -1;
+                $conflict = hash_file('sha256', "./$fileName") != $expectedHash;
+            }
+            if ($conflict) {
+                flock($lock, LOCK_UN);
+                fclose($lock);
+                unlink($tempFileName);
+                die(REVISION_CONFLICT . ' ' . $currentRevision);
+            }
+
+            // rename() won't replace an existing file on Windows
+            if (!rename($tempFileName, './'.$fileName)) {
+                @unlink('./'.$fileName);
+                if (!rename($tempFileName, './'.$fileName)) {
+                    flock($lock, LOCK_UN);
+                    fclose($lock);
+                    unlink($tempFileName);
+                    die(FILE_WASNT_MOVED);
+                }
+            }
+            file_put_contents($revisionFile, $revision);
+            file_put_contents(CHUNK_DIR.'/'.$fileName.'.manifest', implode("\n", $hashes));
+
+            flock($lock, LOCK_UN);
+            fclose($lock);
+
+            echo OK;
+
+        } else {
+            die(UNKNOWN_ACTION);
+        }
+
+    } else {
+
+        if ($action == 'manifest') {
+            $fileName = file_name($_GET['name']);
+            $manifestFileName = CHUNK_DIR.'/'.$fileName.'.manifest';
+            if (!file_exists('./'.$fileName)) {
+                header('HTTP/1.0 404 Not Found');
+                exit;
+            }
+            // The file may have been replaced using upload.php since the manifest was written
+            if (!file_exists($manifestFileName) || filemtime($manifestFileName) < filemtime('./'.$fileName)) {
+                file_put_contents($manifestFileName, chunk_file('./'.$fileName));
+            }
+            header('Content-Type: text/plain');
+            readfile($manifestFileName);
+
+        } else if ($action == 'get') {
+            $hash = $_GET['hash'];
+            if (!valid_hash($hash) || !file_exists(CHUNK_DIR.'/'.$hash)) {
+                header('HTTP/1.0 404 Not Found');
+                exit;
+            }
+            header('Content-Type: application/octet-stream');
+            readfile(CHUNK_DIR.'/'.$hash);
+
+        } else {
+            die(UNKNOWN_ACTION);
+        }
+
+    }
+?>
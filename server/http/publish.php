@@ -0,0 +1,123 @@
+<?php
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2011 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+    // Atomically publish a new version of a database. The uploaded file is
+    // moved to a temporary name next to the target and then, holding a lock,
+    // renamed over the target but only if the revision currently published
+    // is the one the client based its changes on. The published revision is
+    // kept in NAME.revision since the database itself is encrypted.
+    //
+    //   POST (file "userfile") expectedRevision=r revision=n [expectedHash=h]
+    //
+    // Replies OK, or REVISION_CONFLICT followed by the revision currently
+    // published if another client got there first. A database that was
+    // uploaded with upload.php has no revision file. In that case the current
+    // file itself stands in for the revision: it's only replaced if its
+    // SHA-256 hash is expectedHash, the hash of the file the client based its
+    // changes on, and the reply to a conflict is REVISION_CONFLICT -1. Once
+    // it's been replaced the revision file is written so later publishes are
+    // checked by revision.
+
+    if ($_SERVER['REQUEST_METHOD'] == 'POST') {
+
+        // Some error constants
+        define("FILE_WASNT_MOVED", "FILE_WASNT_MOVED");
+        define("FILE_WASNT_UPLOADED", "FILE_WASNT_UPLOADED");
+        define("INVALID_NAME", "INVALID_NAME");
+        define("INVALID_REVISION", "INVALID_REVISION");
+        define("INVALID_HASH", "INVALID_HASH");
+        define("REVISION_CONFLICT", "REVISION_CONFLICT");
+        define("OK", "OK");
+
+        if (!is_uploaded_file($_FILES['userfile']['tmp_name'])) {
+            die(FILE_WASNT_UPLOADED);
+        }
+
+        // Just take the filename so that someone can't put in a relative path
+        // and ensure none of the server scripts can be overwritten
+        $fileName = basename($_FILES['userfile']['name']);
+        if ($fileName == '' || substr($fileName, -4) == '.php') {
+            die(INVALID_NAME);
+        }
+
+        if (!preg_match('/^-?[0-9]+$/', $_POST['expectedRevision'])
+                || !preg_match('/^[0-9]+$/', $_POST['revision'])) {
+            die(INVALID_REVISION);
+        }
+        $expectedRevision = intval($_POST['expectedRevision']);
+        $revision = intval($_POST['revision']);
+        $expectedHash = isset($_POST['expectedHash']) ? $_POST['expectedHash'] : '';
+        if ($expectedHash != '' && !preg_match('/^[0-9a-f]{64}$/', $expectedHash)) {
+            die(INVALID_HASH);
+        }
+
+        // Move the upload next to the target so the final rename is atomic.
+        // On Windows (at least) PHP sometimes fails to move a file on the
+        // first attempt so try again rather than making the client re-send.
+        $tempName = tempnam('.', 'upm');
+        if (!move_uploaded_file($_FILES['userfile']['tmp_name'], $tempName)
+                && !move_uploaded_file($_FILES['userfile']['tmp_name'], $tempName)) {
+            @unlink($tempName);
+            die(FILE_WASNT_MOVED);
+        }
+        chmod($tempName, 0644);
+
+        $lock = fopen("./$fileName.lock", 'c');
+        flock($lock, LOCK_EX);
+
+        $revisionFile = "./$fileName.revision";
+        $conflict = false;
+        if (file_exists($revisionFile)) {
+            $currentRevision = intval(file_get_contents($revisionFile));
+            $conflict = $currentRevision != $expectedRevision;
+        } else if (file_exists("./$fileName")) {
+            // No revision yet so go by the contents of the current file
+            $currentRevision = -1;
+            $conflict = hash_file('sha256', "./$fileName") != $expectedHash;
+        }
+        if ($conflict) {
+            flock($lock, LOCK_UN);
+            fclose($lock);
+            unlink($tempName);
+            die(REVISION_CONFLICT . ' ' . $currentRevision);
+        }
+
+        // rename() won't replace an existing file on Windows
+        if (!rename($tempName, "./$fileName")) {
+            @unlink("./$fileName");
+            if (!rename($tempName, "./$fileName")) {
+                flock($lock, LOCK_UN);
+                fclose($lock);
+                unlink($tempName);
+                die(FILE_WASNT_MOVED);
+            }
+        }
+        file_put_contents($revisionFile, $revision);
+
+        flock($lock, LOCK_UN);
+        fclose($lock);
+
+        echo OK;
+
+    }
+
+?>
@@ -39,6 +39,13 @@
                 die(FILE_ALREADY_EXISTS);
             } else {
                 move_uploaded_file($_FILES['userfile']['tmp_name'], "./$uploadedFileName");
+
+                // On Windows (at least) PHP sometimes fails to move a file on
+                // the first attempt so try again here rather than making the
+                // client upload the whole file again
+                if (!file_exists('./'.$uploadedFileName)) {
+                    move_uploaded_file($_FILES['userfile']['tmp_name'], "./$uploadedFileName");
+                }
                 
                 // Check to ensure the file was uploaded
                 if (!file_exists('./'.$uploadedFileName)) {
@@ -48,6 +55,11 @@
                 // Set the correct permissions on the file
                 chmod('./'.$uploadedFileName, 0644);
 
+                // Any revision publish.php recorded was for the file this one
+                // replaces. Without it the next publish is checked against
+                // the contents of this file instead.
+                @unlink('./'.$uploadedFileName.'.revision');
+
                 // Looks like the upload was successful so return a success message
                 echo OK;
             }
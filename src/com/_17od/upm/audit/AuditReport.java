@@ -0,0 +1,161 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The results of a PasswordAuditor run, one Finding per account sorted by
+ * account name
+ */
+public class AuditReport {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private ArrayList findings;
+    private boolean breachesChecked;
+
+
+    AuditReport(ArrayList findings, boolean breachesChecked) {
+        this.findings = findings;
+        this.breachesChecked = breachesChecked;
+    }
+
+
+    public List getFindings() {
+        return findings;
+    }
+
+
+    /**
+     * @return false if there was no list of breached passwords to check
+     * against
+     */
+    public boolean isBreachesChecked() {
+        return breachesChecked;
+    }
+
+
+    public int getWeakCount() {
+        int count = 0;
+        for (int i = 0; i < findings.size(); i++) {
+            if (((Finding) findings.get(i)).isWeak()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public int getReusedCount() {
+        int count = 0;
+        for (int i = 0; i < findings.size(); i++) {
+            if (((Finding) findings.get(i)).getReuseCount() > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public int getBreachedCount() {
+        int count = 0;
+        for (int i = 0; i < findings.size(); i++) {
+            if (((Finding) findings.get(i)).getBreachCount() > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * @return The number of accounts whose password is known to have last
+     * changed more than the given number of days ago
+     */
+    public int getOlderThanCount(int days, long now) {
+        int count = 0;
+        for (int i = 0; i < findings.size(); i++) {
+            long lastChanged = ((Finding) findings.get(i)).getLastChanged();
+            if (lastChanged != 0 && now - lastChanged > days * DAY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public static class Finding {
+
+        private String accountName;
+        private PasswordStrength strength;
+        private int reuseCount;
+        private int breachCount;
+        private long lastChanged;
+
+        public Finding(String accountName, PasswordStrength strength, int reuseCount,
+                int breachCount, long lastChanged) {
+            this.accountName = accountName;
+            this.strength = strength;
+            this.reuseCount = reuseCount;
+            this.breachCount = breachCount;
+            this.lastChanged = lastChanged;
+        }
+
+        public String getAccountName() {
+            return accountName;
+        }
+
+        public PasswordStrength getStrength() {
+            return strength;
+        }
+
+        public boolean isWeak() {
+            return strength.getScore() < PasswordStrength.FAIR;
+        }
+
+        /**
+         * @return The number of other accounts with the same password
+         */
+        public int getReuseCount() {
+            return reuseCount;
+        }
+
+        /**
+         * @return The number of times the password has been seen in
+         * breaches, 0 if it hasn't or breaches weren't checked
+         */
+        public int getBreachCount() {
+            return breachCount;
+        }
+
+        /**
+         * @return When the password last changed or 0 if that isn't known
+         */
+        public long getLastChanged() {
+            return lastChanged;
+        }
+
+    }
+
+}
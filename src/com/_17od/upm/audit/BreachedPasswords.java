@@ -0,0 +1,289 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.database.AccountInformation;
+
+
+/**
+ * A local, offline list of breached passwords: the SHA-1 hashes in the
+ * "ordered by hash" text format the Pwned Passwords downloads use, one
+ * "HASH:COUNT" line per password sorted by hash (the count is optional).
+ * 
+ * Nothing is loaded up front. The file is mapped into memory and each
+ * lookup is a binary search over its bytes, so a multi-gigabyte list opens
+ * instantly and only the pages a search touches are ever read. Lookups
+ * don't change any state so any number of threads can search at once.
+ * 
+ * buildIndex() optionally keeps where each two byte prefix of the hashes
+ * starts (512KB), which takes the first 16 steps off every search and keeps
+ * the rest within a few neighbouring pages of the file.
+ */
+public class BreachedPasswords {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int HASH_LENGTH = 20;
+    private static final int HEX_LENGTH = HASH_LENGTH * 2;
+
+    private static final int INDEX_PREFIXES = 1 << 16;
+    private static final int INDEX_PREFIX_NIBBLES = 4;
+
+    /** Map the file in pieces since one mapping can't be over 2GB */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private File file;
+    private MappedByteBuffer[] segments;
+    private long size;
+    private long[] index;
+
+
+    public BreachedPasswords(File file) throws IOException {
+        this.file = file;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            // The mappings stay valid once the channel is closed
+            fis.close();
+        }
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * @return The SHA-1 of the password's UTF-8 bytes as looked up by
+     * getCount()
+     */
+    public static byte[] hash(byte[] passwordUTF8) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(passwordUTF8);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to provide SHA-1
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Find where the lines for each two byte prefix start. It's a binary
+     * search per prefix so it doesn't read the whole file.
+     */
+    public void buildIndex() {
+        long[] newIndex = new long[INDEX_PREFIXES + 1];
+        byte[] prefix = new byte[2];
+        for (int i = 0; i < INDEX_PREFIXES; i++) {
+            prefix[0] = (byte) (i >> 8);
+            prefix[1] = (byte) i;
+            newIndex[i] = lowerBound(prefix, INDEX_PREFIX_NIBBLES, i == 0 ? 0 : newIndex[i - 1], size);
+        }
+        newIndex[INDEX_PREFIXES] = size;
+        index = newIndex;
+    }
+
+
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+
+    /**
+     * @return The number of times the password with this SHA-1 hash has been
+     * seen in breaches, 1 if the file doesn't give counts or 0 if it isn't
+     * in the file
+     */
+    public int getCount(byte[] sha1) {
+        long low = 0;
+        long high = size;
+        long[] currentIndex = index;
+        if (currentIndex != null) {
+            int prefix = ((sha1[0] & 0xff) << 8) | (sha1[1] & 0xff);
+            low = currentIndex[prefix];
+            high = currentIndex[prefix + 1];
+        }
+        long line = lowerBound(sha1, HEX_LENGTH, low, high);
+        if (line < high && compare(line, sha1, HEX_LENGTH) == 0) {
+            return readCount(line + HEX_LENGTH);
+        }
+        return 0;
+    }
+
+
+    /**
+     * The given chars aren't kept or changed
+     * @see #getCount(byte[])
+     */
+    public int getCount(char[] password) {
+        ByteBuffer encoded = UTF8.encode(CharBuffer.wrap(password));
+        byte[] utf8 = new byte[encoded.remaining()];
+        encoded.get(utf8);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        int count = getCount(hash(utf8));
+        Arrays.fill(utf8, (byte) 0);
+        return count;
+    }
+
+
+    /**
+     * Check the passwords of all the accounts, looking up each distinct
+     * password once
+     * @return The names of the accounts with breached passwords mapped to
+     * the number of times their password has been seen, in name order
+     */
+    public TreeMap checkAll(Collection accounts) {
+        HashMap counts = new HashMap();
+        TreeMap breached = new TreeMap(String.CASE_INSENSITIVE_ORDER);
+        for (Iterator it = accounts.iterator(); it.hasNext();) {
+            AccountInformation account = (AccountInformation) it.next();
+            LazySecret password = account.getPasswordSecret();
+            if (password.isEmpty()) {
+                continue;
+            }
+            Integer count = (Integer) counts.get(password);
+            if (count == null) {
+                byte[] utf8 = password.toUTF8();
+                count = new Integer(getCount(hash(utf8)));
+                Arrays.fill(utf8, (byte) 0);
+                counts.put(password, count);
+            }
+            if (count.intValue() > 0) {
+                breached.put(account.getAccountName(), count);
+            }
+        }
+        return breached;
+    }
+
+
+    /**
+     * @return The first line between low and high (both at the start of
+     * lines) whose hash is the same as or after the first nibbles of the
+     * given hash, or high if there's none
+     */
+    private long lowerBound(byte[] hash, int nibbles, long low, long high) {
+        while (low < high) {
+            // low is at the start of a line so this can't go back before it
+            long line = lineStart(low + (high - low) / 2);
+            if (compare(line, hash, nibbles) < 0) {
+                low = Math.min(nextLine(line), high);
+            } else {
+                high = line;
+            }
+        }
+        return low;
+    }
+
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+
+    private long lineStart(long position) {
+        while (position > 0 && get(position - 1) != '\n') {
+            position--;
+        }
+        return position;
+    }
+
+
+    private long nextLine(long position) {
+        while (position < size && get(position) != '\n') {
+            position++;
+        }
+        return position + 1;
+    }
+
+
+    /**
+     * Compare the first nibbles of the hex hash at the start of the line with
+     * those of the given hash
+     * @return Less than 0 if the line's hash is before the given hash
+     */
+    private int compare(long line, byte[] sha1, int nibbles) {
+        for (int i = 0; i < nibbles; i++) {
+            int nibble = line + i < size ? hexValue(get(line + i)) : -1;
+            int wanted = (i % 2 == 0 ? sha1[i / 2] >> 4 : sha1[i / 2]) & 0xf;
+            if (nibble != wanted) {
+                return nibble - wanted;
+            }
+        }
+        return 0;
+    }
+
+
+    private int readCount(long position) {
+        if (position >= size || get(position) != ':') {
+            return 1;
+        }
+        long count = 0;
+        for (position++; position < size; position++) {
+            byte b = get(position);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            count = Math.min(count * 10 + (b - '0'), Integer.MAX_VALUE);
+        }
+        return (int) Math.max(count, 1);
+    }
+
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+
+
+/**
+ * Audits every password in a database for strength, reuse, appearances in
+ * a list of breached passwords and age.
+ * 
+ * Reuse is found by counting the accounts per password in a HashMap keyed
+ * on the password's LazySecret. The SessionCipher is deterministic so equal
+ * passwords have equal LazySecrets and nothing has to be decrypted or
+ * compared pairwise.
+ * 
+ * The expensive part, estimating the strength and looking up the breach
+ * list, is done once per distinct password, split across a ForkJoinPool,
+ * and the results are cached against the same LazySecrets. Auditing again
+ * only assesses the passwords that have changed since. The cache only
+ * holds passwords that were in the database at the last audit.
+ */
+public class PasswordAuditor {
+
+    /** Below this many passwords to assess it isn't worth starting threads */
+    private static final int MIN_PARALLEL_PASSWORDS = 512;
+
+    private int parallelism;
+    private BreachedPasswords breachedPasswords;
+    private ConcurrentHashMap cache = new ConcurrentHashMap();
+
+
+    public PasswordAuditor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public PasswordAuditor(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+
+    /**
+     * @param breachedPasswords The list to check passwords against or null to
+     * not check
+     */
+    public synchronized void setBreachedPasswords(BreachedPasswords breachedPasswords) {
+        this.breachedPasswords = breachedPasswords;
+        cache.clear();
+    }
+
+
+    public synchronized BreachedPasswords getBreachedPasswords() {
+        return breachedPasswords;
+    }
+
+
+    /**
+     * @return The number of distinct passwords with cached results
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+
+    public synchronized AuditReport audit(PasswordDatabase database) {
+        ArrayList accounts = database.getAccounts();
+        HashMap uses = new HashMap();
+        for (int i = 0; i < accounts.size(); i++) {
+            LazySecret password = ((AccountInformation) accounts.get(i)).getPasswordSecret();
+            int[] count = (int[]) uses.get(password);
+            if (count == null) {
+                uses.put(password, new int[] {1});
+            } else {
+                count[0]++;
+            }
+        }
+
+        cache.keySet().retainAll(uses.keySet());
+        ArrayList unassessed = new ArrayList();
+        for (Iterator it = uses.keySet().iterator(); it.hasNext();) {
+            Object password = it.next();
+            if (!cache.containsKey(password)) {
+                unassessed.add(password);
+            }
+        }
+        assess(unassessed);
+
+        AccountHistory history = database.getHistory();
+        ArrayList findings = new ArrayList(accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            AccountInformation account = (AccountInformation) accounts.get(i);
+            LazySecret password = account.getPasswordSecret();
+            Assessment assessment = (Assessment) cache.get(password);
+            int reuseCount = password.isEmpty() ? 0 : ((int[]) uses.get(password))[0] - 1;
+            findings.add(new AuditReport.Finding(account.getAccountName(), assessment.strength,
+                    reuseCount, assessment.breachCount,
+                    history.getLastChanged(account.getAccountName(), AccountHistory.PASSWORD)));
+        }
+        Collections.sort(findings, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((AuditReport.Finding) o1).getAccountName().compareToIgnoreCase(
+                        ((AuditReport.Finding) o2).getAccountName());
+            }
+        });
+        return new AuditReport(findings, breachedPasswords != null);
+    }
+
+
+    private void assess(ArrayList passwords) {
+        if (parallelism == 1 || passwords.size() < MIN_PARALLEL_PASSWORDS) {
+            new Assessor(passwords, 0, passwords.size()).call();
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int chunks = parallelism * 4;
+            ArrayList futures = new ArrayList(chunks);
+            for (int i = 0; i < chunks; i++) {
+                futures.add(pool.submit(new Assessor(passwords,
+                        (int) ((long) passwords.size() * i / chunks),
+                        (int) ((long) passwords.size() * (i + 1) / chunks))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                ((Future) futures.get(i)).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while auditing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(String.valueOf(e.getCause()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * What's cached for each distinct password
+     */
+    private static class Assessment {
+
+        private PasswordStrength strength;
+        private int breachCount;
+
+        Assessment(PasswordStrength strength, int breachCount) {
+            this.strength = strength;
+            this.breachCount = breachCount;
+        }
+
+    }
+
+
+    /**
+     * Assesses a range of the passwords putting the results in the cache
+     */
+    private class Assessor implements Callable {
+
+        private ArrayList passwords;
+        private int start;
+        private int end;
+
+        Assessor(ArrayList passwords, int start, int end) {
+            this.passwords = passwords;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Object call() {
+            for (int i = start; i < end; i++) {
+                LazySecret password = (LazySecret) passwords.get(i);
+                int breachCount = 0;
+                if (breachedPasswords != null && !password.isEmpty()) {
+                    byte[] utf8 = password.toUTF8();
+                    breachCount = breachedPasswords.getCount(BreachedPasswords.hash(utf8));
+                    Arrays.fill(utf8, (byte) 0);
+                }
+                char[] chars = password.toChars();
+                cache.put(password, new Assessment(PasswordStrength.estimate(chars), breachCount));
+                Arrays.fill(chars, '\0');
+            }
+            return null;
+        }
+
+    }
+
+}
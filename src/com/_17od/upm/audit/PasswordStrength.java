@@ -0,0 +1,376 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.util.Arrays;
+
+import com._17od.upm.util.PasswordGenerator;
+
+
+/**
+ * An estimate of how hard a password would be to guess. The password is
+ * split, left to right, into the longest patterns that start at each
+ * position (common passwords, repeated characters, runs like "abc" or
+ * "987", rows of the keyboard and years) and each pattern costs only the
+ * bits needed to guess it. Anything that isn't part of a pattern costs
+ * log2 of the size of the character classes the password uses.
+ * 
+ * It's meant to catch the obviously weak passwords, not to compete with a
+ * real cracker's rules.
+ */
+public class PasswordStrength {
+
+    public static final int VERY_WEAK = 0;
+    public static final int WEAK = 1;
+    public static final int FAIR = 2;
+    public static final int STRONG = 3;
+    public static final int VERY_STRONG = 4;
+
+    /** The bits needed to reach each score above VERY_WEAK */
+    private static final int[] SCORE_BITS = {28, 36, 60, 80};
+
+    private static final int MIN_LENGTH = 8;
+    private static final int MIN_PATTERN_LENGTH = 3;
+
+    private static final String[] KEYBOARD_ROWS = {
+        "1234567890", "qwertyuiop", "asdfghjkl", "zxcvbnm", "qwertzuiop", "azertyuiop"
+    };
+
+    /** For each character the rows it's in, as row * 16 + position in the row */
+    private static final int[][] KEYBOARD_POSITIONS = new int[128][];
+
+    static {
+        for (int c = 0; c < KEYBOARD_POSITIONS.length; c++) {
+            int count = 0;
+            int[] positions = new int[KEYBOARD_ROWS.length];
+            for (int r = 0; r < KEYBOARD_ROWS.length; r++) {
+                int position = KEYBOARD_ROWS[r].indexOf(c);
+                if (position >= 0) {
+                    positions[count++] = r * 16 + position;
+                }
+            }
+            KEYBOARD_POSITIONS[c] = Arrays.copyOf(positions, count);
+        }
+    }
+
+    /**
+     * The most used passwords from public breach analyses, most common first
+     */
+    private static final String[] COMMON_PASSWORDS = {
+        "password", "123456", "qwerty", "letmein", "dragon", "monkey", "football",
+        "baseball", "welcome", "iloveyou", "admin", "login", "master", "sunshine",
+        "princess", "shadow", "superman", "michael", "trustno1", "whatever",
+        "starwars", "passw0rd", "hello", "freedom", "charlie", "donald", "batman",
+        "access", "secret", "ninja", "mustang", "jordan", "hunter", "ranger",
+        "buster", "soccer", "hockey", "killer", "george", "harley", "thomas",
+        "andrew", "jessica", "pepper", "daniel", "computer", "michelle", "maggie",
+        "ginger", "summer", "winter", "spring", "autumn", "love", "lovely",
+        "flower", "cheese", "coffee", "cookie", "chocolate", "banana", "orange",
+        "apple", "tigger", "matrix", "yankees", "dallas", "austin", "thunder",
+        "taylor", "ashley", "bailey", "jennifer", "joshua", "robert", "matthew",
+        "nicole", "jasmine", "amanda", "samsung", "google", "internet", "default",
+        "changeme", "test", "guest", "root", "abc", "pass", "blink", "zaq1",
+        "cowboy", "merlin", "silver", "golden", "diamond", "purple", "angel",
+        "qazwsx", "family", "friends", "money", "secure", "private", "manager"
+    };
+
+    /** The indexes into COMMON_PASSWORDS of the passwords starting with each character */
+    private static final int[][] COMMON_BY_FIRST_CHAR = new int[128][];
+
+    static {
+        int[] counts = new int[COMMON_BY_FIRST_CHAR.length];
+        for (int i = 0; i < COMMON_PASSWORDS.length; i++) {
+            counts[COMMON_PASSWORDS[i].charAt(0)]++;
+        }
+        for (int c = 0; c < COMMON_BY_FIRST_CHAR.length; c++) {
+            COMMON_BY_FIRST_CHAR[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < COMMON_PASSWORDS.length; i++) {
+            char c = COMMON_PASSWORDS[i].charAt(0);
+            COMMON_BY_FIRST_CHAR[c][counts[c]++] = i;
+        }
+    }
+
+    private int bits;
+    private int score;
+    private String warning;
+
+
+    private PasswordStrength(int bits, int score, String warning) {
+        this.bits = bits;
+        this.score = score;
+        this.warning = warning;
+    }
+
+
+    /**
+     * The given chars aren't kept or changed
+     */
+    public static PasswordStrength estimate(char[] password) {
+        if (password.length == 0) {
+            return new PasswordStrength(0, VERY_WEAK, "auditEmpty");
+        }
+
+        char[] lower = new char[password.length];
+        for (int j = 0; j < password.length; j++) {
+            lower[j] = Character.toLowerCase(password[j]);
+        }
+        char[] normalised = normalise(lower);
+        double charBits = Math.log(Math.max(PasswordGenerator.poolSize(password), 2)) / Math.log(2);
+        double bits = 0;
+        String warning = null;
+        int i = 0;
+        while (i < password.length) {
+            int length = 0;
+            String pattern = null;
+            double patternBits = 0;
+            int rank = commonRank(lower, normalised, i);
+            if (rank > 0) {
+                String common = COMMON_PASSWORDS[rank - 1];
+                length = common.length();
+                pattern = "auditCommonPassword";
+                // One more bit if it's been disguised with capitals or substitutions
+                patternBits = log2(rank) + 1 + (common.equals(new String(password, i, length)) ? 0 : 1);
+            }
+
+            int repeat = repeatLength(password, i);
+            if (repeat > length) {
+                length = repeat;
+                pattern = "auditRepeat";
+                patternBits = charBits + log2(repeat);
+            }
+
+            int sequence = sequenceLength(password, i);
+            if (sequence > length) {
+                length = sequence;
+                pattern = "auditSequence";
+                patternBits = log2(26) + log2(sequence) + 1;
+            }
+
+            int keyboard = keyboardLength(lower, i);
+            if (keyboard > length) {
+                length = keyboard;
+                pattern = "auditKeyboard";
+                patternBits = log2(KEYBOARD_ROWS.length * 2) + log2(keyboard) + 4;
+            }
+
+            if (length < 4 && isYear(password, i)) {
+                length = 4;
+                pattern = "auditYear";
+                patternBits = log2(200);
+            }
+
+            if (length >= MIN_PATTERN_LENGTH) {
+                bits += Math.min(patternBits, length * charBits);
+                if (warning == null || length == password.length) {
+                    warning = pattern;
+                }
+                i += length;
+            } else {
+                bits += charBits;
+                i++;
+            }
+        }
+
+        int score = VERY_WEAK;
+        while (score < SCORE_BITS.length && bits >= SCORE_BITS[score]) {
+            score++;
+        }
+        if (password.length < MIN_LENGTH && score > WEAK) {
+            score = WEAK;
+            if (warning == null) {
+                warning = "auditShort";
+            }
+        }
+        Arrays.fill(lower, '\0');
+        Arrays.fill(normalised, '\0');
+        return new PasswordStrength((int) bits, score, warning);
+    }
+
+
+    /**
+     * @return The estimated bits of entropy
+     */
+    public int getBits() {
+        return bits;
+    }
+
+
+    /**
+     * @return VERY_WEAK to VERY_STRONG
+     */
+    public int getScore() {
+        return score;
+    }
+
+
+    /**
+     * @return The translation key of the main weakness found, or null
+     */
+    public String getWarning() {
+        return warning;
+    }
+
+
+    /**
+     * The lower case password with the usual letter substitutions undone
+     */
+    private static char[] normalise(char[] lower) {
+        char[] normalised = new char[lower.length];
+        for (int i = 0; i < lower.length; i++) {
+            char c = lower[i];
+            switch (c) {
+            case '@': case '4': c = 'a'; break;
+            case '3': c = 'e'; break;
+            case '1': case '!': c = 'i'; break;
+            case '0': c = 'o'; break;
+            case '$': case '5': c = 's'; break;
+            case '7': c = 't'; break;
+            }
+            normalised[i] = c;
+        }
+        return normalised;
+    }
+
+
+    /**
+     * Look for the longest common password starting at the given position,
+     * as typed and with substitutions undone ("123456" must be matched
+     * as typed, "p@ssw0rd" once undone)
+     * @return Its rank in COMMON_PASSWORDS starting at 1, or 0 if there's none
+     */
+    private static int commonRank(char[] lower, char[] normalised, int start) {
+        int rank = longestCommon(lower, start, 0);
+        return longestCommon(normalised, start, rank);
+    }
+
+
+    /**
+     * @return The rank of the longest common password at the position that's
+     * longer than the one with the given rank (0 for none)
+     */
+    private static int longestCommon(char[] chars, int start, int rank) {
+        if (chars[start] >= COMMON_BY_FIRST_CHAR.length) {
+            return rank;
+        }
+        int longest = rank == 0 ? 0 : COMMON_PASSWORDS[rank - 1].length();
+        int[] candidates = COMMON_BY_FIRST_CHAR[chars[start]];
+        for (int i = 0; i < candidates.length; i++) {
+            String common = COMMON_PASSWORDS[candidates[i]];
+            if (common.length() > longest && common.length() <= chars.length - start
+                    && matches(chars, start, common)) {
+                longest = common.length();
+                rank = candidates[i] + 1;
+            }
+        }
+        return rank;
+    }
+
+
+    private static boolean matches(char[] chars, int start, String common) {
+        for (int i = 1; i < common.length(); i++) {
+            if (chars[start + i] != common.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static int repeatLength(char[] password, int start) {
+        int end = start + 1;
+        while (end < password.length && password[end] == password[start]) {
+            end++;
+        }
+        return end - start;
+    }
+
+
+    /**
+     * @return The length of the run of letters or digits going up or down
+     * by one at a time, e.g. "abcd" or "4321"
+     */
+    private static int sequenceLength(char[] password, int start) {
+        if (start + 1 >= password.length || !Character.isLetterOrDigit(password[start])) {
+            return 1;
+        }
+        int step = Character.toLowerCase(password[start + 1]) - Character.toLowerCase(password[start]);
+        if (step != 1 && step != -1) {
+            return 1;
+        }
+        int end = start + 1;
+        while (end < password.length && Character.isLetterOrDigit(password[end])
+                && Character.toLowerCase(password[end]) - Character.toLowerCase(password[end - 1]) == step) {
+            end++;
+        }
+        return end - start;
+    }
+
+
+    /**
+     * @return The length of the run along a row of the keyboard in either
+     * direction
+     */
+    private static int keyboardLength(char[] lower, int start) {
+        if (lower[start] >= KEYBOARD_POSITIONS.length) {
+            return 0;
+        }
+        int longest = 0;
+        int[] positions = KEYBOARD_POSITIONS[lower[start]];
+        for (int p = 0; p < positions.length; p++) {
+            String row = KEYBOARD_ROWS[positions[p] / 16];
+            int position = positions[p] % 16;
+            for (int step = -1; step <= 1; step += 2) {
+                int length = 1;
+                while (start + length < lower.length) {
+                    int next = position + step * length;
+                    if (next < 0 || next >= row.length() || row.charAt(next) != lower[start + length]) {
+                        break;
+                    }
+                    length++;
+                }
+                longest = Math.max(longest, length);
+            }
+        }
+        return longest;
+    }
+
+
+    private static boolean isYear(char[] password, int start) {
+        if (start + 4 > password.length) {
+            return false;
+        }
+        for (int i = start; i < start + 4; i++) {
+            if (password[i] < '0' || password[i] > '9') {
+                return false;
+            }
+        }
+        return (password[start] == '1' && password[start + 1] == '9')
+                || (password[start] == '2' && password[start + 1] == '0');
+    }
+
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+
+/**
+ * A command couldn't be carried out. The message is meant for the user and
+ * the exit status is what the upm-cli process should exit with.
+ */
+public class CommandLineException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private int exitStatus;
+
+
+    public CommandLineException(String message) {
+        this(message, UPMCommandLine.EXIT_ERROR);
+    }
+
+
+    public CommandLineException(String message, int exitStatus) {
+        super(message);
+        this.exitStatus = exitStatus;
+    }
+
+
+    public CommandLineException(String message, Throwable cause) {
+        super(message, cause);
+        this.exitStatus = UPMCommandLine.EXIT_ERROR;
+    }
+
+
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+
+/**
+ * Builds the compact JSON documents upm-cli prints. Commas are put in
+ * automatically so callers just call the methods in document order.
+ */
+class JsonWriter {
+
+    private StringBuffer out = new StringBuffer();
+    private boolean needComma;
+
+
+    public JsonWriter beginObject() {
+        separate();
+        out.append('{');
+        return this;
+    }
+
+
+    public JsonWriter endObject() {
+        out.append('}');
+        needComma = true;
+        return this;
+    }
+
+
+    public JsonWriter beginArray() {
+        separate();
+        out.append('[');
+        return this;
+    }
+
+
+    public JsonWriter endArray() {
+        out.append(']');
+        needComma = true;
+        return this;
+    }
+
+
+    public JsonWriter name(String name) {
+        separate();
+        quote(name);
+        out.append(':');
+        return this;
+    }
+
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            out.append("null");
+        } else {
+            quote(value);
+        }
+        needComma = true;
+        return this;
+    }
+
+
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        needComma = true;
+        return this;
+    }
+
+
+    public String toString() {
+        return out.toString();
+    }
+
+
+    private void separate() {
+        if (needComma) {
+            out.append(',');
+            needComma = false;
+        }
+    }
+
+
+    private void quote(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    String hex = Integer.toHexString(c);
+                    out.append("\\u0000".substring(0, 6 - hex.length()));
+                    out.append(hex);
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Opens the channels the upm-cli daemon and its clients talk over. A Unix
+ * domain socket is used where the JVM supports one (Java 16 and later) since
+ * it's only reachable through the file system, which the user's file
+ * permissions protect. Otherwise a loopback TCP port is used.
+ * 
+ * UPM is built for Java 8 so the Unix domain socket classes are reached by
+ * reflection.
+ */
+class LocalSockets {
+
+    private static final Method UNIX_ADDRESS_OF;
+    private static final Method SERVER_OPEN;
+    private static final ProtocolFamily UNIX;
+
+    static {
+        Method addressOf = null;
+        Method serverOpen = null;
+        ProtocolFamily unix = null;
+        try {
+            Class addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            addressOf = addressClass.getMethod("of", new Class[] {String.class});
+            serverOpen = ServerSocketChannel.class.getMethod("open", new Class[] {ProtocolFamily.class});
+            unix = (ProtocolFamily) Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+        } catch (ClassNotFoundException e) {
+            addressOf = null;
+        } catch (NoSuchMethodException e) {
+            addressOf = null;
+        } catch (IllegalArgumentException e) {
+            addressOf = null;
+        }
+        UNIX_ADDRESS_OF = addressOf;
+        SERVER_OPEN = addressOf == null ? null : serverOpen;
+        UNIX = addressOf == null ? null : unix;
+    }
+
+
+    public static boolean isUnixDomainSupported() {
+        return UNIX_ADDRESS_OF != null;
+    }
+
+
+    /**
+     * Listen on a Unix domain socket at the given path, replacing any socket
+     * left there by a daemon that was killed
+     * @return The bound channel or null if Unix domain sockets aren't
+     * available or the socket couldn't be created (e.g. the path is too long)
+     */
+    public static ServerSocketChannel bindUnix(File socketFile) {
+        if (!isUnixDomainSupported()) {
+            return null;
+        }
+        ServerSocketChannel channel = null;
+        try {
+            socketFile.delete();
+            channel = (ServerSocketChannel) SERVER_OPEN.invoke(null, new Object[] {UNIX});
+            channel.bind(unixAddress(socketFile));
+            return channel;
+        } catch (IOException e) {
+            close(channel);
+        } catch (IllegalAccessException e) {
+            close(channel);
+        } catch (InvocationTargetException e) {
+            close(channel);
+        }
+        return null;
+    }
+
+
+    /**
+     * Listen on a random loopback port
+     */
+    public static ServerSocketChannel bindLoopback() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+
+    public static SocketChannel connectUnix(File socketFile) throws IOException {
+        if (!isUnixDomainSupported()) {
+            throw new IOException("Unix domain sockets aren't supported by this JVM");
+        }
+        return SocketChannel.open(unixAddress(socketFile));
+    }
+
+
+    public static SocketChannel connectLoopback(int port) throws IOException {
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+
+    private static SocketAddress unixAddress(File socketFile) throws IOException {
+        try {
+            return (SocketAddress) UNIX_ADDRESS_OF.invoke(null, new Object[] {socketFile.getPath()});
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.toString());
+        } catch (InvocationTargetException e) {
+            // e.g. InvalidPathException for a path that can't be a socket
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+
+    private static void close(ServerSocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // It was never usable
+            }
+        }
+    }
+
+}
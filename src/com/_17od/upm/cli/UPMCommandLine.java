@@ -0,0 +1,268 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.Console;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+import com._17od.upm.util.Preferences;
+
+
+/**
+ * The headless entry point to UPM, for scripts that need to read or add
+ * accounts without the GUI. Nothing here touches AWT or Swing so it starts
+ * quickly and works without a display.
+ * 
+ * If a daemon started with "upm-cli daemon" has the database open the
+ * command is sent to it, otherwise the database is unlocked just for this
+ * command. See USAGE for the commands.
+ */
+public class UPMCommandLine {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final int DEFAULT_IDLE_MINUTES = 15;
+
+    private static final String USAGE =
+        "Usage: upm-cli [--db FILE | --snapshot] COMMAND [ARGUMENTS]\n" +
+        "\n" +
+        "  search [TEXT]            List the accounts whose name or URL contains TEXT\n" +
+        "  get ACCOUNT [FIELD]      Show an account or one of its fields\n" +
+        "                           (userid, password, url or notes)\n" +
+        "  add ACCOUNT [--userid U] [--password P | --generate LENGTH] [--url U] [--notes N]\n" +
+        "                           Add an account\n" +
+        "  import FILE [--on-conflict overwrite|keep|rename]\n" +
+        "                           Import accounts, the format is picked from the extension\n" +
+        "  export FILE              Export the accounts, the format is picked from the extension\n" +
+        "  daemon [--idle-minutes N]\n" +
+        "                           Keep the database unlocked for the following commands,\n" +
+        "                           locking it after N idle minutes\n" +
+        "  stop                     Stop the daemon\n" +
+        "\n" +
+        "--db defaults to the database UPM opens on startup. --snapshot reads the copy\n" +
+        "of the database UPM keeps locally. The master password is read from the\n" +
+        "console or, without one, the first line of standard input. Results are\n" +
+        "written to standard output as JSON.";
+
+
+    public static void main(String[] args) {
+        // Nothing needs a display and keeping AWT out of it keeps startup quick
+        System.setProperty("java.awt.headless", "true");
+        if (System.getProperty("org.apache.commons.logging.Log") == null) {
+            // Keep informational logging off stderr, scripts read it for errors
+            // Naming the implementations also skips commons-logging's classpath search
+            System.setProperty("org.apache.commons.logging.LogFactory", "org.apache.commons.logging.impl.LogFactoryImpl");
+            System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+            System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "warn");
+        }
+        System.exit(new UPMCommandLine().run(args, System.in, System.out, System.err));
+    }
+
+
+    /**
+     * @return The exit status
+     */
+    public int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        try {
+            Preferences.load();
+            File configDirectory = Preferences.getConfigDirectory();
+
+            File databaseFile = null;
+            boolean snapshot = false;
+            int i = 0;
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                if (args[i].equals("--db") && i + 1 < args.length) {
+                    databaseFile = new File(args[++i]);
+                } else if (args[i].equals("--snapshot")) {
+                    snapshot = true;
+                } else if (args[i].equals("--help")) {
+                    out.println(USAGE);
+                    return EXIT_OK;
+                } else {
+                    throw new CommandLineException("Unknown option " + args[i], EXIT_USAGE);
+                }
+            }
+            if (i == args.length) {
+                throw new CommandLineException("No command given", EXIT_USAGE);
+            }
+            if (snapshot && databaseFile != null) {
+                throw new CommandLineException("Use either --db or --snapshot, not both", EXIT_USAGE);
+            }
+            String[] command = Arrays.copyOfRange(args, i, args.length);
+            if ((command[0].equals("import") || command[0].equals("export")) && command.length > 1) {
+                // The daemon may have been started from another directory
+                command[1] = new File(command[1]).getAbsolutePath();
+            }
+
+            String database = null;
+            if (snapshot) {
+                database = VaultDaemon.SNAPSHOT;
+            } else if (databaseFile != null) {
+                database = databaseFile.getCanonicalPath();
+            }
+
+            if (command[0].equals("daemon")) {
+                int idleMinutes = getDefaultIdleMinutes();
+                if (command.length == 3 && command[1].equals("--idle-minutes")) {
+                    idleMinutes = parseMinutes(command[2]);
+                } else if (command.length != 1) {
+                    throw new CommandLineException("Usage: daemon [--idle-minutes N]", EXIT_USAGE);
+                }
+                if (database == null) {
+                    databaseFile = getDefaultDatabase();
+                    database = databaseFile.getCanonicalPath();
+                }
+                VaultCommands commands = open(snapshot, databaseFile, configDirectory, in);
+                new VaultDaemon(commands, database, configDirectory).serve(idleMinutes, out);
+                return EXIT_OK;
+            }
+
+            VaultDaemon.Client client = VaultDaemon.Client.connect(configDirectory, database);
+            if (client != null) {
+                VaultDaemon.Reply reply;
+                try {
+                    reply = command[0].equals(VaultDaemon.STOP) ? client.stop() : client.execute(command);
+                } finally {
+                    client.close();
+                }
+                if (reply.getStatus() != EXIT_OK) {
+                    throw new CommandLineException(reply.getText(), reply.getStatus());
+                }
+                out.println(reply.getText());
+                return EXIT_OK;
+            }
+            if (command[0].equals(VaultDaemon.STOP)) {
+                throw new CommandLineException("There's no upm-cli daemon running");
+            }
+
+            if (!snapshot && databaseFile == null) {
+                databaseFile = getDefaultDatabase();
+            }
+            out.println(open(snapshot, databaseFile, configDirectory, in).execute(command));
+            return EXIT_OK;
+        } catch (CommandLineException e) {
+            err.println("upm-cli: " + e.getMessage());
+            if (e.getExitStatus() == EXIT_USAGE) {
+                err.println();
+                err.println(USAGE);
+            }
+            return e.getExitStatus();
+        } catch (IOException e) {
+            err.println("upm-cli: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+
+    private static VaultCommands open(boolean snapshot, File databaseFile, File configDirectory,
+            InputStream in) throws CommandLineException, IOException {
+        if (snapshot) {
+            return VaultCommands.openSnapshot(configDirectory);
+        }
+        char[] password = readPassword(in);
+        try {
+            return VaultCommands.open(databaseFile, password);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+
+    /**
+     * The daemon locks after the same time as the GUI if the GUI's set to
+     * lock itself
+     */
+    private static int getDefaultIdleMinutes() {
+        if (Preferences.get(Preferences.ApplicationOptions.DATABASE_AUTO_LOCK, "false").equals("true")) {
+            int minutes = Preferences.getInt(Preferences.ApplicationOptions.DATABASE_AUTO_LOCK_TIME, 5);
+            if (minutes > 0) {
+                return minutes;
+            }
+        }
+        return DEFAULT_IDLE_MINUTES;
+    }
+
+
+    private static File getDefaultDatabase() throws CommandLineException {
+        String path = Preferences.get(Preferences.ApplicationOptions.DB_TO_LOAD_ON_STARTUP);
+        if (path == null || path.trim().equals("")) {
+            throw new CommandLineException("No database given. Use --db FILE or --snapshot.", EXIT_USAGE);
+        }
+        return new File(path);
+    }
+
+
+    /**
+     * Read the master password from the console or, if there isn't one
+     * (because the input has been redirected), the first line of the input.
+     */
+    private static char[] readPassword(InputStream in) throws IOException, CommandLineException {
+        Console console = System.console();
+        if (console != null && in == System.in) {
+            char[] password = console.readPassword("Master password: ");
+            if (password == null) {
+                throw new CommandLineException("No password given");
+            }
+            return password;
+        }
+
+        Reader reader = new InputStreamReader(in);
+        char[] buffer = new char[64];
+        int length = 0;
+        int c;
+        while ((c = reader.read()) != -1 && c != '\n') {
+            if (length == buffer.length) {
+                char[] bigger = Arrays.copyOf(buffer, buffer.length * 2);
+                Arrays.fill(buffer, '\0');
+                buffer = bigger;
+            }
+            buffer[length++] = (char) c;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        char[] password = Arrays.copyOf(buffer, length);
+        Arrays.fill(buffer, '\0');
+        return password;
+    }
+
+
+    private static int parseMinutes(String value) throws CommandLineException {
+        try {
+            int minutes = Integer.parseInt(value);
+            if (minutes > 0) {
+                return minutes;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new CommandLineException("--idle-minutes needs a positive number", EXIT_USAGE);
+    }
+
+}
@@ -0,0 +1,457 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com._17od.upm.crypto.CryptoException;
+import com._17od.upm.crypto.InvalidPasswordException;
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.AccountImportPipeline;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.DatabaseSnapshotCache;
+import com._17od.upm.database.ExportException;
+import com._17od.upm.database.ImportException;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.database.PasswordDatabasePersistence;
+import com._17od.upm.database.ProblemReadingDatabaseFile;
+import com._17od.upm.database.formats.AccountExporter;
+import com._17od.upm.database.formats.AccountFormats;
+import com._17od.upm.database.formats.AccountImporter;
+import com._17od.upm.util.PasswordGenerator;
+import com._17od.upm.util.Preferences;
+
+
+/**
+ * The commands upm-cli runs against an unlocked database. The same instance
+ * serves every command sent to the daemon so the database is only decrypted
+ * once; if the file changes underneath it (e.g. it's saved by the GUI) it's
+ * loaded again before the next command.
+ * 
+ * Commands can be run from several threads at once. Those that only read
+ * the database run side by side while add and import (and reloading the
+ * file) have it to themselves.
+ * 
+ * Each command returns its result as a JSON document.
+ */
+class VaultCommands {
+
+    public static final String USER_ID = "userid";
+    public static final String PASSWORD = "password";
+    public static final String URL = "url";
+    public static final String NOTES = "notes";
+
+    /** The fields of an account in the order lookup() numbers them */
+    public static final String[] FIELDS = {USER_ID, PASSWORD, URL, NOTES};
+
+    private static final Comparator BY_NAME = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            return String.CASE_INSENSITIVE_ORDER.compare(
+                    ((AccountInformation) o1).getAccountName(),
+                    ((AccountInformation) o2).getAccountName());
+        }
+    };
+
+    private PasswordDatabasePersistence persistence;
+    private PasswordDatabase database;
+    private File databaseFile;
+    private volatile long loadedModified;
+    private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    private VaultCommands(PasswordDatabasePersistence persistence, PasswordDatabase database, File databaseFile) {
+        this.persistence = persistence;
+        this.database = database;
+        this.databaseFile = databaseFile;
+        if (databaseFile != null) {
+            loadedModified = databaseFile.lastModified();
+        }
+    }
+
+
+    /**
+     * Unlock the database in the given file
+     */
+    public static VaultCommands open(File databaseFile, char[] password) throws CommandLineException {
+        if (!databaseFile.exists()) {
+            throw new CommandLineException("The database " + databaseFile + " doesn't exist");
+        }
+        PasswordDatabasePersistence persistence = new PasswordDatabasePersistence();
+        try {
+            PasswordDatabase database = persistence.load(databaseFile, password);
+            return new VaultCommands(persistence, database, databaseFile);
+        } catch (InvalidPasswordException e) {
+            throw new CommandLineException("Incorrect password");
+        } catch (ProblemReadingDatabaseFile e) {
+            throw new CommandLineException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new CommandLineException("Couldn't read " + databaseFile + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Open the snapshot of the database the GUI keeps in the given
+     * directory. The snapshot is read only since it's replaced whenever the
+     * GUI next talks to the backend.
+     */
+    public static VaultCommands openSnapshot(File configDirectory) throws CommandLineException {
+        PasswordDatabase database = DatabaseSnapshotCache.inDirectory(configDirectory).load();
+        if (database == null) {
+            throw new CommandLineException("There's no snapshot of the database in " + configDirectory);
+        }
+        return new VaultCommands(null, database, null);
+    }
+
+
+    /**
+     * @param args The command followed by its arguments
+     * @return The command's result as JSON
+     */
+    public String execute(String[] args) throws CommandLineException {
+        if (args.length == 0) {
+            throw new CommandLineException("No command given", UPMCommandLine.EXIT_USAGE);
+        }
+        reloadIfChanged();
+
+        String command = args[0];
+        boolean changesDatabase = command.equals("add") || command.equals("import");
+        Lock commandLock = changesDatabase ? lock.writeLock() : lock.readLock();
+        commandLock.lock();
+        try {
+            if (command.equals("search")) {
+                return search(args.length > 1 ? args[1] : "");
+            } else if (command.equals("get")) {
+                checkArguments(args, 2, 3);
+                return get(args[1], args.length > 2 ? args[2] : null);
+            } else if (command.equals("add")) {
+                return add(args);
+            } else if (command.equals("import")) {
+                return importAccounts(args);
+            } else if (command.equals("export")) {
+                checkArguments(args, 2, 2);
+                return exportAccounts(new File(args[1]));
+            }
+        } finally {
+            commandLock.unlock();
+        }
+        throw new CommandLineException("Unknown command " + command, UPMCommandLine.EXIT_USAGE);
+    }
+
+
+    /**
+     * Look up a single field of an account. This is what programs that just
+     * need a credential use so it skips building any JSON.
+     * @param field The index of the field in FIELDS
+     * @return The value of the field
+     */
+    public String lookup(String accountName, int field) throws CommandLineException {
+        if (field < 0 || field >= FIELDS.length) {
+            throw new CommandLineException("Unknown field " + field, UPMCommandLine.EXIT_USAGE);
+        }
+        reloadIfChanged();
+        lock.readLock().lock();
+        try {
+            return getField(getAccount(accountName), FIELDS[field]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The index of the named field in FIELDS
+     */
+    public static int fieldIndex(String field) {
+        return Arrays.asList(FIELDS).indexOf(field);
+    }
+
+
+    private String search(String text) {
+        String lowerText = text.toLowerCase();
+        ArrayList matches = new ArrayList();
+        Iterator it = database.getAccountsHash().values().iterator();
+        while (it.hasNext()) {
+            AccountInformation account = (AccountInformation) it.next();
+            if (account.getAccountName().toLowerCase().indexOf(lowerText) != -1
+                    || (account.getUrl() != null && account.getUrl().toLowerCase().indexOf(lowerText) != -1)) {
+                matches.add(account);
+            }
+        }
+        Collections.sort(matches, BY_NAME);
+
+        JsonWriter json = new JsonWriter().beginArray();
+        for (int i = 0; i < matches.size(); i++) {
+            AccountInformation account = (AccountInformation) matches.get(i);
+            json.beginObject().name("name").value(account.getAccountName())
+                    .name(URL).value(account.getUrl()).endObject();
+        }
+        return json.endArray().toString();
+    }
+
+
+    private String get(String accountName, String field) throws CommandLineException {
+        AccountInformation account = getAccount(accountName);
+        String[] fields = FIELDS;
+        if (field != null) {
+            if (fieldIndex(field) == -1) {
+                throw new CommandLineException("Unknown field " + field + ", it should be one of "
+                        + USER_ID + ", " + PASSWORD + ", " + URL + " or " + NOTES, UPMCommandLine.EXIT_USAGE);
+            }
+            fields = new String[] {field};
+        }
+
+        JsonWriter json = new JsonWriter().beginObject().name("name").value(account.getAccountName());
+        for (int i = 0; i < fields.length; i++) {
+            json.name(fields[i]).value(getField(account, fields[i]));
+        }
+        return json.endObject().toString();
+    }
+
+
+    private String add(String[] args) throws CommandLineException {
+        if (args.length < 2 || args[1].startsWith("--")) {
+            throw new CommandLineException("No account name given", UPMCommandLine.EXIT_USAGE);
+        }
+        checkWritable();
+        String accountName = args[1].trim();
+        if (database.getAccount(accountName) != null) {
+            throw new CommandLineException("There's already an account called " + accountName);
+        }
+
+        String userId = "";
+        String password = null;
+        String url = "";
+        String notes = "";
+        int generateLength = 0;
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new CommandLineException("No value given for " + args[i], UPMCommandLine.EXIT_USAGE);
+            }
+            String value = args[i + 1];
+            if (args[i].equals("--" + USER_ID)) {
+                userId = value;
+            } else if (args[i].equals("--" + PASSWORD)) {
+                password = value;
+            } else if (args[i].equals("--" + URL)) {
+                url = value;
+            } else if (args[i].equals("--" + NOTES)) {
+                notes = value;
+            } else if (args[i].equals("--generate")) {
+                generateLength = parseInt(args[i], value);
+            } else {
+                throw new CommandLineException("Unknown option " + args[i], UPMCommandLine.EXIT_USAGE);
+            }
+        }
+        if (password != null && generateLength > 0) {
+            throw new CommandLineException("Use either --password or --generate, not both", UPMCommandLine.EXIT_USAGE);
+        }
+
+        AccountInformation account = new AccountInformation(accountName, userId, "", url, notes);
+        String generated = null;
+        if (generateLength > 0) {
+            boolean punctuation = Boolean.valueOf(
+                    Preferences.get(Preferences.ApplicationOptions.INCLUDE_ESCAPE_CHARACTERS, "true")).booleanValue();
+            char[] chars = new PasswordGenerator(generateLength, punctuation).generate();
+            account.setPassword(chars);
+            generated = new String(chars);
+            Arrays.fill(chars, '\0');
+        } else if (password != null) {
+            account.setPassword(password);
+        }
+        database.addAccount(account);
+        save();
+
+        JsonWriter json = new JsonWriter().beginObject().name("added").value(accountName);
+        if (generated != null) {
+            json.name(PASSWORD).value(generated);
+        }
+        return json.endObject().toString();
+    }
+
+
+    private String importAccounts(String[] args) throws CommandLineException {
+        if (args.length != 2 && args.length != 4) {
+            throw new CommandLineException("Usage: import FILE [--on-conflict overwrite|keep|rename]",
+                    UPMCommandLine.EXIT_USAGE);
+        }
+        String policy = null;
+        if (args.length == 4) {
+            policy = args[3];
+            if (!args[2].equals("--on-conflict") || !(policy.equals(AccountImportPipeline.OVERWRITE)
+                    || policy.equals(AccountImportPipeline.KEEP) || policy.equals(AccountImportPipeline.RENAME))) {
+                throw new CommandLineException("Usage: import FILE [--on-conflict overwrite|keep|rename]",
+                        UPMCommandLine.EXIT_USAGE);
+            }
+        }
+        checkWritable();
+
+        File file = new File(args[1]);
+        AccountImporter importer = AccountFormats.findImporter(file);
+        if (importer == null) {
+            throw new CommandLineException("Don't know how to import " + file.getName());
+        }
+        AccountImportPipeline pipeline = new AccountImportPipeline(database, importer);
+        AccountImportPipeline.Result result;
+        try {
+            // Scanning first means a bad file is caught before anything's changed
+            AccountImportPipeline.Summary summary = pipeline.scan(file);
+            if (summary.getConflicts() > 0 && policy == null) {
+                throw new CommandLineException(summary.getConflicts()
+                        + " of the accounts already exist (e.g. " + summary.getConflictNames().get(0)
+                        + "). Use --on-conflict to say what to do with them.");
+            }
+            result = pipeline.importAccounts(file, policy);
+        } catch (ImportException e) {
+            throw new CommandLineException("Couldn't import " + file + ": " + e.getMessage(), e);
+        }
+        save();
+
+        return new JsonWriter().beginObject()
+                .name("imported").value(result.getImported())
+                .name("overwritten").value(result.getOverwritten())
+                .name("kept").value(result.getKept())
+                .name("renamed").value(result.getRenamed())
+                .endObject().toString();
+    }
+
+
+    private String exportAccounts(File file) throws CommandLineException {
+        AccountExporter exporter = AccountFormats.findExporter(file);
+        if (exporter == null) {
+            throw new CommandLineException("Don't know how to export to " + file.getName());
+        }
+        ArrayList accounts = database.getAccounts();
+        Collections.sort(accounts, BY_NAME);
+        try {
+            exporter.exportAccounts(accounts.iterator(), file);
+        } catch (ExportException e) {
+            throw new CommandLineException("Couldn't export to " + file + ": " + e.getMessage(), e);
+        }
+        return new JsonWriter().beginObject()
+                .name("exported").value(accounts.size())
+                .name("file").value(file.getPath())
+                .endObject().toString();
+    }
+
+
+    private AccountInformation getAccount(String accountName) throws CommandLineException {
+        AccountInformation account = database.getAccount(accountName);
+        if (account == null) {
+            throw new CommandLineException("There's no account called " + accountName);
+        }
+        return account;
+    }
+
+
+    private static String getField(AccountInformation account, String field) {
+        if (field.equals(USER_ID)) {
+            return account.getUserId();
+        } else if (field.equals(PASSWORD)) {
+            return account.getPassword();
+        } else if (field.equals(URL)) {
+            return account.getUrl();
+        }
+        return account.getNotes();
+    }
+
+
+    private void checkWritable() throws CommandLineException {
+        if (databaseFile == null) {
+            throw new CommandLineException("The snapshot is read only");
+        }
+        String remoteLocation = database.getDbOptions().getRemoteLocation();
+        if (remoteLocation != null && !remoteLocation.equals("")) {
+            // Changing the local file behind the GUI's back would leave it out
+            // of step with the remote copy it's synchronised with
+            throw new CommandLineException("This database is synchronised with " + remoteLocation
+                    + ". Use UPM to change it.");
+        }
+    }
+
+
+    private void save() throws CommandLineException {
+        persistence.setHistoryRetention(
+                Preferences.getInt(Preferences.ApplicationOptions.HISTORY_MAX_VERSIONS,
+                        AccountHistory.DEFAULT_MAX_VERSIONS),
+                Preferences.getInt(Preferences.ApplicationOptions.HISTORY_MAX_AGE_DAYS, 0));
+        try {
+            persistence.save(database, databaseFile);
+        } catch (IOException e) {
+            throw new CommandLineException("Couldn't save " + databaseFile + ": " + e.getMessage(), e);
+        } catch (CryptoException e) {
+            throw new CommandLineException("Couldn't save " + databaseFile + ": " + e.getMessage(), e);
+        }
+        loadedModified = databaseFile.lastModified();
+    }
+
+
+    private void reloadIfChanged() throws CommandLineException {
+        if (databaseFile == null || databaseFile.lastModified() == loadedModified) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (databaseFile.lastModified() != loadedModified) {
+                database = persistence.load(databaseFile);
+                loadedModified = databaseFile.lastModified();
+            }
+        } catch (InvalidPasswordException e) {
+            throw new CommandLineException("The database's password has changed. Restart the daemon.");
+        } catch (ProblemReadingDatabaseFile e) {
+            throw new CommandLineException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new CommandLineException("Couldn't read " + databaseFile + ": " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    private static void checkArguments(String[] args, int min, int max) throws CommandLineException {
+        if (args.length < min || args.length > max) {
+            throw new CommandLineException("Wrong number of arguments for " + args[0], UPMCommandLine.EXIT_USAGE);
+        }
+    }
+
+
+    private static int parseInt(String option, String value) throws CommandLineException {
+        try {
+            int i = Integer.parseInt(value);
+            if (i > 0) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new CommandLineException(option + " needs a positive number", UPMCommandLine.EXIT_USAGE);
+    }
+
+}
@@ -0,0 +1,499 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com._17od.upm.util.IOExecutor;
+import com._17od.upm.util.Util;
+
+
+/**
+ * Keeps a database unlocked so that repeated upm-cli commands, and other
+ * programs that need credentials, don't each pay for starting up, reading
+ * the file and deriving the key.
+ * 
+ * The daemon listens on a Unix domain socket in the user's config
+ * directory or, where the JVM can't do that, a loopback port (see
+ * LocalSockets). Where it's listening and a random token are written to a
+ * file in the same directory that only the user can read. Each connection
+ * is served on its own thread and can carry any number of requests.
+ * Lookups run side by side; commands that change the database wait for the
+ * others to finish (see VaultCommands).
+ * 
+ * The daemon locks itself, i.e. exits taking the decrypted database with
+ * it, once no request has been made for the idle time or when it's sent
+ * "stop". Holding a connection open doesn't keep it unlocked: a connection
+ * that hasn't made a request for the idle time is closed.
+ * 
+ * The protocol is binary and written with DataOutputStream. A connection
+ * starts with MAGIC, PROTOCOL_VERSION (a byte) and the token. Each request
+ * is an op code byte followed by
+ * <ul>
+ * <li>OP_COMMAND: the number of arguments (a short) and the arguments, run
+ * as a upm-cli command whose reply is JSON</li>
+ * <li>OP_LOOKUP: an account name and the index of a field in
+ * VaultCommands.FIELDS (a byte), whose reply is the field's value</li>
+ * <li>OP_STOP: nothing</li>
+ * </ul>
+ * The reply is the exit status (a byte) followed by the length (an int)
+ * and UTF-8 bytes of the result or, if the status isn't EXIT_OK, the error
+ * message.
+ */
+class VaultDaemon {
+
+    public static final String STOP = "stop";
+
+    /** What a daemon serving the GUI's snapshot is recorded as serving */
+    public static final String SNAPSHOT = "snapshot";
+
+    public static final int MAGIC = 0x55504d41;
+    public static final int PROTOCOL_VERSION = 1;
+    public static final int OP_COMMAND = 1;
+    public static final int OP_LOOKUP = 2;
+    public static final int OP_STOP = 3;
+
+    private static final String INFO_FILE = "upm-cli-daemon.properties";
+    private static final String SOCKET_FILE = "upm-cli-daemon.sock";
+    private static final String DATABASE = "database";
+    private static final String SOCKET = "socket";
+    private static final String PORT = "port";
+    private static final String TOKEN = "token";
+
+    private static final int TOKEN_LENGTH = 32;
+    private static final int MAX_ARGUMENTS = 1024;
+    private static final int MAX_REPLY_LENGTH = 64 * 1024 * 1024;
+    private static final int MAX_POOLED_CONNECTIONS = 64;
+
+    private VaultCommands commands;
+    private String database;
+    private File infoFile;
+    private File socketFile;
+
+    private String token;
+    private Selector selector;
+    private volatile boolean stopped;
+    private volatile long lastActivity;
+    private Set connections = Collections.synchronizedSet(new HashSet());
+
+
+    /**
+     * @param database The canonical path of the database file or SNAPSHOT
+     */
+    public VaultDaemon(VaultCommands commands, String database, File configDirectory) {
+        this.commands = commands;
+        this.database = database;
+        this.infoFile = new File(configDirectory, INFO_FILE);
+        this.socketFile = new File(configDirectory, SOCKET_FILE);
+    }
+
+
+    /**
+     * Answer requests until stopped or idle for idleMinutes
+     * @param out Where to report that the daemon is ready
+     */
+    public void serve(int idleMinutes, PrintStream out) throws IOException {
+        serve(idleMinutes * 60L * 1000L, out);
+    }
+
+
+    void serve(long idleMillis, PrintStream out) throws IOException {
+        socketFile.getParentFile().mkdirs();
+        ServerSocketChannel server = LocalSockets.bindUnix(socketFile);
+        boolean unix = server != null;
+        if (!unix) {
+            server = LocalSockets.bindLoopback();
+        }
+        ExecutorService executor = null;
+        try {
+            if (unix) {
+                Util.restrictToOwner(socketFile);
+            }
+            byte[] tokenBytes = new byte[TOKEN_LENGTH];
+            new SecureRandom().nextBytes(tokenBytes);
+            token = new String(Hex.encodeHex(tokenBytes));
+            JsonWriter started = new JsonWriter().beginObject().name("daemon").value("started");
+            if (unix) {
+                writeInfo(SOCKET, socketFile.getPath());
+                started.name(SOCKET).value(socketFile.getPath());
+            } else {
+                int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+                writeInfo(PORT, String.valueOf(port));
+                started.name(PORT).value(port);
+            }
+            out.println(started.name("idleMinutes").value(idleMillis / (60L * 1000L)).endObject());
+            out.flush();
+
+            // Connections are mostly waiting on their clients so they're given
+            // virtual threads where the JVM has them
+            executor = IOExecutor.newThreadPerTaskExecutor("upm-cli connection", MAX_POOLED_CONNECTIONS);
+            selector = Selector.open();
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            lastActivity = System.currentTimeMillis();
+            while (!stopped) {
+                long now = System.currentTimeMillis();
+                long nextIdleConnection = closeIdleConnections(idleMillis, now);
+                long wait = lastActivity + idleMillis - now;
+                if (wait <= 0) {
+                    break;
+                }
+                selector.select(Math.max(1, Math.min(wait, nextIdleConnection - now)));
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while (!stopped && (channel = server.accept()) != null) {
+                    channel.configureBlocking(true);
+                    Connection connection = new Connection(channel);
+                    connections.add(connection);
+                    executor.execute(connection);
+                }
+            }
+        } finally {
+            stopped = true;
+            server.close();
+            if (selector != null) {
+                selector.close();
+            }
+            if (executor != null) {
+                // Interrupting a thread blocked reading a channel closes it
+                executor.shutdownNow();
+            }
+            infoFile.delete();
+            if (unix) {
+                socketFile.delete();
+            }
+        }
+    }
+
+
+    private void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+
+    /**
+     * Close the connections that haven't made a request for idleMillis
+     * @return When the next of the remaining connections will have been
+     * idle that long, Long.MAX_VALUE if there aren't any
+     */
+    private long closeIdleConnections(long idleMillis, long now) {
+        long next = Long.MAX_VALUE;
+        synchronized (connections) {
+            Iterator it = connections.iterator();
+            while (it.hasNext()) {
+                Connection connection = (Connection) it.next();
+                long idleAt = connection.lastRequest + idleMillis;
+                if (idleAt <= now) {
+                    // Its thread sees the channel closed and cleans up
+                    connection.close();
+                    it.remove();
+                } else {
+                    next = Math.min(next, idleAt);
+                }
+            }
+        }
+        return next;
+    }
+
+
+    private void writeInfo(String key, String value) throws IOException {
+        Properties info = new Properties();
+        info.setProperty(DATABASE, database);
+        info.setProperty(key, value);
+        info.setProperty(TOKEN, token);
+
+        infoFile.delete();
+        OutputStream os = new FileOutputStream(infoFile);
+        try {
+            // Restrict the file before the token goes into it
+            Util.restrictToOwner(infoFile);
+            info.store(os, "upm-cli daemon");
+        } finally {
+            os.close();
+        }
+    }
+
+
+    /**
+     * Serves the requests sent over one connection
+     */
+    private class Connection implements Runnable {
+
+        private SocketChannel channel;
+        private volatile long lastRequest = System.currentTimeMillis();
+
+        public Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing more to say to it anyway
+            }
+        }
+
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                if (in.readInt() != MAGIC || in.readByte() != PROTOCOL_VERSION) {
+                    writeReply(out, UPMCommandLine.EXIT_ERROR, "Unsupported protocol");
+                    return;
+                }
+                String clientToken = in.readUTF();
+                if (!MessageDigest.isEqual(clientToken.getBytes("US-ASCII"), token.getBytes("US-ASCII"))) {
+                    writeReply(out, UPMCommandLine.EXIT_ERROR, "Not authorised");
+                    return;
+                }
+                int op;
+                while (!stopped && (op = in.read()) != -1) {
+                    madeRequest();
+                    if (op == OP_STOP) {
+                        writeReply(out, UPMCommandLine.EXIT_OK,
+                                new JsonWriter().beginObject().name("daemon").value("stopped").endObject().toString());
+                        stop();
+                        return;
+                    }
+                    handle(op, in, out);
+                    // A slow request counts as activity until it's answered
+                    madeRequest();
+                }
+            } catch (IOException e) {
+                // The client went away, sent rubbish or was idle too long
+            } finally {
+                connections.remove(this);
+                close();
+            }
+        }
+
+        private void madeRequest() {
+            lastRequest = System.currentTimeMillis();
+            lastActivity = lastRequest;
+        }
+
+        private void handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+            try {
+                if (op == OP_LOOKUP) {
+                    String accountName = in.readUTF();
+                    int field = in.readByte();
+                    writeReply(out, UPMCommandLine.EXIT_OK, commands.lookup(accountName, field));
+                } else if (op == OP_COMMAND) {
+                    int argCount = in.readShort();
+                    if (argCount < 0 || argCount > MAX_ARGUMENTS) {
+                        throw new IOException("Bad request");
+                    }
+                    String[] args = new String[argCount];
+                    for (int i = 0; i < argCount; i++) {
+                        args[i] = in.readUTF();
+                    }
+                    writeReply(out, UPMCommandLine.EXIT_OK, commands.execute(args));
+                } else {
+                    throw new IOException("Unknown request " + op);
+                }
+            } catch (CommandLineException e) {
+                writeReply(out, e.getExitStatus(), e.getMessage());
+            } catch (RuntimeException e) {
+                writeReply(out, UPMCommandLine.EXIT_ERROR, e.toString());
+            }
+        }
+
+    }
+
+
+    private static void writeReply(DataOutputStream out, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        out.writeByte(status);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+
+    /**
+     * A connection to the running daemon
+     */
+    public static class Client {
+
+        private SocketChannel channel;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        private Client(SocketChannel channel, String token) throws IOException {
+            this.channel = channel;
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeByte(PROTOCOL_VERSION);
+            out.writeUTF(token);
+        }
+
+        /**
+         * @param database The database the client wants (a canonical path or
+         * SNAPSHOT) or null for whichever database the daemon has open
+         * @return A connection or null if there's no daemon for the database
+         */
+        public static Client connect(File configDirectory, String database) throws IOException {
+            File infoFile = new File(configDirectory, INFO_FILE);
+            if (!infoFile.exists()) {
+                return null;
+            }
+            Properties info = new Properties();
+            InputStream is = new FileInputStream(infoFile);
+            try {
+                info.load(is);
+            } finally {
+                is.close();
+            }
+            if (database != null && !database.equals(info.getProperty(DATABASE))) {
+                return null;
+            }
+
+            SocketChannel channel;
+            try {
+                String socket = info.getProperty(SOCKET);
+                if (socket != null) {
+                    if (!LocalSockets.isUnixDomainSupported()) {
+                        return null;
+                    }
+                    channel = LocalSockets.connectUnix(new File(socket));
+                } else {
+                    channel = LocalSockets.connectLoopback(Integer.parseInt(info.getProperty(PORT, "0")));
+                }
+            } catch (IOException e) {
+                // Left behind by a daemon that was killed
+                infoFile.delete();
+                return null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return new Client(channel, info.getProperty(TOKEN, ""));
+        }
+
+        /**
+         * Run a upm-cli command
+         */
+        public Reply execute(String[] args) throws IOException {
+            out.writeByte(OP_COMMAND);
+            out.writeShort(args.length);
+            for (int i = 0; i < args.length; i++) {
+                out.writeUTF(args[i]);
+            }
+            out.flush();
+            return readReply();
+        }
+
+        /**
+         * Look up one field of an account
+         * @param field One of VaultCommands.FIELDS
+         */
+        public Reply lookup(String accountName, String field) throws IOException {
+            out.writeByte(OP_LOOKUP);
+            out.writeUTF(accountName);
+            out.writeByte(VaultCommands.fieldIndex(field));
+            out.flush();
+            return readReply();
+        }
+
+        public Reply stop() throws IOException {
+            out.writeByte(OP_STOP);
+            out.flush();
+            return readReply();
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private Reply readReply() throws IOException {
+            int status = in.read();
+            if (status == -1) {
+                throw new EOFException("The upm-cli daemon closed the connection");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REPLY_LENGTH) {
+                throw new IOException("Bad reply from the upm-cli daemon");
+            }
+            byte[] text = new byte[length];
+            in.readFully(text);
+            return new Reply(status, new String(text, "UTF-8"));
+        }
+
+    }
+
+
+    /**
+     * What the daemon sent back for a request
+     */
+    public static class Reply {
+
+        private int status;
+        private String text;
+
+        public Reply(int status, String text) {
+            this.status = status;
+            this.text = text;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The result of the request or, if the status isn't
+         * EXIT_OK, the error message
+         */
+        public String getText() {
+            return text;
+        }
+
+    }
+
+}
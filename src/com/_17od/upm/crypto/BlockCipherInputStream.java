@@ -0,0 +1,114 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+
+/**
+ * Decrypts (or encrypts) everything read through it with the given cipher.
+ * A bad final block, e.g. because the wrong password was used, shows up as
+ * an IOException at the end of the stream.
+ */
+public class BlockCipherInputStream extends FilterInputStream {
+
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private BufferedBlockCipher cipher;
+    private byte[] input = new byte[INPUT_BUFFER_SIZE];
+    private byte[] output;
+    private int outputStart;
+    private int outputEnd;
+    private boolean finished;
+
+
+    public BlockCipherInputStream(InputStream is, BufferedBlockCipher cipher) {
+        super(is);
+        this.cipher = cipher;
+        this.output = new byte[cipher.getOutputSize(INPUT_BUFFER_SIZE)];
+    }
+
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (outputStart == outputEnd) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, outputEnd - outputStart);
+        System.arraycopy(output, outputStart, b, off, count);
+        outputStart += count;
+        return count;
+    }
+
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] b = new byte[(int) Math.min(n, INPUT_BUFFER_SIZE)];
+        while (skipped < n) {
+            int count = read(b, 0, (int) Math.min(n - skipped, b.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+
+    public int available() {
+        return outputEnd - outputStart;
+    }
+
+
+    public boolean markSupported() {
+        return false;
+    }
+
+
+    private void fill() throws IOException {
+        int count = in.read(input, 0, input.length);
+        outputStart = 0;
+        if (count == -1) {
+            finished = true;
+            try {
+                outputEnd = cipher.doFinal(output, 0);
+            } catch (InvalidCipherTextException e) {
+                throw new IOException(e.getMessage());
+            }
+        } else {
+            outputEnd = cipher.processBytes(input, 0, count, output, 0);
+        }
+    }
+
+}
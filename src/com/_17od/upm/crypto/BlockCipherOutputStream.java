@@ -0,0 +1,83 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+
+/**
+ * Encrypts (or decrypts) everything written to it with the given cipher.
+ * The final block is written when the stream is closed.
+ */
+public class BlockCipherOutputStream extends FilterOutputStream {
+
+    private BufferedBlockCipher cipher;
+    private byte[] buffer = new byte[0];
+    private boolean closed;
+
+
+    public BlockCipherOutputStream(OutputStream os, BufferedBlockCipher cipher) {
+        super(os);
+        this.cipher = cipher;
+    }
+
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureBuffer(cipher.getUpdateOutputSize(len));
+        int outputLength = cipher.processBytes(b, off, len, buffer, 0);
+        out.write(buffer, 0, outputLength);
+    }
+
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            ensureBuffer(cipher.getOutputSize(0));
+            int outputLength = cipher.doFinal(buffer, 0);
+            out.write(buffer, 0, outputLength);
+        } catch (InvalidCipherTextException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            out.close();
+        }
+    }
+
+
+    private void ensureBuffer(int size) {
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+    }
+
+}
@@ -20,6 +20,8 @@
  */
 package com._17od.upm.crypto;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
@@ -34,15 +36,23 @@ import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.paddings.PKCS7Padding;
 import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 
+import com._17od.upm.util.Metrics;
+
 
 public class EncryptionService {
 
     private static final String randomAlgorithm = "SHA1PRNG";
     public static final int SALT_LENGTH = 8;
 
+    private static final Metrics.Timer ENCRYPT_TIMER = Metrics.getDefault().timer(
+            "encrypt", "Encrypting a database or history file");
+    private static final Metrics.Timer DECRYPT_TIMER = Metrics.getDefault().timer(
+            "decrypt", "Decrypting a database or history file");
+
     private byte[] salt;
     private BufferedBlockCipher encryptCipher;
     private BufferedBlockCipher decryptCipher;
+    private CipherParameters keyParams;
 
     public EncryptionService(char[] password) throws CryptoException {
         try {
@@ -61,12 +71,16 @@ public class EncryptionService {
     public void initCipher(char[] password) {
         PBEParametersGenerator keyGenerator = new PKCS12ParametersGenerator(new SHA256Digest());
         keyGenerator.init(PKCS12ParametersGenerator.PKCS12PasswordToBytes(password), salt, 20);
-        CipherParameters keyParams = keyGenerator.generateDerivedParameters(256, 128);
+        keyParams = keyGenerator.generateDerivedParameters(256, 128);
         
-        encryptCipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
-        encryptCipher.init(true, keyParams);
-        decryptCipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
-        decryptCipher.init(false, keyParams);
+        encryptCipher = createCipher(true);
+        decryptCipher = createCipher(false);
+    }
+
+    private BufferedBlockCipher createCipher(boolean forEncryption) {
+        BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
+        cipher.init(forEncryption, keyParams);
+        return cipher;
     }
 
     private byte[] generateSalt() throws NoSuchAlgorithmException {
@@ -77,31 +91,56 @@ public class EncryptionService {
     }
 
     public byte[] encrypt(byte[] plainText) throws CryptoException {
-        byte[] encryptedBytes = new byte[encryptCipher.getOutputSize(plainText.length)];
-        int outputLength = encryptCipher.processBytes(plainText, 0, plainText.length, encryptedBytes, 0);
+        long start = ENCRYPT_TIMER.start();
         try {
-            outputLength += encryptCipher.doFinal(encryptedBytes, outputLength);
-        } catch (InvalidCipherTextException e) {
-            throw new CryptoException(e);
-        }
+            byte[] encryptedBytes = new byte[encryptCipher.getOutputSize(plainText.length)];
+            int outputLength = encryptCipher.processBytes(plainText, 0, plainText.length, encryptedBytes, 0);
+            try {
+                outputLength += encryptCipher.doFinal(encryptedBytes, outputLength);
+            } catch (InvalidCipherTextException e) {
+                throw new CryptoException(e);
+            }
 
-        byte[] results = new byte[outputLength];
-        System.arraycopy(encryptedBytes, 0, results, 0, outputLength);
-        return results;
+            byte[] results = new byte[outputLength];
+            System.arraycopy(encryptedBytes, 0, results, 0, outputLength);
+            return results;
+        } finally {
+            ENCRYPT_TIMER.stop(start);
+        }
     }
     
     public byte[] decrypt(byte[] encryptedBytes) throws CryptoException {
-        byte[] decryptedBytes = new byte[decryptCipher.getOutputSize(encryptedBytes.length)];
-        int outputLength = decryptCipher.processBytes(encryptedBytes, 0, encryptedBytes.length, decryptedBytes, 0);
+        long start = DECRYPT_TIMER.start();
         try {
-            outputLength += decryptCipher.doFinal(decryptedBytes, outputLength);
-        } catch (InvalidCipherTextException e) {
-            throw new CryptoException(e);
+            byte[] decryptedBytes = new byte[decryptCipher.getOutputSize(encryptedBytes.length)];
+            int outputLength = decryptCipher.processBytes(encryptedBytes, 0, encryptedBytes.length, decryptedBytes, 0);
+            try {
+                outputLength += decryptCipher.doFinal(decryptedBytes, outputLength);
+            } catch (InvalidCipherTextException e) {
+                throw new CryptoException(e);
+            }
+
+            byte[] results = new byte[outputLength];
+            System.arraycopy(decryptedBytes, 0, results, 0, outputLength);
+            return results;
+        } finally {
+            DECRYPT_TIMER.stop(start);
         }
+    }
+
+    /**
+     * @return A stream that encrypts everything written to it onto the given
+     * stream. It must be closed to write the final block.
+     */
+    public OutputStream encrypt(OutputStream os) {
+        return new BlockCipherOutputStream(os, createCipher(true));
+    }
 
-        byte[] results = new byte[outputLength];
-        System.arraycopy(decryptedBytes, 0, results, 0, outputLength);
-        return results;
+    /**
+     * @return A stream that decrypts everything read from the given stream
+     */
+    public InputStream decrypt(InputStream is) {
+        return new BlockCipherInputStream(is, createCipher(false));
     }
 
     public byte[] getSalt() {
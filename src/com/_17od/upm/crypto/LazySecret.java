@@ -0,0 +1,147 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+/**
+ * A secret value (a password, a user id, notes) held encrypted in memory
+ * with the SessionCipher. It's only decrypted when it's asked for. Use
+ * toChars() or toUTF8() where possible and wipe the result with Arrays.fill()
+ * once done with it; toString() can't be wiped.
+ * 
+ * LazySecrets are immutable so they can be shared between accounts. Since
+ * the SessionCipher is deterministic two secrets are equal if their cipher
+ * texts are equal, so comparing them doesn't need any decryption.
+ */
+public final class LazySecret {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final LazySecret EMPTY = fromUTF8(new byte[0]);
+
+    private final byte[] cipherText;
+
+
+    private LazySecret(byte[] cipherText) {
+        this.cipherText = cipherText;
+    }
+
+
+    public static LazySecret fromString(String value) {
+        if (value == null || value.length() == 0) {
+            return EMPTY;
+        }
+        return fromUTF8(value.getBytes(UTF8));
+    }
+
+
+    /**
+     * The given chars aren't changed, it's up to the caller to wipe them
+     */
+    public static LazySecret fromChars(char[] value) {
+        if (value == null || value.length == 0) {
+            return EMPTY;
+        }
+        ByteBuffer encoded = UTF8.encode(CharBuffer.wrap(value));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        return fromUTF8(bytes);
+    }
+
+
+    /**
+     * Encrypt the given UTF-8 bytes. The bytes are wiped once they've been
+     * encrypted.
+     */
+    public static LazySecret fromUTF8(byte[] value) {
+        LazySecret secret = new LazySecret(SessionCipher.getInstance().encrypt(value));
+        Arrays.fill(value, (byte) 0);
+        return secret;
+    }
+
+
+    /**
+     * @return The decrypted value. Wipe it after use.
+     */
+    public byte[] toUTF8() {
+        return SessionCipher.getInstance().decrypt(cipherText);
+    }
+
+
+    /**
+     * @return The decrypted value. Wipe it after use.
+     */
+    public char[] toChars() {
+        byte[] bytes = toUTF8();
+        CharBuffer decoded = UTF8.decode(ByteBuffer.wrap(bytes));
+        Arrays.fill(bytes, (byte) 0);
+        char[] chars = new char[decoded.remaining()];
+        decoded.get(chars);
+        if (decoded.hasArray()) {
+            Arrays.fill(decoded.array(), '\0');
+        }
+        return chars;
+    }
+
+
+    /**
+     * @return The decrypted value as a String. Prefer toChars() since a String
+     * can't be wiped.
+     */
+    public String toString() {
+        byte[] bytes = toUTF8();
+        String value = new String(bytes, UTF8);
+        Arrays.fill(bytes, (byte) 0);
+        return value;
+    }
+
+
+    public boolean isEmpty() {
+        return cipherText.length == SessionCipher.IV_LENGTH;
+    }
+
+
+    /**
+     * @return The number of bytes held, used to estimate memory use
+     */
+    public int getEncryptedLength() {
+        return cipherText.length;
+    }
+
+
+    public boolean equals(Object o) {
+        return o instanceof LazySecret && Arrays.equals(cipherText, ((LazySecret) o).cipherText);
+    }
+
+
+    public int hashCode() {
+        return Arrays.hashCode(cipherText);
+    }
+
+}
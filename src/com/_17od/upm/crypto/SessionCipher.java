@@ -0,0 +1,223 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+
+/**
+ * Encrypts values held in memory for the lifetime of the application using
+ * keys that are generated at random when the class is loaded and never
+ * leave the process.
+ * 
+ * The construction is deterministic, along the lines of SIV: the IV is a
+ * truncated HMAC-SHA256 of the plain text and the plain text is encrypted
+ * with AES in counter mode starting from that IV. Equal plain texts give
+ * equal cipher texts so values can be compared (and shared) without being
+ * decrypted, and the IV doubles as an integrity check on decryption. The
+ * price is that it reveals which values are equal, which doesn't matter
+ * for values that never leave memory.
+ *
+ * applyKeyStream(long, long, ...) is a different use of AES-CTR, with
+ * counters made up of a nonce and a block number. It uses a key of its own,
+ * derived from the encryption key, so a nonce and block number that happen
+ * to match a counter used by encrypt() never reuse its key stream.
+ *
+ * There's one set of keys for the whole application but each thread gets
+ * its own AES and HMAC engines initialised with them, so threads (an audit
+ * running alongside an import for instance) don't wait on each other.
+ */
+public class SessionCipher {
+
+    public static final int IV_LENGTH = 16;
+
+    private static final int KEY_LENGTH = 32;
+    private static final int BLOCK_SIZE = 16;
+    private static final byte[] ARENA_KEY_LABEL = {'U', 'P', 'M', ' ', 'a', 'r', 'e', 'n', 'a'};
+
+    private static SessionCipher instance = new SessionCipher();
+
+    private final byte[] encryptionKey = new byte[KEY_LENGTH];
+    private final byte[] macKey = new byte[KEY_LENGTH];
+    private final byte[] arenaKey = new byte[KEY_LENGTH];
+    private SecureRandom random = new SecureRandom();
+
+    private ThreadLocal engines = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Engines(encryptionKey, macKey, arenaKey);
+        }
+    };
+
+
+    private SessionCipher() {
+        random.nextBytes(encryptionKey);
+        random.nextBytes(macKey);
+
+        // arenaKey = HMAC-SHA256(encryptionKey, label)
+        HMac kdf = new HMac(new SHA256Digest());
+        kdf.init(new KeyParameter(encryptionKey));
+        kdf.update(ARENA_KEY_LABEL, 0, ARENA_KEY_LABEL.length);
+        kdf.doFinal(arenaKey, 0);
+    }
+
+
+    public static SessionCipher getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * @return IV followed by the cipher text, IV_LENGTH bytes longer than
+     * the plain text
+     */
+    public byte[] encrypt(byte[] plainText) {
+        byte[] result = new byte[IV_LENGTH + plainText.length];
+        byte[] iv = mac(plainText);
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        applyKeyStream(iv, plainText, result, IV_LENGTH);
+        return result;
+    }
+
+
+    /**
+     * @throws IllegalStateException If the cipher text has been tampered with
+     * (or wasn't produced by this class)
+     */
+    public byte[] decrypt(byte[] cipherText) {
+        byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(cipherText, 0, iv, 0, IV_LENGTH);
+        byte[] encrypted = new byte[cipherText.length - IV_LENGTH];
+        System.arraycopy(cipherText, IV_LENGTH, encrypted, 0, encrypted.length);
+        byte[] plainText = new byte[encrypted.length];
+        applyKeyStream(iv, encrypted, plainText, 0);
+        if (!Arrays.equals(iv, mac(plainText))) {
+            Arrays.fill(plainText, (byte) 0);
+            throw new IllegalStateException("The value failed its integrity check");
+        }
+        return plainText;
+    }
+
+
+    /**
+     * @return A random nonce for use with applyKeyStream()
+     */
+    public long newNonce() {
+        return random.nextLong();
+    }
+
+
+    /**
+     * XOR part of a buffer with the AES-CTR key stream for the given nonce,
+     * starting at the given position in that stream. Applying it twice
+     * gives back the original bytes.
+     * 
+     * This is for callers that keep many values at fixed positions in one
+     * large buffer and can't afford an IV per value. There's no integrity
+     * check and the caller must never use the same nonce and position for
+     * two different plain texts; take a new nonce rather than overwrite.
+     */
+    public void applyKeyStream(long nonce, long position, byte[] buffer, int offset, int length) {
+        AESEngine aes = getEngines().arenaAes;
+        byte[] counter = new byte[BLOCK_SIZE];
+        byte[] keyStream = new byte[BLOCK_SIZE];
+        long block = position / BLOCK_SIZE;
+        int skip = (int) (position % BLOCK_SIZE);
+        int done = 0;
+        while (done < length) {
+            for (int i = 0; i < 8; i++) {
+                counter[i] = (byte) (nonce >>> (56 - 8 * i));
+                counter[8 + i] = (byte) (block >>> (56 - 8 * i));
+            }
+            aes.processBlock(counter, 0, keyStream, 0);
+            for (int j = skip; j < BLOCK_SIZE && done < length; j++, done++) {
+                buffer[offset + done] ^= keyStream[j];
+            }
+            skip = 0;
+            block++;
+        }
+        Arrays.fill(keyStream, (byte) 0);
+    }
+
+
+    private byte[] mac(byte[] plainText) {
+        HMac hmac = getEngines().hmac;
+        byte[] fullMac = new byte[hmac.getMacSize()];
+        hmac.update(plainText, 0, plainText.length);
+        hmac.doFinal(fullMac, 0);
+        byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(fullMac, 0, iv, 0, IV_LENGTH);
+        return iv;
+    }
+
+
+    /**
+     * XOR the input with the AES-CTR key stream starting at the given IV and
+     * write it to output starting at outputOffset
+     */
+    private void applyKeyStream(byte[] iv, byte[] input, byte[] output, int outputOffset) {
+        AESEngine aes = getEngines().aes;
+        byte[] counter = new byte[BLOCK_SIZE];
+        System.arraycopy(iv, 0, counter, 0, BLOCK_SIZE);
+        byte[] keyStream = new byte[BLOCK_SIZE];
+        for (int i = 0; i < input.length; i += BLOCK_SIZE) {
+            aes.processBlock(counter, 0, keyStream, 0);
+            int blockLength = Math.min(BLOCK_SIZE, input.length - i);
+            for (int j = 0; j < blockLength; j++) {
+                output[outputOffset + i + j] = (byte) (input[i + j] ^ keyStream[j]);
+            }
+            // Increment the counter as a big endian number
+            for (int j = BLOCK_SIZE - 1; j >= 0 && ++counter[j] == 0; j--) {
+            }
+        }
+        Arrays.fill(keyStream, (byte) 0);
+    }
+
+
+    private Engines getEngines() {
+        return (Engines) engines.get();
+    }
+
+
+    /**
+     * The engines for one thread. They keep state between calls so they
+     * can't be shared.
+     */
+    private static class Engines {
+
+        private AESEngine aes = new AESEngine();
+        private AESEngine arenaAes = new AESEngine();
+        private HMac hmac = new HMac(new SHA256Digest());
+
+        Engines(byte[] encryptionKey, byte[] macKey, byte[] arenaKey) {
+            aes.init(true, new KeyParameter(encryptionKey));
+            arenaAes.init(true, new KeyParameter(arenaKey));
+            hmac.init(new KeyParameter(macKey));
+        }
+
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Keeps track of the accounts that have been changed locally since the
+ * database was last in sync with its remote copy. For each changed account
+ * the value it had at the time of the last sync (the "base" value) is kept
+ * so that a three-way merge can be done against the remote database without
+ * having to hold a full copy of the base database.
+ * 
+ * The change log is saved next to the database (see
+ * PasswordDatabasePersistence) so changes that haven't been synced yet
+ * survive a restart. A database that's never been synced, or was loaded
+ * without its change log, has an unknown base revision and is merged
+ * without a base.
+ */
+public class AccountChangeLog extends FlatPackObject {
+
+    /** The base revision of a database that isn't known to be in sync with anything */
+    public static final int UNKNOWN_REVISION = -1;
+
+    private static final String PRESENT = "1";
+    private static final String ABSENT = "0";
+
+    private int baseRevision;
+    private HashMap baseValues;
+
+
+    public AccountChangeLog(int baseRevision) {
+        this.baseRevision = baseRevision;
+        this.baseValues = new HashMap();
+    }
+
+
+    /**
+     * Read a change log written by flatPack()
+     */
+    public AccountChangeLog(InputStream is) throws IOException, ProblemReadingDatabaseFile {
+        this.baseValues = new HashMap();
+        try {
+            this.baseRevision = Integer.parseInt(getString(is));
+        } catch (NumberFormatException e) {
+            throw new ProblemReadingDatabaseFile("The change log had an invalid base revision", e);
+        }
+        try {
+            while (true) {
+                String accountName = getString(is);
+                String kind = getString(is);
+                if (kind.equals(PRESENT)) {
+                    baseValues.put(accountName, new AccountInformation(is));
+                } else if (kind.equals(ABSENT)) {
+                    baseValues.put(accountName, null);
+                } else {
+                    throw new ProblemReadingDatabaseFile("The change log had an unknown entry [" + kind + "]");
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the change log
+        }
+    }
+
+
+    public void flatPack(OutputStream os) throws IOException {
+        os.write(flatPack(String.valueOf(baseRevision)));
+        Iterator it = baseValues.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            os.write(flatPack((String) entry.getKey()));
+            if (entry.getValue() == null) {
+                os.write(flatPack(ABSENT));
+            } else {
+                os.write(flatPack(PRESENT));
+                ((AccountInformation) entry.getValue()).flatPack(os);
+            }
+        }
+    }
+
+
+    /**
+     * Record that the given account is about to change. Only the first change
+     * to an account after a sync is recorded because that's the one that holds
+     * the base value.
+     * @param accountName The name of the account being changed
+     * @param baseValue The current value of the account or null if it doesn't
+     * exist yet
+     */
+    public void recordChange(String accountName, AccountInformation baseValue) {
+        if (!baseValues.containsKey(accountName)) {
+            AccountInformation copy = null;
+            if (baseValue != null) {
+                copy = new AccountInformation(baseValue);
+            }
+            baseValues.put(accountName, copy);
+        }
+    }
+
+
+    /**
+     * Record that an account is about to be renamed. To a merge a rename is
+     * the old name going away and the new name appearing, so this records
+     * the base values of both names in one go.
+     * @param oldName The current name of the account
+     * @param newName The name it's being renamed to
+     * @param baseValue The current value of the account
+     */
+    public void recordRename(String oldName, String newName, AccountInformation baseValue) {
+        recordChange(oldName, baseValue);
+        if (!baseValues.containsKey(newName)) {
+            baseValues.put(newName, null);
+        }
+    }
+
+
+    /**
+     * Forget the change recorded for the given account, e.g. because the
+     * change has been undone and the account is back to its base value
+     */
+    public void forget(String accountName) {
+        baseValues.remove(accountName);
+    }
+
+
+    public boolean isChanged(String accountName) {
+        return baseValues.containsKey(accountName);
+    }
+
+
+    /**
+     * @return The value the account had at the last sync or null if it
+     * didn't exist then
+     */
+    public AccountInformation getBaseValue(String accountName) {
+        return (AccountInformation) baseValues.get(accountName);
+    }
+
+
+    public Set getChangedAccountNames() {
+        return baseValues.keySet();
+    }
+
+
+    public boolean isEmpty() {
+        return baseValues.isEmpty();
+    }
+
+
+    public int size() {
+        return baseValues.size();
+    }
+
+
+    /**
+     * @return The revision of the remote database the last time it was in
+     * sync with the local database or UNKNOWN_REVISION
+     */
+    public int getBaseRevision() {
+        return baseRevision;
+    }
+
+
+    /**
+     * @return false if there's no record of the last sync so the base
+     * values can't be trusted for a three-way merge
+     */
+    public boolean isBaseKnown() {
+        return baseRevision != UNKNOWN_REVISION;
+    }
+
+
+    /**
+     * Called after a successful sync. The local and remote databases are the
+     * same at this point so there's nothing left to track.
+     * @param baseRevision The revision both databases are now at
+     */
+    public void reset(int baseRevision) {
+        this.baseRevision = baseRevision;
+        baseValues.clear();
+    }
+
+}
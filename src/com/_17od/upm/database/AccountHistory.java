@@ -0,0 +1,530 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.crypto.SessionCipher;
+
+
+/**
+ * The values account fields had before they were changed, oldest first,
+ * with the time they were replaced. Values are held encrypted in memory
+ * the same way as the accounts themselves.
+ * 
+ * Only the fields that changed are recorded. A long value that was only
+ * edited a little (typically the notes) is stored as a delta against the
+ * value that replaced it: the lengths of the start and end the two have
+ * in common plus the bytes in between. getVersions() rebuilds the old
+ * values by working back from the account's current values. Each delta
+ * keeps a checksum of the value it applies to so if an account is changed
+ * without its changes being recorded (e.g. by a sync) the versions before
+ * that are dropped rather than rebuilt wrongly.
+ * 
+ * The history isn't part of the database format, older versions of UPM
+ * wouldn't be able to read it, so PasswordDatabasePersistence keeps it in
+ * a file of its own next to the database.
+ */
+public class AccountHistory extends FlatPackObject {
+
+    public static final String PASSWORD = "password";
+    public static final String USER_ID = "userId";
+    public static final String URL = "url";
+    public static final String NOTES = "notes";
+
+    /** The flatPack() format. Version 1 had no deltas. */
+    public static final int FORMAT_VERSION = 2;
+
+    /** How many versions of each account are kept unless the user says otherwise */
+    public static final int DEFAULT_MAX_VERSIONS = 20;
+
+    /** Values shorter than this are always stored in full */
+    private static final int MIN_DELTA_LENGTH = 64;
+
+    private static final String FULL = "F";
+    private static final String DELTA = "D";
+
+    /** Account name -> ArrayList of Entry */
+    private HashMap entries = new HashMap();
+
+
+    public AccountHistory() {
+    }
+
+
+    public AccountHistory(InputStream is) throws IOException, ProblemReadingDatabaseFile {
+        this(is, FORMAT_VERSION);
+    }
+
+
+    public AccountHistory(InputStream is, int formatVersion) throws IOException, ProblemReadingDatabaseFile {
+        try {
+            while (true) {
+                String accountName = getString(is);
+                int count = getInt(is);
+                ArrayList list = new ArrayList(count);
+                for (int i = 0; i < count; i++) {
+                    long time = Long.parseLong(getString(is));
+                    String field = getString(is);
+                    String kind = formatVersion < 2 ? FULL : getString(is);
+                    if (kind.equals(FULL)) {
+                        list.add(new Entry(time, field, LazySecret.fromUTF8(getBytes(is))));
+                    } else if (kind.equals(DELTA)) {
+                        int prefixLength = getInt(is);
+                        int suffixLength = getInt(is);
+                        long checksum = Long.parseLong(getString(is));
+                        list.add(new Entry(time, field, prefixLength, suffixLength,
+                                LazySecret.fromUTF8(getBytes(is)), checksum));
+                    } else {
+                        throw new ProblemReadingDatabaseFile("The account history had an unknown entry [" + kind + "]");
+                    }
+                }
+                entries.put(accountName, list);
+            }
+        } catch (EOFException e) {
+            // The end of the history
+        } catch (NumberFormatException e) {
+            throw new ProblemReadingDatabaseFile("The account history had an invalid number", e);
+        }
+    }
+
+
+    /**
+     * Record the value a field had before it was changed
+     * @param time When the change was made
+     */
+    public void record(String accountName, String field, LazySecret oldValue, long time) {
+        add(accountName, new Entry(time, field, oldValue));
+    }
+
+
+    /**
+     * Record the value a field had before it was changed, as a delta
+     * against the new value if that's smaller
+     */
+    public void record(String accountName, String field, LazySecret oldValue, LazySecret newValue, long time) {
+        if (oldValue.getEncryptedLength() < SessionCipher.IV_LENGTH + MIN_DELTA_LENGTH
+                || newValue.getEncryptedLength() < SessionCipher.IV_LENGTH + MIN_DELTA_LENGTH) {
+            record(accountName, field, oldValue, time);
+            return;
+        }
+
+        byte[] oldBytes = oldValue.toUTF8();
+        byte[] newBytes = newValue.toUTF8();
+        try {
+            int prefixLength = 0;
+            int maxLength = Math.min(oldBytes.length, newBytes.length);
+            while (prefixLength < maxLength && oldBytes[prefixLength] == newBytes[prefixLength]) {
+                prefixLength++;
+            }
+            int suffixLength = 0;
+            while (suffixLength < maxLength - prefixLength
+                    && oldBytes[oldBytes.length - 1 - suffixLength] == newBytes[newBytes.length - 1 - suffixLength]) {
+                suffixLength++;
+            }
+            int middleLength = oldBytes.length - prefixLength - suffixLength;
+            if (middleLength * 2 > oldBytes.length) {
+                record(accountName, field, oldValue, time);
+                return;
+            }
+            LazySecret middle = LazySecret.fromUTF8(Arrays.copyOfRange(oldBytes, prefixLength, prefixLength + middleLength));
+            add(accountName, new Entry(time, field, prefixLength, suffixLength, middle, checksum(newBytes)));
+        } finally {
+            Arrays.fill(oldBytes, (byte) 0);
+            Arrays.fill(newBytes, (byte) 0);
+        }
+    }
+
+
+    private void add(String accountName, Entry entry) {
+        ArrayList list = (ArrayList) entries.get(accountName);
+        if (list == null) {
+            list = new ArrayList(2);
+            entries.put(accountName, list);
+        }
+        list.add(entry);
+    }
+
+
+    /**
+     * Record the fields that differ between two versions of an account. If
+     * the account was renamed its history moves to the new name.
+     * @return true if any field other than the account name changed
+     */
+    public boolean recordChanges(AccountInformation before, AccountInformation after, long time) {
+        String accountName = after.getAccountName();
+        if (!before.getAccountName().equals(accountName)) {
+            rename(before.getAccountName(), accountName);
+        }
+        boolean changed = false;
+        String[] fields = {USER_ID, PASSWORD, URL, NOTES};
+        for (int i = 0; i < fields.length; i++) {
+            LazySecret oldValue = getField(before, fields[i]);
+            LazySecret newValue = getField(after, fields[i]);
+            if (!oldValue.equals(newValue)) {
+                record(accountName, fields[i], oldValue, newValue, time);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * Forget the most recent change to the field, e.g. because the change
+     * was undone
+     */
+    public void removeLast(String accountName, String field) {
+        ArrayList list = (ArrayList) entries.get(accountName);
+        if (list == null) {
+            return;
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (((Entry) list.get(i)).getField().equals(field)) {
+                list.remove(i);
+                break;
+            }
+        }
+        if (list.isEmpty()) {
+            entries.remove(accountName);
+        }
+    }
+
+
+    /**
+     * @return The account's Entries, oldest first. Never null.
+     */
+    public ArrayList getEntries(String accountName) {
+        ArrayList list = (ArrayList) entries.get(accountName);
+        return list == null ? new ArrayList() : new ArrayList(list);
+    }
+
+
+    /**
+     * Rebuild the earlier versions of the account from its current values
+     * @return The Versions, newest first. Never null.
+     */
+    public ArrayList getVersions(AccountInformation current) {
+        ArrayList versions = new ArrayList();
+        ArrayList list = (ArrayList) entries.get(current.getAccountName());
+        if (list == null) {
+            return versions;
+        }
+
+        AccountInformation account = current;
+        int i = list.size() - 1;
+        while (i >= 0) {
+            long time = ((Entry) list.get(i)).getTime();
+            AccountInformation older = new AccountInformation(account);
+            ArrayList fields = new ArrayList(4);
+            for (; i >= 0 && ((Entry) list.get(i)).getTime() == time; i--) {
+                Entry entry = (Entry) list.get(i);
+                LazySecret value = entry.getValueBefore(getField(account, entry.getField()));
+                if (value == null) {
+                    // The field was changed without the change being recorded
+                    return versions;
+                }
+                setField(older, entry.getField(), value);
+                fields.add(entry.getField());
+            }
+            versions.add(new Version(time, (String[]) fields.toArray(new String[fields.size()]), older));
+            account = older;
+        }
+        return versions;
+    }
+
+
+    /**
+     * @return When the field was last changed or 0 if there's no record of
+     * it changing
+     */
+    public long getLastChanged(String accountName, String field) {
+        ArrayList list = (ArrayList) entries.get(accountName);
+        if (list != null) {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Entry entry = (Entry) list.get(i);
+                if (entry.getField().equals(field)) {
+                    return entry.getTime();
+                }
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Move the history along with an account that's been renamed
+     */
+    public void rename(String oldName, String newName) {
+        ArrayList list = (ArrayList) entries.remove(oldName);
+        if (list != null) {
+            entries.put(newName, list);
+        }
+    }
+
+
+    public void remove(String accountName) {
+        entries.remove(accountName);
+    }
+
+
+    /**
+     * Drop the oldest changes. Changes made at the same time count as one
+     * version.
+     * @param maxVersions The number of versions to keep per account, 0 for
+     * no limit
+     * @param maxAge Drop changes made more than this many ms before now, 0
+     * for no limit
+     * @param accountNames The accounts still in the database, the history of
+     * any other account is dropped. null to keep them all.
+     * @return The number of changes dropped
+     */
+    public int prune(int maxVersions, long maxAge, long now, Set accountNames) {
+        int dropped = 0;
+        for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry mapEntry = (Map.Entry) it.next();
+            ArrayList list = (ArrayList) mapEntry.getValue();
+            if (accountNames != null && !accountNames.contains(mapEntry.getKey())) {
+                dropped += list.size();
+                it.remove();
+                continue;
+            }
+
+            // Find the oldest change to keep working back from the newest
+            int keepFrom = list.size();
+            int versions = 0;
+            long lastTime = Long.MIN_VALUE;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                long time = ((Entry) list.get(i)).getTime();
+                if (time != lastTime) {
+                    versions++;
+                    lastTime = time;
+                }
+                if ((maxVersions > 0 && versions > maxVersions) || (maxAge > 0 && now - time > maxAge)) {
+                    break;
+                }
+                keepFrom = i;
+            }
+            if (keepFrom > 0) {
+                dropped += keepFrom;
+                list.subList(0, keepFrom).clear();
+                if (list.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        return dropped;
+    }
+
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+
+    public void flatPack(OutputStream os) throws IOException {
+        Iterator it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry) it.next();
+            ArrayList list = (ArrayList) mapEntry.getValue();
+            os.write(flatPack((String) mapEntry.getKey()));
+            os.write(flatPack(String.valueOf(list.size())));
+            for (int i = 0; i < list.size(); i++) {
+                Entry entry = (Entry) list.get(i);
+                os.write(flatPack(String.valueOf(entry.getTime())));
+                os.write(flatPack(entry.getField()));
+                if (entry.isDelta()) {
+                    os.write(flatPack(DELTA));
+                    os.write(flatPack(String.valueOf(entry.prefixLength)));
+                    os.write(flatPack(String.valueOf(entry.suffixLength)));
+                    os.write(flatPack(String.valueOf(entry.checksum)));
+                } else {
+                    os.write(flatPack(FULL));
+                }
+                byte[] value = entry.value.toUTF8();
+                try {
+                    os.write(flatPack(value));
+                } finally {
+                    Arrays.fill(value, (byte) 0);
+                }
+            }
+        }
+    }
+
+
+    static LazySecret getField(AccountInformation account, String field) {
+        if (field.equals(PASSWORD)) {
+            return account.getPasswordSecret();
+        } else if (field.equals(USER_ID)) {
+            return account.getUserIdSecret();
+        } else if (field.equals(NOTES)) {
+            return account.getNotesSecret();
+        }
+        return LazySecret.fromString(account.getUrl());
+    }
+
+
+    static void setField(AccountInformation account, String field, LazySecret value) {
+        if (field.equals(PASSWORD)) {
+            account.setPassword(value);
+        } else if (field.equals(USER_ID)) {
+            account.setUserId(value);
+        } else if (field.equals(NOTES)) {
+            account.setNotes(value);
+        } else {
+            account.setUrl(value.toString());
+        }
+    }
+
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+
+    /**
+     * One change to a field
+     */
+    public static class Entry {
+
+        private long time;
+        private String field;
+        /** The old value, or for a delta the bytes between the prefix and suffix */
+        private LazySecret value;
+        private int prefixLength = -1;
+        private int suffixLength;
+        private long checksum;
+
+        public Entry(long time, String field, LazySecret oldValue) {
+            this.time = time;
+            this.field = field;
+            this.value = oldValue;
+        }
+
+        Entry(long time, String field, int prefixLength, int suffixLength, LazySecret middle, long checksum) {
+            this(time, field, middle);
+            this.prefixLength = prefixLength;
+            this.suffixLength = suffixLength;
+            this.checksum = checksum;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return One of PASSWORD, USER_ID, URL or NOTES
+         */
+        public String getField() {
+            return field;
+        }
+
+        public boolean isDelta() {
+            return prefixLength >= 0;
+        }
+
+        /**
+         * @return The old value or null if it's stored as a delta, use
+         * getVersions() to get those
+         */
+        public LazySecret getOldValue() {
+            return isDelta() ? null : value;
+        }
+
+        /**
+         * @param newValue The value the field was changed to
+         * @return The value before the change, or null if this is a delta
+         * that wasn't made against the given value
+         */
+        LazySecret getValueBefore(LazySecret newValue) {
+            if (!isDelta()) {
+                return value;
+            }
+            byte[] newBytes = newValue.toUTF8();
+            byte[] middle = value.toUTF8();
+            try {
+                if (checksum(newBytes) != checksum || prefixLength + suffixLength > newBytes.length) {
+                    return null;
+                }
+                byte[] oldBytes = new byte[prefixLength + middle.length + suffixLength];
+                System.arraycopy(newBytes, 0, oldBytes, 0, prefixLength);
+                System.arraycopy(middle, 0, oldBytes, prefixLength, middle.length);
+                System.arraycopy(newBytes, newBytes.length - suffixLength, oldBytes,
+                        prefixLength + middle.length, suffixLength);
+                return LazySecret.fromUTF8(oldBytes);
+            } finally {
+                Arrays.fill(newBytes, (byte) 0);
+                Arrays.fill(middle, (byte) 0);
+            }
+        }
+
+    }
+
+
+    /**
+     * An account as it was before a change
+     */
+    public static class Version {
+
+        private long time;
+        private String[] changedFields;
+        private AccountInformation account;
+
+        Version(long time, String[] changedFields, AccountInformation account) {
+            this.time = time;
+            this.changedFields = changedFields;
+            this.account = account;
+        }
+
+        /**
+         * @return When the account was changed from this version
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The fields that were changed
+         */
+        public String[] getChangedFields() {
+            return changedFields;
+        }
+
+        public AccountInformation getAccount() {
+            return account;
+        }
+
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com._17od.upm.database.formats.AccountImporter;
+import com._17od.upm.database.formats.UPMCSVFormat;
+import com._17od.upm.util.IOExecutor;
+
+
+/**
+ * Imports accounts from a file into a database without holding the file
+ * in memory. A reader task on an IOExecutor parses the file with an
+ * AccountImporter (UPM's own CSV format unless another is given) and passes
+ * the accounts through a bounded queue to the calling thread, which applies
+ * them to the database in batches.
+ * 
+ * Accounts whose name already exists in the database are dealt with by a
+ * single conflict policy rather than one question per account. Call
+ * scan() first to find out how many conflicts there are and decide on the
+ * policy, then importAccounts(). Since scan() reads the whole file a badly
+ * formed file is caught before anything is changed. Saving the database is
+ * left to the caller so it's saved once however many accounts are imported.
+ */
+public class AccountImportPipeline {
+
+    /** Replace the existing account with the imported one */
+    public static final String OVERWRITE = "overwrite";
+    /** Keep the existing account and skip the imported one */
+    public static final String KEEP = "keep";
+    /** Import the account under a new name, e.g. "Hotmail (2)" */
+    public static final String RENAME = "rename";
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_CONFLICT_NAMES = 5;
+
+    /** Put on the queue by the reader when it's done */
+    private static final Object END_OF_FILE = new Object();
+
+    private PasswordDatabase database;
+    private AccountImporter importer;
+    private IOExecutor.Group ioTasks;
+
+
+    public AccountImportPipeline(PasswordDatabase database) {
+        this(database, (char[]) null);
+    }
+
+
+    /**
+     * @param password The password for an encrypted CSV file
+     */
+    public AccountImportPipeline(PasswordDatabase database, char[] password) {
+        this(database, new UPMCSVFormat(password));
+    }
+
+
+    /**
+     * @param importer Reads the format of the file being imported
+     */
+    public AccountImportPipeline(PasswordDatabase database, AccountImporter importer) {
+        this(database, importer, IOExecutor.getDefault().newGroup());
+    }
+
+
+    /**
+     * @param ioTasks The group the reader task is submitted to
+     */
+    public AccountImportPipeline(PasswordDatabase database, AccountImporter importer, IOExecutor.Group ioTasks) {
+        this.database = database;
+        this.importer = importer;
+        this.ioTasks = ioTasks;
+    }
+
+
+    /**
+     * Read through the file counting the accounts and conflicts
+     */
+    public Summary scan(File file) throws ImportException {
+        final Summary summary = new Summary();
+        importer.importAccounts(file, new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                summary.accounts++;
+                if (database.getAccount(account.getAccountName()) != null) {
+                    summary.conflicts++;
+                    if (summary.conflictNames.size() < MAX_CONFLICT_NAMES) {
+                        summary.conflictNames.add(account.getAccountName());
+                    }
+                }
+            }
+        });
+        return summary;
+    }
+
+
+    /**
+     * Import the accounts in the given file. Interrupting the calling thread
+     * stops the import once the batch being applied is done; the accounts
+     * imported so far are kept.
+     * @param conflictPolicy One of OVERWRITE, KEEP or RENAME
+     */
+    public synchronized Result importAccounts(final File file, String conflictPolicy) throws ImportException {
+        final BlockingQueue queue = new ArrayBlockingQueue(QUEUE_SIZE);
+        final ImportException[] readerError = new ImportException[1];
+        // Set when the calling thread gives up so the reader doesn't wait
+        // to hand over the end of the file
+        final AtomicBoolean abandoned = new AtomicBoolean();
+
+        Future reader = ioTasks.submit(IOExecutor.FILE_BACKEND, new Callable() {
+            public Object call() {
+                try {
+                    importer.importAccounts(file, new AccountHandler() {
+                        public void handleAccount(AccountInformation account) throws ImportException {
+                            try {
+                                queue.put(account);
+                            } catch (InterruptedException e) {
+                                throw new ImportException(e);
+                            }
+                        }
+                    });
+                } catch (ImportException e) {
+                    readerError[0] = e;
+                } finally {
+                    try {
+                        if (!abandoned.get()) {
+                            queue.put(END_OF_FILE);
+                        }
+                    } catch (InterruptedException e) {
+                        // The consumer has given up so nobody's waiting
+                    }
+                }
+                return null;
+            }
+        });
+
+        Result result = new Result();
+        ArrayList batch = new ArrayList(BATCH_SIZE);
+        boolean endOfFile = false;
+        try {
+            while (!endOfFile) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - batch.size());
+                endOfFile = batch.remove(END_OF_FILE);
+                apply(batch, conflictPolicy, result);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            throw new ImportException(e);
+        } finally {
+            if (!endOfFile) {
+                abandoned.set(true);
+                reader.cancel(true);
+            }
+        }
+
+        if (readerError[0] != null) {
+            throw readerError[0];
+        }
+        return result;
+    }
+
+
+    /**
+     * Wait for an import running on another thread to stop, one that's been
+     * interrupted for instance
+     */
+    public synchronized void waitForImport() {
+    }
+
+
+    private void apply(ArrayList batch, String conflictPolicy, Result result) {
+        for (int i = 0; i < batch.size(); i++) {
+            AccountInformation account = (AccountInformation) batch.get(i);
+            String accountName = account.getAccountName();
+            if (database.getAccount(accountName) != null) {
+                if (KEEP.equals(conflictPolicy)) {
+                    result.kept++;
+                    continue;
+                } else if (RENAME.equals(conflictPolicy)) {
+                    account.setAccountName(uniqueName(accountName));
+                    result.renamed++;
+                } else {
+                    result.overwritten++;
+                }
+            }
+            database.addAccount(account);
+            result.imported++;
+        }
+    }
+
+
+    private String uniqueName(String accountName) {
+        int copy = 2;
+        String name;
+        do {
+            name = accountName + " (" + copy++ + ")";
+        } while (database.getAccount(name) != null);
+        return name;
+    }
+
+
+    /**
+     * What scan() found in the file
+     */
+    public static class Summary {
+
+        private int accounts;
+        private int conflicts;
+        private ArrayList conflictNames = new ArrayList();
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * @return The names of the first few conflicting accounts
+         */
+        public ArrayList getConflictNames() {
+            return conflictNames;
+        }
+
+    }
+
+
+    /**
+     * What importAccounts() did
+     */
+    public static class Result {
+
+        private int imported;
+        private int overwritten;
+        private int kept;
+        private int renamed;
+
+        /**
+         * @return The number of accounts added to the database, including
+         * the overwritten and renamed ones
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        public int getOverwritten() {
+            return overwritten;
+        }
+
+        public int getKept() {
+            return kept;
+        }
+
+        public int getRenamed() {
+            return renamed;
+        }
+
+    }
+
+}
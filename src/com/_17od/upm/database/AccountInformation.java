@@ -24,38 +24,64 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
+import com._17od.upm.crypto.LazySecret;
 
+
+/**
+ * An account in the database. Only the account name and URL are held as
+ * plain Strings. The user id, password and notes are held as LazySecrets,
+ * encrypted in memory, and are only decrypted when they're asked for. The
+ * char[] getters return a copy that the caller should wipe once it's done
+ * with it; the String getters are there for convenience but leave a copy
+ * in memory that can't be wiped.
+ */
 public class AccountInformation extends FlatPackObject {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private String accountName;
-    private String userId;
-    private String password;
+    private LazySecret userId;
+    private LazySecret password;
     private String url;
-    private String notes;
+    private LazySecret notes;
 
 
     public AccountInformation() {
         accountName = "";
-        userId = "";
-        password = "";
+        userId = LazySecret.EMPTY;
+        password = LazySecret.EMPTY;
         url = "";
-        notes = "";
+        notes = LazySecret.EMPTY;
     }
     
     
     public AccountInformation(String accountName, String userId,
             String password, String url, String notes) {
         this.accountName = accountName;
-        this.userId = userId;
-        this.password = password;
+        this.userId = LazySecret.fromString(userId);
+        this.password = LazySecret.fromString(password);
         this.url = url;
-        this.notes = notes;
+        this.notes = LazySecret.fromString(notes);
+    }
+
+
+    /**
+     * Copy an account. The secrets are immutable so they're shared rather
+     * than decrypted and encrypted again.
+     */
+    public AccountInformation(AccountInformation account) {
+        this.accountName = account.getAccountName();
+        this.userId = account.getUserIdSecret();
+        this.password = account.getPasswordSecret();
+        this.url = account.getUrl();
+        this.notes = account.getNotesSecret();
     }
 
 
     public AccountInformation(InputStream is) throws IOException, ProblemReadingDatabaseFile {
-        assemble(is, Charset.forName("UTF-8"));
+        assemble(is, UTF8);
     }
 
 
@@ -65,19 +91,38 @@ public class AccountInformation extends FlatPackObject {
     
     //
     public void flatPack(OutputStream os) throws IOException {
-        os.write(flatPack(accountName));
-        os.write(flatPack(userId));
-        os.write(flatPack(password));
-        os.write(flatPack(url));
-        os.write(flatPack(notes));
+        os.write(flatPack(getAccountName()));
+        writeSecret(os, getUserIdSecret());
+        writeSecret(os, getPasswordSecret());
+        os.write(flatPack(getUrl()));
+        writeSecret(os, getNotesSecret());
+    }
+
+    private void writeSecret(OutputStream os, LazySecret secret) throws IOException {
+        byte[] plainText = secret.toUTF8();
+        byte[] packed = flatPack(plainText);
+        os.write(packed);
+        Arrays.fill(plainText, (byte) 0);
+        Arrays.fill(packed, (byte) 0);
     }
 
     private void assemble(InputStream is, Charset charset) throws IOException, ProblemReadingDatabaseFile {
         accountName = getString(is, charset);
-        userId = getString(is, charset);
-        password = getString(is, charset);
+        userId = readSecret(is, charset);
+        password = readSecret(is, charset);
         url = getString(is, charset);
-        notes = getString(is, charset);
+        notes = readSecret(is, charset);
+    }
+
+    /**
+     * UTF-8 fields go straight from the stream to the LazySecret without
+     * ever being a String
+     */
+    private LazySecret readSecret(InputStream is, Charset charset) throws IOException, ProblemReadingDatabaseFile {
+        if (charset.equals(UTF8)) {
+            return LazySecret.fromUTF8(getBytes(is));
+        }
+        return LazySecret.fromString(getString(is, charset));
     }
     
     public String getAccountName() {
@@ -89,18 +134,50 @@ public class AccountInformation extends FlatPackObject {
     }
 
     public String getNotes() {
+        return getNotesSecret().toString();
+    }
+
+    public char[] getNotesChars() {
+        return getNotesSecret().toChars();
+    }
+
+    public LazySecret getNotesSecret() {
         return notes;
     }
 
     public void setNotes(String notes) {
+        setNotes(LazySecret.fromString(notes));
+    }
+
+    public void setNotes(char[] notes) {
+        setNotes(LazySecret.fromChars(notes));
+    }
+
+    public void setNotes(LazySecret notes) {
         this.notes = notes;
     }
 
     public String getPassword() {
+        return getPasswordSecret().toString();
+    }
+
+    public char[] getPasswordChars() {
+        return getPasswordSecret().toChars();
+    }
+
+    public LazySecret getPasswordSecret() {
         return password;
     }
 
     public void setPassword(String password) {
+        setPassword(LazySecret.fromString(password));
+    }
+
+    public void setPassword(char[] password) {
+        setPassword(LazySecret.fromChars(password));
+    }
+
+    public void setPassword(LazySecret password) {
         this.password = password;
     }
 
@@ -113,10 +190,26 @@ public class AccountInformation extends FlatPackObject {
     }
 
     public String getUserId() {
+        return getUserIdSecret().toString();
+    }
+
+    public char[] getUserIdChars() {
+        return getUserIdSecret().toChars();
+    }
+
+    public LazySecret getUserIdSecret() {
         return userId;
     }
 
     public void setUserId(String userId) {
+        setUserId(LazySecret.fromString(userId));
+    }
+
+    public void setUserId(char[] userId) {
+        setUserId(LazySecret.fromChars(userId));
+    }
+
+    public void setUserId(LazySecret userId) {
         this.userId = userId;
     }
 
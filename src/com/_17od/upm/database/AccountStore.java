@@ -0,0 +1,479 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.crypto.SessionCipher;
+
+
+/**
+ * A compact, column oriented store for accounts. Rather than five objects
+ * per account each field has its own byte arena holding the values of every
+ * account back to back, with an int start and length per account pointing
+ * into it. Account names and URLs are held as UTF-8. The secrets are held
+ * as UTF-8 encrypted with the SessionCipher key stream at their position in
+ * the arena, so they stay encrypted without paying for an IV per value.
+ * 
+ * User ids and URL hosts (the scheme, host and port part of the URL, which
+ * has a column of its own) tend to repeat across a lot of accounts. When a
+ * value in those columns matches one recently stored the account just
+ * points at the existing bytes. Recent values are found through a small
+ * fixed size table so this costs next to nothing when nothing repeats.
+ * 
+ * Accounts are read and written through flyweight views returned by get().
+ * A view is just a reference to the store and a slot number so any number
+ * of them can be created and thrown away. Changing a field appends the new
+ * value to the arena; the old bytes are reclaimed by compact(), which runs
+ * automatically once more than half of an arena is garbage.
+ * 
+ * Slots are never removed. Deleting an account from the database just
+ * leaves its slot unreferenced until the database is next loaded.
+ */
+public class AccountStore {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int ACCOUNT_NAME = 0;
+    private static final int USER_ID = 1;
+    private static final int PASSWORD = 2;
+    private static final int URL_HOST = 3;
+    private static final int URL_PATH = 4;
+    private static final int NOTES = 5;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int RECENT_VALUES = 1024;
+
+    private Column[] columns;
+    private int size;
+
+
+    public AccountStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+
+    public AccountStore(int expectedAccounts) {
+        int capacity = Math.max(expectedAccounts, 1);
+        columns = new Column[6];
+        columns[ACCOUNT_NAME] = new Column(capacity, false, false);
+        columns[USER_ID] = new Column(capacity, true, true);
+        columns[PASSWORD] = new Column(capacity, true, false);
+        columns[URL_HOST] = new Column(capacity, false, true);
+        columns[URL_PATH] = new Column(capacity, false, false);
+        columns[NOTES] = new Column(capacity, true, false);
+    }
+
+
+    /**
+     * Copy the given account into the store
+     * @return The slot holding the account
+     */
+    public int add(AccountInformation account) {
+        int slot = size++;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].ensureSlots(size);
+        }
+        setString(slot, ACCOUNT_NAME, account.getAccountName());
+        setSecret(slot, USER_ID, account.getUserIdSecret());
+        setSecret(slot, PASSWORD, account.getPasswordSecret());
+        setUrl(slot, account.getUrl());
+        setSecret(slot, NOTES, account.getNotesSecret());
+        return slot;
+    }
+
+
+    /**
+     * @return A view of the account in the given slot. Changes made through
+     * the view are written to the store.
+     */
+    public AccountInformation get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " isn't in the store [size=" + size + "]");
+        }
+        return new AccountView(this, slot);
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * @return true if the given account is a view of a slot in this store
+     */
+    public boolean holds(AccountInformation account) {
+        return account instanceof AccountView && ((AccountView) account).store == this;
+    }
+
+
+    /**
+     * @return The number of bytes allocated to the arenas and slot tables
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < columns.length; i++) {
+            bytes += columns[i].getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * @return The number of arena bytes saved by accounts sharing values
+     */
+    public long getSharedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < columns.length; i++) {
+            bytes += columns[i].getSharedBytes(size);
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Squeeze out values that have been replaced and trim the arenas and slot
+     * tables down to what's in use. Worth calling after a bulk load.
+     */
+    public void compact() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].compact(size);
+        }
+    }
+
+
+    private String getString(int slot, int column) {
+        Column c = columns[column];
+        return new String(c.arena, c.start[slot], c.length[slot], UTF8);
+    }
+
+
+    private void setString(int slot, int column, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF8);
+        columns[column].set(slot, bytes, Arrays.hashCode(bytes), size);
+    }
+
+
+    private String getUrl(int slot) {
+        return getString(slot, URL_HOST) + getString(slot, URL_PATH);
+    }
+
+
+    private void setUrl(int slot, String url) {
+        if (url == null) {
+            url = "";
+        }
+        int scheme = url.indexOf("://");
+        int hostEnd = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        if (hostEnd < 0) {
+            hostEnd = url.length();
+        }
+        setString(slot, URL_HOST, url.substring(0, hostEnd));
+        setString(slot, URL_PATH, url.substring(hostEnd));
+    }
+
+
+    private LazySecret getSecret(int slot, int column) {
+        Column c = columns[column];
+        if (c.length[slot] == 0) {
+            return LazySecret.EMPTY;
+        }
+        return LazySecret.fromUTF8(c.read(slot));
+    }
+
+
+    /**
+     * The secret's hash code is a hash of its cipher text so it's safe to
+     * keep around in the table of recent values
+     */
+    private void setSecret(int slot, int column, LazySecret value) {
+        if (value == null) {
+            value = LazySecret.EMPTY;
+        }
+        byte[] bytes = value.toUTF8();
+        columns[column].set(slot, bytes, value.hashCode(), size);
+        Arrays.fill(bytes, (byte) 0);
+    }
+
+
+    /**
+     * One field of every account
+     */
+    private static class Column {
+
+        private byte[] arena;
+        private int used;
+        private int garbage;
+        private int[] start;
+        private int[] length;
+        private boolean encrypted;
+        private long nonce;
+        private int[] recent;
+
+
+        Column(int slots, boolean encrypted, boolean shared) {
+            arena = new byte[slots * 16];
+            start = new int[slots];
+            length = new int[slots];
+            this.encrypted = encrypted;
+            if (encrypted) {
+                nonce = SessionCipher.getInstance().newNonce();
+            }
+            if (shared) {
+                recent = new int[RECENT_VALUES];
+            }
+        }
+
+
+        void ensureSlots(int slots) {
+            if (slots > start.length) {
+                int newLength = Math.max(slots, start.length * 2);
+                start = copyOf(start, newLength);
+                length = copyOf(length, newLength);
+            }
+        }
+
+
+        /**
+         * @return A copy of the (decrypted) value in the given slot
+         */
+        byte[] read(int slot) {
+            byte[] bytes = new byte[length[slot]];
+            System.arraycopy(arena, start[slot], bytes, 0, bytes.length);
+            applyKeyStream(start[slot], bytes, 0, bytes.length);
+            return bytes;
+        }
+
+
+        void set(int slot, byte[] value, int hash, int slotsInUse) {
+            int match = findRecent(slot, value, hash);
+            if (match >= 0) {
+                garbage += length[slot];
+                start[slot] = start[match];
+                length[slot] = length[match];
+                return;
+            }
+            int offset = allocate(slot, value.length, slotsInUse);
+            System.arraycopy(value, 0, arena, offset, value.length);
+            applyKeyStream(offset, arena, offset, value.length);
+            if (recent != null && value.length > 0) {
+                recent[hash & (recent.length - 1)] = slot + 1;
+            }
+        }
+
+
+        /**
+         * @return Another slot holding the given value or -1 if there isn't
+         * one in the table of recent values
+         */
+        private int findRecent(int slot, byte[] value, int hash) {
+            if (recent == null || value.length == 0) {
+                return -1;
+            }
+            int candidate = recent[hash & (recent.length - 1)] - 1;
+            if (candidate < 0 || candidate == slot || length[candidate] != value.length) {
+                return -1;
+            }
+            byte[] existing = read(candidate);
+            boolean same = Arrays.equals(existing, value);
+            Arrays.fill(existing, (byte) 0);
+            return same ? candidate : -1;
+        }
+
+
+        /**
+         * Encrypt or decrypt the given bytes which are (or will be) at the
+         * given position in the arena. Does nothing for plain columns.
+         */
+        void applyKeyStream(int position, byte[] buffer, int offset, int length) {
+            if (encrypted) {
+                SessionCipher.getInstance().applyKeyStream(nonce, position, buffer, offset, length);
+            }
+        }
+
+
+        /**
+         * Make room at the end of the arena for a new value for the given
+         * slot and point the slot at it. The value being replaced is counted
+         * as garbage even if another slot shares it; compact() works out
+         * what's really live.
+         * @return The offset in the arena to write the value to
+         */
+        int allocate(int slot, int bytes, int slotsInUse) {
+            garbage += length[slot];
+            start[slot] = 0;
+            length[slot] = 0;
+            if (garbage > used / 2 && garbage > 0) {
+                compact(slotsInUse);
+            }
+            if (used + bytes > arena.length) {
+                byte[] newArena = new byte[Math.max(used + bytes, arena.length * 2)];
+                System.arraycopy(arena, 0, newArena, 0, used);
+                arena = newArena;
+            }
+            int offset = used;
+            start[slot] = offset;
+            length[slot] = bytes;
+            used += bytes;
+            return offset;
+        }
+
+
+        /**
+         * Encrypted values move to new positions so they're re-encrypted
+         * under a new nonce; a position is never reused with the old one.
+         * Values shared by several slots are copied once.
+         */
+        void compact(int slotsInUse) {
+            HashMap newStarts = new HashMap();
+            int live = 0;
+            for (int i = 0; i < slotsInUse; i++) {
+                Integer oldStart = Integer.valueOf(start[i]);
+                if (length[i] > 0 && !newStarts.containsKey(oldStart)) {
+                    newStarts.put(oldStart, Integer.valueOf(live));
+                    live += length[i];
+                }
+            }
+
+            byte[] newArena = new byte[live];
+            long oldNonce = nonce;
+            if (encrypted) {
+                nonce = SessionCipher.getInstance().newNonce();
+            }
+            HashSet copied = new HashSet();
+            for (int i = 0; i < slotsInUse; i++) {
+                if (length[i] == 0) {
+                    start[i] = 0;
+                    continue;
+                }
+                Integer oldStart = Integer.valueOf(start[i]);
+                int offset = ((Integer) newStarts.get(oldStart)).intValue();
+                if (copied.add(oldStart)) {
+                    System.arraycopy(arena, start[i], newArena, offset, length[i]);
+                    if (encrypted) {
+                        SessionCipher.getInstance().applyKeyStream(oldNonce, start[i], newArena, offset, length[i]);
+                        applyKeyStream(offset, newArena, offset, length[i]);
+                    }
+                }
+                start[i] = offset;
+            }
+            Arrays.fill(arena, (byte) 0);
+            arena = newArena;
+            used = live;
+            garbage = 0;
+            start = copyOf(start, slotsInUse);
+            length = copyOf(length, slotsInUse);
+        }
+
+
+        long getAllocatedBytes() {
+            long bytes = arena.length + 4L * start.length + 4L * length.length;
+            return recent == null ? bytes : bytes + 4L * recent.length;
+        }
+
+
+        long getSharedBytes(int slotsInUse) {
+            if (recent == null) {
+                return 0;
+            }
+            HashSet starts = new HashSet();
+            long shared = 0;
+            for (int i = 0; i < slotsInUse; i++) {
+                if (length[i] > 0 && !starts.add(Integer.valueOf(start[i]))) {
+                    shared += length[i];
+                }
+            }
+            return shared;
+        }
+
+
+        private static int[] copyOf(int[] array, int newLength) {
+            int[] copy = new int[newLength];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, newLength));
+            return copy;
+        }
+
+    }
+
+
+    /**
+     * A flyweight AccountInformation reading from and writing to one slot in
+     * the store
+     */
+    private static class AccountView extends AccountInformation {
+
+        private AccountStore store;
+        private int slot;
+
+
+        AccountView(AccountStore store, int slot) {
+            this.store = store;
+            this.slot = slot;
+        }
+
+        public String getAccountName() {
+            return store.getString(slot, ACCOUNT_NAME);
+        }
+
+        public void setAccountName(String accountName) {
+            store.setString(slot, ACCOUNT_NAME, accountName);
+        }
+
+        public LazySecret getNotesSecret() {
+            return store.getSecret(slot, NOTES);
+        }
+
+        public void setNotes(LazySecret notes) {
+            store.setSecret(slot, NOTES, notes);
+        }
+
+        public LazySecret getPasswordSecret() {
+            return store.getSecret(slot, PASSWORD);
+        }
+
+        public void setPassword(LazySecret password) {
+            store.setSecret(slot, PASSWORD, password);
+        }
+
+        public String getUrl() {
+            return store.getUrl(slot);
+        }
+
+        public void setUrl(String url) {
+            store.setUrl(slot, url);
+        }
+
+        public LazySecret getUserIdSecret() {
+            return store.getSecret(slot, USER_ID);
+        }
+
+        public void setUserId(LazySecret userId) {
+            store.setSecret(slot, USER_ID, userId);
+        }
+
+    }
+
+}
@@ -20,46 +20,159 @@
  */
 package com._17od.upm.database;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 
+import com._17od.upm.crypto.CryptoException;
+import com._17od.upm.crypto.EncryptionService;
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.util.DedupPool;
 import com._17od.upm.util.Translator;
+import com._17od.upm.util.Util;
 import com.csvreader.CsvReader;
+import com.csvreader.CsvWriter;
 
+/**
+ * Exports accounts to, and imports them from, CSV files with one account per
+ * record: name, user id, password, URL, notes.
+ * 
+ * Exports can be encrypted with a password. An encrypted export is the
+ * ENCRYPTED_MAGIC bytes followed by the salt and then the UTF-8 CSV,
+ * preceded by the magic bytes again so a wrong password can be spotted,
+ * encrypted the same way as a database.
+ */
 public class AccountsCSVMarshaller {
 
-    public void marshal(ArrayList accounts, File file) throws ExportException {
+    public static final byte[] ENCRYPTED_MAGIC = {'U', 'P', 'M', 'C', 'S', 'V'};
 
-//        if (file.exists()) {
-//            throw new ExportException("The file to export to already exists");
-//        }
+    private static final int BUFFER_SIZE = 256 * 1024;
 
+    public void marshal(ArrayList accounts, File file) throws ExportException {
+        marshal(accounts == null ? null : accounts.iterator(), file, null);
+    }
 
-//            FileWriter writer = new FileWriter(file);
-    
-//            CsvWriter csvWriter = new CsvWriter(writer, ',');
-            for (int i=0; i<accounts.size(); i++) {
-                AccountInformation temp = (AccountInformation) accounts.get(i);
+    /**
+     * Write the accounts straight from the iterator to the file, without
+     * copying them first
+     * @param password The password to encrypt the file with or null to
+     * write a plain CSV file
+     */
+    public void marshal(Iterator accounts, File file, char[] password) throws ExportException {
+        if (file.exists()) {
+            throw new ExportException("The file to export to already exists");
+        }
 
-//                csvWriter.writeRecord(
-//                        getAccountAsStringArray(
-//                                (AccountInformation) accounts.get(i)
-//                        )
-//                );
+        CsvWriter csvWriter = null;
+        boolean written = false;
+        try {
+            EncryptionService encryptionService = null;
+            if (password != null) {
+                encryptionService = new EncryptionService(password);
             }
-//            csvWriter.close();
+            OutputStream os = new FileOutputStream(file);
+            Writer writer;
+            try {
+                if (encryptionService != null) {
+                    os.write(ENCRYPTED_MAGIC);
+                    os.write(encryptionService.getSalt());
+                    os = encryptionService.encrypt(os);
+                    os.write(ENCRYPTED_MAGIC);
+                    writer = new OutputStreamWriter(os, "UTF-8");
+                } else {
+                    // Plain files use the default charset, as unmarshal() does
+                    writer = new OutputStreamWriter(os);
+                }
+            } catch (IOException e) {
+                os.close();
+                throw e;
+            }
+            BufferedWriter bufferedWriter = new BufferedWriter(writer, BUFFER_SIZE);
+            csvWriter = new CsvWriter(bufferedWriter, ',');
 
+            String[] record = new String[5];
+            while (accounts.hasNext()) {
+                fillRecord((AccountInformation) accounts.next(), record);
+                csvWriter.writeRecord(record);
+            }
+            // CsvWriter.close() swallows exceptions so close the writer
+            // ourselves to hear about a failure writing the last few bytes
+            csvWriter.flush();
+            bufferedWriter.close();
+            csvWriter.close();
+            written = true;
+        } catch (IOException e) {
+            throw new ExportException(e);
+        } catch (CryptoException e) {
+            throw new ExportException(e);
+        } finally {
+            if (!written) {
+                if (csvWriter != null) {
+                    csvWriter.close();
+                }
+                file.delete();
+            }
+        }
+    }
 
+    /**
+     * @return true if the file is an encrypted export
+     */
+    public boolean isEncrypted(File file) throws ImportException {
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                return hasMagic(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            throw new ImportException(e);
+        }
     }
 
     public ArrayList<AccountInformation> unmarshal(File file) throws ImportException {
-        ArrayList<AccountInformation> accounts = new ArrayList<>();
+        final ArrayList<AccountInformation> accounts = new ArrayList<>();
+        unmarshal(file, new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        });
+        return accounts;
+    }
+
+    /**
+     * Read the accounts in the given CSV file passing each one to the handler
+     * as soon as it's read
+     */
+    public void unmarshal(File file, AccountHandler handler) throws ImportException {
+        unmarshal(file, null, handler);
+    }
 
+    /**
+     * @param password The password for an encrypted file, ignored for plain
+     * files
+     */
+    public void unmarshal(File file, char[] password, AccountHandler handler) throws ImportException {
+        DedupPool pool = DedupPool.getShared();
+        CsvReader csvReader = null;
         try {
-            CsvReader csvReader = new CsvReader(new FileReader(file));
+            csvReader = new CsvReader(openReader(file, password));
             while (csvReader.readRecord()) {
                 if (csvReader.getColumnCount() != 5) {
                     throw new ImportException(
@@ -67,28 +180,119 @@ public class AccountsCSVMarshaller {
                                     new Object[] {file.getAbsoluteFile(), 
                                     new Long(csvReader.getCurrentRecord() + 1)})); 
                 }
-                accounts.add(new AccountInformation(
-                        csvReader.get(0),
-                        csvReader.get(1),
-                        csvReader.get(2),
-                        csvReader.get(3),
-                        csvReader.get(4)));
+                handler.handleAccount(createAccount(csvReader.getValues(), pool));
+            }
+        } catch (IOException e) {
+            throw new ImportException(e);
+        } finally {
+            if (csvReader != null) {
+                csvReader.close();
+            }
+        }
+    }
+
+    /**
+     * The same as unmarshal() but plain files are split up and parsed on
+     * several threads. The accounts are still passed to the handler one at a
+     * time in file order. Encrypted files, files in a charset that can't be
+     * split safely and machines with one processor (where the hand off only
+     * adds overhead) use the normal way.
+     */
+    public void unmarshalParallel(File file, char[] password, AccountHandler handler) throws ImportException {
+        Charset charset = Util.defaultCharset();
+        if (Runtime.getRuntime().availableProcessors() < 2 || isEncrypted(file)
+                || !ParallelCSVParser.supports(charset) || file.length() > Integer.MAX_VALUE) {
+            unmarshal(file, password, handler);
+            return;
+        }
+
+        unmarshalParallel(file, charset, new ParallelCSVParser(), handler);
+    }
+
+    /**
+     * Parse a plain file with the given parser whatever the number of
+     * processors
+     */
+    void unmarshalParallel(File file, Charset charset, ParallelCSVParser parser, AccountHandler handler) throws ImportException {
+        final DedupPool pool = DedupPool.getShared();
+        try {
+            long rejectedRecord = parser.parse(file, charset, new ParallelCSVParser.RecordMapper() {
+                public AccountInformation map(String[] record) {
+                    return record.length == 5 ? createAccount(record, pool) : null;
+                }
+            }, handler);
+            if (rejectedRecord > 0) {
+                throw new ImportException(
+                        Translator.translate("notCSVFileError",
+                                new Object[] {file.getAbsoluteFile(), new Long(rejectedRecord)}));
             }
         } catch (IOException e) {
             throw new ImportException(e);
         }
+    }
 
-        return accounts;
+    /**
+     * User ids and URLs repeat a lot so the copies are shared
+     */
+    private static AccountInformation createAccount(String[] record, DedupPool pool) {
+        AccountInformation account = new AccountInformation(
+                record[0],
+                "",
+                record[2],
+                pool.dedup(record[3]),
+                record[4]);
+        LazySecret userId = LazySecret.fromString(record[1]);
+        account.setUserId((LazySecret) pool.dedup(userId, 32 + userId.getEncryptedLength()));
+        return account;
+    }
+
+    private Reader openReader(File file, char[] password) throws IOException, ImportException {
+        if (!isEncrypted(file)) {
+            return new FileReader(file);
+        }
+        if (password == null) {
+            throw new ImportException(Translator.translate("incorrectPassword"));
+        }
+
+        InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            hasMagic(is);
+            byte[] salt = new byte[EncryptionService.SALT_LENGTH];
+            new DataInputStream(is).readFully(salt);
+            is = new EncryptionService(password, salt).decrypt(is);
+            if (!hasMagic(is)) {
+                throw new ImportException(Translator.translate("incorrectPassword"));
+            }
+        } catch (IOException e) {
+            is.close();
+            // A wrong password can leave a bad final block
+            throw new ImportException(Translator.translate("incorrectPassword"), e);
+        } catch (ImportException e) {
+            is.close();
+            throw e;
+        }
+        return new InputStreamReader(is, "UTF-8");
+    }
+
+    private boolean hasMagic(InputStream is) throws IOException {
+        byte[] magic = new byte[ENCRYPTED_MAGIC.length];
+        int count = 0;
+        while (count < magic.length) {
+            int read = is.read(magic, count, magic.length - count);
+            if (read == -1) {
+                return false;
+            }
+            count += read;
+        }
+        return Arrays.equals(ENCRYPTED_MAGIC, magic);
     }
 
-    private String[] getAccountAsStringArray(AccountInformation account) {
-        String[] arr = new String[5];
-        arr[0] = account.getAccountName();
-        arr[1] = account.getUserId();
-        arr[2] = account.getPassword();
-        arr[3] = account.getUrl();
-        arr[4] = account.getNotes();
-        return arr;
+    private void fillRecord(AccountInformation account, String[] record) {
+        record[0] = account.getAccountName();
+        record[1] = account.getUserId();
+        record[2] = account.getPassword();
+        record[3] = account.getUrl();
+        record[4] = account.getNotes();
     }
 
 }
@@ -25,22 +25,45 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 
+/**
+ * The structural version of the database. From version 4 the header also
+ * records the codec the rest of the database was compressed with.
+ */
 public class DatabaseHeader extends FlatPackObject {
 
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_DEFLATE = "deflate";
+
     private int majorVersion;
     private int minorVersion;
     private int patchVersion;
+    private String compression;
     
     
     public DatabaseHeader(InputStream is) throws IOException, ProblemReadingDatabaseFile {
-        assemble(is);
+        this(is, false);
+    }
+    
+    
+    /**
+     * @param withCompression true if the header includes the compression
+     * codec (version 4 onwards)
+     */
+    public DatabaseHeader(InputStream is, boolean withCompression) throws IOException, ProblemReadingDatabaseFile {
+        assemble(is, withCompression);
     }
     
     
     public DatabaseHeader(int majorVersion, int minorVersion, int patchVersion) {
+        this(majorVersion, minorVersion, patchVersion, null);
+    }
+    
+    
+    public DatabaseHeader(int majorVersion, int minorVersion, int patchVersion, String compression) {
         this.majorVersion = majorVersion;
         this.minorVersion = minorVersion;
         this.patchVersion = patchVersion;
+        this.compression = compression;
     }
     
     
@@ -48,13 +71,19 @@ public class DatabaseHeader extends FlatPackObject {
         os.write(flatPack(String.valueOf(majorVersion)));
         os.write(flatPack(String.valueOf(minorVersion)));
         os.write(flatPack(String.valueOf(patchVersion)));
+        if (compression != null) {
+            os.write(flatPack(compression));
+        }
     }
 
     
-    private void assemble(InputStream is) throws IOException, ProblemReadingDatabaseFile {
+    private void assemble(InputStream is, boolean withCompression) throws IOException, ProblemReadingDatabaseFile {
         majorVersion = getInt(is);
         minorVersion = getInt(is);
         patchVersion = getInt(is);
+        if (withCompression) {
+            compression = getString(is);
+        }
     }    
 
     public String getVersion() {
@@ -97,4 +126,18 @@ public class DatabaseHeader extends FlatPackObject {
         this.patchVersion = patchVersion;
     }
 
+
+    /**
+     * @return The codec the database body was compressed with or null if
+     * the header predates compression
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Does a three-way merge of a local database with its remote copy. The base
+ * of the merge is the state both databases were in at the last sync, as
+ * recorded by the local database's AccountChangeLog.
+ *
+ * If the remote revision hasn't moved since the last sync then only the
+ * accounts in the change log are looked at. Otherwise every remote account
+ * that wasn't changed locally is compared with the local copy to pick up
+ * the remote changes. Only accounts changed on both sides, in different
+ * ways, are reported as conflicts.
+ *
+ * If the local database has no record of the last sync (its change log's
+ * base revision is unknown) there's no base to merge against. The two
+ * databases are then compared directly: accounts only one side has are kept,
+ * accounts that differ are reported as conflicts and nothing is ever
+ * deleted.
+ */
+public class DatabaseMerger {
+
+    public MergeResult merge(PasswordDatabase local, PasswordDatabase remote) {
+        AccountChangeLog changeLog = local.getChangeLog();
+        if (!changeLog.isBaseKnown()) {
+            return mergeWithoutBase(local, remote);
+        }
+        MergeResult result = new MergeResult();
+
+        // Accounts changed locally since the last sync
+        Iterator it = changeLog.getChangedAccountNames().iterator();
+        while (it.hasNext()) {
+            String accountName = (String) it.next();
+            AccountInformation base = changeLog.getBaseValue(accountName);
+            AccountInformation localValue = local.getAccount(accountName);
+            AccountInformation remoteValue = remote.getAccount(accountName);
+            if (sameValues(localValue, remoteValue)) {
+                // Either nothing really changed or both sides made the same change
+                continue;
+            } else if (sameValues(base, remoteValue)) {
+                result.localChangesToPublish = true;
+            } else {
+                result.conflicts.add(new Conflict(accountName, base, localValue, remoteValue));
+            }
+        }
+
+        // Accounts changed remotely since the last sync
+        if (remote.getRevision().getRevision() != changeLog.getBaseRevision()) {
+            it = remote.getAccountsHash().entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                String accountName = (String) entry.getKey();
+                AccountInformation remoteValue = (AccountInformation) entry.getValue();
+                if (!changeLog.isChanged(accountName)
+                        && !sameValues(local.getAccount(accountName), remoteValue)) {
+                    result.remoteChanges.put(accountName, remoteValue);
+                }
+            }
+            it = local.getAccountsHash().keySet().iterator();
+            while (it.hasNext()) {
+                String accountName = (String) it.next();
+                if (!changeLog.isChanged(accountName) && remote.getAccount(accountName) == null) {
+                    result.remoteChanges.put(accountName, null);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * A two-way merge for when the state at the last sync isn't known. It
+     * can't tell a deletion on one side from an addition on the other so
+     * both are treated as additions.
+     */
+    private MergeResult mergeWithoutBase(PasswordDatabase local, PasswordDatabase remote) {
+        MergeResult result = new MergeResult();
+        Iterator it = remote.getAccountsHash().entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            String accountName = (String) entry.getKey();
+            AccountInformation remoteValue = (AccountInformation) entry.getValue();
+            AccountInformation localValue = local.getAccount(accountName);
+            if (localValue == null) {
+                result.remoteChanges.put(accountName, remoteValue);
+            } else if (!sameValues(localValue, remoteValue)) {
+                result.conflicts.add(new Conflict(accountName, null, localValue, remoteValue));
+            }
+        }
+        it = local.getAccountsHash().keySet().iterator();
+        while (it.hasNext()) {
+            if (remote.getAccount((String) it.next()) == null) {
+                result.localChangesToPublish = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Compare two accounts field by field. Either account can be null
+     * meaning it doesn't exist. The secret fields are compared as
+     * LazySecrets, by their cipher texts. For an account held in an
+     * AccountStore that still means decrypting each secret from the store
+     * and encrypting it again as a LazySecret, but the plain text is wiped
+     * straight away and never leaves the store's getter.
+     */
+    public static boolean sameValues(AccountInformation a, AccountInformation b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getAccountName().equals(b.getAccountName())
+                && a.getUserIdSecret().equals(b.getUserIdSecret())
+                && a.getPasswordSecret().equals(b.getPasswordSecret())
+                && a.getUrl().equals(b.getUrl())
+                && a.getNotesSecret().equals(b.getNotesSecret());
+    }
+
+
+    /**
+     * An account that was changed both locally and remotely since the last sync
+     */
+    public static class Conflict {
+
+        private String accountName;
+        private AccountInformation base;
+        private AccountInformation local;
+        private AccountInformation remote;
+
+        public Conflict(String accountName, AccountInformation base,
+                AccountInformation local, AccountInformation remote) {
+            this.accountName = accountName;
+            this.base = base;
+            this.local = local;
+            this.remote = remote;
+        }
+
+        public String getAccountName() {
+            return accountName;
+        }
+
+        /**
+         * @return The account as it was at the last sync, null if it didn't
+         * exist then or the last sync isn't known
+         */
+        public AccountInformation getBase() {
+            return base;
+        }
+
+        public AccountInformation getLocal() {
+            return local;
+        }
+
+        public AccountInformation getRemote() {
+            return remote;
+        }
+
+    }
+
+
+    public static class MergeResult {
+
+        private HashMap remoteChanges = new HashMap();
+        private ArrayList conflicts = new ArrayList();
+        private boolean localChangesToPublish;
+
+        /**
+         * Resolve a conflict by keeping either the local or the remote version
+         * of the account
+         */
+        public void resolve(Conflict conflict, boolean keepLocal) {
+            if (keepLocal) {
+                localChangesToPublish = true;
+            } else {
+                remoteChanges.put(conflict.getAccountName(), conflict.getRemote());
+            }
+            conflicts.remove(conflict);
+        }
+
+        /**
+         * Apply the remote changes to the local database
+         */
+        public void applyTo(PasswordDatabase local) {
+            Iterator it = remoteChanges.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                local.applyChange((String) entry.getKey(), (AccountInformation) entry.getValue());
+            }
+        }
+
+        /**
+         * @return The accounts to change in the local database. A null value
+         * means the account should be deleted.
+         */
+        public HashMap getRemoteChanges() {
+            return remoteChanges;
+        }
+
+        public ArrayList getConflicts() {
+            return conflicts;
+        }
+
+        public boolean hasConflicts() {
+            return !conflicts.isEmpty();
+        }
+
+        public boolean hasLocalChangesToPublish() {
+            return localChangesToPublish;
+        }
+
+        public boolean hasRemoteChanges() {
+            return !remoteChanges.isEmpty();
+        }
+
+    }
+
+}
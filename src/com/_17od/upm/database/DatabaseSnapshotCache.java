@@ -0,0 +1,300 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com._17od.upm.crypto.CryptoException;
+import com._17od.upm.crypto.InvalidPasswordException;
+import com._17od.upm.util.Util;
+
+
+/**
+ * An encrypted snapshot of the last database loaded from (or saved to) the
+ * loginmanager backend. It's loaded at startup so the accounts can be shown
+ * straight away while the backend is asked for the latest version in the
+ * background. It also means the accounts are still available when the
+ * backend can't be reached.
+ * 
+ * The snapshot is kept in the compressed version 4 database format. It's
+ * encrypted with a random key kept in a separate file that only the user can
+ * read. That keeps the accounts out of plain sight on disk (in backups for
+ * instance) but it's no stronger than the user's file permissions; the
+ * backend itself hands the accounts out unencrypted.
+ */
+public class DatabaseSnapshotCache {
+
+    private static final int KEY_LENGTH = 32;
+    private static final String SNAPSHOT_FILE = "upm-snapshot.db";
+    private static final String SNAPSHOT_KEY_FILE = "upm-snapshot.key";
+    private static final String[] SIDECAR_SUFFIXES = {
+            PasswordDatabasePersistence.HISTORY_SUFFIX, PasswordDatabasePersistence.CHANGES_SUFFIX};
+
+    private File snapshotFile;
+    private File keyFile;
+    private PasswordDatabasePersistence persistence;
+    private int historyMaxVersions = 0;
+    // Held while the snapshot files are written, read or deleted. Snapshots
+    // are prepared under the cache's own lock so preparing one never waits
+    // for another to be written.
+    private final Object fileLock = new Object();
+    // Snapshots are numbered as they're prepared so one prepared earlier
+    // never overwrites a later one
+    private long lastPrepared = 0;
+    private long lastWritten = 0;
+    private int historyMaxAgeDays = 0;
+
+
+    public DatabaseSnapshotCache(File snapshotFile, File keyFile) {
+        this.snapshotFile = snapshotFile;
+        this.keyFile = keyFile;
+    }
+
+
+    /**
+     * @return The snapshot kept in the given directory, normally the one
+     * the preferences are kept in
+     */
+    public static DatabaseSnapshotCache inDirectory(File directory) {
+        return new DatabaseSnapshotCache(new File(directory, SNAPSHOT_FILE),
+                new File(directory, SNAPSHOT_KEY_FILE));
+    }
+
+
+    /**
+     * @return The database in the snapshot or null if there isn't a usable
+     * snapshot
+     */
+    public synchronized PasswordDatabase load() {
+        synchronized (fileLock) {
+            if (!snapshotFile.exists() || !keyFile.exists()) {
+                return null;
+            }
+            try {
+                PasswordDatabasePersistence loadedWith = new PasswordDatabasePersistence();
+                PasswordDatabase database = loadedWith.load(snapshotFile, readKey());
+                // The snapshot file isn't where the database lives
+                database.setDatabaseFile(null);
+                persistence = loadedWith;
+                return database;
+            } catch (InvalidPasswordException e) {
+                return null;
+            } catch (ProblemReadingDatabaseFile e) {
+                return null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Replace the snapshot with the given database
+     * @see #prepare(PasswordDatabase)
+     */
+    public void save(PasswordDatabase database) throws IOException, CryptoException {
+        prepare(database).write();
+    }
+
+
+    /**
+     * Take a snapshot of the given database without writing it. That's
+     * quick and the database can carry on changing afterwards; the slow
+     * part, Snapshot.write(), can be left to another thread.
+     * 
+     * The snapshot is saved with the same key as the one it was loaded with
+     * so a history that was never loaded can be copied over as it is.
+     */
+    public synchronized Snapshot prepare(PasswordDatabase database) throws IOException, CryptoException {
+        if (persistence == null || !keyFile.exists()) {
+            synchronized (fileLock) {
+                if (!keyFile.exists()) {
+                    createKey();
+                    persistence = null;
+                }
+                if (persistence == null) {
+                    persistence = new PasswordDatabasePersistence(readKey());
+                }
+            }
+        }
+        persistence.setCompression(DatabaseHeader.COMPRESSION_DEFLATE);
+        persistence.setHistoryRetention(historyMaxVersions, historyMaxAgeDays);
+        return new Snapshot(persistence.flatten(database), ++lastPrepared);
+    }
+
+
+    /**
+     * @see PasswordDatabasePersistence#setHistoryRetention(int, int)
+     */
+    public void setHistoryRetention(int maxVersions, int maxAgeDays) {
+        this.historyMaxVersions = maxVersions;
+        this.historyMaxAgeDays = maxAgeDays;
+    }
+
+
+    public synchronized void delete() {
+        persistence = null;
+        synchronized (fileLock) {
+            // Snapshots still waiting to be written are dropped
+            lastWritten = lastPrepared;
+            snapshotFile.delete();
+            for (int i = 0; i < SIDECAR_SUFFIXES.length; i++) {
+                new File(snapshotFile.getPath() + SIDECAR_SUFFIXES[i]).delete();
+            }
+            keyFile.delete();
+        }
+    }
+
+
+    /**
+     * Bring the local database up to date with a fresh copy from the backend.
+     * Accounts the user has changed since the local database was loaded are
+     * left alone. The differences aren't recorded in the local database's
+     * change log.
+     * @return The number of accounts that were added, changed or removed
+     */
+    public static int applyDifferences(PasswordDatabase local, PasswordDatabase fresh) {
+        int changes = 0;
+        AccountChangeLog changeLog = local.getChangeLog();
+
+        Iterator it = fresh.getAccountsHash().values().iterator();
+        while (it.hasNext()) {
+            AccountInformation freshAccount = (AccountInformation) it.next();
+            String accountName = freshAccount.getAccountName();
+            if (!changeLog.isChanged(accountName)
+                    && !DatabaseMerger.sameValues(local.getAccount(accountName), freshAccount)) {
+                local.applyChange(accountName, new AccountInformation(freshAccount));
+                changes++;
+            }
+        }
+
+        ArrayList removedAccounts = new ArrayList();
+        it = local.getAccountsHash().keySet().iterator();
+        while (it.hasNext()) {
+            String accountName = (String) it.next();
+            if (fresh.getAccount(accountName) == null && !changeLog.isChanged(accountName)) {
+                removedAccounts.add(accountName);
+            }
+        }
+        for (int i = 0; i < removedAccounts.size(); i++) {
+            local.applyChange((String) removedAccounts.get(i), null);
+            changes++;
+        }
+
+        return changes;
+    }
+
+
+    /**
+     * A snapshot taken by prepare(PasswordDatabase), waiting to be written
+     */
+    public class Snapshot {
+
+        private PasswordDatabasePersistence.FlatDatabase flat;
+        private long number;
+
+        private Snapshot(PasswordDatabasePersistence.FlatDatabase flat, long number) {
+            this.flat = flat;
+            this.number = number;
+        }
+
+        /**
+         * Replace the snapshot on disk with this one, unless a later one has
+         * been written already. The new snapshot is written to a temporary
+         * file first so a crash never leaves a partial snapshot behind.
+         */
+        public void write() throws IOException, CryptoException {
+            synchronized (fileLock) {
+                if (number <= lastWritten) {
+                    return;
+                }
+                File tempFile = new File(snapshotFile.getPath() + ".part");
+                flat.writeTo(tempFile);
+                Util.restrictToOwner(tempFile);
+                snapshotFile.delete();
+                if (!tempFile.renameTo(snapshotFile)) {
+                    tempFile.delete();
+                    throw new IOException("Couldn't save the snapshot " + snapshotFile);
+                }
+
+                // The account history and the change log go along with the snapshot
+                for (int i = 0; i < SIDECAR_SUFFIXES.length; i++) {
+                    File tempSidecar = new File(tempFile.getPath() + SIDECAR_SUFFIXES[i]);
+                    File sidecar = new File(snapshotFile.getPath() + SIDECAR_SUFFIXES[i]);
+                    sidecar.delete();
+                    if (tempSidecar.exists()) {
+                        Util.restrictToOwner(tempSidecar);
+                        if (!tempSidecar.renameTo(sidecar)) {
+                            tempSidecar.delete();
+                        }
+                    }
+                }
+                lastWritten = number;
+            }
+        }
+
+    }
+
+
+    private char[] readKey() throws IOException {
+        byte[] key = new byte[KEY_LENGTH * 2];
+        InputStream is = new FileInputStream(keyFile);
+        try {
+            int offset = 0;
+            int numRead;
+            while (offset < key.length
+                    && (numRead = is.read(key, offset, key.length - offset)) >= 0) {
+                offset += numRead;
+            }
+            if (offset < key.length) {
+                throw new IOException("The snapshot key file " + keyFile + " is too short");
+            }
+        } finally {
+            is.close();
+        }
+        return new String(key, "US-ASCII").toCharArray();
+    }
+
+
+    private void createKey() throws IOException {
+        byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        keyFile.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(keyFile);
+        try {
+            Util.restrictToOwner(keyFile);
+            os.write(new String(Hex.encodeHex(key)).getBytes("US-ASCII"));
+        } finally {
+            os.close();
+        }
+    }
+
+}
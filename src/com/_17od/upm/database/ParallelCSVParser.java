@@ -0,0 +1,417 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Parses large CSV files on several threads. The file is memory mapped and
+ * split into chunks on record boundaries, working out where the records
+ * end with the same rules used for parsing so a newline inside a quoted
+ * field doesn't split a record. The chunks are decoded, parsed and turned
+ * into accounts on a ForkJoinPool and handed on in file order.
+ * 
+ * The parsing follows CsvReader's defaults: fields are separated by commas,
+ * fields can be quoted with '"' and use "" for a quote inside them,
+ * unquoted fields have spaces and tabs trimmed from both ends and empty
+ * lines are skipped.
+ * 
+ * Only files in a charset where '"', ',', '\r' and '\n' are single ASCII
+ * bytes that can't appear inside other characters can be split this way;
+ * see supports().
+ */
+public class ParallelCSVParser {
+
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+    private static final int AFTER_QUOTED = 4;
+
+    private int parallelism;
+
+
+    /**
+     * Turns a parsed record into an account
+     */
+    public interface RecordMapper {
+
+        /**
+         * Called on one of the pool's threads
+         * @return The account or null if the record isn't valid
+         */
+        public AccountInformation map(String[] record);
+
+    }
+
+
+    public ParallelCSVParser() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public ParallelCSVParser(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+
+    /**
+     * @return true if files in the given charset can be split on bytes
+     */
+    public static boolean supports(Charset charset) {
+        try {
+            byte[] specials = charset.newEncoder().encode(CharBuffer.wrap("\",\r\n")).array();
+            if (!Arrays.equals("\",\r\n".getBytes("US-ASCII"), Arrays.copyOf(specials, 4))) {
+                return false;
+            }
+            return !charset.name().startsWith("UTF-16") && !charset.name().startsWith("UTF-32");
+        } catch (CharacterCodingException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Parse the file passing the accounts to the handler in file order
+     * @return The number (starting at 1) of the first record the mapper
+     * rejected, or 0 if every record was mapped. The accounts before a
+     * rejected record have been passed to the handler.
+     */
+    public long parse(File file, Charset charset, RecordMapper mapper, AccountHandler handler) throws IOException, ImportException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file [" + file + "] is too big to be parsed in parallel");
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int[] boundaries = findChunkBoundaries(bytes, chunkSize(bytes.limit()));
+            return parseChunks(bytes, boundaries, charset, mapper, handler);
+        } finally {
+            fis.close();
+        }
+    }
+
+
+    /**
+     * Keep at most two chunks per thread in flight so memory use depends on
+     * the chunk size rather than on the size of the file
+     */
+    private long parseChunks(ByteBuffer bytes, int[] boundaries, Charset charset,
+            RecordMapper mapper, AccountHandler handler) throws IOException, ImportException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            LinkedList inFlight = new LinkedList();
+            int nextChunk = 0;
+            long recordsBefore = 0;
+            while (nextChunk < boundaries.length - 1 || !inFlight.isEmpty()) {
+                while (nextChunk < boundaries.length - 1 && inFlight.size() < parallelism * 2) {
+                    inFlight.add(pool.submit(new ChunkParser(bytes, boundaries[nextChunk],
+                            boundaries[nextChunk + 1], charset, mapper)));
+                    nextChunk++;
+                }
+
+                Chunk chunk = getChunk((Future) inFlight.removeFirst());
+                for (int i = 0; i < chunk.accounts.size(); i++) {
+                    handler.handleAccount((AccountInformation) chunk.accounts.get(i));
+                }
+                if (chunk.rejectedRecord >= 0) {
+                    return recordsBefore + chunk.rejectedRecord + 1;
+                }
+                recordsBefore += chunk.accounts.size();
+            }
+            return 0;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    private Chunk getChunk(Future future) throws IOException {
+        try {
+            return (Chunk) future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(String.valueOf(e.getCause()));
+        }
+    }
+
+
+    private int chunkSize(int fileSize) {
+        int chunkSize = fileSize / (parallelism * 4);
+        return Math.min(Math.max(chunkSize, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Scan the bytes for record boundaries roughly every chunkSize bytes
+     * @return The offsets the chunks start at followed by the file size
+     */
+    static int[] findChunkBoundaries(ByteBuffer bytes, int chunkSize) {
+        ArrayList boundaries = new ArrayList();
+        boundaries.add(new Integer(0));
+        int limit = bytes.limit();
+        int nextSplit = chunkSize;
+        int state = FIELD_START;
+        for (int i = 0; i < limit; i++) {
+            byte b = bytes.get(i);
+            boolean endOfRecord = false;
+            switch (state) {
+            case FIELD_START:
+                if (b == '"') {
+                    state = QUOTED;
+                } else if (b == '\r' || b == '\n') {
+                    endOfRecord = true;
+                } else if (b != ',' && b != ' ' && b != '\t') {
+                    state = UNQUOTED;
+                }
+                break;
+            case UNQUOTED:
+            case AFTER_QUOTED:
+                if (b == ',') {
+                    state = FIELD_START;
+                } else if (b == '\r' || b == '\n') {
+                    endOfRecord = true;
+                }
+                break;
+            case QUOTED:
+                if (b == '"') {
+                    state = QUOTE_IN_QUOTED;
+                }
+                break;
+            case QUOTE_IN_QUOTED:
+                if (b == '"') {
+                    state = QUOTED;
+                } else if (b == ',') {
+                    state = FIELD_START;
+                } else if (b == '\r' || b == '\n') {
+                    endOfRecord = true;
+                } else {
+                    state = AFTER_QUOTED;
+                }
+                break;
+            }
+            if (endOfRecord) {
+                state = FIELD_START;
+                if (b == '\r' && i + 1 < limit && bytes.get(i + 1) == '\n') {
+                    i++;
+                }
+                if (i + 1 >= nextSplit && i + 1 < limit) {
+                    boundaries.add(new Integer(i + 1));
+                    nextSplit = i + 1 + chunkSize;
+                }
+            }
+        }
+        boundaries.add(new Integer(limit));
+
+        int[] result = new int[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((Integer) boundaries.get(i)).intValue();
+        }
+        return result;
+    }
+
+
+    /**
+     * Parse the records in the given characters
+     * @return The records as String arrays
+     */
+    static ArrayList parseRecords(String chars) {
+        final ArrayList records = new ArrayList();
+        parseRecords(chars.toCharArray(), chars.length(), new RecordMapper() {
+            public AccountInformation map(String[] record) {
+                records.add(record);
+                return new AccountInformation();
+            }
+        });
+        return records;
+    }
+
+
+    private static Chunk parseRecords(char[] chars, int length, RecordMapper mapper) {
+        Chunk chunk = new Chunk();
+        ArrayList fields = new ArrayList();
+        StringBuilder field = new StringBuilder();
+        int trimmedLength = 0;
+        int state = FIELD_START;
+
+        for (int i = 0; i <= length; i++) {
+            // Treat the end of the chunk like the end of a record, closing
+            // a quoted field that was never closed
+            char c = i < length ? chars[i] : '\n';
+            if (i == length && state == QUOTED) {
+                state = QUOTE_IN_QUOTED;
+            }
+            boolean endOfField = false;
+            boolean endOfRecord = false;
+            switch (state) {
+            case FIELD_START:
+                if (c == '"') {
+                    state = QUOTED;
+                } else if (c == ',') {
+                    endOfField = true;
+                } else if (c == '\r' || c == '\n') {
+                    // An empty line isn't a record but a trailing comma
+                    // leaves an empty last field
+                    endOfField = !fields.isEmpty();
+                    endOfRecord = true;
+                } else if (c != ' ' && c != '\t') {
+                    state = UNQUOTED;
+                    field.append(c);
+                    trimmedLength = field.length();
+                }
+                break;
+            case UNQUOTED:
+                if (c == ',') {
+                    endOfField = true;
+                } else if (c == '\r' || c == '\n') {
+                    endOfField = true;
+                    endOfRecord = true;
+                } else {
+                    field.append(c);
+                    if (c != ' ' && c != '\t') {
+                        trimmedLength = field.length();
+                    }
+                }
+                break;
+            case QUOTED:
+                if (c == '"') {
+                    state = QUOTE_IN_QUOTED;
+                } else {
+                    field.append(c);
+                }
+                break;
+            case QUOTE_IN_QUOTED:
+                if (c == '"') {
+                    field.append('"');
+                    state = QUOTED;
+                } else if (c == ',') {
+                    endOfField = true;
+                } else if (c == '\r' || c == '\n') {
+                    endOfField = true;
+                    endOfRecord = true;
+                } else {
+                    state = AFTER_QUOTED;
+                }
+                break;
+            case AFTER_QUOTED:
+                if (c == ',') {
+                    endOfField = true;
+                } else if (c == '\r' || c == '\n') {
+                    endOfField = true;
+                    endOfRecord = true;
+                }
+                break;
+            }
+
+            if (endOfField) {
+                if (state == UNQUOTED || state == FIELD_START) {
+                    field.setLength(trimmedLength);
+                }
+                fields.add(field.toString());
+                field.setLength(0);
+                trimmedLength = 0;
+                state = FIELD_START;
+            }
+            if (endOfRecord) {
+                state = FIELD_START;
+                if (c == '\r' && i + 1 < length && chars[i + 1] == '\n') {
+                    i++;
+                }
+                if (!fields.isEmpty()) {
+                    AccountInformation account = mapper.map((String[]) fields.toArray(new String[fields.size()]));
+                    if (account == null) {
+                        chunk.rejectedRecord = chunk.accounts.size();
+                        return chunk;
+                    }
+                    chunk.accounts.add(account);
+                    fields.clear();
+                }
+            }
+        }
+        return chunk;
+    }
+
+
+    /**
+     * The accounts parsed from one chunk
+     */
+    private static class Chunk {
+        private ArrayList accounts = new ArrayList();
+        private int rejectedRecord = -1;
+    }
+
+
+    private static class ChunkParser implements Callable {
+
+        private ByteBuffer bytes;
+        private Charset charset;
+        private RecordMapper mapper;
+
+        ChunkParser(ByteBuffer bytes, int start, int end, Charset charset, RecordMapper mapper) {
+            this.bytes = bytes.duplicate();
+            this.bytes.limit(end);
+            this.bytes.position(start);
+            this.charset = charset;
+            this.mapper = mapper;
+        }
+
+        public Object call() throws IOException {
+            CharBuffer chars = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+            return parseRecords(chars.array(), chars.limit(), mapper);
+        }
+
+    }
+
+}
@@ -32,33 +32,115 @@ import java.util.HashMap;
 public class PasswordDatabase {
 
     private File databaseFile;
+    private Revision revision;
     private DatabaseOptions dbOptions;
     private HashMap accounts;
+    private AccountChangeLog changeLog;
+    private AccountStore accountStore;
+    private AccountHistory history = new AccountHistory();
+    private HistoryLoader historyLoader;
+    private ArrayList pendingRenames = new ArrayList();
 
-    
-    public PasswordDatabase(HashMap accounts) {
+
+    public PasswordDatabase(Revision revision, DatabaseOptions dbOptions, HashMap accounts, File databaseFile) {
+        this.revision = revision;
         this.dbOptions = dbOptions;
         this.accounts = accounts;
-//        this.databaseFile = databaseFile;
+        this.databaseFile = databaseFile;
+        this.changeLog = new AccountChangeLog(revision.getRevision());
+    }
+
+
+    /**
+     * A database that isn't known to have been synced with anything, either
+     * a new one or one handed over by the backend
+     */
+    public PasswordDatabase(HashMap accounts) {
+        this(new Revision(), new DatabaseOptions(), accounts, null);
+        this.changeLog = new AccountChangeLog(AccountChangeLog.UNKNOWN_REVISION);
     }
 
 
     public PasswordDatabase() {
-//        this.dbOptions = new DatabaseOptions();
-        this.accounts = new HashMap();
-//        this.databaseFile = dbFile;
+        this(new HashMap());
     }
     
 
     public void addAccount(AccountInformation ai) {
-        accounts.put(ai.getAccountName(), ai);
+        changeLog.recordChange(ai.getAccountName(), getAccount(ai.getAccountName()));
+        accounts.put(ai.getAccountName(), store(ai));
     }
     
 
     public void deleteAccount(String accountName) {
+        changeLog.recordChange(accountName, getAccount(accountName));
         accounts.remove(accountName);
     }
 
+
+    /**
+     * Rename an account in place. The account keeps its values (and its slot
+     * in the account store, if it's held in one) and the rename is recorded
+     * in the change log and the account history as a single change.
+     * @param oldName The current name of the account
+     * @param newName The new name for the account
+     * @return The renamed account
+     * @throws IllegalArgumentException If there's no account called oldName
+     * or there's already an account called newName
+     */
+    public AccountInformation renameAccount(String oldName, String newName) {
+        AccountInformation account = getAccount(oldName);
+        if (account == null) {
+            throw new IllegalArgumentException("There's no account called " + oldName);
+        }
+        if (oldName.equals(newName)) {
+            return account;
+        }
+        if (accounts.containsKey(newName)) {
+            throw new IllegalArgumentException("There's already an account called " + newName);
+        }
+
+        changeLog.recordRename(oldName, newName, account);
+        accounts.remove(oldName);
+        account.setAccountName(newName);
+        accounts.put(newName, account);
+        renameHistory(oldName, newName);
+        if (oldName.equals(dbOptions.getAuthDBEntry())) {
+            dbOptions.setAuthDBEntry(newName);
+        }
+        return account;
+    }
+
+
+    /**
+     * Apply a change that originated in another copy of this database (e.g.
+     * the remote database during a sync). Unlike addAccount/deleteAccount
+     * the change isn't recorded in the change log because it doesn't need
+     * to be sent anywhere.
+     * @param accountName The name of the account being changed
+     * @param ai The new value of the account or null if it was deleted
+     */
+    public void applyChange(String accountName, AccountInformation ai) {
+        if (ai == null) {
+            accounts.remove(accountName);
+        } else {
+            accounts.put(accountName, store(ai));
+        }
+    }
+
+
+    /**
+     * @return The account as it's kept in this database. If the database
+     * has an account store the account is copied into it, so the caller
+     * mustn't change the given account afterwards and expect to see it here.
+     */
+    private AccountInformation store(AccountInformation ai) {
+        if (accountStore == null || accountStore.holds(ai)) {
+            return ai;
+        }
+        return accountStore.get(accountStore.add(ai));
+    }
+
     
     public AccountInformation getAccount(String name) {
         return (AccountInformation) accounts.get(name);
@@ -80,8 +162,132 @@ public class PasswordDatabase {
     }
 
 
+    public void setDatabaseFile(File databaseFile) {
+        this.databaseFile = databaseFile;
+    }
+
+
     public DatabaseOptions getDbOptions() {
         return dbOptions;
     }
 
+
+    public Revision getRevision() {
+        return revision;
+    }
+
+
+    /**
+     * @return The store holding the accounts this database was loaded with,
+     * or null if it wasn't loaded from a file or snapshot. Accounts added to
+     * a database with a store go into the store too.
+     */
+    public AccountStore getAccountStore() {
+        return accountStore;
+    }
+
+
+    public void setAccountStore(AccountStore accountStore) {
+        this.accountStore = accountStore;
+    }
+
+
+    /**
+     * Loads the history when it's first asked for
+     */
+    public interface HistoryLoader {
+
+        /**
+         * @return The history, an empty one if there isn't any. Never null.
+         */
+        public AccountHistory loadHistory();
+
+    }
+
+
+    /**
+     * @return The earlier values of the accounts' fields, loaded now if
+     * this is the first time they've been asked for
+     */
+    public synchronized AccountHistory getHistory() {
+        if (history == null) {
+            history = historyLoader.loadHistory();
+            historyLoader = null;
+            for (int i = 0; i < pendingRenames.size(); i++) {
+                String[] rename = (String[]) pendingRenames.get(i);
+                history.rename(rename[0], rename[1]);
+            }
+            pendingRenames.clear();
+        }
+        return history;
+    }
+
+
+    /**
+     * Move an account's history to its new name. If the history hasn't been
+     * loaded yet the rename is applied when it is, so renaming an account
+     * never has to load it.
+     */
+    private synchronized void renameHistory(String oldName, String newName) {
+        if (history == null) {
+            pendingRenames.add(new String[] {oldName, newName});
+        } else {
+            history.rename(oldName, newName);
+        }
+    }
+
+
+    public synchronized void setHistory(AccountHistory history) {
+        this.history = history;
+        this.historyLoader = null;
+        pendingRenames.clear();
+    }
+
+
+    /**
+     * Don't load the history until it's needed
+     */
+    public synchronized void setHistoryLoader(HistoryLoader historyLoader) {
+        this.history = null;
+        this.historyLoader = historyLoader;
+        pendingRenames.clear();
+    }
+
+
+    /**
+     * @return The loader that will be used when the history is first asked
+     * for, or null if it's already been loaded (or was set directly). An
+     * unloaded history is only up to date once any renames made since the
+     * database was loaded are applied, see hasPendingRenames().
+     */
+    public synchronized HistoryLoader getHistoryLoader() {
+        return historyLoader;
+    }
+
+
+    /**
+     * @return true if accounts have been renamed since the database was
+     * loaded and the history hasn't been loaded to move along with them
+     */
+    public synchronized boolean hasPendingRenames() {
+        return !pendingRenames.isEmpty();
+    }
+
+
+    /**
+     * @return The log of accounts changed locally since this database was
+     * last in sync with its remote copy
+     */
+    public AccountChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+
+    /**
+     * Replace the change log, e.g. with the one saved alongside the database
+     */
+    public void setChangeLog(AccountChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
 }
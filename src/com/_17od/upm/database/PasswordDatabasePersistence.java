@@ -24,14 +24,25 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com._17od.upm.crypto.CryptoException;
 import com._17od.upm.crypto.DESDecryptionService;
 import com._17od.upm.crypto.EncryptionService;
 import com._17od.upm.crypto.InvalidPasswordException;
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.util.DedupPool;
+import com._17od.upm.util.Metrics;
 import com._17od.upm.util.Util;
 
 /**
@@ -39,7 +50,9 @@ import com._17od.upm.util.Util;
  * of the database need to be loaded slightly differently so this class takes
  * care of those differences.
  * 
- * Database versions and formats. The items between [] brackets are encrypted.
+ * Database versions and formats. The items between [] brackets are encrypted
+ * and the items between {} brackets are compressed.
+ *   4     >> MAGIC_NUMBER DB_VERSION SALT [DB_HEADER {DB_REVISION DB_OPTIONS ACCOUNTS}]
  *   3     >> MAGIC_NUMBER DB_VERSION SALT [DB_REVISION DB_OPTIONS ACCOUNTS]
  *      (all strings are encoded using UTF-8)
  *   2     >> MAGIC_NUMBER DB_VERSION SALT [DB_REVISION DB_OPTIONS ACCOUNTS]
@@ -48,20 +61,66 @@ import com._17od.upm.util.Util;
  * 
  *   DB_VERSION = The structural version of the database
  *   SALT = The salt used to mix with the user password to create the key
- *   DB_HEADER = Was used to store the structural version of the database (pre version 2)
+ *   DB_HEADER = Was used to store the structural version of the database (pre version 2).
+ *               From version 4 it records the compression codec.
  *   DB_OPTIONS = Options relating to the database
  *   ACCOUNTS = The account information
  *   
  *   From version 2 the db version is stored unencrypted at the start of the file.
  *   This allows for cryptographic changes in the database structure. Before this
  *   we had to know how to unencrypt the database before we could find out the version number.
+ *   
+ *   Version 4 is only written when compression is turned on so that databases
+ *   stay readable by older versions of UPM by default. Compressing before
+ *   encrypting is the only place it helps, encrypted bytes don't compress.
+ *
+ * The account history is kept in a file of its own, the database file name
+ * with HISTORY_SUFFIX added, so the database stays readable by older versions:
+ *   HISTORY_HEADER HISTORY_VERSION [ACCOUNT_HISTORY]
+ * It's encrypted with the same key as the database. Version 2 added deltas.
+ * The history isn't read until it's first asked for and isn't written again
+ * if it never was. It only ever exists on this computer: the history file
+ * isn't part of the database file so it isn't uploaded when the database is
+ * synced with a remote location, and a database downloaded on another
+ * computer starts off with no history.
+ *
+ * The change log (the accounts changed since the last sync and their values
+ * at that sync) is kept next to the database in the same way, with
+ * CHANGES_SUFFIX added to the file name:
+ *   CHANGES_HEADER CHANGES_VERSION [ACCOUNT_CHANGE_LOG]
+ * Without it a database is treated as never having been synced.
  */
 public class PasswordDatabasePersistence {
 
+    private static Log LOG = LogFactory.getLog(PasswordDatabasePersistence.class);
+
+    private static final Metrics.Timer BACKEND_LOAD_TIMER = Metrics.getDefault().timer(
+            "backend_load", "Loading the database from the backend");
+    private static final Metrics.Timer BACKEND_SAVE_TIMER = Metrics.getDefault().timer(
+            "backend_save", "Saving the database to the backend");
+    private static final Metrics.Timer FILE_LOAD_TIMER = Metrics.getDefault().timer(
+            "file_load", "Loading a database file, including decrypting and parsing it");
+    private static final Metrics.Timer FILE_SAVE_TIMER = Metrics.getDefault().timer(
+            "file_save", "Saving a database file, including encrypting it");
+    private static final Metrics.Timer PARSE_TIMER = Metrics.getDefault().timer(
+            "database_parse", "Parsing the accounts of a decrypted database file");
+
     private static final String FILE_HEADER = "UPM";
     private static final int DB_VERSION = 3;
+    private static final int COMPRESSED_DB_VERSION = 4;
+    private static final String HISTORY_HEADER = "UPMH";
+    private static final int HISTORY_VERSION = AccountHistory.FORMAT_VERSION;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    public static final String HISTORY_SUFFIX = ".history";
+    private static final String CHANGES_HEADER = "UPMC";
+    private static final int CHANGES_VERSION = 1;
+    public static final String CHANGES_SUFFIX = ".changes";
+    public static final String BACKEND_URL = "http://127.0.0.1:4000/loginmanager";
 
     private EncryptionService encryptionService;
+    private String compression = DatabaseHeader.COMPRESSION_NONE;
+    private int historyMaxVersions = 0;
+    private int historyMaxAgeDays = 0;
 
     /**
      * Used when we have a password and we want to get an instance of the class
@@ -80,17 +139,37 @@ public class PasswordDatabasePersistence {
     }
 
     public PasswordDatabase load() throws InvalidPasswordException, ProblemReadingDatabaseFile, IOException {
-        String url = "http://127.0.0.1:4000/loginmanager";
+        long start = BACKEND_LOAD_TIMER.start();
+        try {
+            return loadFromBackend();
+        } finally {
+            BACKEND_LOAD_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * The backend's accounts are held as plain AccountInformation objects.
+     * Only databases loaded from a file (and so the local snapshot) are
+     * backed by an AccountStore. User ids and URLs repeat a lot so they're
+     * shared through the DedupPool as the CSV importers do.
+     */
+    private PasswordDatabase loadFromBackend() throws IOException {
+        String url = BACKEND_URL;
         URL obj = new URL(url);
         HttpURLConnection con = (HttpURLConnection)obj.openConnection();
         con.setRequestMethod("GET");
+        con.setRequestProperty("Accept-Encoding", "gzip");
         int responseCode = con.getResponseCode();
 
         System.out.println("\nSending 'GET' request to URL : " + url);
         System.out.println("Response Code : " + responseCode);
 
+        InputStream responseStream = con.getInputStream();
+        if ("gzip".equalsIgnoreCase(con.getContentEncoding())) {
+            responseStream = new GZIPInputStream(responseStream);
+        }
         BufferedReader in = new BufferedReader(
-                new InputStreamReader(con.getInputStream()));
+                new InputStreamReader(responseStream));
         String inputLine;
         StringBuffer response = new StringBuffer();
 
@@ -99,6 +178,7 @@ public class PasswordDatabasePersistence {
         }
         in.close();
         HashMap accounts = new HashMap();
+        DedupPool pool = DedupPool.getShared();
 
         //print result
         System.out.println(response.toString());
@@ -112,7 +192,9 @@ public class PasswordDatabasePersistence {
             String password = data[7];
             String notes = data[9];
             String userid = data[11];
-            AccountInformation tempAccount = new AccountInformation(websiteName, userid,password,url1,notes);
+            AccountInformation tempAccount = new AccountInformation(websiteName, "", password, pool.dedup(url1), notes);
+            LazySecret userIdSecret = LazySecret.fromString(userid);
+            tempAccount.setUserId((LazySecret) pool.dedup(userIdSecret, 32 + userIdSecret.getEncryptedLength()));
             System.out.println("PUT NEW THING IN ACCOUNTS");
             accounts.put(tempAccount.getAccountName(), tempAccount);
         }
@@ -124,7 +206,16 @@ public class PasswordDatabasePersistence {
     }
 
     public void save(PasswordDatabase database) throws IOException, CryptoException {
-        String url = "http://127.0.0.1:4000/loginmanager";
+        long start = BACKEND_SAVE_TIMER.start();
+        try {
+            saveToBackend(database);
+        } finally {
+            BACKEND_SAVE_TIMER.stop(start);
+        }
+    }
+
+    private void saveToBackend(PasswordDatabase database) throws IOException {
+        String url = BACKEND_URL;
 
         for (Object o : database.getAccountsHash().values()) {
             AccountInformation ai = (AccountInformation) o;
@@ -153,40 +244,456 @@ public class PasswordDatabasePersistence {
         }
     }
 
+    /**
+     * Load a database from a file in the version 2 or 3 format. This is the
+     * format used for the copy of the database held at the remote location.
+     * @param databaseFile The file to load
+     * @param password The master password for the database
+     * @return The loaded database
+     * @throws InvalidPasswordException If the file couldn't be decrypted with the given password
+     */
+    public PasswordDatabase load(File databaseFile, char[] password) throws IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        return loadFromFile(databaseFile, password);
+    }
+
+    /**
+     * Load a database from a file using the key from the last load(File, char[])
+     * @throws InvalidPasswordException If there's no key yet or the file was
+     * encrypted with a different password
+     */
+    public PasswordDatabase load(File databaseFile) throws IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        if (encryptionService == null) {
+            throw new InvalidPasswordException();
+        }
+        return loadFromFile(databaseFile, null);
+    }
+
+    private PasswordDatabase loadFromFile(File databaseFile, char[] password) throws IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        long start = FILE_LOAD_TIMER.start();
+        try {
+            return readDatabaseFile(databaseFile, password);
+        } finally {
+            FILE_LOAD_TIMER.stop(start);
+        }
+    }
+
+    private PasswordDatabase readDatabaseFile(File databaseFile, char[] password) throws IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        byte[] fullDatabase = readFile(databaseFile);
+
+        // Ensure this is a real UPM database by checking for the existance of
+        // the string "UPM" at the start of the file
+        byte[] header = FILE_HEADER.getBytes();
+        if (fullDatabase.length < header.length + 1 + EncryptionService.SALT_LENGTH) {
+            throw new ProblemReadingDatabaseFile("This file doesn't appear to be a UPM password database");
+        }
+        byte[] fileHeader = new byte[header.length];
+        System.arraycopy(fullDatabase, 0, fileHeader, 0, header.length);
+        if (!Arrays.equals(fileHeader, header)) {
+            throw new ProblemReadingDatabaseFile("This file doesn't appear to be a UPM password database");
+        }
+
+        int dbVersion = fullDatabase[header.length];
+        if (dbVersion != 2 && dbVersion != DB_VERSION && dbVersion != COMPRESSED_DB_VERSION) {
+            throw new ProblemReadingDatabaseFile("Don't know how to handle database version [" + dbVersion + "]");
+        }
+
+        // Extract the salt and the encrypted part of the database
+        int saltPos = header.length + 1;
+        byte[] salt = new byte[EncryptionService.SALT_LENGTH];
+        System.arraycopy(fullDatabase, saltPos, salt, 0, EncryptionService.SALT_LENGTH);
+        int encryptedBytesPos = saltPos + EncryptionService.SALT_LENGTH;
+        byte[] encryptedBytes = new byte[fullDatabase.length - encryptedBytesPos];
+        System.arraycopy(fullDatabase, encryptedBytesPos, encryptedBytes, 0, encryptedBytes.length);
+
+        if (password != null) {
+            encryptionService = new EncryptionService(password, salt);
+        } else if (!Arrays.equals(salt, encryptionService.getSalt())) {
+            // The file was encrypted with a different key
+            throw new InvalidPasswordException();
+        }
+        byte[] decryptedBytes;
+        try {
+            decryptedBytes = encryptionService.decrypt(encryptedBytes);
+        } catch (CryptoException e) {
+            throw new InvalidPasswordException();
+        }
+
+        // Version 2 databases used the platform's default charset for the accounts
+        Charset charset = Charset.forName("UTF-8");
+        if (dbVersion == 2) {
+            charset = Util.defaultCharset();
+        }
+
+        InputStream is = new ByteArrayInputStream(decryptedBytes);
+        if (dbVersion == COMPRESSED_DB_VERSION) {
+            DatabaseHeader dbHeader = new DatabaseHeader(is, true);
+            if (DatabaseHeader.COMPRESSION_DEFLATE.equals(dbHeader.getCompression())) {
+                is = new BufferedInputStream(new InflaterInputStream(is));
+            } else if (!DatabaseHeader.COMPRESSION_NONE.equals(dbHeader.getCompression())) {
+                throw new ProblemReadingDatabaseFile("Don't know how to handle the compression [" + dbHeader.getCompression() + "]");
+            }
+        }
+        long parseStart = PARSE_TIMER.start();
+        Revision revision = new Revision(is);
+        DatabaseOptions dbOptions = new DatabaseOptions(is);
+        HashMap accounts = new HashMap();
+        AccountStore store = new AccountStore();
+        try {
+            while (true) {
+                AccountInformation ai = new AccountInformation(is, charset);
+                accounts.put(ai.getAccountName(), store.get(store.add(ai)));
+            }
+        } catch (EOFException e) {
+            // Nothing to do here, EOF means we've reached the end of the accounts
+        }
+        store.compact();
+        PARSE_TIMER.stop(parseStart);
+
+        PasswordDatabase database = new PasswordDatabase(revision, dbOptions, accounts, databaseFile);
+        database.setAccountStore(store);
+        database.setHistoryLoader(new SidecarHistoryLoader(historyFile(databaseFile), encryptionService));
+        database.setChangeLog(loadChangeLog(changeLogFile(databaseFile), encryptionService));
+        return database;
+    }
+
+    /**
+     * Save the database to the given file in the version 3 format or, if
+     * compression is turned on, the version 4 format. The database is
+     * encrypted using the EncryptionService this class was created with or
+     * the one set up by the last call to load(File, char[]).
+     */
+    public void save(PasswordDatabase database, File file) throws IOException, CryptoException {
+        long start = FILE_SAVE_TIMER.start();
+        try {
+            flatten(database).writeTo(file);
+        } finally {
+            FILE_SAVE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Take a copy of what save(PasswordDatabase, File) writes without
+     * packing, compressing, encrypting or writing anything. The accounts are
+     * copied (their secrets are immutable so they're shared) rather than
+     * decrypted. That's quick and the database can carry on changing once
+     * it's done so the slow part, FlatDatabase.writeTo(File), can be left to
+     * another thread.
+     */
+    public FlatDatabase flatten(PasswordDatabase database) throws IOException {
+        FlatDatabase flat = new FlatDatabase(encryptionService, compression);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        database.getRevision().flatPack(header);
+        database.getDbOptions().flatPack(header);
+        flat.header = header.toByteArray();
+        flat.accounts = new ArrayList(database.getAccountsHash().size());
+        Iterator it = database.getAccountsHash().values().iterator();
+        while (it.hasNext()) {
+            flat.accounts.add(new AccountInformation((AccountInformation) it.next()));
+        }
+
+        flattenHistory(database, flat);
+        flattenChangeLog(database, flat);
+        return flat;
+    }
+
+    private static File historyFile(File databaseFile) {
+        return new File(databaseFile.getPath() + HISTORY_SUFFIX);
+    }
+
+    private static AccountHistory loadHistory(File historyFile, EncryptionService encryptionService)
+            throws IOException, ProblemReadingDatabaseFile {
+        if (!historyFile.exists()) {
+            return new AccountHistory();
+        }
+        byte[] bytes = readFile(historyFile);
+        byte[] header = HISTORY_HEADER.getBytes();
+        if (bytes.length < header.length + 1
+                || !Arrays.equals(header, Arrays.copyOfRange(bytes, 0, header.length))
+                || bytes[header.length] < 1 || bytes[header.length] > HISTORY_VERSION) {
+            throw new ProblemReadingDatabaseFile("The account history file isn't one UPM can read");
+        }
+        try {
+            byte[] decrypted = encryptionService.decrypt(
+                    Arrays.copyOfRange(bytes, header.length + 1, bytes.length));
+            return new AccountHistory(new ByteArrayInputStream(decrypted), bytes[header.length]);
+        } catch (CryptoException e) {
+            // Left behind by a database with another password, it's of no use
+            return new AccountHistory();
+        }
+    }
+
+    private void flattenHistory(PasswordDatabase database, FlatDatabase flat) throws IOException {
+        PasswordDatabase.HistoryLoader loader = database.getHistoryLoader();
+        if (loader instanceof SidecarHistoryLoader && !database.hasPendingRenames()
+                && ((SidecarHistoryLoader) loader).isEncryptedWith(encryptionService)) {
+            // Never loaded so it can't have changed. It's encrypted with the
+            // same key so the file can be copied as it is, there's no need to
+            // decrypt it. Accounts renamed in the meantime mean loading it
+            // (which applies the renames) and writing it out again.
+            flat.historyToCopy = (SidecarHistoryLoader) loader;
+            return;
+        }
+
+        AccountHistory history = database.getHistory();
+        history.prune(historyMaxVersions, historyMaxAgeDays * DAY, System.currentTimeMillis(),
+                database.getAccountsHash().keySet());
+        if (!history.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            history.flatPack(bytes);
+            flat.history = bytes.toByteArray();
+        }
+    }
+
+    private static File changeLogFile(File databaseFile) {
+        return new File(databaseFile.getPath() + CHANGES_SUFFIX);
+    }
+
+    /**
+     * @return The change log saved next to a database or, if there isn't a
+     * usable one, an empty change log with an unknown base
+     */
+    private static AccountChangeLog loadChangeLog(File changeLogFile, EncryptionService encryptionService)
+            throws IOException {
+        AccountChangeLog unknown = new AccountChangeLog(AccountChangeLog.UNKNOWN_REVISION);
+        if (!changeLogFile.exists()) {
+            return unknown;
+        }
+        byte[] bytes = readFile(changeLogFile);
+        byte[] header = CHANGES_HEADER.getBytes();
+        if (bytes.length < header.length + 1
+                || !Arrays.equals(header, Arrays.copyOfRange(bytes, 0, header.length))
+                || bytes[header.length] != CHANGES_VERSION) {
+            LOG.warn("The change log [" + changeLogFile + "] isn't one UPM can read");
+            return unknown;
+        }
+        try {
+            byte[] decrypted = encryptionService.decrypt(
+                    Arrays.copyOfRange(bytes, header.length + 1, bytes.length));
+            return new AccountChangeLog(new ByteArrayInputStream(decrypted));
+        } catch (CryptoException e) {
+            // Left behind by a database with another password
+            return unknown;
+        } catch (ProblemReadingDatabaseFile e) {
+            LOG.warn("Couldn't read the change log [" + changeLogFile + "]", e);
+            return unknown;
+        }
+    }
+
+    private void flattenChangeLog(PasswordDatabase database, FlatDatabase flat) throws IOException {
+        AccountChangeLog changeLog = database.getChangeLog();
+        if (changeLog.isBaseKnown() || !changeLog.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            changeLog.flatPack(bytes);
+            flat.changeLog = bytes.toByteArray();
+        }
+    }
+
+    /**
+     * How much account history to keep when saving to a file
+     * @param maxVersions The number of versions to keep per account, 0 to
+     * keep them all
+     * @param maxAgeDays Drop changes older than this, 0 to keep them all
+     */
+    public void setHistoryRetention(int maxVersions, int maxAgeDays) {
+        this.historyMaxVersions = Math.max(maxVersions, 0);
+        this.historyMaxAgeDays = Math.max(maxAgeDays, 0);
+    }
+
+    /**
+     * @param compression One of the DatabaseHeader.COMPRESSION_* codecs to
+     * use when saving to a file
+     */
+    public void setCompression(String compression) {
+        if (!DatabaseHeader.COMPRESSION_NONE.equals(compression)
+                && !DatabaseHeader.COMPRESSION_DEFLATE.equals(compression)) {
+            throw new IllegalArgumentException("Unsupported compression [" + compression + "]");
+        }
+        this.compression = compression;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
     public EncryptionService getEncryptionService() {
         return encryptionService;
     }
 
-    private byte[] readFile(File file) throws IOException {
+    /**
+     * Read the whole file straight into an array sized to fit it. The
+     * decryption needs the bytes in an array anyway so a memory mapping
+     * would only add a copy.
+     */
+    private static byte[] readFile(File file) throws IOException {
         InputStream is;
         try {
             is = new FileInputStream(file);
         } catch (IOException e) {
             throw new IOException("There was a problem with opening the file", e);
         }
-    
-        // Create the byte array to hold the data
-        byte[] bytes = new byte[(int) file.length()];
-    
-        // Read in the bytes
-        int offset = 0;
-        int numRead = 0;
-        
+
         try {
+            long size = file.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The file " + file.getName() + " is too large");
+            }
+            byte[] bytes = new byte[(int) size];
+            int offset = 0;
+            int numRead = 0;
             while (offset < bytes.length
-                    && (numRead=is.read(bytes, offset, bytes.length-offset)) >= 0) {
+                    && (numRead = is.read(bytes, offset, bytes.length - offset)) >= 0) {
                 offset += numRead;
             }
-    
+
             // Ensure all the bytes have been read in
             if (offset < bytes.length) {
                 throw new IOException("Could not completely read file " + file.getName());
             }
+            return bytes;
         } finally {
             is.close();
         }
+    }
+
+
+    /**
+     * A copy of a database taken by flatten(PasswordDatabase), ready to be
+     * packed, compressed, encrypted and written. It holds its own copy of
+     * everything so it can be written on any thread.
+     */
+    public static class FlatDatabase {
+
+        private EncryptionService encryptionService;
+        private String compression;
+        // The revision and the database options
+        private byte[] header;
+        private ArrayList accounts;
+        // Either the history file to copy, the flattened history or neither
+        // when there's no history
+        private SidecarHistoryLoader historyToCopy;
+        private byte[] history;
+        private byte[] changeLog;
+
+        FlatDatabase(EncryptionService encryptionService, String compression) {
+            this.encryptionService = encryptionService;
+            this.compression = compression;
+        }
+
+        /**
+         * Write the database to the given file in the version 3 format or,
+         * if compression is turned on, the version 4 format. The account
+         * history and the change log are written next to it.
+         */
+        public void writeTo(File file) throws IOException, CryptoException {
+            boolean compressed = !DatabaseHeader.COMPRESSION_NONE.equals(compression);
+
+            ByteArrayOutputStream bytesToEncrypt = new ByteArrayOutputStream();
+            OutputStream os = bytesToEncrypt;
+            DeflaterOutputStream deflater = null;
+            if (compressed) {
+                new DatabaseHeader(COMPRESSED_DB_VERSION, 0, 0, compression).flatPack(os);
+                deflater = new DeflaterOutputStream(os, new Deflater(Deflater.DEFAULT_COMPRESSION));
+                os = new BufferedOutputStream(deflater);
+            }
+            os.write(header);
+            for (int i = 0; i < accounts.size(); i++) {
+                ((AccountInformation) accounts.get(i)).flatPack(os);
+            }
+            if (compressed) {
+                os.flush();
+                deflater.finish();
+                deflater.close();
+            }
+            byte[] encryptedBytes = encryptionService.encrypt(bytesToEncrypt.toByteArray());
+
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(FILE_HEADER.getBytes());
+                fos.write(compressed ? COMPRESSED_DB_VERSION : DB_VERSION);
+                fos.write(encryptionService.getSalt());
+                fos.write(encryptedBytes);
+            } finally {
+                fos.close();
+            }
+
+            File historyFile = historyFile(file);
+            if (historyToCopy != null) {
+                historyToCopy.copyTo(historyFile);
+            } else {
+                writeSidecar(historyFile, HISTORY_HEADER, HISTORY_VERSION, history);
+            }
+            writeSidecar(changeLogFile(file), CHANGES_HEADER, CHANGES_VERSION, changeLog);
+        }
+
+        /**
+         * Encrypt and write a sidecar file, or delete it if there's nothing
+         * to write
+         */
+        private void writeSidecar(File sidecar, String header, int version, byte[] contents)
+                throws IOException, CryptoException {
+            if (contents == null) {
+                sidecar.delete();
+                return;
+            }
+            byte[] encryptedBytes = encryptionService.encrypt(contents);
+
+            FileOutputStream fos = new FileOutputStream(sidecar);
+            try {
+                fos.write(header.getBytes());
+                fos.write(version);
+                fos.write(encryptedBytes);
+            } finally {
+                fos.close();
+            }
+        }
+
+    }
+
+
+    /**
+     * Reads the history file next to a database when it's first needed
+     */
+    private static class SidecarHistoryLoader implements PasswordDatabase.HistoryLoader {
+
+        private File historyFile;
+        private EncryptionService encryptionService;
+
+        SidecarHistoryLoader(File historyFile, EncryptionService encryptionService) {
+            this.historyFile = historyFile;
+            this.encryptionService = encryptionService;
+        }
+
+        boolean isEncryptedWith(EncryptionService service) {
+            return encryptionService == service;
+        }
+
+        /**
+         * Copy the history file byte for byte, or delete the copy if there's
+         * no history file
+         */
+        void copyTo(File file) throws IOException {
+            if (historyFile.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                return;
+            }
+            if (historyFile.exists()) {
+                Util.copyFile(historyFile, file);
+            } else {
+                file.delete();
+            }
+        }
+
+        public AccountHistory loadHistory() {
+            try {
+                return PasswordDatabasePersistence.loadHistory(historyFile, encryptionService);
+            } catch (IOException e) {
+                LOG.warn("Couldn't read the account history [" + historyFile + "]", e);
+            } catch (ProblemReadingDatabaseFile e) {
+                LOG.warn("Couldn't read the account history [" + historyFile + "]", e);
+            }
+            return new AccountHistory();
+        }
 
-        return bytes;
     }
 
 }
@@ -0,0 +1,318 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import com._17od.upm.util.PasswordGenerator;
+
+
+/**
+ * Gives many accounts new passwords at once. Accounts are picked with a
+ * Query (by host, by how long since the password last changed and by
+ * strength) and each gets a password made to the Policy for its host.
+ * 
+ * All the new passwords are generated before any account is touched and
+ * the old passwords go into the database's AccountHistory. The caller saves
+ * the database once afterwards and, if that fails, can put everything back
+ * with Result.undo().
+ */
+public class PasswordRotation {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private PasswordDatabase database;
+    private Policy defaultPolicy = new Policy(16, true);
+    private HashMap hostPolicies = new HashMap();
+
+
+    public PasswordRotation(PasswordDatabase database) {
+        this.database = database;
+    }
+
+
+    public void setDefaultPolicy(Policy policy) {
+        this.defaultPolicy = policy;
+    }
+
+
+    /**
+     * Use this policy for the host and its subdomains, e.g. a policy for
+     * "example.com" is also used for "www.example.com"
+     */
+    public void setPolicy(String host, Policy policy) {
+        hostPolicies.put(host.toLowerCase(), policy);
+    }
+
+
+    /**
+     * @return The policy for the most specific domain of the host that has
+     * one, or the default policy
+     */
+    public Policy getPolicy(String host) {
+        if (host != null) {
+            String domain = host.toLowerCase();
+            while (true) {
+                Policy policy = (Policy) hostPolicies.get(domain);
+                if (policy != null) {
+                    return policy;
+                }
+                int dot = domain.indexOf('.');
+                if (dot == -1) {
+                    break;
+                }
+                domain = domain.substring(dot + 1);
+            }
+        }
+        return defaultPolicy;
+    }
+
+
+    /**
+     * @return The names of the accounts matching the query, sorted
+     */
+    public ArrayList select(Query query) {
+        long now = System.currentTimeMillis();
+        AccountHistory history = database.getHistory();
+        ArrayList names = new ArrayList();
+        Iterator it = database.getAccountsHash().values().iterator();
+        while (it.hasNext()) {
+            AccountInformation account = (AccountInformation) it.next();
+            if (query.getHost() != null && !isInDomain(hostOf(account.getUrl()), query.getHost())) {
+                continue;
+            }
+            if (query.getOlderThanDays() > 0) {
+                // Passwords with no recorded change have never been rotated
+                long changed = history.getLastChanged(account.getAccountName(), AccountHistory.PASSWORD);
+                if (changed != 0 && now - changed < query.getOlderThanDays() * DAY) {
+                    continue;
+                }
+            }
+            if (query.getWeakerThanBits() > 0) {
+                char[] password = account.getPasswordChars();
+                int bits = PasswordGenerator.estimateBits(password);
+                Arrays.fill(password, (char) 0);
+                if (bits >= query.getWeakerThanBits()) {
+                    continue;
+                }
+            }
+            names.add(account.getAccountName());
+        }
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+
+    /**
+     * Give each of the accounts a new password
+     * @return What was done, which can be undone
+     */
+    public Result rotate(Collection accountNames) {
+        // Generate everything up front so the database is either changed
+        // completely or not at all
+        HashMap generators = new HashMap();
+        ArrayList rotated = new ArrayList(accountNames.size());
+        Iterator it = accountNames.iterator();
+        while (it.hasNext()) {
+            AccountInformation account = database.getAccount((String) it.next());
+            if (account == null) {
+                continue;
+            }
+            Policy policy = getPolicy(hostOf(account.getUrl()));
+            PasswordGenerator generator = (PasswordGenerator) generators.get(policy);
+            if (generator == null) {
+                generator = new PasswordGenerator(policy.getLength(), policy.isPunctuation());
+                generators.put(policy, generator);
+            }
+            char[] password = generator.generate();
+            AccountInformation updated = new AccountInformation(account);
+            updated.setPassword(password);
+            Arrays.fill(password, (char) 0);
+            rotated.add(updated);
+        }
+
+        long now = System.currentTimeMillis();
+        AccountHistory history = database.getHistory();
+        AccountChangeLog changeLog = database.getChangeLog();
+        Result result = new Result();
+        try {
+            for (int i = 0; i < rotated.size(); i++) {
+                AccountInformation updated = (AccountInformation) rotated.get(i);
+                AccountInformation old = database.getAccount(updated.getAccountName());
+                history.record(updated.getAccountName(), AccountHistory.PASSWORD, old.getPasswordSecret(), now);
+                result.replaced.add(old);
+                if (!changeLog.isChanged(updated.getAccountName())) {
+                    result.newlyChanged.add(updated.getAccountName());
+                }
+                database.addAccount(updated);
+            }
+        } catch (RuntimeException e) {
+            result.undo();
+            throw e;
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The lower case host name in the URL or null if it doesn't
+     * have one
+     */
+    public static String hostOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = url.indexOf("://");
+        start = start == -1 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) == -1) {
+            end++;
+        }
+        String host = url.substring(start, end);
+        int at = host.lastIndexOf('@');
+        if (at != -1) {
+            host = host.substring(at + 1);
+        }
+        int colon = host.indexOf(':');
+        if (colon != -1) {
+            host = host.substring(0, colon);
+        }
+        host = host.trim().toLowerCase();
+        return host.length() == 0 ? null : host;
+    }
+
+
+    private static boolean isInDomain(String host, String domain) {
+        if (host == null) {
+            return false;
+        }
+        domain = domain.toLowerCase();
+        return host.equals(domain) || host.endsWith("." + domain);
+    }
+
+
+    /**
+     * Which accounts to rotate. Every condition given must match.
+     */
+    public static class Query {
+
+        private String host;
+        private int olderThanDays;
+        private int weakerThanBits;
+
+        /**
+         * @param host Only accounts whose URL is on this host or its
+         * subdomains, or null for any
+         * @param olderThanDays Only passwords that haven't changed for this
+         * many days, or 0 for any
+         * @param weakerThanBits Only passwords weaker than this (see
+         * PasswordGenerator.estimateBits()), or 0 for any
+         */
+        public Query(String host, int olderThanDays, int weakerThanBits) {
+            this.host = host == null || host.trim().length() == 0 ? null : host.trim();
+            this.olderThanDays = olderThanDays;
+            this.weakerThanBits = weakerThanBits;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getOlderThanDays() {
+            return olderThanDays;
+        }
+
+        public int getWeakerThanBits() {
+            return weakerThanBits;
+        }
+
+    }
+
+
+    /**
+     * What new passwords look like
+     */
+    public static class Policy {
+
+        private int length;
+        private boolean punctuation;
+
+        public Policy(int length, boolean punctuation) {
+            this.length = length;
+            this.punctuation = punctuation;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public boolean isPunctuation() {
+            return punctuation;
+        }
+
+    }
+
+
+    /**
+     * What rotate() did
+     */
+    public class Result {
+
+        private ArrayList replaced = new ArrayList();
+        private HashSet newlyChanged = new HashSet();
+
+        /**
+         * @return The number of accounts given a new password
+         */
+        public int getRotated() {
+            return replaced.size();
+        }
+
+        /**
+         * Put the old passwords back, e.g. because the database couldn't be
+         * saved. Accounts that hadn't been changed since the last sync before
+         * they were rotated are taken out of the change log again so the
+         * next sync doesn't publish them as changed.
+         */
+        public void undo() {
+            AccountHistory history = database.getHistory();
+            AccountChangeLog changeLog = database.getChangeLog();
+            for (int i = replaced.size() - 1; i >= 0; i--) {
+                AccountInformation old = (AccountInformation) replaced.get(i);
+                database.applyChange(old.getAccountName(), old);
+                history.removeLast(old.getAccountName(), AccountHistory.PASSWORD);
+                if (newlyChanged.contains(old.getAccountName())) {
+                    changeLog.forget(old.getAccountName());
+                }
+            }
+            replaced.clear();
+            newlyChanged.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+import java.util.Iterator;
+
+import com._17od.upm.database.ExportException;
+
+
+/**
+ * Writes accounts in a format UPM or another password manager can read.
+ * Exporters are found with java.util.ServiceLoader (see AccountFormats).
+ * 
+ * Implementations must stream: accounts are written as they come off the
+ * iterator rather than being collected first.
+ */
+public interface AccountExporter extends AccountFormat {
+
+    /**
+     * Write the accounts to the file
+     * @param accounts An iterator over AccountInformation objects
+     * @param file The file to write to, which mustn't already exist
+     */
+    public void exportAccounts(Iterator accounts, File file) throws ExportException;
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import com._17od.upm.database.ExportException;
+
+
+/**
+ * The import and export formats UPM knows about. They're listed in
+ * META-INF/services so a format can be added by dropping a jar containing
+ * it, and its own services file, onto the classpath.
+ */
+public class AccountFormats {
+
+    private static ArrayList importers;
+    private static ArrayList exporters;
+
+
+    /**
+     * @return The AccountImporters in the order they're listed
+     */
+    public static synchronized ArrayList getImporters() {
+        if (importers == null) {
+            importers = load(AccountImporter.class);
+        }
+        return importers;
+    }
+
+
+    /**
+     * @return The AccountExporters in the order they're listed
+     */
+    public static synchronized ArrayList getExporters() {
+        if (exporters == null) {
+            exporters = load(AccountExporter.class);
+        }
+        return exporters;
+    }
+
+
+    /**
+     * Pick an importer from the file's extension. The first one listed for
+     * an extension wins so UPM's own CSV format is used for .csv files.
+     * @return The importer or null if none uses the file's extension
+     */
+    public static AccountImporter findImporter(File file) {
+        ArrayList list = getImporters();
+        for (int i = 0; i < list.size(); i++) {
+            AccountImporter importer = (AccountImporter) list.get(i);
+            if (hasExtension(file, importer.getExtensions())) {
+                return importer;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return The exporter for the file's extension or null if there isn't one
+     */
+    public static AccountExporter findExporter(File file) {
+        ArrayList list = getExporters();
+        for (int i = 0; i < list.size(); i++) {
+            AccountExporter exporter = (AccountExporter) list.get(i);
+            if (hasExtension(file, exporter.getExtensions())) {
+                return exporter;
+            }
+        }
+        return null;
+    }
+
+
+    public static boolean hasExtension(File file, String[] extensions) {
+        String name = file.getName().toLowerCase();
+        for (int i = 0; i < extensions.length; i++) {
+            if (name.endsWith("." + extensions[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Other password managers don't insist on a title so fall back to the
+     * URL or user id to give the account a name
+     */
+    static String accountName(String title, String url, String userId) {
+        if (title != null && title.trim().length() > 0) {
+            return title.trim();
+        } else if (url != null && url.trim().length() > 0) {
+            return url.trim();
+        } else if (userId != null && userId.trim().length() > 0) {
+            return userId.trim();
+        }
+        return "Untitled";
+    }
+
+
+    /**
+     * Create the file an exporter writes to. If the export fails the
+     * exporter should delete the file so a partial export isn't left behind.
+     */
+    static OutputStream createExportFile(File file) throws ExportException {
+        if (file.exists()) {
+            throw new ExportException("The file to export to already exists");
+        }
+        try {
+            return new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        } catch (IOException e) {
+            throw new ExportException(e);
+        }
+    }
+
+
+    static String emptyIfNull(String value) {
+        return value == null ? "" : value;
+    }
+
+
+    private static ArrayList load(Class service) {
+        ArrayList list = new ArrayList();
+        Iterator it = ServiceLoader.load(service, AccountFormats.class.getClassLoader()).iterator();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        return list;
+    }
+
+}
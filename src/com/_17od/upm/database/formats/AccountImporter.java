@@ -0,0 +1,45 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.ImportException;
+
+
+/**
+ * Reads accounts exported by UPM or another password manager. Importers
+ * are found with java.util.ServiceLoader (see AccountFormats) so new
+ * formats can be added by listing them in
+ * META-INF/services/com._17od.upm.database.formats.AccountImporter.
+ * 
+ * Implementations must stream: each account is passed to the handler as
+ * soon as it's read and the file is never held in memory as a whole.
+ */
+public interface AccountImporter extends AccountFormat {
+
+    /**
+     * Read the accounts in the file passing each one to the handler
+     */
+    public void importAccounts(File file, AccountHandler handler) throws ImportException;
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.UUID;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.ExportException;
+import com._17od.upm.database.ImportException;
+
+
+/**
+ * The unencrypted JSON file Bitwarden imports and exports. Each item in
+ * the "items" array becomes an account; folders are ignored. Items are
+ * read one at a time with JsonReader so large vaults aren't held in memory.
+ */
+public class BitwardenJSONFormat implements AccountImporter, AccountExporter {
+
+    private static final int LOGIN_TYPE = 1;
+
+
+    public String getName() {
+        return "Bitwarden JSON";
+    }
+
+
+    public String[] getExtensions() {
+        return new String[] {"json"};
+    }
+
+
+    public void importAccounts(File file, AccountHandler handler) throws ImportException {
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(
+                    new BufferedInputStream(new FileInputStream(file), 64 * 1024), "UTF-8");
+            JsonReader json = new JsonReader(reader);
+            if (json.next() != JsonReader.BEGIN_OBJECT) {
+                throw new ImportException("Not a Bitwarden JSON file");
+            }
+            while (json.next() == JsonReader.NAME) {
+                String name = json.getString();
+                if (name.equals("encrypted")) {
+                    if ("true".equals(nextString(json))) {
+                        throw new ImportException("Encrypted Bitwarden exports can't be imported");
+                    }
+                } else if (name.equals("items")) {
+                    if (json.next() != JsonReader.BEGIN_ARRAY) {
+                        throw new ImportException("Not a Bitwarden JSON file");
+                    }
+                    while (json.next() == JsonReader.BEGIN_OBJECT) {
+                        handler.handleAccount(readItem(json));
+                    }
+                } else {
+                    json.skipValue();
+                }
+            }
+        } catch (IOException e) {
+            throw new ImportException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing was written so there's nothing to lose
+                }
+            }
+        }
+    }
+
+
+    public void exportAccounts(Iterator accounts, File file) throws ExportException {
+        OutputStream os = AccountFormats.createExportFile(file);
+        boolean exported = false;
+        try {
+            Writer writer = new OutputStreamWriter(os, "UTF-8");
+            writer.write("{\n  \"encrypted\": false,\n  \"folders\": [],\n  \"items\": [");
+            boolean first = true;
+            while (accounts != null && accounts.hasNext()) {
+                AccountInformation account = (AccountInformation) accounts.next();
+                writer.write(first ? "\n    {" : ",\n    {");
+                first = false;
+                writer.write("\n      \"id\": ");
+                quote(writer, UUID.randomUUID().toString());
+                writer.write(",\n      \"folderId\": null,\n      \"type\": " + LOGIN_TYPE);
+                writer.write(",\n      \"name\": ");
+                quote(writer, account.getAccountName());
+                writer.write(",\n      \"notes\": ");
+                quote(writer, account.getNotes());
+                writer.write(",\n      \"favorite\": false,\n      \"login\": {\n        \"uris\": [");
+                if (account.getUrl() != null && account.getUrl().length() > 0) {
+                    writer.write("\n          {\n            \"match\": null,\n            \"uri\": ");
+                    quote(writer, account.getUrl());
+                    writer.write("\n          }\n        ");
+                }
+                writer.write("],\n        \"username\": ");
+                quote(writer, account.getUserId());
+                writer.write(",\n        \"password\": ");
+                quote(writer, account.getPassword());
+                writer.write(",\n        \"totp\": null\n      }\n    }");
+            }
+            writer.write(first ? "]\n}\n" : "\n  ]\n}\n");
+            writer.close();
+            exported = true;
+        } catch (IOException e) {
+            throw new ExportException(e);
+        } finally {
+            if (!exported) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // The file's being deleted anyway
+                }
+                file.delete();
+            }
+        }
+    }
+
+
+    private AccountInformation readItem(JsonReader json) throws IOException {
+        String[] fields = new String[4];
+        String name = null;
+        String notes = null;
+        while (json.next() == JsonReader.NAME) {
+            String field = json.getString();
+            if (field.equals("name")) {
+                name = nextString(json);
+            } else if (field.equals("notes")) {
+                notes = nextString(json);
+            } else if (field.equals("login")) {
+                readLogin(json, fields);
+            } else {
+                json.skipValue();
+            }
+        }
+        String userId = fields[0];
+        String url = fields[2];
+        return new AccountInformation(
+                AccountFormats.accountName(name, url, userId),
+                AccountFormats.emptyIfNull(userId),
+                AccountFormats.emptyIfNull(fields[1]),
+                AccountFormats.emptyIfNull(url),
+                AccountFormats.emptyIfNull(notes));
+    }
+
+
+    /**
+     * Read the user name, password and first URI of a login into fields
+     */
+    private void readLogin(JsonReader json, String[] fields) throws IOException {
+        int token = json.next();
+        if (token != JsonReader.BEGIN_OBJECT) {
+            // null or something unexpected
+            if (token == JsonReader.BEGIN_ARRAY) {
+                skipRest(json);
+            }
+            return;
+        }
+        while (json.next() == JsonReader.NAME) {
+            String field = json.getString();
+            if (field.equals("username")) {
+                fields[0] = nextString(json);
+            } else if (field.equals("password")) {
+                fields[1] = nextString(json);
+            } else if (field.equals("uris")) {
+                if (json.next() != JsonReader.BEGIN_ARRAY) {
+                    continue;
+                }
+                while (json.next() == JsonReader.BEGIN_OBJECT) {
+                    while (json.next() == JsonReader.NAME) {
+                        if (json.getString().equals("uri") && fields[2] == null) {
+                            fields[2] = nextString(json);
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+    }
+
+
+    /**
+     * @return The next value as a string, or null if it's null or isn't a
+     * simple value
+     */
+    private static String nextString(JsonReader json) throws IOException {
+        int token = json.next();
+        if (token == JsonReader.BEGIN_OBJECT || token == JsonReader.BEGIN_ARRAY) {
+            skipRest(json);
+            return null;
+        } else if (token == JsonReader.NULL) {
+            return null;
+        }
+        return json.getString();
+    }
+
+
+    /**
+     * Skip the rest of an object or array whose start has been read
+     */
+    private static void skipRest(JsonReader json) throws IOException {
+        int nested = 1;
+        while (nested > 0) {
+            int token = json.next();
+            if (token == JsonReader.BEGIN_OBJECT || token == JsonReader.BEGIN_ARRAY) {
+                nested++;
+            } else if (token == JsonReader.END_OBJECT || token == JsonReader.END_ARRAY) {
+                nested--;
+            } else if (token == JsonReader.END_DOCUMENT) {
+                return;
+            }
+        }
+    }
+
+
+    private static void quote(Writer writer, String value) throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"': writer.write("\\\""); break;
+            case '\\': writer.write("\\\\"); break;
+            case '\n': writer.write("\\n"); break;
+            case '\r': writer.write("\\r"); break;
+            case '\t': writer.write("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    String hex = Integer.toHexString(c);
+                    writer.write("\\u0000".substring(0, 6 - hex.length()));
+                    writer.write(hex);
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+        writer.write('"');
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.ImportException;
+import com._17od.upm.util.DedupPool;
+import com._17od.upm.util.Translator;
+import com.csvreader.CsvReader;
+
+
+/**
+ * Imports a CSV file from another password manager by mapping its columns
+ * onto UPM's fields. By default the columns are found by matching the
+ * header row against the names password managers commonly use (so
+ * LastPass, Bitwarden and Chrome exports work as they are) but they can
+ * be given explicitly with setColumns().
+ */
+public class ColumnMappingCSVImporter implements AccountImporter {
+
+    public static final int NAME = 0;
+    public static final int USER_ID = 1;
+    public static final int PASSWORD = 2;
+    public static final int URL = 3;
+    public static final int NOTES = 4;
+
+    private static final String[][] DEFAULT_HEADERS = {
+        {"name", "title", "account", "account name"},
+        {"username", "user name", "user", "login", "login_username", "email", "user id"},
+        {"password", "login_password", "pass"},
+        {"url", "uri", "website", "web site", "login_uri", "address"},
+        {"notes", "note", "extra", "comments", "comment"}
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private String[][] headers;
+    private int[] columns;
+    private boolean hasHeader = true;
+
+
+    public ColumnMappingCSVImporter() {
+        this(DEFAULT_HEADERS);
+    }
+
+
+    /**
+     * @param headers For each of NAME, USER_ID, PASSWORD, URL and NOTES the
+     * lower case header names that field may have
+     */
+    protected ColumnMappingCSVImporter(String[][] headers) {
+        this.headers = headers;
+    }
+
+
+    public String getName() {
+        return "CSV with a header row";
+    }
+
+
+    public String[] getExtensions() {
+        return new String[] {"csv"};
+    }
+
+
+    /**
+     * Use these columns rather than looking at the header row
+     * @param columns The column of each of NAME, USER_ID, PASSWORD, URL and
+     * NOTES or -1 if the file doesn't have that field
+     * @param hasHeader Whether the first row should be skipped
+     */
+    public void setColumns(int[] columns, boolean hasHeader) {
+        this.columns = columns;
+        this.hasHeader = hasHeader;
+    }
+
+
+    public void importAccounts(File file, AccountHandler handler) throws ImportException {
+        DedupPool pool = DedupPool.getShared();
+        CsvReader csvReader = null;
+        try {
+            Reader reader = new InputStreamReader(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), "UTF-8");
+            csvReader = new CsvReader(reader);
+            int[] mapping = columns;
+            if (hasHeader) {
+                if (!csvReader.readRecord()) {
+                    return;
+                }
+                if (mapping == null) {
+                    mapping = mapHeader(csvReader.getValues());
+                }
+            }
+            if (mapping == null || (mapping[NAME] == -1 && mapping[URL] == -1)) {
+                throw new ImportException(
+                        Translator.translate("notCSVFileError",
+                                new Object[] {file.getAbsoluteFile(), new Long(1)}));
+            }
+
+            while (csvReader.readRecord()) {
+                String[] record = csvReader.getValues();
+                if (record.length == 1 && record[0].length() == 0) {
+                    continue;
+                }
+                String url = field(record, mapping[URL]);
+                String userId = field(record, mapping[USER_ID]);
+                handler.handleAccount(new AccountInformation(
+                        AccountFormats.accountName(field(record, mapping[NAME]), url, userId),
+                        userId,
+                        field(record, mapping[PASSWORD]),
+                        pool.dedup(url),
+                        field(record, mapping[NOTES])));
+            }
+        } catch (IOException e) {
+            throw new ImportException(e);
+        } finally {
+            if (csvReader != null) {
+                csvReader.close();
+            }
+        }
+    }
+
+
+    /**
+     * @return The column of each field, or -1 for those with no matching
+     * header
+     */
+    int[] mapHeader(String[] header) {
+        int[] mapping = new int[headers.length];
+        for (int field = 0; field < headers.length; field++) {
+            mapping[field] = -1;
+            for (int column = 0; column < header.length && mapping[field] == -1; column++) {
+                String name = header[column].trim().toLowerCase();
+                for (int i = 0; i < headers[field].length; i++) {
+                    if (headers[field][i].equals(name)) {
+                        mapping[field] = column;
+                        break;
+                    }
+                }
+            }
+        }
+        return mapping;
+    }
+
+
+    private static String field(String[] record, int column) {
+        if (column == -1 || column >= record.length) {
+            return "";
+        }
+        return record[column];
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ * A pull parser for JSON. next() returns one token at a time so a file
+ * can be read without building a tree of it. Only as strict as importing
+ * needs: separators are checked loosely and numbers aren't parsed.
+ */
+class JsonReader {
+
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int NAME = 5;
+    public static final int STRING = 6;
+    public static final int NUMBER = 7;
+    public static final int BOOLEAN = 8;
+    public static final int NULL = 9;
+    public static final int END_DOCUMENT = 10;
+
+    private static final int MAX_DEPTH = 256;
+
+    private Reader reader;
+    private char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    private boolean[] inObject = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean expectName;
+
+    private StringBuffer text = new StringBuffer();
+    private String value;
+
+
+    public JsonReader(Reader reader) {
+        this.reader = reader;
+    }
+
+
+    /**
+     * @return The type of the next token
+     */
+    public int next() throws IOException {
+        int c = nextNonSpace();
+        if (c == ',' || c == ':') {
+            c = nextNonSpace();
+        }
+        value = null;
+
+        switch (c) {
+        case -1:
+            if (depth > 0) {
+                throw syntaxError("Unexpected end of file");
+            }
+            return END_DOCUMENT;
+        case '{':
+            push(true);
+            expectName = true;
+            return BEGIN_OBJECT;
+        case '[':
+            push(false);
+            return BEGIN_ARRAY;
+        case '}':
+        case ']':
+            if (depth == 0 || inObject[depth - 1] != (c == '}')) {
+                throw syntaxError("Unexpected " + (char) c);
+            }
+            depth--;
+            expectName = depth > 0 && inObject[depth - 1];
+            return c == '}' ? END_OBJECT : END_ARRAY;
+        case '"':
+            value = readString();
+            if (expectName && depth > 0 && inObject[depth - 1]) {
+                expectName = false;
+                return NAME;
+            }
+            endValue();
+            return STRING;
+        default:
+            value = readLiteral((char) c);
+            endValue();
+            if (value.equals("null")) {
+                return NULL;
+            } else if (value.equals("true") || value.equals("false")) {
+                return BOOLEAN;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                return NUMBER;
+            }
+            throw syntaxError("Unexpected " + value);
+        }
+    }
+
+
+    /**
+     * @return The text of the last NAME, STRING, NUMBER or BOOLEAN token
+     */
+    public String getString() {
+        return value;
+    }
+
+
+    /**
+     * Skip over the next value, including everything in it if it's an
+     * object or array
+     */
+    public void skipValue() throws IOException {
+        int nested = 0;
+        do {
+            int token = next();
+            if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+                nested++;
+            } else if (token == END_OBJECT || token == END_ARRAY) {
+                nested--;
+            } else if (token == END_DOCUMENT) {
+                return;
+            }
+        } while (nested > 0);
+    }
+
+
+    private void push(boolean object) throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("Nested too deeply");
+        }
+        inObject[depth++] = object;
+    }
+
+
+    /**
+     * Values in an object are followed by the next name
+     */
+    private void endValue() {
+        expectName = depth > 0 && inObject[depth - 1];
+    }
+
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                c = read();
+                switch (c) {
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit == -1) {
+                            throw syntaxError("Bad unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    text.append((char) c);
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+
+    private String readLiteral(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) {
+                break;
+            }
+            text.append(c);
+            position++;
+        }
+        return text.toString();
+    }
+
+
+    private int nextNonSpace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\uFEFF');
+        return c;
+    }
+
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+
+}
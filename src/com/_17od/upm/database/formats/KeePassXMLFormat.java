@@ -0,0 +1,418 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.UUID;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.ExportException;
+import com._17od.upm.database.ImportException;
+
+
+/**
+ * The XML file KeePass 2 imports and exports. Imports also understand the
+ * older KeePassX XML format.
+ * 
+ * The file is read with StAX so only the entry being read is in memory.
+ * Entry history and the recycle bin are skipped and groups are flattened
+ * since UPM doesn't have them.
+ */
+public class KeePassXMLFormat implements AccountImporter, AccountExporter {
+
+    private static final String TITLE = "Title";
+    private static final String USER_NAME = "UserName";
+    private static final String PASSWORD = "Password";
+    private static final String URL = "URL";
+    private static final String NOTES = "Notes";
+
+
+    public String getName() {
+        return "KeePass XML";
+    }
+
+
+    public String[] getExtensions() {
+        return new String[] {"xml"};
+    }
+
+
+    public void importAccounts(File file, AccountHandler handler) throws ImportException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Passwords files have no business referring to other files
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+        InputStream is = null;
+        XMLStreamReader reader = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+            reader = factory.createXMLStreamReader(is);
+
+            String recycleBin = null;
+            int groupDepth = 0;
+            int skipGroupDepth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (name.equals("Meta")) {
+                        recycleBin = readRecycleBin(reader);
+                    } else if (name.equals("Group")) {
+                        groupDepth++;
+                    } else if (name.equals("UUID")) {
+                        // Entries are read whole so this is a group's UUID
+                        String uuid = reader.getElementText().trim();
+                        if (skipGroupDepth == 0 && uuid.equals(recycleBin)) {
+                            skipGroupDepth = groupDepth;
+                        }
+                    } else if (name.equals("Entry")) {
+                        AccountInformation account = readEntry(reader);
+                        if (skipGroupDepth == 0) {
+                            handler.handleAccount(account);
+                        }
+                    } else if (name.equals("entry")) {
+                        handler.handleAccount(readKeePassXEntry(reader));
+                    } else if (name.equals("History")) {
+                        skipElement(reader);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("Group")) {
+                    if (skipGroupDepth == groupDepth) {
+                        skipGroupDepth = 0;
+                    }
+                    groupDepth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new ImportException(e);
+        } catch (IOException e) {
+            throw new ImportException(e);
+        } finally {
+            close(reader);
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // Nothing was written so there's nothing to lose
+                }
+            }
+        }
+    }
+
+
+    public void exportAccounts(Iterator accounts, File file) throws ExportException {
+        OutputStream os = AccountFormats.createExportFile(file);
+        boolean exported = false;
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            newLine(writer, 0);
+            writer.writeStartElement("KeePassFile");
+            newLine(writer, 1);
+            writer.writeStartElement("Meta");
+            writeElement(writer, 2, "Generator", "Universal Password Manager");
+            newLine(writer, 1);
+            writer.writeEndElement();
+            newLine(writer, 1);
+            writer.writeStartElement("Root");
+            newLine(writer, 2);
+            writer.writeStartElement("Group");
+            writeElement(writer, 3, "UUID", newUUID());
+            writeElement(writer, 3, "Name", "UPM");
+
+            while (accounts != null && accounts.hasNext()) {
+                AccountInformation account = (AccountInformation) accounts.next();
+                newLine(writer, 3);
+                writer.writeStartElement("Entry");
+                writeElement(writer, 4, "UUID", newUUID());
+                writeString(writer, TITLE, account.getAccountName(), false);
+                writeString(writer, USER_NAME, account.getUserId(), false);
+                writeString(writer, PASSWORD, account.getPassword(), true);
+                writeString(writer, URL, account.getUrl(), false);
+                writeString(writer, NOTES, account.getNotes(), false);
+                newLine(writer, 3);
+                writer.writeEndElement();
+            }
+
+            newLine(writer, 2);
+            writer.writeEndElement();
+            newLine(writer, 1);
+            writer.writeEndElement();
+            newLine(writer, 0);
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            os.close();
+            exported = true;
+        } catch (XMLStreamException e) {
+            throw new ExportException(e);
+        } catch (IOException e) {
+            throw new ExportException(e);
+        } finally {
+            if (!exported) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // The file's being deleted anyway
+                }
+                file.delete();
+            }
+        }
+    }
+
+
+    /**
+     * @return The UUID of the recycle bin group or null if there isn't one
+     */
+    private String readRecycleBin(XMLStreamReader reader) throws XMLStreamException {
+        String recycleBin = null;
+        boolean enabled = true;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (name.equals("RecycleBinUUID")) {
+                    recycleBin = reader.getElementText().trim();
+                } else if (name.equals("RecycleBinEnabled")) {
+                    enabled = !reader.getElementText().trim().equalsIgnoreCase("False");
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return enabled ? recycleBin : null;
+    }
+
+
+    private AccountInformation readEntry(XMLStreamReader reader) throws XMLStreamException, ImportException {
+        String title = null, userName = null, password = null, url = null, notes = null;
+        String key = null;
+        boolean inString = false;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (name.equals("History")) {
+                    skipElement(reader);
+                } else if (inString && name.equals("Key")) {
+                    key = reader.getElementText();
+                } else if (inString && name.equals("Value")) {
+                    if ("True".equalsIgnoreCase(reader.getAttributeValue(null, "Protected"))) {
+                        // Only found in the XML inside a .kdbx file, not in an XML export
+                        throw new ImportException("The file contains encrypted KeePass values");
+                    }
+                    String value = reader.getElementText();
+                    if (TITLE.equals(key)) {
+                        title = value;
+                    } else if (USER_NAME.equals(key)) {
+                        userName = value;
+                    } else if (PASSWORD.equals(key)) {
+                        password = value;
+                    } else if (URL.equals(key)) {
+                        url = value;
+                    } else if (NOTES.equals(key)) {
+                        notes = value;
+                    }
+                } else {
+                    inString = name.equals("String");
+                    key = null;
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                inString = false;
+                depth--;
+            }
+        }
+        return newAccount(title, userName, password, url, notes);
+    }
+
+
+    private AccountInformation readKeePassXEntry(XMLStreamReader reader) throws XMLStreamException {
+        String title = null, userName = null, password = null, url = null, notes = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (name.equals("title")) {
+                    title = reader.getElementText();
+                } else if (name.equals("username")) {
+                    userName = reader.getElementText();
+                } else if (name.equals("password")) {
+                    password = reader.getElementText();
+                } else if (name.equals("url")) {
+                    url = reader.getElementText();
+                } else if (name.equals("comment")) {
+                    notes = readMixedText(reader);
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return newAccount(title, userName, password, url, notes);
+    }
+
+
+    /**
+     * KeePassX puts &lt;br/&gt; elements in comments for line breaks
+     */
+    private String readMixedText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuffer text = new StringBuffer();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals("br")) {
+                    text.append('\n');
+                }
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return text.toString();
+    }
+
+
+    private static AccountInformation newAccount(String title, String userName,
+            String password, String url, String notes) {
+        return new AccountInformation(
+                AccountFormats.accountName(title, url, userName),
+                AccountFormats.emptyIfNull(userName),
+                AccountFormats.emptyIfNull(password),
+                AccountFormats.emptyIfNull(url),
+                AccountFormats.emptyIfNull(notes));
+    }
+
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+
+    private static void writeString(XMLStreamWriter writer, String key, String value,
+            boolean protect) throws XMLStreamException {
+        newLine(writer, 4);
+        writer.writeStartElement("String");
+        writeElement(writer, 5, "Key", key);
+        newLine(writer, 5);
+        writer.writeStartElement("Value");
+        if (protect) {
+            writer.writeAttribute("ProtectInMemory", "True");
+        }
+        writer.writeCharacters(xmlSafe(AccountFormats.emptyIfNull(value)));
+        writer.writeEndElement();
+        newLine(writer, 4);
+        writer.writeEndElement();
+    }
+
+
+    private static void writeElement(XMLStreamWriter writer, int indent, String name,
+            String text) throws XMLStreamException {
+        newLine(writer, indent);
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+
+    private static void newLine(XMLStreamWriter writer, int indent) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        for (int i = 0; i < indent; i++) {
+            writer.writeCharacters("\t");
+        }
+    }
+
+
+    /**
+     * XML 1.0 can't hold most control characters, even escaped
+     */
+    static String xmlSafe(String value) {
+        StringBuffer safe = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean allowed = c >= 0x20 ? c != 0xFFFE && c != 0xFFFF
+                    : c == '\t' || c == '\n' || c == '\r';
+            if (!allowed && safe == null) {
+                safe = new StringBuffer(value.length());
+                safe.append(value, 0, i);
+            } else if (allowed && safe != null) {
+                safe.append(c);
+            }
+        }
+        return safe == null ? value : safe.toString();
+    }
+
+
+    private static String newUUID() {
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putLong(uuid.getMostSignificantBits());
+        bytes.putLong(uuid.getLeastSignificantBits());
+        return new String(Base64.encodeBase64(bytes.array()));
+    }
+
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // The underlying stream is closed separately
+            }
+        }
+    }
+
+}
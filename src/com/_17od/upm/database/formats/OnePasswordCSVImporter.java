@@ -0,0 +1,49 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+
+/**
+ * Imports the CSV file 1Password exports. 1Password 7 and 8 put the
+ * columns in a different order (and 8 adds several) so they're found from
+ * the header row.
+ */
+public class OnePasswordCSVImporter extends ColumnMappingCSVImporter {
+
+    private static final String[][] HEADERS = {
+        {"title"},
+        {"username"},
+        {"password"},
+        {"url", "website", "urls"},
+        {"notes", "notesplain"}
+    };
+
+
+    public OnePasswordCSVImporter() {
+        super(HEADERS);
+    }
+
+
+    public String getName() {
+        return "1Password CSV";
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+import java.util.Iterator;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountsCSVMarshaller;
+import com._17od.upm.database.ExportException;
+import com._17od.upm.database.ImportException;
+
+
+/**
+ * UPM's own CSV format: name, user id, password, URL, notes with no header
+ * row, optionally encrypted with a password. See AccountsCSVMarshaller.
+ * 
+ * The instance AccountFormats hands out has no password; create a new one
+ * to read or write an encrypted file.
+ */
+public class UPMCSVFormat implements AccountImporter, AccountExporter {
+
+    /** Files bigger than this are parsed on several threads */
+    private static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    private AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+    private char[] password;
+
+
+    public UPMCSVFormat() {
+    }
+
+
+    /**
+     * @param password The password to encrypt exports with and decrypt
+     * encrypted imports with, or null for plain files
+     */
+    public UPMCSVFormat(char[] password) {
+        this.password = password;
+    }
+
+
+    public String getName() {
+        return "UPM CSV";
+    }
+
+
+    public String[] getExtensions() {
+        return new String[] {"csv", "txt"};
+    }
+
+
+    public boolean isEncrypted(File file) throws ImportException {
+        return marshaller.isEncrypted(file);
+    }
+
+
+    public void importAccounts(File file, AccountHandler handler) throws ImportException {
+        if (file.length() > PARALLEL_THRESHOLD) {
+            marshaller.unmarshalParallel(file, password, handler);
+        } else {
+            marshaller.unmarshal(file, password, handler);
+        }
+    }
+
+
+    public void exportAccounts(Iterator accounts, File file) throws ExportException {
+        marshaller.marshal(accounts, file, password);
+    }
+
+}
@@ -42,8 +42,9 @@ import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -59,7 +60,10 @@ import javax.swing.JTextField;
 
 import org.apache.commons.validator.routines.UrlValidator;
 
+import com._17od.upm.audit.BreachedPasswords;
 import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.util.PasswordGenerator;
 import com._17od.upm.util.Preferences;
 import com._17od.upm.util.Translator;
 import com._17od.upm.util.Util;
@@ -67,45 +71,6 @@ import com._17od.upm.util.Util;
 public class AccountDialog extends EscapeDialog {
 
 	private static final long serialVersionUID = 1L;
-	private static final char[] ALLOWED_CHARS = { 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n',
-			'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I',
-			'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '0', '1', '2', '3',
-			'4', '5', '6', '7', '8', '9' };
-	// Extended CharArray list which include also 24 Escape characters for
-	// stronger password generation
-	private static final char[] EXTRA_ALLOWED_CHARS = { 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-			'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H',
-			'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '0', '1', '2',
-			'3', '4', '5', '6', '7', '8', '9', '~', '!', '@', '#', '$', '%', '^', '&', '*', '(', ',', ')', '_', '-',
-			'+', '=', '|', '/', '<', '>', '.', '?', ';', ':' };
-
-	/*
-	 * We will use the (4)four above CharArray lists(UPPERCASE_CHARS,
-	 * LOWERCASE_CHARS, NUMBER_CHARS, ESCAPE_CHARS) to ensure that the generated
-	 * passwords will be more complex. If the user has selected to include
-	 * escape characters to generated passwords and the length of the passwords
-	 * is 4 or above, then we will use some methods in order to generate
-	 * passwords that will have at least 1 lower case + 1 upper case + 1 number
-	 * + 1 escape character. On the other hand, if the user has not selected to
-	 * include escape characters to generated passwords and the length of the
-	 * passwords is at least 3, then we will use methods in order to generate
-	 * passwords that will have at least 1 lower case + 1 upper case + 1 number.
-	 */
-	private static final char[] UPPERCASE_CHARS = { 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
-			'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'
-
-	};
-
-	private static final char[] LOWERCASE_CHARS = { 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-			'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z'
-
-	};
-
-	private static final char[] NUMBER_CHARS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' };
-
-	private static final char[] PUNCTUATION_CHARS = { '~', '!', '@', '#', '$', '%', '^', '&', '*', '(', ',', ')', '_',
-			'-', '+', '=', '|', '/', '<', '>', '.', '?', ';', ':' };
-
 	private AccountInformation pAccount;
 	private JTextField userId;
 	private JPasswordField password;
@@ -117,12 +82,16 @@ public class AccountDialog extends EscapeDialog {
 	private JFrame parentWindow;
 	private boolean accountChanged = false;
 	private char defaultEchoChar;
+	private boolean readOnly;
+	private PasswordDatabase historySource;
+	private JButton historyButton;
 
 	public AccountDialog(AccountInformation account, JFrame parentWindow, boolean readOnly,
 			ArrayList existingAccounts) {
 		super(parentWindow, true);
 
 		boolean addingAccount = false;
+		this.readOnly = readOnly;
 		
 		//Request focus on Account JDialog when mouse clicked
 		this.addMouseListener(new MouseAdapter() {
@@ -342,7 +311,9 @@ public class AccountDialog extends EscapeDialog {
 		// paste buttons, and hide password checkbox
 		JPanel passwordPanel = new JPanel(new GridBagLayout());
 
-		password = new JPasswordField(new String(pAccount.getPassword()), 20);
+		char[] currentPassword = pAccount.getPasswordChars();
+		password = new JPasswordField(new String(currentPassword), 20);
+		Arrays.fill(currentPassword, (char) 0);
 		// allow CTRL-C on the password field
 		password.putClientProperty("JPasswordField.cutCopyAllowed", Boolean.TRUE);
 		password.setEditable(!readOnly);
@@ -372,27 +343,12 @@ public class AccountDialog extends EscapeDialog {
 				Boolean includeEscapeChars = new Boolean(
 						Preferences.get(Preferences.ApplicationOptions.INCLUDE_ESCAPE_CHARACTERS, "true"));
 				int pwLength = Preferences.getInt(Preferences.ApplicationOptions.ACCOUNT_PASSWORD_LENGTH, 8);
-				String Password;
-
-				if ((includeEscapeChars.booleanValue()) && (pwLength > 3)) {
-					// Verify that the generated password satisfies the criteria
-					// for strong passwords(including Escape Characters)
-					do {
-						Password = GeneratePassword(pwLength, includeEscapeChars.booleanValue());
-					} while (!(CheckPassStrong(Password, includeEscapeChars.booleanValue())));
-
-				} else if (!(includeEscapeChars.booleanValue()) && (pwLength > 2)) {
-					// Verify that the generated password satisfies the criteria
-					// for strong passwords(excluding Escape Characters)
-					do {
-						Password = GeneratePassword(pwLength, includeEscapeChars.booleanValue());
-					} while (!(CheckPassStrong(Password, includeEscapeChars.booleanValue())));
 
-				} else {
-					// Else a weak password of 3 or less chars will be produced
-					Password = GeneratePassword(pwLength, includeEscapeChars.booleanValue());
-				}
-				password.setText(Password);
+				// Passwords long enough to hold one of each character class
+				// always get at least one of each
+				char[] generated = new PasswordGenerator(pwLength, includeEscapeChars.booleanValue()).generate();
+				password.setText(new String(generated));
+				Arrays.fill(generated, (char) 0);
 			}
 		});
 		if (addingAccount) {
@@ -448,6 +404,23 @@ public class AccountDialog extends EscapeDialog {
 		c.fill = GridBagConstraints.HORIZONTAL;
 		passwordPanel.add(pwPasteButton, c);
 
+		JButton checkBreachButton = new JButton(Translator.translate("breachCheckButton"));
+		checkBreachButton.setToolTipText(Translator.translate("breachCheck"));
+		checkBreachButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				checkBreached();
+			}
+		});
+		c.gridx = 4;
+		c.gridy = 0;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 0, 0, 5);
+		c.weightx = 0;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		passwordPanel.add(checkBreachButton, c);
+
 		JCheckBox hidePasswordCheckbox = new JCheckBox(Translator.translate("hide"), true);
 		defaultEchoChar = password.getEchoChar();
 		hidePasswordCheckbox.setMargin(new Insets(5, 0, 5, 0));
@@ -714,6 +687,14 @@ public class AccountDialog extends EscapeDialog {
 			}
 		});
 		buttonPanel.add(okButton);
+		historyButton = new JButton(Translator.translate("history"));
+		historyButton.setVisible(false);
+		historyButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showHistory();
+			}
+		});
+		buttonPanel.add(historyButton);
 		if (!readOnly) {
 			JButton cancelButton = new JButton(Translator.translate("cancel"));
 			cancelButton.addActionListener(new ActionListener() {
@@ -734,6 +715,15 @@ public class AccountDialog extends EscapeDialog {
 		container.add(buttonPanel, c);
 	} // End AccountDialog constructor
 
+	/**
+	 * Let the user see and restore the account's earlier versions. The
+	 * database's history isn't loaded unless the user asks to see it.
+	 */
+	public void setHistorySource(PasswordDatabase database) {
+		this.historySource = database;
+		historyButton.setVisible(database != null);
+	}
+
 	public boolean okClicked() {
 		return okClicked;
 	} // End okClicked()
@@ -756,7 +746,8 @@ public class AccountDialog extends EscapeDialog {
 		//
 		// Only check if an account with the same name exists if the account
 		// name has actually changed
-		if (accountChanged && existingAccounts.indexOf(accountName.getText().trim()) > -1) {
+		// existingAccounts is sorted so it can be searched quickly
+		if (accountChanged && Collections.binarySearch(existingAccounts, accountName.getText().trim()) >= 0) {
 			JOptionPane.showMessageDialog(parentWindow,
 					Translator.translate("accountAlreadyExistsWithName", accountName.getText().trim()),
 					Translator.translate("accountAlreadyExists"), JOptionPane.ERROR_MESSAGE);
@@ -765,9 +756,12 @@ public class AccountDialog extends EscapeDialog {
 			if (!pAccount.getUserId().equals(userId.getText())) {
 				accountChanged = true;
 			}
-			if (!pAccount.getPassword().equals(password.getText())) {
+			char[] oldPassword = pAccount.getPasswordChars();
+			char[] newPassword = password.getPassword();
+			if (!Arrays.equals(oldPassword, newPassword)) {
 				accountChanged = true;
 			}
+			Arrays.fill(oldPassword, (char) 0);
 			if (!pAccount.getUrl().equals(url.getText())) {
 				accountChanged = true;
 			}
@@ -777,7 +771,8 @@ public class AccountDialog extends EscapeDialog {
 
 			pAccount.setAccountName(accountName.getText().trim());
 			pAccount.setUserId(userId.getText());
-			pAccount.setPassword(password.getText());
+			pAccount.setPassword(newPassword);
+			Arrays.fill(newPassword, (char) 0);
 			pAccount.setUrl(url.getText());
 			pAccount.setNotes(notes.getText());
 
@@ -797,157 +792,44 @@ public class AccountDialog extends EscapeDialog {
 		dispose();
 	} // End closeButtonAction()
 
-	/**
-	 * This method takes as input the user's preferences about password length,
-	 * including or excluding Escape Characters, and randomly generates a
-	 * password. Then, the method returns the generated password as a String.
-	 *
-	 * @param PassLength
-	 * @param InclEscChars
-	 * @return passwordBuffer.toString()
-	 */
-	private static String GeneratePassword(int PassLength, boolean InclEscChars) {
-		SecureRandom random = new SecureRandom();
-		StringBuffer passwordBuffer = new StringBuffer();
-
-		if (InclEscChars) {
-			for (int i = 0; i < PassLength; i++) {
-				passwordBuffer.append(EXTRA_ALLOWED_CHARS[random.nextInt(EXTRA_ALLOWED_CHARS.length)]);
-			}
-			return passwordBuffer.toString();
-
-		} else {
-			for (int i = 0; i < PassLength; i++) {
-				passwordBuffer.append(ALLOWED_CHARS[random.nextInt(ALLOWED_CHARS.length)]);
-			}
-			return passwordBuffer.toString();
+	private void showHistory() {
+		AccountHistoryDialog dialog = new AccountHistoryDialog(this, historySource.getHistory(), pAccount, readOnly);
+		dialog.pack();
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
+
+		// Fill in the fields, the version is only saved if the user clicks OK
+		AccountInformation version = dialog.getRestoredVersion();
+		if (version != null) {
+			userId.setText(version.getUserId());
+			char[] restoredPassword = version.getPasswordChars();
+			password.setText(new String(restoredPassword));
+			Arrays.fill(restoredPassword, (char) 0);
+			url.setText(version.getUrl());
+			notes.setText(version.getNotes());
 		}
-	} // End GeneratePassword()
-
-	/**
-	 * This method returns true if the generated password satisfies the criteria
-	 * of a strong password, including or excluding Escape Characters. If not,
-	 * then returns false.
-	 *
-	 * @param Pass
-	 * @param InclEscChars
-	 * @return true or false, depending on strength criteria.
-	 */
-	private static boolean CheckPassStrong(String Pass, boolean InclEscChars) {
-		if (InclEscChars) {
-			if ((InclUpperCase(Pass)) && (InclLowerCase(Pass)) && (InclNumber(Pass)) && (InclEscape(Pass))) {
-				return true;
-			} else {
-				return false;
-			}
-		} else {
-			if ((InclUpperCase(Pass)) && (InclLowerCase(Pass)) && (InclNumber(Pass))) {
-				return true;
-			} else {
-				return false;
-			}
-		}
-	} // End CheckPassStrong()
-
-	/**
-	 * This method returns true if the generated password contains at least one
-	 * Upper Case character. If not, then the method returns false.
-	 *
-	 * @param GeneratedPass
-	 * @return true or false, depending on existence of one upper case letter.
-	 */
-	private static boolean InclUpperCase(String GeneratedPass) {
-		char[] PassWordArray = GeneratedPass.toCharArray();
-		boolean find = false;
-		outerloop: for (int i = 0; i < PassWordArray.length; i++) {
-			for (int j = 0; j < UPPERCASE_CHARS.length; j++) {
-				if (PassWordArray[i] == UPPERCASE_CHARS[j]) {
-					find = true;
-					break outerloop;
-				}
-			}
-		}
-		if (find) {
-			return true;
-		} else {
-			return false;
-		}
-	} // End InclUpperCase()
-
-	/**
-	 * This method returns true if the generated password contains at least one
-	 * Lower Case character. If not, then the method returns false.
-	 *
-	 * @param GeneratedPass
-	 * @return true or false, depending on existence of one lower case letter.
-	 */
-	private static boolean InclLowerCase(String GeneratedPass) {
-		char[] PassWordArray = GeneratedPass.toCharArray();
-		boolean find = false;
-		outerloop: for (int i = 0; i < PassWordArray.length; i++) {
-			for (int j = 0; j < LOWERCASE_CHARS.length; j++) {
-				if (PassWordArray[i] == LOWERCASE_CHARS[j]) {
-					find = true;
-					break outerloop;
-				}
-			}
-		}
-		if (find) {
-			return true;
-		} else {
-			return false;
-		}
-	} // End InclLowerCase()
-
-	/**
-	 * This method returns true if the generated password contains at least one
-	 * Number. If not, then the method returns false.
-	 *
-	 * @param GeneratedPass
-	 * @return true or false, depending on existence of one number.
-	 */
-	private static boolean InclNumber(String GeneratedPass) {
-		char[] PassWordArray = GeneratedPass.toCharArray();
-		boolean find = false;
-		outerloop: for (int i = 0; i < PassWordArray.length; i++) {
-			for (int j = 0; j < NUMBER_CHARS.length; j++) {
-				if (PassWordArray[i] == NUMBER_CHARS[j]) {
-					find = true;
-					break outerloop;
-				}
-			}
-		}
-		if (find) {
-			return true;
-		} else {
-			return false;
-		}
-	} // End InclNumber()
+	}
 
 	/**
-	 * This method returns true if the generated password contains at least one
-	 * Escape character. If not, then the method returns false.
-	 *
-	 * @param GeneratedPass
-	 * @return true or false, depending on existence of one escape character.
+	 * Look the password up in the local breached password list, asking for
+	 * the list first if one hasn't been picked yet
 	 */
-	private static boolean InclEscape(String GeneratedPass) {
-		char[] PassWordArray = GeneratedPass.toCharArray();
-		boolean find = false;
-		outerloop: for (int i = 0; i < PassWordArray.length; i++) {
-			for (int j = 0; j < PUNCTUATION_CHARS.length; j++) {
-				if (PassWordArray[i] == PUNCTUATION_CHARS[j]) {
-					find = true;
-					break outerloop;
-				}
-			}
+	private void checkBreached() {
+		BreachedPasswords breachedPasswords = BreachListChooser.getOrChoose(this);
+		if (breachedPasswords == null) {
+			return;
 		}
-		if (find) {
-			return true;
+		char[] chars = password.getPassword();
+		int count = breachedPasswords.getCount(chars);
+		Arrays.fill(chars, (char) 0);
+		if (count > 0) {
+			JOptionPane.showMessageDialog(this, Translator.translate("breachFound", new Integer(count)),
+					Translator.translate("breachCheck"), JOptionPane.WARNING_MESSAGE);
 		} else {
-			return false;
+			JOptionPane.showMessageDialog(this, Translator.translate("breachNotFound"),
+					Translator.translate("breachCheck"), JOptionPane.INFORMATION_MESSAGE);
 		}
-	} // End InclEscape()
+	}
 
 	/**
 	 * This method takes in a JTextField object and then copies the text of that
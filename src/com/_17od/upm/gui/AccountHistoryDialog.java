@@ -0,0 +1,194 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTextArea;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.util.Translator;
+
+/**
+ * Lists the earlier versions of an account, newest first, and shows the
+ * values of the one selected. Restoring a version only hands it back to
+ * the AccountDialog, it's saved (and becomes a new change) when the user
+ * clicks OK there.
+ */
+public class AccountHistoryDialog extends EscapeDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private ArrayList versions;
+    private AccountInformation restoredVersion;
+
+    private JList versionsList;
+    private JTextArea detailsArea;
+    private JCheckBox showPasswordsCheckBox;
+
+
+    public AccountHistoryDialog(JDialog parent, AccountHistory history, AccountInformation current,
+            boolean readOnly) {
+        super(parent, Translator.translate("historyTitle", current.getAccountName()), true);
+        versions = history.getVersions(current);
+
+        String[] descriptions = new String[versions.size()];
+        DateFormat dateFormat = DateFormat.getDateTimeInstance();
+        for (int i = 0; i < versions.size(); i++) {
+            AccountHistory.Version version = (AccountHistory.Version) versions.get(i);
+            StringBuffer fields = new StringBuffer();
+            String[] changedFields = version.getChangedFields();
+            for (int j = 0; j < changedFields.length; j++) {
+                fields.append(j == 0 ? "" : ", ").append(Translator.translate(fieldKey(changedFields[j])));
+            }
+            descriptions[i] = Translator.translate("historyVersion", new Object[] {
+                    dateFormat.format(new Date(version.getTime())), fields.toString()});
+        }
+        versionsList = new JList(descriptions);
+        versionsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        versionsList.addListSelectionListener(new ListSelectionListener() {
+            public void valueChanged(ListSelectionEvent e) {
+                showSelectedVersion();
+            }
+        });
+
+        detailsArea = new JTextArea(12, 30);
+        detailsArea.setEditable(false);
+        detailsArea.setText(versions.isEmpty() ? Translator.translate("historyNone") : "");
+
+        showPasswordsCheckBox = new JCheckBox(Translator.translate("historyShowPasswords"));
+        showPasswordsCheckBox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                showSelectedVersion();
+            }
+        });
+
+        final JButton restoreButton = new JButton(Translator.translate("historyRestore"));
+        restoreButton.setEnabled(false);
+        restoreButton.setVisible(!readOnly);
+        restoreButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                int selected = versionsList.getSelectedIndex();
+                if (selected >= 0) {
+                    restoredVersion = ((AccountHistory.Version) versions.get(selected)).getAccount();
+                    setVisible(false);
+                    dispose();
+                }
+            }
+        });
+        versionsList.addListSelectionListener(new ListSelectionListener() {
+            public void valueChanged(ListSelectionEvent e) {
+                restoreButton.setEnabled(versionsList.getSelectedIndex() >= 0);
+            }
+        });
+
+        JButton closeButton = new JButton(Translator.translate("cancel"));
+        closeButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                setVisible(false);
+                dispose();
+            }
+        });
+
+        JScrollPane versionsScrollPane = new JScrollPane(versionsList);
+        versionsScrollPane.setPreferredSize(new Dimension(260, 220));
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, versionsScrollPane,
+                new JScrollPane(detailsArea));
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(showPasswordsCheckBox);
+        buttonPanel.add(restoreButton);
+        buttonPanel.add(closeButton);
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.add(new JLabel(Translator.translate("historyLocalOnly")), BorderLayout.NORTH);
+        panel.add(splitPane, BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        getContentPane().add(panel);
+
+        if (!versions.isEmpty()) {
+            versionsList.setSelectedIndex(0);
+        }
+    }
+
+
+    /**
+     * @return The version the user chose to restore or null if they didn't
+     */
+    public AccountInformation getRestoredVersion() {
+        return restoredVersion;
+    }
+
+
+    private void showSelectedVersion() {
+        int selected = versionsList.getSelectedIndex();
+        if (selected < 0) {
+            return;
+        }
+        AccountInformation account = ((AccountHistory.Version) versions.get(selected)).getAccount();
+        StringBuffer details = new StringBuffer();
+        details.append(Translator.translate("userid")).append(": ").append(account.getUserId()).append('\n');
+        details.append(Translator.translate("password")).append(": ");
+        if (showPasswordsCheckBox.isSelected()) {
+            details.append(account.getPassword());
+        } else {
+            details.append("********");
+        }
+        details.append('\n');
+        details.append(Translator.translate("url")).append(": ").append(account.getUrl()).append('\n');
+        details.append(Translator.translate("notes")).append(":\n").append(account.getNotes());
+        detailsArea.setText(details.toString());
+        detailsArea.setCaretPosition(0);
+    }
+
+
+    private static String fieldKey(String field) {
+        if (field.equals(AccountHistory.USER_ID)) {
+            return "userid";
+        }
+        // The other fields' names are also their translation keys
+        return field;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.util.Date;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com._17od.upm.audit.AuditReport;
+import com._17od.upm.audit.BreachedPasswords;
+import com._17od.upm.audit.PasswordAuditor;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.util.Translator;
+
+/**
+ * Shows the results of auditing every password in the database and lets
+ * the user pick the list of breached passwords to check against.
+ */
+public class AuditDialog extends EscapeDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int OLD_PASSWORD_DAYS = 365;
+
+    private PasswordAuditor auditor;
+    private PasswordDatabase database;
+    private AuditReport report;
+
+    private JLabel summaryLabel;
+    private ReportTableModel tableModel = new ReportTableModel();
+
+
+    public AuditDialog(JFrame frame, PasswordAuditor auditor, PasswordDatabase database) {
+        super(frame, Translator.translate("auditPasswords"), true);
+        this.auditor = auditor;
+        this.database = database;
+
+        summaryLabel = new JLabel(" ");
+        JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+        JScrollPane tableScrollPane = new JScrollPane(table);
+        tableScrollPane.setPreferredSize(new Dimension(640, 300));
+
+        JButton breachListButton = new JButton(Translator.translate("auditBreachList"));
+        breachListButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                chooseBreachList();
+            }
+        });
+
+        JButton closeButton = new JButton(Translator.translate("ok"));
+        closeButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                setVisible(false);
+                dispose();
+            }
+        });
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(breachListButton);
+        buttonPanel.add(closeButton);
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.add(summaryLabel, BorderLayout.NORTH);
+        panel.add(tableScrollPane, BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        getContentPane().add(panel);
+
+        runAudit();
+    }
+
+
+    private void runAudit() {
+        BreachedPasswords breachedPasswords = BreachListChooser.getCurrent();
+        if (auditor.getBreachedPasswords() != breachedPasswords) {
+            auditor.setBreachedPasswords(breachedPasswords);
+        }
+        report = auditor.audit(database);
+        tableModel.fireTableDataChanged();
+
+        String summary = Translator.translate("auditSummary", new Object[] {
+                new Integer(report.getFindings().size()),
+                new Integer(report.getWeakCount()),
+                new Integer(report.getReusedCount()),
+                new Integer(report.getOlderThanCount(OLD_PASSWORD_DAYS, System.currentTimeMillis()))});
+        if (report.isBreachesChecked()) {
+            summary += " " + Translator.translate("auditBreachedSummary", new Integer(report.getBreachedCount()));
+        } else {
+            summary += " " + Translator.translate("auditNoBreachList");
+        }
+        summaryLabel.setText(summary);
+    }
+
+
+    private void chooseBreachList() {
+        if (BreachListChooser.choose(this) != null) {
+            runAudit();
+        }
+    }
+
+
+    private class ReportTableModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] columns = {"auditAccount", "auditStrength", "auditWarning",
+                "auditReused", "auditBreached", "auditLastChanged"};
+
+        public int getRowCount() {
+            return report == null ? 0 : report.getFindings().size();
+        }
+
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        public String getColumnName(int column) {
+            return Translator.translate(columns[column]);
+        }
+
+        public Class getColumnClass(int column) {
+            return column == 3 || column == 4 ? Integer.class : String.class;
+        }
+
+        public Object getValueAt(int row, int column) {
+            AuditReport.Finding finding = (AuditReport.Finding) report.getFindings().get(row);
+            switch (column) {
+            case 0:
+                return finding.getAccountName();
+            case 1:
+                return Translator.translate("auditScore" + finding.getStrength().getScore(),
+                        new Integer(finding.getStrength().getBits()));
+            case 2:
+                String warning = finding.getStrength().getWarning();
+                return warning == null ? "" : Translator.translate(warning);
+            case 3:
+                return new Integer(finding.getReuseCount());
+            case 4:
+                return new Integer(finding.getBreachCount());
+            default:
+                return finding.getLastChanged() == 0 ? ""
+                        : DateFormat.getDateInstance().format(new Date(finding.getLastChanged()));
+            }
+        }
+
+    }
+
+}
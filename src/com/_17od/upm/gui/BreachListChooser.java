@@ -0,0 +1,132 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.Component;
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com._17od.upm.audit.BreachedPasswords;
+import com._17od.upm.util.Preferences;
+import com._17od.upm.util.Translator;
+
+
+/**
+ * Holds the breached password list the user has picked. It's opened (and
+ * indexed) once and shared by the account dialog, the audit and the batch
+ * check. The file's location is kept in the preferences.
+ */
+class BreachListChooser {
+
+    private static Log LOG = LogFactory.getLog(BreachListChooser.class);
+
+    private static BreachedPasswords current;
+    private static boolean savedListOpened = false;
+
+
+    private BreachListChooser() {
+    }
+
+
+    /**
+     * @return The list last picked, or null if there isn't one
+     */
+    public static synchronized BreachedPasswords getCurrent() {
+        if (current == null && !savedListOpened) {
+            savedListOpened = true;
+            String path = Preferences.get(Preferences.ApplicationOptions.AUDIT_BREACHED_PASSWORDS_FILE);
+            if (path != null && new File(path).isFile()) {
+                try {
+                    current = open(new File(path));
+                } catch (IOException e) {
+                    LOG.warn("Couldn't open the breached password list [" + path + "]", e);
+                }
+            }
+        }
+        return current;
+    }
+
+
+    /**
+     * @return The current list, or if there isn't one the list the user picks
+     * now, or null if they don't pick one
+     */
+    public static BreachedPasswords getOrChoose(Component parent) {
+        BreachedPasswords breachedPasswords = getCurrent();
+        if (breachedPasswords == null) {
+            breachedPasswords = choose(parent);
+        }
+        return breachedPasswords;
+    }
+
+
+    /**
+     * Ask the user for a new list
+     * @return The list they picked, or null if they cancelled or it couldn't
+     * be opened
+     */
+    public static BreachedPasswords choose(Component parent) {
+        JFileChooser fc = new JFileChooser();
+        fc.setDialogTitle(Translator.translate("auditBreachList"));
+        BreachedPasswords breachedPasswords = getCurrent();
+        if (breachedPasswords != null) {
+            fc.setSelectedFile(breachedPasswords.getFile());
+        }
+        if (fc.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+
+        File file = fc.getSelectedFile();
+        try {
+            breachedPasswords = open(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(parent, e.getMessage(),
+                    Translator.translate("problem"), JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        synchronized (BreachListChooser.class) {
+            current = breachedPasswords;
+        }
+
+        Preferences.set(Preferences.ApplicationOptions.AUDIT_BREACHED_PASSWORDS_FILE, file.getPath());
+        try {
+            Preferences.save();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(parent, e.getMessage(),
+                    Translator.translate("problem"), JOptionPane.ERROR_MESSAGE);
+        }
+        return breachedPasswords;
+    }
+
+
+    private static BreachedPasswords open(File file) throws IOException {
+        BreachedPasswords breachedPasswords = new BreachedPasswords(file);
+        breachedPasswords.buildIndex();
+        return breachedPasswords;
+    }
+
+}
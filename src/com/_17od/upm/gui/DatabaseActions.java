@@ -22,6 +22,7 @@ package com._17od.upm.gui;
 
 import java.awt.Color;
 import java.awt.Cursor;
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
@@ -32,30 +33,55 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPasswordField;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com._17od.upm.audit.BreachedPasswords;
+import com._17od.upm.audit.PasswordAuditor;
 import com._17od.upm.crypto.CryptoException;
 import com._17od.upm.crypto.InvalidPasswordException;
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.AccountImportPipeline;
 import com._17od.upm.database.AccountInformation;
 import com._17od.upm.database.AccountsCSVMarshaller;
-import com._17od.upm.database.ExportException;
-import com._17od.upm.database.ImportException;
+import com._17od.upm.database.DatabaseHeader;
+import com._17od.upm.database.DatabaseMerger;
+import com._17od.upm.database.DatabaseSnapshotCache;
 import com._17od.upm.database.PasswordDatabase;
 import com._17od.upm.database.PasswordDatabasePersistence;
+import com._17od.upm.database.PasswordRotation;
 import com._17od.upm.database.ProblemReadingDatabaseFile;
+import com._17od.upm.database.formats.AccountExporter;
+import com._17od.upm.database.formats.AccountFormat;
+import com._17od.upm.database.formats.AccountFormats;
+import com._17od.upm.database.formats.AccountImporter;
+import com._17od.upm.database.formats.UPMCSVFormat;
 import com._17od.upm.gui.MainWindow.ChangeDatabaseAction;
+import com._17od.upm.transport.ChunkManifest;
+import com._17od.upm.transport.HTTPCache;
+import com._17od.upm.transport.RevisionConflictException;
 import com._17od.upm.transport.Transport;
 import com._17od.upm.transport.TransportException;
 import com._17od.upm.util.FileChangedCallback;
 import com._17od.upm.util.FileMonitor;
+import com._17od.upm.util.IOExecutor;
+import com._17od.upm.util.Metrics;
 import com._17od.upm.util.Preferences;
 import com._17od.upm.util.Translator;
 import com._17od.upm.util.Util;
@@ -65,13 +91,25 @@ public class DatabaseActions {
 
     private static Log LOG = LogFactory.getLog(DatabaseActions.class);
 
+    private static final String DEFAULT_REMOTE_DATABASE_NAME = "upm.db";
+    private static final int MAX_SYNC_ATTEMPTS = 3;
+    private static final String BACKEND = IOExecutor.backendFor(PasswordDatabasePersistence.BACKEND_URL);
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.getDefault().timer(
+            "search", "Matching the account names against the search text");
+    private static final Metrics.Timer LISTVIEW_TIMER = Metrics.getDefault().timer(
+            "listview_update", "Refilling the accounts listview with the matching accounts");
+
     private MainWindow mainWindow;
     private PasswordDatabase database;
     private ArrayList<String> accountNames;
     private boolean localDatabaseDirty = true;
     private PasswordDatabasePersistence dbPers;
     private FileMonitor fileMonitor;
+    private HTTPCache httpCache = HTTPCache.getDefault();
+    private DatabaseSnapshotCache snapshotCache;
     private boolean databaseNeedsReload = false;
+    private PasswordAuditor auditor;
+    private IOExecutor.Group ioTasks;
 
     private boolean lockIfInactive;
     private int msToWaitBeforeClosingDB;
@@ -130,7 +168,7 @@ public class DatabaseActions {
                     okClicked = false;
                 } else {
                     try {
-                        dbPers.load();
+                        loadDatabase(null, null);
                         passwordCorrect = true;
                     } catch (InvalidPasswordException e) {
                         JOptionPane.showMessageDialog(mainWindow, Translator.translate("incorrectPassword"));
@@ -184,6 +222,12 @@ public class DatabaseActions {
 
 
     void errorHandler(Exception e) {
+        if (e instanceof CancellationException) {
+            // The user cancelled the I/O or the database was closed while it
+            // was running, neither is worth an error message
+            LOG.info("I/O was cancelled", e);
+            return;
+        }
         e.printStackTrace();
         String errorMessage = e.getMessage();
         if (errorMessage == null) {
@@ -203,6 +247,11 @@ public class DatabaseActions {
         mainWindow.getDatabasePropertiesMenuItem().setEnabled(false);
         mainWindow.getExportMenuItem().setEnabled(false);
         mainWindow.getImportMenuItem().setEnabled(false);
+        mainWindow.getRotatePasswordsMenuItem().setEnabled(false);
+        mainWindow.getAuditPasswordsMenuItem().setEnabled(false);
+        mainWindow.getCheckBreachedMenuItem().setEnabled(false);
+        auditor = null;
+        cancelIOTasks();
 
         mainWindow.setTitle(MainWindow.getApplicationName());
 
@@ -237,6 +286,9 @@ public class DatabaseActions {
         mainWindow.getDatabasePropertiesMenuItem().setEnabled(true);
         mainWindow.getExportMenuItem().setEnabled(true);
         mainWindow.getImportMenuItem().setEnabled(true);
+        mainWindow.getRotatePasswordsMenuItem().setEnabled(true);
+        mainWindow.getAuditPasswordsMenuItem().setEnabled(true);
+        mainWindow.getCheckBreachedMenuItem().setEnabled(true);
 
         mainWindow.setTitle(database.getDatabaseFile() + " - " + MainWindow.getApplicationName());
 
@@ -292,6 +344,9 @@ public class DatabaseActions {
         }
     }
 
+    /**
+     * @return The names of the accounts in the database, sorted
+     */
     public ArrayList<String> getAccountNames() {
         ArrayList dbAccounts = database.getAccounts();
         ArrayList<String> accountNames = new ArrayList<>();
@@ -300,10 +355,31 @@ public class DatabaseActions {
             String accountName = (String) ai.getAccountName();
             accountNames.add(accountName);
         }
+        Collections.sort(accountNames);
         return accountNames;
     }
 
 
+    /**
+     * accountNames is kept sorted so a name can be found by binary search
+     * rather than by looking through every account
+     */
+    private void addAccountName(String accountName) {
+        int index = Collections.binarySearch(accountNames, accountName);
+        if (index < 0) {
+            accountNames.add(-index - 1, accountName);
+        }
+    }
+
+
+    private void removeAccountName(String accountName) {
+        int index = Collections.binarySearch(accountNames, accountName);
+        if (index >= 0) {
+            accountNames.remove(index);
+        }
+    }
+
+
     /**
      * Prompt the user to enter a password
      *
@@ -336,15 +412,100 @@ public class DatabaseActions {
 
 
     public void openDatabase(String databaseFilename, char[] password) throws IOException, ProblemReadingDatabaseFile, CryptoException, InvalidPasswordException {
+        cancelIOTasks();
         dbPers = new PasswordDatabasePersistence();
-        database = dbPers.load();
+        database = loadDatabase(null, null);
     }
 
 
+    /**
+     * Open the database held by the loginmanager backend. If there's a local
+     * snapshot of it then that's shown straight away and the backend is
+     * asked for the latest version in the background.
+     */
     public void openDatabase() throws IOException, ProblemReadingDatabaseFile, CryptoException, InvalidPasswordException {
+        cancelIOTasks();
         dbPers = new PasswordDatabasePersistence();
-        database = dbPers.load();
-        doOpenDatabaseActions();
+        PasswordDatabase snapshot = getSnapshotCache().load();
+        if (snapshot != null) {
+            database = snapshot;
+            doOpenDatabaseActions();
+            revalidateInBackground(database);
+        } else {
+            database = loadDatabase(null, null);
+            saveSnapshot();
+            doOpenDatabaseActions();
+        }
+    }
+
+
+    /**
+     * Load the database from the backend on an I/O thread and apply any
+     * differences to the given database (on the event dispatch thread)
+     */
+    private void revalidateInBackground(final PasswordDatabase shownDatabase) {
+        getIOTasks().submit(BACKEND, new Callable() {
+            public Object call() {
+                final PasswordDatabase freshDatabase;
+                try {
+                    freshDatabase = new PasswordDatabasePersistence().load();
+                } catch (Exception e) {
+                    LOG.info("Couldn't reach the backend, showing the local snapshot", e);
+                    return null;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    // The database was closed or locked while we were loading
+                    return null;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        // Don't touch a database opened in the meantime
+                        if (database != shownDatabase) {
+                            return;
+                        }
+                        if (DatabaseSnapshotCache.applyDifferences(database, freshDatabase) > 0) {
+                            accountNames = getAccountNames();
+                            filter();
+                        }
+                        saveSnapshot();
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+
+    /**
+     * Take a snapshot of the database and write it on an I/O thread. The
+     * snapshot is only a cache so nobody waits for it to be written and
+     * failing to save it isn't fatal.
+     */
+    private void saveSnapshot() {
+        try {
+            getSnapshotCache().setHistoryRetention(getHistoryMaxVersions(), getHistoryMaxAgeDays());
+            final DatabaseSnapshotCache.Snapshot snapshot = getSnapshotCache().prepare(database);
+            getIOTasks().submit(IOExecutor.FILE_BACKEND, new Callable() {
+                public Object call() {
+                    try {
+                        snapshot.write();
+                    } catch (Exception e) {
+                        LOG.warn("Couldn't save the local snapshot of the database", e);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            LOG.warn("Couldn't save the local snapshot of the database", e);
+        }
+    }
+
+
+    private DatabaseSnapshotCache getSnapshotCache() {
+        if (snapshotCache == null) {
+            snapshotCache = DatabaseSnapshotCache.inDirectory(Preferences.getConfigDirectory());
+        }
+        return snapshotCache;
     }
 
 
@@ -358,8 +519,7 @@ public class DatabaseActions {
             if (buttonSelected == JOptionPane.OK_OPTION) {
                 //Remove the account from the listview, accountNames arraylist & the database
                 listview.removeElement(selectedAccName);
-                int i = accountNames.indexOf(selectedAccName);
-                accountNames.remove(i);
+                removeAccountName(selectedAccName);
                 database.deleteAccount(selectedAccName);
                 saveDatabase();
                 //[1375385] Call the filter method so that the listview is
@@ -387,7 +547,7 @@ public class DatabaseActions {
                 database.deleteAccount(accInfo.getAccountName());
                 database.addAccount(accInfo);
                 saveDatabase();
-                accountNames.add(accInfo.getAccountName());
+                addAccountName(accInfo.getAccountName());
                 //[1375390] Ensure that the listview is properly filtered after an add
                 filter();
             }
@@ -432,6 +592,7 @@ public class DatabaseActions {
     public void viewAccount() {
         AccountInformation accInfo = getSelectedAccount();
         AccountDialog accDialog = new AccountDialog(accInfo, mainWindow, true, accountNames);
+        accDialog.setHistorySource(database);
         accDialog.pack();
         accDialog.setLocationRelativeTo(mainWindow);
         accDialog.show();
@@ -450,7 +611,10 @@ public class DatabaseActions {
                                 "accountDoesntExist", accountName));
             }
 
-            AccountDialog accDialog = new AccountDialog(accInfo, mainWindow, false, accountNames);
+            //Edit a copy of the account so that the database (and its change log)
+            //still has the original values when the edited account is stored
+            AccountDialog accDialog = new AccountDialog(new AccountInformation(accInfo), mainWindow, false, accountNames);
+            accDialog.setHistorySource(database);
             accDialog.pack();
             accDialog.setLocationRelativeTo(mainWindow);
             accDialog.show();
@@ -458,22 +622,22 @@ public class DatabaseActions {
             //If the ok button was clicked then save the account to the database and update the
             //listview with the new account name (if it's changed)
             if (accDialog.okClicked() && accDialog.getAccountChanged()) {
-                accInfo = accDialog.getAccount();
-                database.deleteAccount(accountName);
-                database.addAccount(accInfo);
-                //If the new account name is different to the old account name then update the
-                //accountNames array and refilter the listview
-                if (!accInfo.getAccountName().equals(accountName)) {
-                    // User might change the account name for the Authentication Entry
-                    // so this has to be checked
-                    if (accountName.equals(database.getDbOptions().getAuthDBEntry())) {
-                        database.getDbOptions().setAuthDBEntry(accInfo.getAccountName());
-                    }
-                    int i = accountNames.indexOf(accountName);
-                    accountNames.remove(i);
-                    accountNames.add(accInfo.getAccountName());
-                    //[1375390] Ensure that the listview is properly filtered after an edit
-                    filter();
+                AccountInformation edited = accDialog.getAccount();
+                String newName = edited.getAccountName();
+                if (!newName.equals(accountName)) {
+                    //Rename the account where it is rather than deleting and
+                    //re-adding it. This also takes care of the Authentication
+                    //Entry and the account's history.
+                    accInfo = database.renameAccount(accountName, newName);
+                    removeAccountName(accountName);
+                    addAccountName(newName);
+                    renameInListview(accountName, newName);
+                }
+                //Only replace the stored account (and load the history) if
+                //more than its name changed
+                if (!DatabaseMerger.sameValues(accInfo, edited)
+                        && database.getHistory().recordChanges(accInfo, edited, System.currentTimeMillis())) {
+                    database.addAccount(edited);
                 }
                 saveDatabase();
             }
@@ -485,20 +649,53 @@ public class DatabaseActions {
     public void filter() {
         String filterStr = mainWindow.getSearchField().getText().toLowerCase();
 
+        long start = SEARCH_TIMER.start();
         ArrayList<String> filteredAccountsList = new ArrayList<String>();
         for (int i = 0; i < accountNames.size(); i++) {
             String accountName = accountNames.get(i);
-            if (filterStr.equals("") || accountName.toLowerCase().indexOf(filterStr) != -1) {
+            if (matchesFilter(accountName, filterStr)) {
                 filteredAccountsList.add(accountName);
             }
         }
+        SEARCH_TIMER.stop(start);
 
+        start = LISTVIEW_TIMER.start();
         populateListview(filteredAccountsList);
 
         //If there's only one item in the listview then select it
         if (mainWindow.getAccountsListview().getModel().getSize() == 1) {
             mainWindow.getAccountsListview().setSelectedIndex(0);
         }
+        LISTVIEW_TIMER.stop(start);
+    }
+
+
+    private static boolean matchesFilter(String accountName, String filterStr) {
+        return filterStr.equals("") || accountName.toLowerCase().indexOf(filterStr) != -1;
+    }
+
+
+    /**
+     * Update the row of a renamed account without rebuilding the listview.
+     * If the new name no longer matches the filter the row is removed.
+     */
+    private void renameInListview(String oldName, String newName) {
+        JList accountsListview = mainWindow.getAccountsListview();
+        SortedListModel listview = (SortedListModel) accountsListview.getModel();
+        String filterStr = mainWindow.getSearchField().getText().toLowerCase();
+
+        if (!matchesFilter(newName, filterStr)) {
+            listview.removeElement(oldName);
+        } else {
+            if (!listview.replaceElement(oldName, newName)) {
+                listview.removeElement(oldName);
+                listview.addElement(newName);
+            }
+            int index = listview.indexOf(newName);
+            accountsListview.setSelectedIndex(index);
+            accountsListview.ensureIndexIsVisible(index);
+        }
+        setButtonState();
     }
 
 
@@ -508,9 +705,7 @@ public class DatabaseActions {
         listview.clear();
         mainWindow.getAccountsListview().clearSelection();
 
-        for (int i = 0; i < accountNames.size(); i++) {
-            listview.addElement(accountNames.get(i));
-        }
+        listview.addAll(accountNames);
 
         setButtonState();
     }
@@ -570,6 +765,94 @@ public class DatabaseActions {
     }
 
 
+    public void showDiagnostics() {
+        DiagnosticsDialog diagnosticsDialog = new DiagnosticsDialog(mainWindow, database);
+        diagnosticsDialog.pack();
+        diagnosticsDialog.setLocationRelativeTo(mainWindow);
+        diagnosticsDialog.show();
+    }
+
+
+    /**
+     * Give the accounts the user picks new passwords and save the database
+     * once for all of them
+     */
+    public void rotatePasswords() throws TransportException, ProblemReadingDatabaseFile,
+            IOException, CryptoException, PasswordDatabaseException {
+        if (!getLatestVersionOfDatabase()) {
+            return;
+        }
+
+        RotatePasswordsDialog dialog = new RotatePasswordsDialog(mainWindow, database);
+        dialog.pack();
+        dialog.setLocationRelativeTo(mainWindow);
+        dialog.setVisible(true);
+        if (!dialog.okClicked()) {
+            return;
+        }
+
+        PasswordRotation.Result result = dialog.getRotation().rotate(dialog.getSelectedAccounts());
+        try {
+            saveDatabase();
+        } catch (IOException e) {
+            result.undo();
+            throw e;
+        } catch (CryptoException e) {
+            result.undo();
+            throw e;
+        }
+        JOptionPane.showMessageDialog(mainWindow,
+                Translator.translate("rotateDone", new Integer(result.getRotated())));
+    }
+
+
+    /**
+     * Show how strong, reused, breached and old the passwords are. The
+     * auditor is kept while the database is open so auditing again only
+     * has to look at the passwords that have changed.
+     */
+    public void auditPasswords() {
+        if (auditor == null) {
+            auditor = new PasswordAuditor();
+        }
+
+        AuditDialog dialog = new AuditDialog(mainWindow, auditor, database);
+        dialog.pack();
+        dialog.setLocationRelativeTo(mainWindow);
+        dialog.setVisible(true);
+    }
+
+
+    /**
+     * Look every password up in the local breached password list and list
+     * the accounts that turn up
+     */
+    public void checkBreachedPasswords() {
+        BreachedPasswords breachedPasswords = BreachListChooser.getOrChoose(mainWindow);
+        if (breachedPasswords == null) {
+            return;
+        }
+
+        TreeMap breached = breachedPasswords.checkAll(database.getAccounts());
+        if (breached.isEmpty()) {
+            JOptionPane.showMessageDialog(mainWindow, Translator.translate("breachNoneFound"),
+                    Translator.translate("breachCheck"), JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        ArrayList lines = new ArrayList();
+        for (Iterator it = breached.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            lines.add(Translator.translate("breachAccount", new Object[] {entry.getKey(), entry.getValue()}));
+        }
+        JScrollPane accountsScrollPane = new JScrollPane(new JList(lines.toArray()));
+        accountsScrollPane.setPreferredSize(new Dimension(350, 200));
+        JOptionPane.showMessageDialog(mainWindow, new Object[] {
+                Translator.translate("breachSomeFound", new Integer(breached.size())), accountsScrollPane},
+                Translator.translate("breachCheck"), JOptionPane.WARNING_MESSAGE);
+    }
+
+
     public void resetSearch() {
         mainWindow.getSearchField().setText("");
     }
@@ -616,9 +899,17 @@ public class DatabaseActions {
 
             if (saveDatabaseTo != null) {
 
-                // Download the database
-                Transport transport = Transport.getTransportForURL(new URL(remoteLocation));
-                File downloadedDatabaseFile = transport.getRemoteFile(remoteLocation, username, password);
+                // Download the database unless the copy in the cache is
+                // still current
+                final Transport transport = Transport.getTransportForURL(new URL(remoteLocation));
+                final String url = remoteLocation;
+                final String httpUsername = username;
+                final String httpPassword = password;
+                HTTPCache.Entry remoteVersion = (HTTPCache.Entry) callIO(IOExecutor.backendFor(remoteLocation), new Callable() {
+                    public Object call() throws Exception {
+                        return transport.getRemoteFileIfModified(url, httpUsername, httpPassword, httpCache.get(url));
+                    }
+                });
 
                 // Delete the file is it already exists
                 if (saveDatabaseTo.exists()) {
@@ -626,7 +917,17 @@ public class DatabaseActions {
                 }
 
                 // Save the downloaded database file to the new location
-                Util.copyFile(downloadedDatabaseFile, saveDatabaseTo);
+                if (remoteVersion.isNotModified()) {
+                    Util.copyFile(remoteVersion.getFile(), saveDatabaseTo);
+                } else {
+                    try {
+                        Util.copyFile(remoteVersion.getFile(), saveDatabaseTo);
+                        httpCache.put(remoteLocation, remoteVersion.getETag(),
+                                remoteVersion.getLastModified(), remoteVersion.getFile());
+                    } finally {
+                        remoteVersion.getFile().delete();
+                    }
+                }
 
                 // Now open the downloaded database
                 openDatabase(saveDatabaseTo.getAbsolutePath());
@@ -663,7 +964,7 @@ public class DatabaseActions {
 
         PasswordDatabase reloadedDb = null;
         try {
-            reloadedDb = dbPers.load();
+            reloadedDb = loadDatabase(null, null);
         } catch (InvalidPasswordException e) {
             // The password for the reloaded database is different to that of
             // the open database
@@ -676,7 +977,7 @@ public class DatabaseActions {
                 } else {
                     okClicked = true;
                     try {
-                        reloadedDb = dbPers.load();
+                        reloadedDb = loadDatabase(null, null);
                     } catch (InvalidPasswordException invalidPassword) {
                         JOptionPane.showMessageDialog(mainWindow,
                                 Translator.translate("incorrectPassword"));
@@ -695,16 +996,39 @@ public class DatabaseActions {
     }
 
     public boolean syncWithRemoteDatabase() throws TransportException, ProblemReadingDatabaseFile, IOException, CryptoException, PasswordDatabaseException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return syncWithRemoteDatabaseOnce();
+            } catch (RevisionConflictException e) {
+                // Someone else published a new revision while we were merging
+                // so start again and merge with theirs
+                if (attempt == MAX_SYNC_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+
+    private boolean syncWithRemoteDatabaseOnce() throws TransportException, ProblemReadingDatabaseFile, IOException, CryptoException, PasswordDatabaseException {
 
         boolean syncSuccessful = false;
+        File remoteDatabaseFile = null;
 
         try {
-            fileMonitor.pause();
+            if (fileMonitor != null) {
+                fileMonitor.pause();
+            }
 
             mainWindow.getContentPane().setCursor(new Cursor(Cursor.WAIT_CURSOR));
 
             // Get the remote database options
             String remoteLocation = database.getDbOptions().getRemoteLocation();
+            if (remoteLocation.equals("")) {
+                // There's no remote database so there's nothing to sync with
+                setLocalDatabaseDirty(false);
+                return true;
+            }
             String authDBEntry = database.getDbOptions().getAuthDBEntry();
             String httpUsername = null;
             String httpPassword = null;
@@ -713,20 +1037,67 @@ public class DatabaseActions {
                 httpPassword = database.getAccount(authDBEntry).getPassword();
             }
 
-            // Download the database that's already at the remote location
-            Transport transport = Transport.getTransportForURL(new URL(remoteLocation));
-            File remoteDatabaseFile = transport.getRemoteFile(remoteLocation, database.getDatabaseFile().getName(), httpUsername, httpPassword);
+            // Download the database that's already at the remote location. In
+            // chunked mode only the chunks we don't already have are downloaded.
+            // Otherwise a conditional request is made so that nothing is
+            // downloaded if it hasn't changed since the last sync. The cached
+            // validators are keyed on the revision this database was last
+            // synced with so they're never trusted for a different revision,
+            // and not at all when that revision isn't known.
+            final boolean chunkedTransfer = Preferences.get(
+                    Preferences.ApplicationOptions.HTTP_CHUNKED_TRANSFER, "false").equals("true");
+            final Transport transport = Transport.getTransportForURL(new URL(remoteLocation));
+            final String cacheKey = getRemoteDatabaseCacheKey(remoteLocation, database.getChangeLog().getBaseRevision());
+            final String url = remoteLocation;
+            final String remoteDatabaseName = getRemoteDatabaseName();
+            final String remoteUsername = httpUsername;
+            final String remotePassword = httpPassword;
+            final HTTPCache.Entry cachedVersion = database.getChangeLog().isBaseKnown()
+                    ? httpCache.get(cacheKey) : null;
+            Object download = callIO(IOExecutor.backendFor(remoteLocation), new Callable() {
+                public Object call() throws Exception {
+                    if (chunkedTransfer) {
+                        return transport.getRemoteFileChunked(url, remoteDatabaseName, remoteUsername, remotePassword);
+                    }
+                    return transport.getRemoteFileIfModified(url, remoteDatabaseName,
+                            remoteUsername, remotePassword, cachedVersion);
+                }
+            });
+            HTTPCache.Entry remoteVersion = null;
+            if (chunkedTransfer) {
+                remoteDatabaseFile = (File) download;
+            } else {
+                remoteVersion = (HTTPCache.Entry) download;
+                if (!remoteVersion.isNotModified()) {
+                    remoteDatabaseFile = remoteVersion.getFile();
+                }
+            }
+
+            if (remoteVersion != null && remoteVersion.isNotModified()) {
+                // The remote database is the one we last synced with so there's
+                // no need to decrypt it. Just publish any local changes.
+                if (!database.getChangeLog().isEmpty()) {
+                    int baseRevision = database.getChangeLog().getBaseRevision();
+                    publishDatabase(transport, remoteLocation, httpUsername, httpPassword, chunkedTransfer,
+                            remoteVersion.getFile(), baseRevision,
+                            Math.max(database.getRevision().getRevision(), baseRevision) + 1);
+                    httpCache.remove(cacheKey);
+                    database.getChangeLog().reset(database.getRevision().getRevision());
+                }
+                setLocalDatabaseDirty(false);
+                return true;
+            }
 
-            // Attempt to decrypt the database using the password the user entered
+            // Attempt to decrypt the database using the key from the last sync
             PasswordDatabase remoteDatabase = null;
             char[] password = null;
             boolean successfullyDecryptedDb = false;
             try {
-                remoteDatabase = dbPers.load();
+                remoteDatabase = loadDatabase(remoteDatabaseFile, null);
                 successfullyDecryptedDb = true;
             } catch (InvalidPasswordException e) {
-                // The password for the downloaded database is different to that of the open database
-                // (most likely the user changed the local database's master password)
+                // Either this is the first sync or the password for the downloaded
+                // database is different to the one used last time
                 boolean okClicked = false;
                 do {
                     password = askUserForPassword(Translator.translate("enterPaswordForRemoteDB"));
@@ -735,7 +1106,7 @@ public class DatabaseActions {
                     } else {
                         okClicked = true;
                         try {
-                            remoteDatabase = dbPers.load();
+                            remoteDatabase = loadDatabase(remoteDatabaseFile, password);
                             successfullyDecryptedDb = true;
                         } catch (InvalidPasswordException invalidPassword) {
                             JOptionPane.showMessageDialog(mainWindow, Translator.translate("incorrectPassword"));
@@ -744,12 +1115,70 @@ public class DatabaseActions {
                 } while (okClicked && !successfullyDecryptedDb);
             }
 
-            /* If the local database revision > remote database version => upload local database
-               If the local database revision < remote database version => replace local database with remote database
-               If the local database revision = remote database version => do nothing */
+            if (successfullyDecryptedDb) {
+                // Three-way merge of the local and remote databases against the
+                // state they were in at the last sync
+                DatabaseMerger.MergeResult mergeResult = new DatabaseMerger().merge(database, remoteDatabase);
+
+                // Only the accounts changed on both sides need the user's input
+                ArrayList conflicts = new ArrayList(mergeResult.getConflicts());
+                for (int i = 0; i < conflicts.size(); i++) {
+                    DatabaseMerger.Conflict conflict = (DatabaseMerger.Conflict) conflicts.get(i);
+                    Object[] options = {Translator.translate("keepLocal"), Translator.translate("useRemote")};
+                    int answer = JOptionPane.showOptionDialog(
+                            mainWindow,
+                            Translator.translate("syncConflictQuestion", conflict.getAccountName()),
+                            Translator.translate("syncConflictTitle"),
+                            JOptionPane.YES_NO_OPTION,
+                            JOptionPane.QUESTION_MESSAGE,
+                            null,
+                            options,
+                            options[0]);
+                    mergeResult.resolve(conflict, answer != 1);
+                }
+
+                int localRevision = database.getRevision().getRevision();
+                int remoteRevision = remoteDatabase.getRevision().getRevision();
+
+                if (mergeResult.hasRemoteChanges()) {
+                    mergeResult.applyTo(database);
+                }
+
+                if (mergeResult.hasLocalChangesToPublish()) {
+                    // Upload the merged database as a new revision
+                    publishDatabase(transport, remoteLocation, httpUsername, httpPassword, chunkedTransfer,
+                            remoteDatabaseFile, remoteRevision, Math.max(localRevision, remoteRevision) + 1);
+                } else {
+                    database.getRevision().setRevision(remoteRevision);
+                }
+
+                // Remember the validators of the remote database if it's the
+                // version we're now in sync with
+                httpCache.remove(cacheKey);
+                if (remoteVersion != null && !mergeResult.hasLocalChangesToPublish()) {
+                    httpCache.put(getRemoteDatabaseCacheKey(remoteLocation, remoteRevision),
+                            remoteVersion.getETag(), remoteVersion.getLastModified(), remoteDatabaseFile);
+                }
+                database.getChangeLog().reset(database.getRevision().getRevision());
+
+                if (mergeResult.hasRemoteChanges()) {
+                    storeDatabase();
+                    saveSnapshot();
+                    accountNames = getAccountNames();
+                    filter();
+                }
+
+                setLocalDatabaseDirty(false);
+                syncSuccessful = true;
+            }
         } finally {
+            if (remoteDatabaseFile != null) {
+                remoteDatabaseFile.delete();
+            }
             mainWindow.getContentPane().setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-            fileMonitor.start();
+            if (fileMonitor != null) {
+                fileMonitor.start();
+            }
         }
 
         return syncSuccessful;
@@ -757,26 +1186,136 @@ public class DatabaseActions {
     }
 
 
+    /**
+     * Save the current database as newRevision under the remote database's
+     * name and publish it to the remote location. The publish only succeeds
+     * if the remote database is still at expectedRevision (or, if the server
+     * doesn't know its revision, is still the same as baseFile), otherwise a
+     * RevisionConflictException is thrown and the database's revision is
+     * left as it was.
+     */
+    private void publishDatabase(final Transport transport, final String remoteLocation, final String httpUsername,
+            final String httpPassword, final boolean chunkedTransfer, final File baseFile,
+            final int expectedRevision, final int newRevision)
+            throws IOException, CryptoException, TransportException {
+        int oldRevision = database.getRevision().getRevision();
+        database.getRevision().setRevision(newRevision);
+        File uploadDir = File.createTempFile("upm", ".merged");
+        uploadDir.delete();
+        uploadDir.mkdir();
+        final File fileToUpload = new File(uploadDir, getRemoteDatabaseName());
+        final PasswordDatabasePersistence persistence = dbPers;
+        final PasswordDatabase databaseToUpload = database;
+        boolean published = false;
+        try {
+            persistence.setCompression(Preferences.get(
+                    Preferences.ApplicationOptions.REMOTE_DATABASE_COMPRESSION, DatabaseHeader.COMPRESSION_NONE));
+            callIO(IOExecutor.backendFor(remoteLocation), new Callable() {
+                public Object call() throws Exception {
+                    persistence.save(databaseToUpload, fileToUpload);
+                    String expectedHash = baseFile == null ? null : ChunkManifest.hash(baseFile);
+                    if (chunkedTransfer) {
+                        transport.putChunked(remoteLocation, fileToUpload, expectedRevision, expectedHash,
+                                newRevision, httpUsername, httpPassword);
+                    } else {
+                        transport.publish(remoteLocation, fileToUpload, expectedRevision, expectedHash,
+                                newRevision, httpUsername, httpPassword);
+                    }
+                    return null;
+                }
+            });
+            published = true;
+        } finally {
+            if (!published) {
+                database.getRevision().setRevision(oldRevision);
+            }
+            // Only the database itself is published, the history and change
+            // log stay on this computer
+            fileToUpload.delete();
+            new File(fileToUpload.getPath() + PasswordDatabasePersistence.HISTORY_SUFFIX).delete();
+            new File(fileToUpload.getPath() + PasswordDatabasePersistence.CHANGES_SUFFIX).delete();
+            uploadDir.delete();
+        }
+    }
+
+
+    private String getRemoteDatabaseCacheKey(String remoteLocation, int revision) {
+        return remoteLocation + '#' + getRemoteDatabaseName() + '#' + revision;
+    }
+
+
+    /**
+     * @return The name the database is stored under at the remote location
+     */
+    private String getRemoteDatabaseName() {
+        if (database.getDatabaseFile() != null) {
+            return database.getDatabaseFile().getName();
+        }
+        return DEFAULT_REMOTE_DATABASE_NAME;
+    }
+
+
     public void exitApplication() {
         System.exit(0);
     }
 
 
     public void export() {
-        File exportFile = getSaveAsFile(Translator.translate("exportFile"));
+        JFileChooser fc = new JFileChooser();
+        addFormatFilters(fc, AccountFormats.getExporters());
+        File exportFile = getSaveAsFile(Translator.translate("exportFile"), fc);
         if (exportFile == null) {
             return;
         }
 
+        AccountExporter exporter = null;
+        if (fc.getFileFilter() instanceof FormatFileFilter) {
+            exporter = (AccountExporter) ((FormatFileFilter) fc.getFileFilter()).getFormat();
+        } else {
+            exporter = AccountFormats.findExporter(exportFile);
+        }
+
+        // Only UPM's own format can be encrypted
+        char[] password = null;
+        if (exporter == null || exporter instanceof UPMCSVFormat) {
+            password = askUserForPassword(Translator.translate("exportPassword"));
+            if (password == null) {
+                return;
+            } else if (password.length == 0) {
+                password = null;
+            }
+            exporter = new UPMCSVFormat(password);
+        }
+
         if (exportFile.exists()) {
             exportFile.delete();
         }
 
-        AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+        // The accounts are written out on an I/O thread. They're copied
+        // first so the database can carry on changing, the copies share
+        // their (encrypted) secrets so that's cheap.
+        final ArrayList accounts = new ArrayList(database.getAccountsHash().size());
+        Iterator it = database.getAccountsHash().values().iterator();
+        while (it.hasNext()) {
+            accounts.add(new AccountInformation((AccountInformation) it.next()));
+        }
+        final AccountExporter accountExporter = exporter;
+        final File fileToExport = exportFile;
         try {
-            marshaller.marshal(this.database.getAccounts(), exportFile);
-        } catch (ExportException e) {
+            IOProgressDialog.waitFor(mainWindow, getIOTasks().submit(IOExecutor.FILE_BACKEND, new Callable() {
+                public Object call() throws Exception {
+                    accountExporter.exportAccounts(accounts.iterator(), fileToExport);
+                    return null;
+                }
+            }));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
             JOptionPane.showMessageDialog(mainWindow, e.getMessage(), Translator.translate("problemExporting"), JOptionPane.ERROR_MESSAGE);
+        } finally {
+            if (password != null) {
+                Arrays.fill(password, (char) 0);
+            }
         }
     }
 
@@ -786,62 +1325,103 @@ public class DatabaseActions {
             // Prompt for the file to import
             JFileChooser fc = new JFileChooser();
             fc.setDialogTitle(Translator.translate("import"));
+            addFormatFilters(fc, AccountFormats.getImporters());
             int returnVal = fc.showOpenDialog(mainWindow);
 
             if (returnVal == JFileChooser.APPROVE_OPTION) {
-                File csvFile = fc.getSelectedFile();
+                File importFile = fc.getSelectedFile();
 
-                // Unmarshall the accounts from the CSV file
+                AccountImporter importer = null;
+                if (fc.getFileFilter() instanceof FormatFileFilter) {
+                    importer = (AccountImporter) ((FormatFileFilter) fc.getFileFilter()).getFormat();
+                } else {
+                    importer = AccountFormats.findImporter(importFile);
+                }
+
+                // Stream the accounts from the file into the database on an
+                // I/O thread. Conflicts are dealt with by one policy chosen
+                // up front.
+                AccountImportPipeline.Result result;
                 try {
-                    AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
-                    ArrayList<AccountInformation> accountsInCSVFile = marshaller.unmarshal(csvFile);
-                    ArrayList<AccountInformation> accountsToImport = new ArrayList<>();
-
-                    boolean importCancelled = false;
-                    // Add each account to the open database. If the account
-                    // already exits the prompt to overwrite
-                    for (int i = 0; i < accountsInCSVFile.size(); i++) {
-                        AccountInformation importedAccount = accountsInCSVFile.get(i);
-                        if (database.getAccount(importedAccount.getAccountName()) != null) {
-                            Object[] options = {"Overwrite Existing", "Keep Existing", "Cancel"};
-                            int answer = JOptionPane.showOptionDialog(
-                                    mainWindow,
-                                    Translator.translate("importExistingQuestion", importedAccount.getAccountName()),
-                                    Translator.translate("importExistingTitle"),
-                                    JOptionPane.YES_NO_CANCEL_OPTION,
-                                    JOptionPane.QUESTION_MESSAGE,
-                                    null,
-                                    options,
-                                    options[1]);
-
-                            if (answer == 1) {
-                                continue; // If keep existing then continue to the next iteration
-                            } else if (answer == 2) {
-                                importCancelled = true;
-                                break; // Cancel the import
+                    if (importer == null || importer instanceof UPMCSVFormat) {
+                        char[] password = null;
+                        if (new AccountsCSVMarshaller().isEncrypted(importFile)) {
+                            password = askUserForPassword(Translator.translate("importPassword"));
+                            if (password == null) {
+                                return;
                             }
                         }
-
-                        accountsToImport.add(importedAccount);
+                        importer = new UPMCSVFormat(password);
                     }
-
-                    if (!importCancelled && accountsToImport.size() > 0) {
-                        for (int i = 0; i < accountsToImport.size(); i++) {
-                            AccountInformation accountToImport = accountsToImport.get(i);
-                            database.deleteAccount(accountToImport.getAccountName());
-                            database.addAccount(accountToImport);
+                    final File fileToImport = importFile;
+                    final AccountImportPipeline pipeline = new AccountImportPipeline(database, importer, getIOTasks());
+                    AccountImportPipeline.Summary summary = (AccountImportPipeline.Summary) IOProgressDialog.waitFor(
+                            mainWindow, getIOTasks().submit(IOExecutor.FILE_BACKEND, new Callable() {
+                                public Object call() throws Exception {
+                                    return pipeline.scan(fileToImport);
+                                }
+                            }));
+
+                    final String conflictPolicy;
+                    if (summary.getConflicts() > 0) {
+                        Object[] options = {
+                                Translator.translate("importOverwrite"),
+                                Translator.translate("importKeep"),
+                                Translator.translate("importRename"),
+                                Translator.translate("cancel")};
+                        String examples = summary.getConflictNames().toString();
+                        int answer = JOptionPane.showOptionDialog(
+                                mainWindow,
+                                Translator.translate("importConflictsQuestion", new Object[] {
+                                        new Integer(summary.getConflicts()),
+                                        new Integer(summary.getAccounts()),
+                                        examples.substring(1, examples.length() - 1)}),
+                                Translator.translate("importExistingTitle"),
+                                JOptionPane.DEFAULT_OPTION,
+                                JOptionPane.QUESTION_MESSAGE,
+                                null,
+                                options,
+                                options[1]);
+
+                        if (answer == 0) {
+                            conflictPolicy = AccountImportPipeline.OVERWRITE;
+                        } else if (answer == 1) {
+                            conflictPolicy = AccountImportPipeline.KEEP;
+                        } else if (answer == 2) {
+                            conflictPolicy = AccountImportPipeline.RENAME;
+                        } else {
+                            return; // Cancel the import
                         }
-                        saveDatabase();
+                    } else {
+                        conflictPolicy = AccountImportPipeline.OVERWRITE;
+                    }
+
+                    try {
+                        result = (AccountImportPipeline.Result) IOProgressDialog.waitFor(
+                                mainWindow, getIOTasks().submit(IOExecutor.FILE_BACKEND, new Callable() {
+                                    public Object call() throws Exception {
+                                        return pipeline.importAccounts(fileToImport, conflictPolicy);
+                                    }
+                                }));
+                    } catch (CancellationException e) {
+                        // The accounts imported before the cancel are kept.
+                        // Let the batch being applied finish before showing them.
+                        pipeline.waitForImport();
                         accountNames = getAccountNames();
                         filter();
+                        throw e;
                     }
-
-                } catch (ImportException e) {
-                    JOptionPane.showMessageDialog(mainWindow, e.getMessage(), Translator.translate("problemImporting"), JOptionPane.ERROR_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(mainWindow, e.getMessage(), Translator.translate("problemImporting"), JOptionPane.ERROR_MESSAGE);
-                } catch (CryptoException e) {
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
                     JOptionPane.showMessageDialog(mainWindow, e.getMessage(), Translator.translate("problemImporting"), JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                if (result.getImported() > 0) {
+                    saveDatabase();
+                    accountNames = getAccountNames();
+                    filter();
                 }
             }
         }
@@ -857,11 +1437,15 @@ public class DatabaseActions {
      * @return The file to save to or null
      */
     private File getSaveAsFile(String title) {
+        return getSaveAsFile(title, new JFileChooser());
+    }
+
+
+    private File getSaveAsFile(String title, JFileChooser fc) {
         File selectedFile;
 
         boolean gotValidFile = false;
         do {
-            JFileChooser fc = new JFileChooser();
             fc.setDialogTitle(title);
             int returnVal = fc.showSaveDialog(mainWindow);
 
@@ -896,8 +1480,22 @@ public class DatabaseActions {
     }
 
 
+    /**
+     * Add a file filter for each format so the user can pick one. If they
+     * leave "All Files" selected the format is picked from the extension.
+     */
+    private void addFormatFilters(JFileChooser fc, ArrayList formats) {
+        for (int i = 0; i < formats.size(); i++) {
+            fc.addChoosableFileFilter(new FormatFileFilter((AccountFormat) formats.get(i)));
+        }
+        fc.setFileFilter(fc.getAcceptAllFileFilter());
+    }
+
+
     private void saveDatabase() throws IOException, CryptoException {
-        dbPers.save(database);
+        dbPers.setHistoryRetention(getHistoryMaxVersions(), getHistoryMaxAgeDays());
+        storeDatabase();
+        saveSnapshot();
         if (fileMonitor != null) {
             fileMonitor.start();
         }
@@ -909,6 +1507,115 @@ public class DatabaseActions {
     }
 
 
+    /**
+     * The I/O tasks for the open database. They're cancelled when it's
+     * closed or locked.
+     */
+    private synchronized IOExecutor.Group getIOTasks() {
+        if (ioTasks == null) {
+            ioTasks = IOExecutor.getDefault().newGroup();
+        }
+        return ioTasks;
+    }
+
+
+    private synchronized void cancelIOTasks() {
+        if (ioTasks != null) {
+            ioTasks.cancel();
+            ioTasks = null;
+        }
+    }
+
+
+    /**
+     * Load a database on an I/O thread and wait for it. If databaseFile is
+     * null the database is loaded from the backend.
+     * @throws CancellationException If the user cancelled the load or the
+     * database was closed while it was running
+     */
+    private PasswordDatabase loadDatabase(final File databaseFile, final char[] password)
+            throws InvalidPasswordException, ProblemReadingDatabaseFile, IOException {
+        final PasswordDatabasePersistence persistence = dbPers;
+        try {
+            return (PasswordDatabase) IOProgressDialog.waitFor(mainWindow, getIOTasks().submit(
+                    databaseFile == null ? BACKEND : IOExecutor.FILE_BACKEND, new Callable() {
+                        public Object call() throws Exception {
+                            if (databaseFile == null) {
+                                return persistence.load();
+                            } else if (password == null) {
+                                return persistence.load(databaseFile);
+                            } else {
+                                return persistence.load(databaseFile, password);
+                            }
+                        }
+                    }));
+        } catch (InvalidPasswordException e) {
+            throw e;
+        } catch (ProblemReadingDatabaseFile e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Save the database to the backend on an I/O thread and wait for it
+     */
+    private void storeDatabase() throws IOException, CryptoException {
+        final PasswordDatabasePersistence persistence = dbPers;
+        final PasswordDatabase databaseToSave = database;
+        try {
+            callIO(BACKEND, new Callable() {
+                public Object call() throws Exception {
+                    persistence.save(databaseToSave);
+                    return null;
+                }
+            });
+        } catch (TransportException e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Run a task against a remote location or the backend on an I/O thread
+     * and wait for its result. The event dispatch thread isn't blocked while
+     * it waits, see IOProgressDialog.
+     * @throws CancellationException If the user cancelled the task or the
+     * database was closed while it was running
+     */
+    private Object callIO(String backend, Callable task) throws IOException, CryptoException, TransportException {
+        try {
+            return IOProgressDialog.waitFor(mainWindow, getIOTasks().submit(backend, task));
+        } catch (IOException e) {
+            throw e;
+        } catch (CryptoException e) {
+            throw e;
+        } catch (TransportException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    private static int getHistoryMaxVersions() {
+        return Preferences.getInt(Preferences.ApplicationOptions.HISTORY_MAX_VERSIONS, AccountHistory.DEFAULT_MAX_VERSIONS);
+    }
+
+
+    private static int getHistoryMaxAgeDays() {
+        return Preferences.getInt(Preferences.ApplicationOptions.HISTORY_MAX_AGE_DAYS, 0);
+    }
+
+
     private void setLocalDatabaseDirty(boolean dirty) {
         localDatabaseDirty = dirty;
 
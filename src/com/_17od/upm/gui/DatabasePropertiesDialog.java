@@ -28,10 +28,13 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -48,7 +51,7 @@ import javax.swing.border.EtchedBorder;
 
 import com._17od.upm.database.PasswordDatabase;
 import com._17od.upm.transport.Transport;
-import com._17od.upm.transport.TransportException;
+import com._17od.upm.util.IOExecutor;
 import com._17od.upm.util.Translator;
 
 
@@ -198,19 +201,27 @@ public class DatabasePropertiesDialog extends EscapeDialog {
                 // Only allow supported protocols
                 if (Transport.isASupportedProtocol(url.getProtocol())) {
 
-                    // If the remote location has changed then upload the database
+                    // If the remote location has changed then upload the database.
+                    // It's published at its current revision, expecting
+                    // there to be nothing at the new location yet.
                     if (!database.getDbOptions().getRemoteLocation().equals(remoteLocation)) {
                         try {
-                            Transport transport = Transport.getTransportForURL(url);
-                            if (!authEntry.equals("")) {
-                                String userId = database.getAccount(authEntry).getUserId();
-                                String password = database.getAccount(authEntry).getPassword();
-                                transport.put(remoteLocation, database.getDatabaseFile(), userId, password);
-                            } else {
-                                transport.put(remoteLocation, database.getDatabaseFile());
-                            }
+                            final Transport transport = Transport.getTransportForURL(url);
+                            final String location = remoteLocation;
+                            final File databaseFile = database.getDatabaseFile();
+                            final String userId = authEntry.equals("") ? null : database.getAccount(authEntry).getUserId();
+                            final String password = authEntry.equals("") ? null : database.getAccount(authEntry).getPassword();
+                            final int revision = database.getRevision().getRevision();
+                            IOProgressDialog.waitFor(this, IOExecutor.getDefault().newGroup().submit(IOExecutor.backendFor(remoteLocation), new Callable() {
+                                public Object call() throws Exception {
+                                    transport.publish(location, databaseFile, 0, null, revision, userId, password);
+                                    return null;
+                                }
+                            }));
                             canCloseWindow = true;
-                        } catch (TransportException e ){
+                        } catch (CancellationException e) {
+                            // The user cancelled the upload, leave the dialog open
+                        } catch (Exception e ){
                             JOptionPane.showMessageDialog(parentFrame, e.getMessage(), Translator.translate("transportError"), JOptionPane.ERROR_MESSAGE);                            
                         }
                     } else {
@@ -0,0 +1,194 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSeparator;
+
+import com._17od.upm.database.AccountStore;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.util.DedupPool;
+import com._17od.upm.util.Metrics;
+import com._17od.upm.util.Preferences;
+import com._17od.upm.util.Translator;
+
+/**
+ * Shows some figures about how the open database is being held in memory
+ * and how long the hot paths have been taking
+ */
+public class DiagnosticsDialog extends EscapeDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private JPanel figuresPanel;
+
+
+    public DiagnosticsDialog(JFrame frame, PasswordDatabase database) {
+        super(frame, Translator.translate("diagnostics"), true);
+
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.PAGE_AXIS));
+
+        figuresPanel = new JPanel(new GridLayout(0, 2, 16, 4));
+        figuresPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+        AccountStore store = database == null ? null : database.getAccountStore();
+        if (database != null) {
+            addFigure("diagnosticsAccounts", String.valueOf(database.getAccountsHash().size()));
+        }
+        if (store != null) {
+            addFigure("diagnosticsStoreSize", kilobytes(store.getAllocatedBytes()));
+            addFigure("diagnosticsStoreShared", kilobytes(store.getSharedBytes()));
+        } else {
+            addFigure("diagnosticsStoreSize", Translator.translate("diagnosticsNotLoaded"));
+        }
+        addFigure("diagnosticsPoolShared", kilobytes(DedupPool.getShared().getSavedBytes()));
+
+        List metrics = Metrics.getDefault().getMetrics();
+        for (int i = 0; i < metrics.size(); i++) {
+            if (metrics.get(i) instanceof Metrics.Counter) {
+                Metrics.Counter counter = (Metrics.Counter) metrics.get(i);
+                figuresPanel.add(new JLabel(counter.getHelp()));
+                figuresPanel.add(new JLabel(String.valueOf(counter.get())));
+            }
+        }
+
+        panel.add(figuresPanel);
+        panel.add(new JSeparator());
+        panel.add(createTimingsPanel(metrics));
+        panel.add(new JSeparator());
+
+        panel.add(Box.createRigidArea(new Dimension(0, 10)));
+
+        JButton exportButton = new JButton(Translator.translate("diagnosticsExport"));
+        exportButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportMetrics();
+            }
+        });
+
+        JButton okButton = new JButton(Translator.translate("ok"));
+        okButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                setVisible(false);
+                dispose();
+            }
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        buttonPanel.add(exportButton);
+        buttonPanel.add(okButton);
+        buttonPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        panel.add(buttonPanel);
+
+        panel.add(Box.createRigidArea(new Dimension(0, 10)));
+        getRootPane().setDefaultButton(okButton);
+        getContentPane().add(panel);
+
+        setResizable(false);
+    }
+
+
+    /**
+     * A row for each timer that's recorded anything
+     */
+    private JPanel createTimingsPanel(List metrics) {
+        JPanel timingsPanel = new JPanel(new GridLayout(0, 5, 16, 4));
+        timingsPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createEmptyBorder(8, 8, 8, 8),
+                BorderFactory.createTitledBorder(Translator.translate("diagnosticsTimings"))));
+        timingsPanel.add(new JLabel(Translator.translate("diagnosticsMetric")));
+        timingsPanel.add(new JLabel(Translator.translate("diagnosticsCount")));
+        timingsPanel.add(new JLabel(Translator.translate("diagnosticsMedian")));
+        timingsPanel.add(new JLabel(Translator.translate("diagnostics99th")));
+        timingsPanel.add(new JLabel(Translator.translate("diagnosticsMax")));
+
+        boolean anyTimings = false;
+        for (int i = 0; i < metrics.size(); i++) {
+            if (metrics.get(i) instanceof Metrics.Timer) {
+                Metrics.Timer timer = (Metrics.Timer) metrics.get(i);
+                if (timer.getCount() > 0) {
+                    JLabel name = new JLabel(timer.getName());
+                    name.setToolTipText(timer.getHelp());
+                    timingsPanel.add(name);
+                    timingsPanel.add(new JLabel(String.valueOf(timer.getCount())));
+                    timingsPanel.add(new JLabel(millis(timer.getPercentileNanos(0.5))));
+                    timingsPanel.add(new JLabel(millis(timer.getPercentileNanos(0.99))));
+                    timingsPanel.add(new JLabel(millis(timer.getMaxNanos())));
+                    anyTimings = true;
+                }
+            }
+        }
+        if (!anyTimings) {
+            timingsPanel.add(new JLabel(Translator.translate("diagnosticsNoTimings")));
+        }
+        return timingsPanel;
+    }
+
+
+    /**
+     * Write the metrics to a file in the config directory in the Prometheus
+     * text format so they can be picked up by a node exporter or compared
+     * between runs
+     */
+    private void exportMetrics() {
+        File exportFile = new File(Preferences.getConfigDirectory(), Metrics.EXPORT_FILE_NAME);
+        try {
+            Metrics.getDefault().exportTo(exportFile);
+            JOptionPane.showMessageDialog(this, Translator.translate("diagnosticsExported", exportFile.getAbsolutePath()));
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), Translator.translate("error"), JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+
+    private void addFigure(String labelKey, String value) {
+        figuresPanel.add(new JLabel(Translator.translate(labelKey)));
+        figuresPanel.add(new JLabel(value));
+    }
+
+
+    private static String millis(long nanos) {
+        return Translator.translate("diagnosticsMillis", new Double(nanos / 1e6));
+    }
+
+
+    private static String kilobytes(long bytes) {
+        return Translator.translate("diagnosticsKB", new Long((bytes + 512) / 1024));
+    }
+
+}
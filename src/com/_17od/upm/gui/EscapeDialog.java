@@ -45,6 +45,11 @@ public class EscapeDialog extends JDialog {
     }
 
 
+    public EscapeDialog(JDialog owner, String title, boolean modal) {
+        super(owner, title, modal);
+    }
+
+
     protected JRootPane createRootPane() {
         ActionListener actionListener = new ActionListener() {
             public void actionPerformed(ActionEvent actionEvent) {
@@ -0,0 +1,63 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.io.File;
+
+import javax.swing.filechooser.FileFilter;
+
+import com._17od.upm.database.formats.AccountFormat;
+import com._17od.upm.database.formats.AccountFormats;
+
+
+/**
+ * A JFileChooser filter showing the files an import or export format uses
+ */
+class FormatFileFilter extends FileFilter {
+
+    private AccountFormat format;
+
+
+    public FormatFileFilter(AccountFormat format) {
+        this.format = format;
+    }
+
+
+    public AccountFormat getFormat() {
+        return format;
+    }
+
+
+    public boolean accept(File file) {
+        return file.isDirectory() || AccountFormats.hasExtension(file, format.getExtensions());
+    }
+
+
+    public String getDescription() {
+        StringBuffer description = new StringBuffer(format.getName());
+        String[] extensions = format.getExtensions();
+        for (int i = 0; i < extensions.length; i++) {
+            description.append(i == 0 ? " (*." : ", *.").append(extensions[i]);
+        }
+        return description.append(')').toString();
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import com._17od.upm.util.IOExecutor;
+import com._17od.upm.util.Translator;
+
+
+/**
+ * Waits for an I/O task without blocking the event dispatch thread. A
+ * SwingWorker waits for the task while this modal dialog keeps the events
+ * flowing, stops the rest of the application from being used in the
+ * meantime and lets the user cancel the task. Closing the dialog (with the
+ * cancel button, the escape key or the window's close button) cancels the
+ * task.
+ */
+public class IOProgressDialog extends EscapeDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private Future future;
+
+
+    private IOProgressDialog(JFrame frame, Future future) {
+        super(frame, Translator.translate("ioProgressTitle"), true);
+        this.future = future;
+        init();
+    }
+
+
+    private IOProgressDialog(JDialog owner, Future future) {
+        super(owner, Translator.translate("ioProgressTitle"), true);
+        this.future = future;
+        init();
+    }
+
+
+    /**
+     * Wait for the given task and return its result. On the event dispatch
+     * thread the wait happens behind a progress dialog owned by frame.
+     * @throws CancellationException If the task was cancelled, by the user
+     * or because its group was cancelled
+     */
+    public static Object waitFor(JFrame frame, Future future) throws Exception {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            return IOExecutor.getResult(future);
+        }
+        return new IOProgressDialog(frame, future).waitForTask();
+    }
+
+
+    /**
+     * As waitFor(JFrame, Future) but with the progress dialog owned by
+     * another dialog
+     */
+    public static Object waitFor(JDialog owner, Future future) throws Exception {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            return IOExecutor.getResult(future);
+        }
+        return new IOProgressDialog(owner, future).waitForTask();
+    }
+
+
+    private void init() {
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosed(WindowEvent e) {
+                // Does nothing if the task has already finished
+                future.cancel(true);
+            }
+        });
+
+        JButton cancelButton = new JButton(Translator.translate("cancel"));
+        cancelButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                setVisible(false);
+                dispose();
+            }
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        buttonPanel.add(cancelButton);
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.add(new JLabel(Translator.translate("ioProgressMessage")), BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        getContentPane().add(panel);
+
+        pack();
+        setResizable(false);
+        setLocationRelativeTo(getOwner());
+    }
+
+
+    private Object waitForTask() throws Exception {
+        if (!future.isDone()) {
+            new SwingWorker() {
+                protected Object doInBackground() throws Exception {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // Rethrown to the caller by waitForTask()
+                    } catch (CancellationException e) {
+                        // Rethrown to the caller by waitForTask()
+                    }
+                    return null;
+                }
+                protected void done() {
+                    // Runs on this thread once setVisible() below is
+                    // dispatching events so it can't be missed
+                    setVisible(false);
+                    dispose();
+                }
+            }.execute();
+            setVisible(true);
+        }
+        return IOExecutor.getResult(future);
+    }
+
+}
@@ -84,6 +84,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 /**
  * This is the main application entry class
@@ -108,10 +109,14 @@ public class MainWindow extends JFrame implements ActionListener {
 	public static final String LAUNCH_URL_TXT = "launchURLMenuItem";
 	public static final String OPTIONS_TXT = "optionsMenuItem";
 	public static final String ABOUT_TXT = "aboutMenuItem";
+	public static final String DIAGNOSTICS_TXT = "diagnosticsMenuItem";
 	public static final String RESET_SEARCH_TXT = "resetSearchMenuItem";
 	public static final String EXIT_TXT = "exitMenuItem";
 	public static final String EXPORT_TXT = "exportMenuItem";
 	public static final String IMPORT_TXT = "importMenuItem";
+	public static final String ROTATE_PASSWORDS_TXT = "rotatePasswordsMenuItem";
+	public static final String AUDIT_PASSWORDS_TXT = "auditPasswordsMenuItem";
+	public static final String CHECK_BREACHED_TXT = "checkBreachedMenuItem";
 	public static final String LOCK_TIMER_TXT = "lock";
 
 	private JButton addAccountButton;
@@ -136,6 +141,7 @@ public class MainWindow extends JFrame implements ActionListener {
 	private JMenuItem exitMenuItem;
 	private JMenu helpMenu;
 	private JMenuItem aboutMenuItem;
+	private JMenuItem diagnosticsMenuItem;
 	private JMenu accountMenu;
 	private JMenuItem addAccountMenuItem;
 	private JMenuItem editAccountMenuItem;
@@ -146,6 +152,9 @@ public class MainWindow extends JFrame implements ActionListener {
 	private JMenuItem launchURLMenuItem;
 	private JMenuItem exportMenuItem;
 	private JMenuItem importMenuItem;
+	private JMenuItem rotatePasswordsMenuItem;
+	private JMenuItem auditPasswordsMenuItem;
+	private JMenuItem checkBreachedMenuItem;
 
 	private JList accountsListview;
 	private JLabel statusBar = new JLabel(" ");
@@ -419,6 +428,8 @@ public class MainWindow extends JFrame implements ActionListener {
 					} catch (IOException e1) {
 						// TODO Auto-generated catch block
 						e1.printStackTrace();
+					} catch (CancellationException e1) {
+						// The user cancelled the reload
 					}
 
 				}
@@ -691,6 +702,24 @@ public class MainWindow extends JFrame implements ActionListener {
 		importMenuItem.setEnabled(false);
 		importMenuItem.setActionCommand(IMPORT_TXT);
 
+		rotatePasswordsMenuItem = new JMenuItem(Translator.translate(ROTATE_PASSWORDS_TXT));
+		databaseMenu.add(rotatePasswordsMenuItem);
+		rotatePasswordsMenuItem.addActionListener(this);
+		rotatePasswordsMenuItem.setEnabled(false);
+		rotatePasswordsMenuItem.setActionCommand(ROTATE_PASSWORDS_TXT);
+
+		auditPasswordsMenuItem = new JMenuItem(Translator.translate(AUDIT_PASSWORDS_TXT));
+		databaseMenu.add(auditPasswordsMenuItem);
+		auditPasswordsMenuItem.addActionListener(this);
+		auditPasswordsMenuItem.setEnabled(false);
+		auditPasswordsMenuItem.setActionCommand(AUDIT_PASSWORDS_TXT);
+
+		checkBreachedMenuItem = new JMenuItem(Translator.translate(CHECK_BREACHED_TXT));
+		databaseMenu.add(checkBreachedMenuItem);
+		checkBreachedMenuItem.addActionListener(this);
+		checkBreachedMenuItem.setEnabled(false);
+		checkBreachedMenuItem.setActionCommand(CHECK_BREACHED_TXT);
+
 		accountMenu = new JMenu(Translator.translate("accountMenu"));
 		accountMenu.setMnemonic(KeyEvent.VK_A);
 		menuBar.add(accountMenu);
@@ -800,6 +829,10 @@ public class MainWindow extends JFrame implements ActionListener {
 		aboutMenuItem.addActionListener(this);
 		aboutMenuItem.setActionCommand(ABOUT_TXT);
 
+		diagnosticsMenuItem = new JMenuItem(Translator.translate(DIAGNOSTICS_TXT), KeyEvent.VK_D);
+		diagnosticsMenuItem.addActionListener(this);
+		diagnosticsMenuItem.setActionCommand(DIAGNOSTICS_TXT);
+
 		// Because the MAC version of UPM will have a program item in the menu
 		// bar then these items
 		// only need to be added on non-mac platforms
@@ -811,6 +844,7 @@ public class MainWindow extends JFrame implements ActionListener {
 			helpMenu.setMnemonic(KeyEvent.VK_H);
 			menuBar.add(helpMenu);
 
+			helpMenu.add(diagnosticsMenuItem);
 			helpMenu.add(aboutMenuItem);
 		}
 
@@ -824,12 +858,20 @@ public class MainWindow extends JFrame implements ActionListener {
 
 	private void copyUsernameToClipboard() {
 		AccountInformation accInfo = dbActions.getSelectedAccount();
-		copyToClipboard(new String(accInfo.getUserId()));
+		copyToClipboard(accInfo.getUserIdChars());
 	}
 
 	private void copyPasswordToClipboard() {
 		AccountInformation accInfo = dbActions.getSelectedAccount();
-		copyToClipboard(new String(accInfo.getPassword()));
+		copyToClipboard(accInfo.getPasswordChars());
+	}
+
+	/**
+	 * The clipboard only takes Strings so this is as far as the wiping can go
+	 */
+	private void copyToClipboard(char[] chars) {
+		copyToClipboard(new String(chars));
+		Arrays.fill(chars, (char) 0);
 	}
 
 	private void copyToClipboard(String s) {
@@ -1064,6 +1106,8 @@ public class MainWindow extends JFrame implements ActionListener {
 				dbActions.options();
 			} else if (event.getActionCommand() == MainWindow.ABOUT_TXT) {
 				dbActions.showAbout();
+			} else if (event.getActionCommand() == MainWindow.DIAGNOSTICS_TXT) {
+				dbActions.showDiagnostics();
 			} else if (event.getActionCommand() == MainWindow.RESET_SEARCH_TXT) {
 				dbActions.resetSearch();
 			} else if (event.getActionCommand() == MainWindow.CHANGE_MASTER_PASSWORD_TXT) {
@@ -1076,6 +1120,12 @@ public class MainWindow extends JFrame implements ActionListener {
 				dbActions.export();
 			} else if (event.getActionCommand() == MainWindow.IMPORT_TXT) {
 				dbActions.reloadDatabaseBefore(new ImportAccountsAction());
+			} else if (event.getActionCommand() == MainWindow.ROTATE_PASSWORDS_TXT) {
+				dbActions.reloadDatabaseBefore(new RotatePasswordsAction());
+			} else if (event.getActionCommand() == MainWindow.AUDIT_PASSWORDS_TXT) {
+				dbActions.auditPasswords();
+			} else if (event.getActionCommand() == MainWindow.CHECK_BREACHED_TXT) {
+				dbActions.checkBreachedPasswords();
 			}
 		} catch (Exception e) {
 			dbActions.errorHandler(e);
@@ -1098,6 +1148,18 @@ public class MainWindow extends JFrame implements ActionListener {
 		return importMenuItem;
 	}
 
+	public JMenuItem getRotatePasswordsMenuItem() {
+		return rotatePasswordsMenuItem;
+	}
+
+	public JMenuItem getAuditPasswordsMenuItem() {
+		return auditPasswordsMenuItem;
+	}
+
+	public JMenuItem getCheckBreachedMenuItem() {
+		return checkBreachedMenuItem;
+	}
+
 	public JLabel getStatusBar() {
 		return statusBar;
 	}
@@ -1128,8 +1190,12 @@ public class MainWindow extends JFrame implements ActionListener {
 		launchURLMenuItem.setText(Translator.translate(LAUNCH_URL_TXT));
 		exitMenuItem.setText(Translator.translate(EXIT_TXT));
 		aboutMenuItem.setText(Translator.translate(ABOUT_TXT));
+		diagnosticsMenuItem.setText(Translator.translate(DIAGNOSTICS_TXT));
 		exportMenuItem.setText(Translator.translate(EXPORT_TXT));
 		importMenuItem.setText(Translator.translate(IMPORT_TXT));
+		rotatePasswordsMenuItem.setText(Translator.translate(ROTATE_PASSWORDS_TXT));
+		auditPasswordsMenuItem.setText(Translator.translate(AUDIT_PASSWORDS_TXT));
+		checkBreachedMenuItem.setText(Translator.translate(CHECK_BREACHED_TXT));
 
 		// Because the MAC version of UPM will have a program item in the menu
 		// bar then these items
@@ -1219,4 +1285,14 @@ public class MainWindow extends JFrame implements ActionListener {
 		}
 	}
 
+	private class RotatePasswordsAction implements ChangeDatabaseAction {
+		public void doAction() {
+			try {
+				dbActions.rotatePasswords();
+			} catch (Exception e) {
+				dbActions.errorHandler(e);
+			}
+		}
+	}
+
 }
@@ -50,6 +50,9 @@ import javax.swing.border.EtchedBorder;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.DatabaseHeader;
+import com._17od.upm.transport.TransportRegistry;
 import com._17od.upm.util.Preferences;
 import com._17od.upm.util.Translator;
 import com._17od.upm.util.Util;
@@ -66,6 +69,8 @@ public class OptionsDialog extends EscapeDialog {
 	private JCheckBox appAlwaysonTopCheckbox;
 	private JLabel accountPasswordLengthLabel;
 	private JTextField accountPasswordLength;
+	private JTextField historyMaxVersions;
+	private JTextField historyMaxAgeDays;
 	private JTextField httpProxyHost;
 	private JTextField httpProxyPort;
 	private JTextField httpProxyUsername;
@@ -74,6 +79,8 @@ public class OptionsDialog extends EscapeDialog {
 	private JCheckBox databaseAutoLockCheckbox;
 	private JTextField databaseAutoLockTime;
 	private JCheckBox acceptSelfSignedCertsCheckbox;
+	private JCheckBox chunkedTransferCheckbox;
+	private JCheckBox compressRemoteDatabaseCheckbox;
 	private JLabel proxyLabel;
 	private JLabel proxyPortLabel;
 	private JLabel proxyUsernameLabel;
@@ -308,6 +315,53 @@ public class OptionsDialog extends EscapeDialog {
 		c.fill = GridBagConstraints.NONE;
 		mainPanel.add(appAlwaysonTopCheckbox, c);
 
+		// The "historyMaxVersions" row
+		c.gridx = 0;
+		c.gridy = 10;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 2, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.NONE;
+		mainPanel.add(new JLabel(Translator.translate("historyMaxVersions")), c);
+
+		historyMaxVersions = new JTextField(
+				Preferences.get(Preferences.ApplicationOptions.HISTORY_MAX_VERSIONS,
+						String.valueOf(AccountHistory.DEFAULT_MAX_VERSIONS)), 5);
+		c.gridx = 1;
+		c.gridy = 10;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 5, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		mainPanel.add(historyMaxVersions, c);
+
+		// The "historyMaxAgeDays" row
+		c.gridx = 0;
+		c.gridy = 11;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 2, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.NONE;
+		mainPanel.add(new JLabel(Translator.translate("historyMaxAgeDays")), c);
+
+		historyMaxAgeDays = new JTextField(
+				Preferences.get(Preferences.ApplicationOptions.HISTORY_MAX_AGE_DAYS, "0"), 5);
+		c.gridx = 1;
+		c.gridy = 11;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 5, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		mainPanel.add(historyMaxAgeDays, c);
+
 		// Some spacing
 		emptyBorderPanel.add(Box.createVerticalGlue());
 
@@ -335,6 +389,35 @@ public class OptionsDialog extends EscapeDialog {
 		c.fill = GridBagConstraints.HORIZONTAL;
 		httpsPanel.add(acceptSelfSignedCertsCheckbox, c);
 
+		// The "Chunked Transfer" checkbox row
+		Boolean chunkedTransfer = new Boolean(
+				Preferences.get(Preferences.ApplicationOptions.HTTP_CHUNKED_TRANSFER, "false"));
+		chunkedTransferCheckbox = new JCheckBox(Translator.translate("chunkedTransfer"),
+				chunkedTransfer.booleanValue());
+		c.gridx = 0;
+		c.gridy = 1;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 2, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		httpsPanel.add(chunkedTransferCheckbox, c);
+
+		// The "Compress Remote Database" checkbox row
+		compressRemoteDatabaseCheckbox = new JCheckBox(Translator.translate("compressRemoteDatabase"),
+				DatabaseHeader.COMPRESSION_DEFLATE.equals(
+						Preferences.get(Preferences.ApplicationOptions.REMOTE_DATABASE_COMPRESSION)));
+		c.gridx = 0;
+		c.gridy = 2;
+		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(0, 2, 5, 0);
+		c.weightx = 1;
+		c.weighty = 0;
+		c.gridwidth = 1;
+		c.fill = GridBagConstraints.HORIZONTAL;
+		httpsPanel.add(compressRemoteDatabaseCheckbox, c);
+
 		// ******************
 		// *** The Proxy Section
 		// ******************
@@ -554,6 +637,15 @@ public class OptionsDialog extends EscapeDialog {
 				return;
 			}
 
+			if (!Util.isNumeric(historyMaxVersions.getText().trim())
+					|| !Util.isNumeric(historyMaxAgeDays.getText().trim())) {
+				JOptionPane.showMessageDialog(OptionsDialog.this,
+						Translator.translate("invalidValueForHistoryRetention"), Translator.translate("problem"),
+						JOptionPane.ERROR_MESSAGE);
+				historyMaxVersions.requestFocusInWindow();
+				return;
+			}
+
 			Preferences.set(Preferences.ApplicationOptions.DB_TO_LOAD_ON_STARTUP, dbToLoadOnStartup.getText());
 			Preferences.set(Preferences.ApplicationOptions.ACCOUNT_HIDE_PASSWORD,
 					String.valueOf(hideAccountPasswordCheckbox.isSelected()));
@@ -567,8 +659,15 @@ public class OptionsDialog extends EscapeDialog {
 					String.valueOf(databaseAutoLockCheckbox.isSelected()));
 			Preferences.set(Preferences.ApplicationOptions.DATABASE_AUTO_LOCK_TIME, databaseAutoLockTime.getText());
 			Preferences.set(Preferences.ApplicationOptions.ACCOUNT_PASSWORD_LENGTH, accountPasswordLength.getText());
+			Preferences.set(Preferences.ApplicationOptions.HISTORY_MAX_VERSIONS, historyMaxVersions.getText().trim());
+			Preferences.set(Preferences.ApplicationOptions.HISTORY_MAX_AGE_DAYS, historyMaxAgeDays.getText().trim());
 			Preferences.set(Preferences.ApplicationOptions.HTTPS_ACCEPT_SELFSIGNED_CERTS,
 					String.valueOf(acceptSelfSignedCertsCheckbox.isSelected()));
+			Preferences.set(Preferences.ApplicationOptions.HTTP_CHUNKED_TRANSFER,
+					String.valueOf(chunkedTransferCheckbox.isSelected()));
+			Preferences.set(Preferences.ApplicationOptions.REMOTE_DATABASE_COMPRESSION,
+					compressRemoteDatabaseCheckbox.isSelected() ? DatabaseHeader.COMPRESSION_DEFLATE
+							: DatabaseHeader.COMPRESSION_NONE);
 			Preferences.set(Preferences.ApplicationOptions.HTTP_PROXY_HOST, httpProxyHost.getText());
 			Preferences.set(Preferences.ApplicationOptions.HTTP_PROXY_PORT, httpProxyPort.getText());
 			Preferences.set(Preferences.ApplicationOptions.HTTP_PROXY_USERNAME, httpProxyUsername.getText());
@@ -578,6 +677,9 @@ public class OptionsDialog extends EscapeDialog {
 			Preferences.set(Preferences.ApplicationOptions.HTTP_PROXY_ENABLED,
 					String.valueOf(enableProxyCheckbox.isSelected()));
 
+			// The cached transports were configured with the old HTTP options
+			TransportRegistry.reset();
+
 			MainWindow.setAppAlwaysonTop(appAlwaysonTopCheckbox.isSelected());
 
 			// Save the new language and set a flag if it has changed
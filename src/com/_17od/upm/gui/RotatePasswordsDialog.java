@@ -0,0 +1,254 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.database.PasswordRotation;
+import com._17od.upm.util.Preferences;
+import com._17od.upm.util.Translator;
+
+/**
+ * Lets the user pick the accounts to give new passwords to and the policy
+ * the new passwords follow. Nothing is changed here, DatabaseActions does
+ * the rotation once the dialog is closed with the rotate button.
+ */
+public class RotatePasswordsDialog extends EscapeDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private PasswordDatabase database;
+    private PasswordRotation rotation;
+    private ArrayList selectedAccounts = new ArrayList();
+    private boolean okClicked = false;
+
+    private JTextField hostField;
+    private JTextField olderThanField;
+    private JTextField weakerThanField;
+    private JTextField lengthField;
+    private JCheckBox symbolsCheckBox;
+    private JTextArea hostPoliciesArea;
+    private JList accountsList;
+    private JLabel matchesLabel;
+
+
+    public RotatePasswordsDialog(JFrame frame, PasswordDatabase database) {
+        super(frame, Translator.translate("rotatePasswords"), true);
+        this.database = database;
+
+        JPanel queryPanel = new JPanel(new GridLayout(0, 2, 8, 4));
+        queryPanel.setBorder(BorderFactory.createTitledBorder(Translator.translate("rotateWhich")));
+        hostField = new JTextField(20);
+        olderThanField = new JTextField("0", 5);
+        weakerThanField = new JTextField("0", 5);
+        addField(queryPanel, "rotateHost", hostField);
+        addField(queryPanel, "rotateOlderThan", olderThanField);
+        addField(queryPanel, "rotateWeakerThan", weakerThanField);
+
+        JPanel policyPanel = new JPanel(new BorderLayout(0, 4));
+        policyPanel.setBorder(BorderFactory.createTitledBorder(Translator.translate("rotatePolicy")));
+        JPanel defaultPolicyPanel = new JPanel(new GridLayout(0, 2, 8, 4));
+        lengthField = new JTextField(String.valueOf(
+                Preferences.getInt(Preferences.ApplicationOptions.ACCOUNT_PASSWORD_LENGTH, 8)), 5);
+        symbolsCheckBox = new JCheckBox(Translator.translate("rotateSymbols"),
+                new Boolean(Preferences.get(Preferences.ApplicationOptions.INCLUDE_ESCAPE_CHARACTERS, "true"))
+                        .booleanValue());
+        addField(defaultPolicyPanel, "rotateLength", lengthField);
+        defaultPolicyPanel.add(symbolsCheckBox);
+        policyPanel.add(defaultPolicyPanel, BorderLayout.NORTH);
+        hostPoliciesArea = new JTextArea(3, 30);
+        policyPanel.add(new JLabel(Translator.translate("rotateHostPolicies")), BorderLayout.CENTER);
+        policyPanel.add(new JScrollPane(hostPoliciesArea), BorderLayout.SOUTH);
+
+        accountsList = new JList();
+        JScrollPane accountsScrollPane = new JScrollPane(accountsList);
+        accountsScrollPane.setPreferredSize(new Dimension(300, 150));
+        matchesLabel = new JLabel(" ");
+
+        JButton previewButton = new JButton(Translator.translate("rotatePreview"));
+        previewButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                preview();
+            }
+        });
+
+        JButton rotateButton = new JButton(Translator.translate("rotateButton"));
+        rotateButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (!preview()) {
+                    return;
+                }
+                if (selectedAccounts.isEmpty()) {
+                    return;
+                }
+                int answer = JOptionPane.showConfirmDialog(RotatePasswordsDialog.this,
+                        Translator.translate("rotateConfirm", new Integer(selectedAccounts.size())),
+                        Translator.translate("rotatePasswords"), JOptionPane.YES_NO_OPTION);
+                if (answer == JOptionPane.YES_OPTION) {
+                    okClicked = true;
+                    setVisible(false);
+                    dispose();
+                }
+            }
+        });
+
+        JButton cancelButton = new JButton(Translator.translate("cancel"));
+        cancelButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                setVisible(false);
+                dispose();
+            }
+        });
+
+        JPanel resultsPanel = new JPanel(new BorderLayout(0, 4));
+        resultsPanel.add(matchesLabel, BorderLayout.NORTH);
+        resultsPanel.add(accountsScrollPane, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(previewButton);
+        buttonPanel.add(rotateButton);
+        buttonPanel.add(cancelButton);
+
+        JPanel top = new JPanel(new BorderLayout(0, 4));
+        top.add(queryPanel, BorderLayout.NORTH);
+        top.add(policyPanel, BorderLayout.CENTER);
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.add(top, BorderLayout.NORTH);
+        panel.add(resultsPanel, BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        getContentPane().add(panel);
+    }
+
+
+    public boolean okClicked() {
+        return okClicked;
+    }
+
+
+    /**
+     * @return The rotation set up with the policies the user entered
+     */
+    public PasswordRotation getRotation() {
+        return rotation;
+    }
+
+
+    public ArrayList getSelectedAccounts() {
+        return selectedAccounts;
+    }
+
+
+    /**
+     * Work out which accounts match and show them
+     * @return false if something the user entered isn't valid
+     */
+    private boolean preview() {
+        PasswordRotation newRotation = new PasswordRotation(database);
+        PasswordRotation.Query query;
+        try {
+            newRotation.setDefaultPolicy(new PasswordRotation.Policy(
+                    parseNumber(lengthField.getText(), 1), symbolsCheckBox.isSelected()));
+            parseHostPolicies(newRotation);
+            query = new PasswordRotation.Query(hostField.getText(),
+                    parseNumber(olderThanField.getText(), 0),
+                    parseNumber(weakerThanField.getText(), 0));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, Translator.translate("rotateBadNumber"),
+                    Translator.translate("rotatePasswords"), JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        rotation = newRotation;
+        selectedAccounts = rotation.select(query);
+        accountsList.setListData(selectedAccounts.toArray());
+        matchesLabel.setText(Translator.translate("rotateMatches", new Integer(selectedAccounts.size())));
+        return true;
+    }
+
+
+    /**
+     * One policy per line: host length [nosymbols]
+     */
+    private void parseHostPolicies(PasswordRotation rotation) {
+        StringTokenizer lines = new StringTokenizer(hostPoliciesArea.getText(), "\r\n");
+        while (lines.hasMoreTokens()) {
+            StringTokenizer words = new StringTokenizer(lines.nextToken());
+            if (!words.hasMoreTokens()) {
+                continue;
+            }
+            String host = words.nextToken();
+            if (!words.hasMoreTokens()) {
+                throw new NumberFormatException(host);
+            }
+            int length = parseNumber(words.nextToken(), 1);
+            boolean symbols = symbolsCheckBox.isSelected();
+            if (words.hasMoreTokens()) {
+                String option = words.nextToken();
+                if (option.equalsIgnoreCase("nosymbols")) {
+                    symbols = false;
+                } else if (option.equalsIgnoreCase("symbols")) {
+                    symbols = true;
+                } else {
+                    throw new NumberFormatException(option);
+                }
+            }
+            rotation.setPolicy(host, new PasswordRotation.Policy(length, symbols));
+        }
+    }
+
+
+    private static int parseNumber(String text, int minimum) {
+        int number = Integer.parseInt(text.trim());
+        if (number < minimum) {
+            throw new NumberFormatException(text);
+        }
+        return number;
+    }
+
+
+    private static void addField(JPanel panel, String labelKey, JTextField field) {
+        panel.add(new JLabel(Translator.translate(labelKey)));
+        panel.add(field);
+    }
+
+}
@@ -21,28 +21,35 @@
 package com._17od.upm.gui;
 
 import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.TreeSet;
 import javax.swing.AbstractListModel;
 
 
+/**
+ * A list model that keeps its elements sorted by their string value using
+ * the locale's collation rules. Elements are held in a sorted array so
+ * getElementAt() is constant time and the position of an element is found
+ * by binary search. Elements that collate equally are only held once.
+ */
 public class SortedListModel extends AbstractListModel {
 
     private static final long serialVersionUID = 1L;
 
-    private TreeSet model;
+    private ArrayList model;
+    private Comparator comparator;
 
 
     public SortedListModel() {
-        model = new TreeSet(new Comparator() {
+        model = new ArrayList();
+        final Collator collator = Collator.getInstance();
+        comparator = new Comparator() {
             public int compare(Object o1, Object o2) {
-                String str1 = o1.toString();
-                String str2 = o2.toString();
-                Collator collator = Collator.getInstance();
-                int result = collator.compare(str1, str2);
-                return result;
+                return collator.compare(o1.toString(), o2.toString());
             }
-        });
+        };
     }
 
     
@@ -52,34 +59,99 @@ public class SortedListModel extends AbstractListModel {
 
 
     public Object getElementAt(int index) {
-        return model.toArray()[index];
+        return model.get(index);
+    }
+
+
+    /**
+     * @return The position of the given element in the list or -1 if it
+     * isn't in the list
+     */
+    public int indexOf(Object element) {
+        int index = Collections.binarySearch(model, element, comparator);
+        return index < 0 ? -1 : index;
     }
 
 
     public void addElement(Object element) {
-        if (model.add(element)) {
-            fireContentsChanged(this, 0, getSize());
+        int index = Collections.binarySearch(model, element, comparator);
+        if (index < 0) {
+            index = -index - 1;
+            model.add(index, element);
+            fireIntervalAdded(this, index, index);
         }
     }
 
 
-    public void clear() {
+    /**
+     * Add all the given elements, sorting them once rather than finding a
+     * place for each in turn.
+     */
+    public void addAll(Collection elements) {
+        if (elements.isEmpty()) {
+            return;
+        }
+        ArrayList merged = new ArrayList(model.size() + elements.size());
+        merged.addAll(model);
+        merged.addAll(elements);
+        Collections.sort(merged, comparator);
         model.clear();
+        for (int i = 0; i < merged.size(); i++) {
+            Object element = merged.get(i);
+            if (model.isEmpty() || comparator.compare(model.get(model.size() - 1), element) != 0) {
+                model.add(element);
+            }
+        }
         fireContentsChanged(this, 0, getSize());
     }
 
 
+    public void clear() {
+        int size = getSize();
+        model.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+
     public boolean contains(Object element) {
-        return model.contains(element);
+        return indexOf(element) != -1;
     }
 
 
     public boolean removeElement(Object element) {
-        boolean removed = model.remove(element);
-        if (removed) {
-            fireContentsChanged(this, 0, getSize());
+        int index = indexOf(element);
+        if (index == -1) {
+            return false;
+        }
+        model.remove(index);
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+
+
+    /**
+     * Replace an element with another, moving it to its new sorted position.
+     * Only the rows between the old and new positions are reported as
+     * changed.
+     * @return false if oldElement isn't in the list or newElement already is
+     */
+    public boolean replaceElement(Object oldElement, Object newElement) {
+        int from = indexOf(oldElement);
+        if (from == -1) {
+            return false;
+        }
+        model.remove(from);
+        int to = Collections.binarySearch(model, newElement, comparator);
+        if (to >= 0) {
+            model.add(from, oldElement);
+            return false;
         }
-        return removed;
+        to = -to - 1;
+        model.add(to, newElement);
+        fireContentsChanged(this, Math.min(from, to), Math.max(from, to));
+        return true;
     }
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,190 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+import org.apache.commons.codec.binary.Hex;
+
+
+/**
+ * Describes a file as an ordered list of fixed size chunks, each identified
+ * by the SHA-256 hash of its contents. Two versions of a file that only
+ * differ in a few places share most of their chunks so only the chunks that
+ * differ need to be transferred.
+ *
+ * The text form of a manifest (as exchanged with chunks.php) is one chunk
+ * hash per line.
+ */
+public class ChunkManifest {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private ArrayList chunkHashes;
+
+
+    public ChunkManifest(ArrayList chunkHashes) {
+        this.chunkHashes = chunkHashes;
+    }
+
+
+    /**
+     * Split the given file into chunks and hash each one. If a ChunkStore is
+     * given then the chunks are also added to it.
+     */
+    public static ChunkManifest fromFile(File file, int chunkSize, ChunkStore store) throws IOException {
+        ArrayList hashes = new ArrayList();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] chunk = new byte[chunkSize];
+            int chunkLength;
+            while ((chunkLength = readFully(is, chunk)) > 0) {
+                byte[] chunkBytes = chunk;
+                if (chunkLength < chunkSize) {
+                    chunkBytes = new byte[chunkLength];
+                    System.arraycopy(chunk, 0, chunkBytes, 0, chunkLength);
+                }
+                String hash = hash(chunkBytes);
+                hashes.add(hash);
+                if (store != null && !store.contains(hash)) {
+                    store.put(hash, chunkBytes);
+                }
+            }
+        } finally {
+            is.close();
+        }
+        return new ChunkManifest(hashes);
+    }
+
+
+    public static ChunkManifest parse(String manifest) {
+        ArrayList hashes = new ArrayList();
+        StringTokenizer tokenizer = new StringTokenizer(manifest, "\r\n,");
+        while (tokenizer.hasMoreTokens()) {
+            String hash = tokenizer.nextToken().trim();
+            if (hash.length() > 0) {
+                hashes.add(hash);
+            }
+        }
+        return new ChunkManifest(hashes);
+    }
+
+
+    /**
+     * @return The SHA-256 hash of the whole file
+     */
+    public static String hash(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
+                int numRead;
+                while ((numRead = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, numRead);
+                }
+            } finally {
+                is.close();
+            }
+            return new String(Hex.encodeHex(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    public static String hash(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new String(Hex.encodeHex(digest.digest(bytes)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * @return true if the given string looks like a chunk hash. Chunk hashes
+     * are used as file names so anything else is rejected.
+     */
+    public static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public ArrayList getChunkHashes() {
+        return chunkHashes;
+    }
+
+
+    public int size() {
+        return chunkHashes.size();
+    }
+
+
+    /**
+     * @return The hashes separated by the given separator
+     */
+    public String toString(char separator) {
+        StringBuffer buf = new StringBuffer(chunkHashes.size() * 65);
+        for (int i = 0; i < chunkHashes.size(); i++) {
+            if (i > 0) {
+                buf.append(separator);
+            }
+            buf.append(chunkHashes.get(i));
+        }
+        return buf.toString();
+    }
+
+
+    public String toString() {
+        return toString('\n');
+    }
+
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int offset = 0;
+        int numRead;
+        while (offset < buffer.length
+                && (numRead = is.read(buffer, offset, buffer.length - offset)) >= 0) {
+            offset += numRead;
+        }
+        return offset;
+    }
+
+}
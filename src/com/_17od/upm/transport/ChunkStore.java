@@ -0,0 +1,222 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+
+import com._17od.upm.util.Preferences;
+import com._17od.upm.util.Util;
+
+
+/**
+ * A local, content addressed store of file chunks. Chunks are stored in a
+ * directory, one file per chunk, named after the chunk's hash. A chunk is
+ * written to a temporary file first and renamed into place so an interrupted
+ * download never leaves a partial chunk behind; the chunks that were completed
+ * don't need to be downloaded again when the transfer is resumed.
+ *
+ * The chunks are pieces of the (encrypted) database so the directory and
+ * everything in it is only accessible to the user. A chunk is checked
+ * against its hash every time it's read; one that doesn't match is deleted
+ * and treated as missing.
+ *
+ * The latest manifest of each file transferred is kept in the store too.
+ * Chunks that none of those manifests use any more are pruned.
+ */
+public class ChunkStore {
+
+    private static final String DEFAULT_DIRECTORY = "upm-chunks";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private File directory;
+
+
+    public ChunkStore(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        Util.restrictToOwner(directory);
+    }
+
+
+    /**
+     * @return The store used by default, kept in the directory the
+     * preferences are kept in
+     */
+    public static ChunkStore getDefault() {
+        return new ChunkStore(new File(Preferences.getConfigDirectory(), DEFAULT_DIRECTORY));
+    }
+
+
+    /**
+     * @return true if the store has an intact copy of the chunk
+     */
+    public boolean contains(String hash) {
+        try {
+            return read(hash) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    public void put(String hash, byte[] chunk) throws IOException {
+        File tempFile = new File(directory, hash + ".part");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            os.write(chunk);
+        } finally {
+            os.close();
+        }
+        Util.restrictToOwner(tempFile);
+        File chunkFile = getChunkFile(hash);
+        if (!tempFile.renameTo(chunkFile) && !chunkFile.exists()) {
+            tempFile.delete();
+            throw new IOException("Couldn't store the chunk " + hash);
+        }
+    }
+
+
+    /**
+     * @throws IOException If the chunk isn't in the store or the copy in the
+     * store is corrupt
+     */
+    public byte[] get(String hash) throws IOException {
+        byte[] chunk = read(hash);
+        if (chunk == null) {
+            throw new IOException("The chunk " + hash + " is missing or corrupt");
+        }
+        return chunk;
+    }
+
+
+    /**
+     * Write the chunks listed in the manifest, in order, to the given file.
+     * All the chunks must already be in the store. Each chunk is checked
+     * against its hash as it's written.
+     */
+    public void assemble(ChunkManifest manifest, File file) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < manifest.size(); i++) {
+                os.write(get((String) manifest.getChunkHashes().get(i)));
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+
+    /**
+     * Remember the manifest as the latest version of the given file and
+     * delete the chunks that aren't used by the latest version of any file.
+     * @param fileKey Identifies the file, e.g. its URL
+     */
+    public void retain(String fileKey, ChunkManifest manifest) throws IOException {
+        File manifestFile = new File(directory, ChunkManifest.hash(fileKey.getBytes("UTF-8")) + MANIFEST_SUFFIX);
+        File tempFile = new File(manifestFile.getPath() + ".part");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            os.write(manifest.toString().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        Util.restrictToOwner(tempFile);
+        manifestFile.delete();
+        if (!tempFile.renameTo(manifestFile)) {
+            tempFile.delete();
+            throw new IOException("Couldn't store the manifest for " + fileKey);
+        }
+        prune();
+    }
+
+
+    /**
+     * Delete the chunks that none of the retained manifests use
+     */
+    public void prune() throws IOException {
+        HashSet referenced = new HashSet();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(MANIFEST_SUFFIX)) {
+                referenced.addAll(ChunkManifest.parse(new String(readFile(files[i]), "UTF-8")).getChunkHashes());
+            }
+        }
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            if (ChunkManifest.isValidHash(name) && !referenced.contains(name)) {
+                files[i].delete();
+            }
+        }
+    }
+
+
+    /**
+     * @return The chunk or null if it isn't in the store. A chunk that
+     * doesn't match its hash is deleted.
+     */
+    private byte[] read(String hash) throws IOException {
+        File chunkFile = getChunkFile(hash);
+        if (!chunkFile.exists()) {
+            return null;
+        }
+        byte[] chunk = readFile(chunkFile);
+        if (!ChunkManifest.hash(chunk).equals(hash)) {
+            chunkFile.delete();
+            return null;
+        }
+        return chunk;
+    }
+
+
+    private File getChunkFile(String hash) {
+        if (!ChunkManifest.isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid chunk hash [" + hash + "]");
+        }
+        return new File(directory, hash);
+    }
+
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream is = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int numRead;
+            while (offset < bytes.length
+                    && (numRead = is.read(bytes, offset, bytes.length - offset)) >= 0) {
+                offset += numRead;
+            }
+        } finally {
+            is.close();
+        }
+        return bytes;
+    }
+
+}
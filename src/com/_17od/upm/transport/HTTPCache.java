@@ -0,0 +1,210 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com._17od.upm.util.Preferences;
+import com._17od.upm.util.Util;
+
+
+/**
+ * A small on-disk cache of remote files. For each URL (or other key) it keeps
+ * the ETag and Last-Modified validators the server sent along with a local
+ * copy of the file. The validators are used to make conditional requests so
+ * that a file that hasn't changed doesn't have to be downloaded again.
+ * 
+ * The validators are kept in an index file in the cache directory. Local
+ * copies are stored alongside it, named after the SHA-256 hash of their key.
+ * The copies are (encrypted) databases so, like the database snapshot, the
+ * directory and everything in it is only accessible to the user.
+ */
+public class HTTPCache {
+
+    private static final String DEFAULT_DIRECTORY = "upm-http-cache";
+    private static final String INDEX_FILE = "index.properties";
+    private static final String ETAG = ".etag";
+    private static final String LAST_MODIFIED = ".lastModified";
+
+    private File directory;
+    private Properties index;
+
+
+    public HTTPCache(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        Util.restrictToOwner(directory);
+    }
+
+
+    /**
+     * @return The cache used by default, kept in the directory the
+     * preferences are kept in
+     */
+    public static HTTPCache getDefault() {
+        return new HTTPCache(new File(Preferences.getConfigDirectory(), DEFAULT_DIRECTORY));
+    }
+
+
+    /**
+     * @return The cached entry for the given key or null if there isn't one
+     * (or its local copy has gone missing)
+     */
+    public synchronized Entry get(String key) throws IOException {
+        String hash = hash(key);
+        String eTag = getIndex().getProperty(hash + ETAG);
+        String lastModified = getIndex().getProperty(hash + LAST_MODIFIED);
+        File file = new File(directory, hash);
+        if ((eTag == null && lastModified == null) || !file.exists()) {
+            return null;
+        }
+        return new Entry(eTag, lastModified, file, false);
+    }
+
+
+    /**
+     * Store a copy of the file along with its validators. If there are no
+     * validators there's nothing to make a conditional request with so
+     * nothing is stored.
+     */
+    public synchronized void put(String key, String eTag, String lastModified, File contents) throws IOException {
+        if (eTag == null && lastModified == null) {
+            remove(key);
+            return;
+        }
+        String hash = hash(key);
+        File file = new File(directory, hash);
+        Util.copyFile(contents, file);
+        Util.restrictToOwner(file);
+        setProperty(hash + ETAG, eTag);
+        setProperty(hash + LAST_MODIFIED, lastModified);
+        saveIndex();
+    }
+
+
+    public synchronized void remove(String key) throws IOException {
+        String hash = hash(key);
+        getIndex().remove(hash + ETAG);
+        getIndex().remove(hash + LAST_MODIFIED);
+        saveIndex();
+        new File(directory, hash).delete();
+    }
+
+
+    private void setProperty(String name, String value) throws IOException {
+        if (value == null) {
+            getIndex().remove(name);
+        } else {
+            getIndex().setProperty(name, value);
+        }
+    }
+
+
+    private Properties getIndex() throws IOException {
+        if (index == null) {
+            index = new Properties();
+            File indexFile = new File(directory, INDEX_FILE);
+            if (indexFile.exists()) {
+                InputStream is = new FileInputStream(indexFile);
+                try {
+                    index.load(is);
+                } finally {
+                    is.close();
+                }
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * Write the index to a temporary file and rename it into place so that
+     * a crash part way through never leaves a corrupt index behind
+     */
+    private void saveIndex() throws IOException {
+        File tempFile = new File(directory, INDEX_FILE + ".part");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            getIndex().store(os, null);
+        } finally {
+            os.close();
+        }
+        Util.restrictToOwner(tempFile);
+        File indexFile = new File(directory, INDEX_FILE);
+        indexFile.delete();
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Couldn't save the cache index " + indexFile);
+        }
+    }
+
+
+    private static String hash(String key) throws IOException {
+        return ChunkManifest.hash(key.getBytes("UTF-8"));
+    }
+
+
+    /**
+     * A version of a remote file along with the validators needed to ask the
+     * server whether it has changed
+     */
+    public static class Entry {
+
+        private String eTag;
+        private String lastModified;
+        private File file;
+        private boolean notModified;
+
+        public Entry(String eTag, String lastModified, File file, boolean notModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.notModified = notModified;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return true if the server said the file hasn't changed since this
+         * entry's validators were stored
+         */
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+    }
+
+}
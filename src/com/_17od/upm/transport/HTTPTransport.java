@@ -20,51 +20,90 @@
  */
 package com._17od.upm.transport;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.util.URIUtil;
 
+import com._17od.upm.util.Metrics;
 import com._17od.upm.util.Preferences;
 
 
 public class HTTPTransport extends Transport {
 
+    private static final String CHUNKS_SCRIPT = "chunks.php";
+    private static final String PUBLISH_SCRIPT = "publish.php";
+    private static final String REVISION_CONFLICT = "REVISION_CONFLICT";
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private static final Metrics.Timer GET_TIMER = Metrics.getDefault().timer(
+            "http_get", "HTTP GET requests up to the response headers");
+    private static final Metrics.Timer POST_TIMER = Metrics.getDefault().timer(
+            "http_post", "HTTP POST requests up to the response headers");
+    private static final Metrics.Timer DOWNLOAD_TIMER = Metrics.getDefault().timer(
+            "http_download", "Streaming a downloaded file to disk");
+    private static final Metrics.Counter RECEIVED_BYTES = Metrics.getDefault().counter(
+            "http_received_bytes", "Bytes of response bodies received over HTTP");
+
     private HttpClient client;
+    private Credentials proxyCredentials;
+    private ChunkStore chunkStore;
+
+    private static boolean selfSignedCertsProtocolRegistered;
 
 
     public HTTPTransport() {
+        this(new SimpleHttpConnectionManager());
+    }
 
-        client = new HttpClient();
 
-        Boolean acceptSelfSignedCerts =
-                new Boolean(Preferences.get(
-                        Preferences.ApplicationOptions.HTTPS_ACCEPT_SELFSIGNED_CERTS));
-        if (acceptSelfSignedCerts.booleanValue()) {
-            // Create a Protcol handler which contains a HTTPS socket factory
-            // capable of accepting self signed and otherwise invalid certificates.
-            Protocol httpsProtocol = new Protocol("https",
-                    (ProtocolSocketFactory) new EasySSLProtocolSocketFactory(),
-                    443);
-            Protocol.registerProtocol("https", httpsProtocol);
-        }
+    /**
+     * @param connectionManager The connection manager to get connections
+     * from. This can be shared between transports.
+     */
+    public HTTPTransport(HttpConnectionManager connectionManager) {
+
+        client = new HttpClient(connectionManager);
+
+        registerHTTPSProtocol();
 
         //Get the proxy settings
         Boolean proxyEnabled = new Boolean(Preferences.get(Preferences.ApplicationOptions.HTTP_PROXY_ENABLED));
@@ -81,8 +120,7 @@ public class HTTPTransport extends Transport {
                     proxyPort = Integer.parseInt(proxyPortStr);
                     client.getHostConfiguration().setProxy(proxyHost, proxyPort);
                     if (isNotEmpty(proxyUserName) && isNotEmpty(proxyPassword)) {
-                        client.getState().setProxyCredentials(AuthScope.ANY, 
-                                new UsernamePasswordCredentials(proxyUserName, decodedPassword));
+                        proxyCredentials = new UsernamePasswordCredentials(proxyUserName, decodedPassword);
                     }
                 }
             }
@@ -91,6 +129,31 @@ public class HTTPTransport extends Transport {
     }
 
 
+    /**
+     * Protocol handlers are registered globally so only register the https
+     * handler when the "accept self signed certificates" option changes.
+     * Keeping the same socket factory between transports also means TLS
+     * sessions can be resumed.
+     */
+    private static synchronized void registerHTTPSProtocol() {
+        Boolean acceptSelfSignedCerts =
+                new Boolean(Preferences.get(
+                        Preferences.ApplicationOptions.HTTPS_ACCEPT_SELFSIGNED_CERTS));
+        if (acceptSelfSignedCerts.booleanValue() && !selfSignedCertsProtocolRegistered) {
+            // Create a Protcol handler which contains a HTTPS socket factory
+            // capable of accepting self signed and otherwise invalid certificates.
+            Protocol httpsProtocol = new Protocol("https",
+                    (ProtocolSocketFactory) new EasySSLProtocolSocketFactory(),
+                    443);
+            Protocol.registerProtocol("https", httpsProtocol);
+            selfSignedCertsProtocolRegistered = true;
+        } else if (!acceptSelfSignedCerts.booleanValue() && selfSignedCertsProtocolRegistered) {
+            Protocol.unregisterProtocol("https");
+            selfSignedCertsProtocolRegistered = false;
+        }
+    }
+
+
     public void put(String targetLocation, File file) throws TransportException {
         put(targetLocation, file, null, null);
     }
@@ -113,23 +176,13 @@ public class HTTPTransport extends Transport {
                     new MultipartRequestEntity(parts, post.getParams())
             );
 
-            //Set the HTTP authentication details
-            if (username != null) {
-                Credentials creds = new UsernamePasswordCredentials(new String(username), new String(password));
-                URL url = new URL(targetLocation);
-                AuthScope authScope = new AuthScope(url.getHost(), url.getPort());
-                client.getState().setCredentials(authScope, creds);
-                client.getParams().setAuthenticationPreemptive(true);
-            }
+            //Set the authentication details
+            HttpState state = createState(targetLocation, username, password);
 
-            // This line makes the HTTP call
-            int status = client.executeMethod(post);
-            
-            // I've noticed on Windows (at least) that PHP seems to fail when moving files on the first attempt
-            // The second attempt works so lets just do that
-            if (status == HttpStatus.SC_OK && post.getResponseBodyAsString().equals("FILE_WASNT_MOVED")) {
-                status = client.executeMethod(post);                
-            }
+            // This line makes the HTTP call. It's never repeated, a
+            // FILE_WASNT_MOVED reply is a failure since upload.php has
+            // already retried the move itself.
+            int status = execute(post, state);
 
             if (status != HttpStatus.SC_OK) {
                 throw new TransportException("There's been some kind of problem uploading a file to the HTTP server.\n\nThe HTTP error message is [" + HttpStatus.getStatusText(status) + "]");
@@ -154,6 +207,57 @@ public class HTTPTransport extends Transport {
     }
 
 
+    /**
+     * Publish a new revision of a file in a single round trip using
+     * publish.php. The server only replaces the file if the revision it
+     * currently has is expectedRevision, otherwise a
+     * RevisionConflictException is thrown and the file is left alone. The
+     * replacement is atomic so there's no need to delete the old file first.
+     *
+     * @param expectedHash The SHA-256 hash (see ChunkManifest.hash(File)) of
+     * the file the new revision is based on, null if there isn't one. A file
+     * that was uploaded with upload.php has no revision on the server so
+     * this is what the server checks instead.
+     */
+    public void publish(String targetLocation, File file, int expectedRevision, String expectedHash,
+            int newRevision, String username, String password) throws TransportException {
+        PostMethod post = new PostMethod(addTrailingSlash(targetLocation) + PUBLISH_SCRIPT);
+        try {
+            ArrayList parts = new ArrayList();
+            parts.add(new FilePart("userfile", file));
+            parts.add(new StringPart("expectedRevision", String.valueOf(expectedRevision)));
+            parts.add(new StringPart("revision", String.valueOf(newRevision)));
+            if (expectedHash != null) {
+                parts.add(new StringPart("expectedHash", expectedHash));
+            }
+            post.setRequestEntity(new MultipartRequestEntity(
+                    (Part[]) parts.toArray(new Part[parts.size()]), post.getParams()));
+        } catch (FileNotFoundException e) {
+            throw new TransportException(e);
+        }
+
+        checkPublished(executePost(post, username, password), expectedRevision, "publishing a file to");
+    }
+
+
+    /**
+     * Check the response to a publish, throwing a RevisionConflictException
+     * if the server had a different revision to the one expected
+     */
+    private void checkPublished(String response, int expectedRevision, String action) throws TransportException {
+        if (response.startsWith(REVISION_CONFLICT)) {
+            int currentRevision;
+            try {
+                currentRevision = Integer.parseInt(response.substring(REVISION_CONFLICT.length()).trim());
+            } catch (NumberFormatException e) {
+                throw new TransportException("There's been some kind of problem publishing a file to the HTTP server.\n\nThe error message is [" + response + "]");
+            }
+            throw new RevisionConflictException(expectedRevision, currentRevision);
+        }
+        checkOK(response, action);
+    }
+
+
     public byte[] get(String url, String fileName) throws TransportException {
         return get(url, fileName, null, null);
     }
@@ -170,27 +274,30 @@ public class HTTPTransport extends Transport {
         byte[] retVal = null;
 
         GetMethod method = new GetMethod(url);
+        method.setRequestHeader("Accept-Encoding", "gzip");
         
         //This part is wrapped in a try/finally so that we can ensure
         //the connection to the HTTP server is always closed cleanly 
         try {
 
             //Set the authentication details
-            if (username != null) {
-                Credentials creds = new UsernamePasswordCredentials(new String(username), new String(password));
-                URL urlObj = new URL(url);
-                AuthScope authScope = new AuthScope(urlObj.getHost(), urlObj.getPort());
-                client.getState().setCredentials(authScope, creds);
-                client.getParams().setAuthenticationPreemptive(true);
-            }
+            HttpState state = createState(url, username, password);
 
-            int statusCode = client.executeMethod(method);
+            int statusCode = execute(method, state);
 
             if (statusCode != HttpStatus.SC_OK) {
                 throw new TransportException("There's been some kind of problem getting the URL [" + url + "].\n\nThe HTTP error message is [" + HttpStatus.getStatusText(statusCode) + "]");
             }
 
             retVal = method.getResponseBody();
+            if (retVal != null) {
+                RECEIVED_BYTES.add(retVal.length);
+            }
+            if (isGzipped(method) && retVal != null) {
+                ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+                copy(new GZIPInputStream(new ByteArrayInputStream(retVal)), decompressed);
+                retVal = decompressed.toByteArray();
+            }
 
         } catch (MalformedURLException e) {
             throw new TransportException(e);
@@ -224,18 +331,153 @@ public class HTTPTransport extends Transport {
 
 
     public File getRemoteFile(String remoteLocation, String httpUsername, String httpPassword) throws TransportException {
+        return getRemoteFileIfModified(remoteLocation, httpUsername, httpPassword, null).getFile();
+    }
+
+
+    public HTTPCache.Entry getRemoteFileIfModified(String remoteLocation, String fileName, String httpUsername, String httpPassword, HTTPCache.Entry cachedEntry) throws TransportException {
+        remoteLocation = addTrailingSlash(remoteLocation);
+        return getRemoteFileIfModified(remoteLocation + fileName, httpUsername, httpPassword, cachedEntry);
+    }
+
+
+    /**
+     * Download the given URL to a temporary file unless it hasn't changed
+     * since cachedEntry was stored. If cachedEntry isn't null its validators
+     * are sent in If-None-Match/If-Modified-Since headers and a 304 Not
+     * Modified reply is returned as an entry pointing at the cached copy with
+     * isNotModified() set.
+     * 
+     * Otherwise the response body is streamed straight to disk through a
+     * fixed size buffer so the size of the remote file doesn't dictate how
+     * much memory is needed. The number of bytes received is checked against
+     * the Content-Length header and, if the server sent one, the contents are
+     * checked against the Content-MD5 header. The temporary file is removed
+     * if the download fails, otherwise it's up to the caller to delete it
+     * once it's finished with it.
+     */
+    public HTTPCache.Entry getRemoteFileIfModified(String remoteLocation, String httpUsername, String httpPassword, HTTPCache.Entry cachedEntry) throws TransportException {
+
+        File downloadedFile = null;
+        boolean downloadSuccessful = false;
+
+        GetMethod method = new GetMethod(remoteLocation);
+        method.setRequestHeader("Accept-Encoding", "gzip");
+        if (cachedEntry != null) {
+            if (cachedEntry.getETag() != null) {
+                method.setRequestHeader("If-None-Match", cachedEntry.getETag());
+            }
+            if (cachedEntry.getLastModified() != null) {
+                method.setRequestHeader("If-Modified-Since", cachedEntry.getLastModified());
+            }
+        }
+
+        //This part is wrapped in a try/finally so that we can ensure
+        //the connection to the HTTP server is always closed cleanly 
         try {
-            byte[] remoteFile = get(remoteLocation, httpUsername, httpPassword);
-            File downloadedFile = File.createTempFile("upm", null);
-            FileOutputStream fos = new FileOutputStream(downloadedFile);
-            fos.write(remoteFile);
-            fos.close();
-            return downloadedFile;
+            HttpState state = createState(remoteLocation, httpUsername, httpPassword);
+
+            int statusCode = execute(method, state);
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && cachedEntry != null) {
+                return new HTTPCache.Entry(cachedEntry.getETag(), cachedEntry.getLastModified(),
+                        cachedEntry.getFile(), true);
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new TransportException("There's been some kind of problem getting the URL [" + remoteLocation + "].\n\nThe HTTP error message is [" + HttpStatus.getStatusText(statusCode) + "]");
+            }
+
+            downloadedFile = File.createTempFile("upm", null);
+            downloadedFile.deleteOnExit();
+            byte[] digest = streamToFile(method.getResponseBodyAsStream(), downloadedFile,
+                    method.getResponseContentLength(), isGzipped(method));
+
+            Header contentMD5 = method.getResponseHeader("Content-MD5");
+            if (contentMD5 != null && !Arrays.equals(digest,
+                    Base64.decodeBase64(contentMD5.getValue().trim().getBytes("US-ASCII")))) {
+                throw new TransportException("The file downloaded from [" + remoteLocation + "] was corrupted (checksum mismatch)");
+            }
+
+            downloadSuccessful = true;
+            return new HTTPCache.Entry(getHeaderValue(method, "ETag"),
+                    getHeaderValue(method, "Last-Modified"), downloadedFile, false);
+
+        } catch (MalformedURLException e) {
+            throw new TransportException(e);
+        } catch (HttpException e) {
+            throw new TransportException(e);
         } catch (IOException e) {
             throw new TransportException(e);
+        } finally {
+            method.releaseConnection();
+            if (!downloadSuccessful && downloadedFile != null) {
+                downloadedFile.delete();
+            }
         }
     }
 
+
+    private String getHeaderValue(GetMethod method, String name) {
+        Header header = method.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+
+    private boolean isGzipped(GetMethod method) {
+        String contentEncoding = getHeaderValue(method, "Content-Encoding");
+        return contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip");
+    }
+
+
+    /**
+     * Copy the given stream to the file and return the MD5 digest of the
+     * bytes received. If expectedLength isn't -1 then exactly that many bytes
+     * must be read from the stream. If the stream is gzipped it's
+     * decompressed on the way to the file; the length and digest are of the
+     * compressed bytes, as sent in the Content-Length and Content-MD5 headers.
+     */
+    private byte[] streamToFile(InputStream is, File file, long expectedLength, boolean gzipped) throws IOException, TransportException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new TransportException(e);
+        }
+
+        long bytesRead = 0;
+        long start = DOWNLOAD_TIMER.start();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            if (is != null) {
+                CountingInputStream received = new CountingInputStream(new DigestInputStream(is, md5));
+                InputStream body = gzipped ? new GZIPInputStream(received, DOWNLOAD_BUFFER_SIZE) : received;
+                FileChannel channel = fos.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(DOWNLOAD_BUFFER_SIZE);
+                int numRead;
+                while ((numRead = body.read(buffer.array())) != -1) {
+                    buffer.limit(numRead);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                // Drain anything after the gzip trailer so it's counted too
+                while (received.read(buffer.array()) != -1) {
+                }
+                bytesRead = received.getCount();
+            }
+        } finally {
+            fos.close();
+            DOWNLOAD_TIMER.stop(start);
+            RECEIVED_BYTES.add(bytesRead);
+        }
+
+        if (expectedLength != -1 && bytesRead != expectedLength) {
+            throw new TransportException("The download was incomplete. Expected " + expectedLength + " bytes but received " + bytesRead);
+        }
+
+        return md5.digest();
+    }
+
     
     public void delete(String targetLocation, String name, String username, String password) throws TransportException {
 
@@ -249,15 +491,9 @@ public class HTTPTransport extends Transport {
         try {
 
             //Set the authentication details
-            if (username != null) {
-                Credentials creds = new UsernamePasswordCredentials(new String(username), new String(password));
-                URL url = new URL(targetLocation);
-                AuthScope authScope = new AuthScope(url.getHost(), url.getPort());
-                client.getState().setCredentials(authScope, creds);
-                client.getParams().setAuthenticationPreemptive(true);
-            }
+            HttpState state = createState(targetLocation, username, password);
 
-            int status = client.executeMethod(post);
+            int status = execute(post, state);
             if (status != HttpStatus.SC_OK) {
                 throw new TransportException("There's been some kind of problem deleting a file on the HTTP server.\n\nThe HTTP error message is [" + HttpStatus.getStatusText(status) + "]");
             }
@@ -284,6 +520,199 @@ public class HTTPTransport extends Transport {
     }
 
     
+    /**
+     * Publish a new revision of a file in content addressed chunks using
+     * chunks.php. Only the chunks the server doesn't already have are sent
+     * so uploading a new version of a file only costs the chunks that
+     * changed. If an upload is interrupted then calling this method again
+     * picks up where it left off. Once the chunks are there the file is
+     * replaced with the same revision check as publish().
+     */
+    public void putChunked(String targetLocation, File file, int expectedRevision, String expectedHash,
+            int newRevision, String username, String password) throws TransportException {
+        String chunksURL = addTrailingSlash(targetLocation) + CHUNKS_SCRIPT;
+        try {
+            ChunkManifest manifest = ChunkManifest.fromFile(file, ChunkManifest.DEFAULT_CHUNK_SIZE, getChunkStore());
+
+            // Find out which chunks the server is missing
+            PostMethod missingPost = new PostMethod(chunksURL);
+            missingPost.addParameter("action", "missing");
+            missingPost.addParameter("hashes", manifest.toString(','));
+            ChunkManifest missingChunks = parseManifest(executePost(missingPost, username, password));
+
+            // Upload the missing chunks
+            for (int i = 0; i < missingChunks.size(); i++) {
+                String hash = (String) missingChunks.getChunkHashes().get(i);
+                PostMethod chunkPost = new PostMethod(chunksURL + "?action=put&hash=" + hash);
+                Part[] parts = {
+                        new FilePart("chunk", new ByteArrayPartSource(hash, getChunkStore().get(hash)))
+                };
+                chunkPost.setRequestEntity(new MultipartRequestEntity(parts, chunkPost.getParams()));
+                checkOK(executePost(chunkPost, username, password), "uploading a chunk to");
+            }
+
+            // Ask the server to build the file from its chunks
+            PostMethod commitPost = new PostMethod(chunksURL);
+            commitPost.addParameter("action", "commit");
+            commitPost.addParameter("name", file.getName());
+            commitPost.addParameter("hashes", manifest.toString(','));
+            commitPost.addParameter("expectedRevision", String.valueOf(expectedRevision));
+            commitPost.addParameter("revision", String.valueOf(newRevision));
+            if (expectedHash != null) {
+                commitPost.addParameter("expectedHash", expectedHash);
+            }
+            checkPublished(executePost(commitPost, username, password), expectedRevision, "uploading a file to");
+            retainChunks(chunksURL, file.getName(), manifest);
+        } catch (IOException e) {
+            throw new TransportException(e);
+        }
+    }
+
+
+    /**
+     * Download a file that was uploaded with putChunked(). Chunks that are
+     * already in the local chunk store (from a previous download or upload)
+     * aren't downloaded again.
+     */
+    public File getRemoteFileChunked(String remoteLocation, String fileName, String username, String password) throws TransportException {
+        String chunksURL = addTrailingSlash(remoteLocation) + CHUNKS_SCRIPT;
+        try {
+            byte[] manifestBytes = get(chunksURL + "?action=manifest&name=" + URIUtil.encodeWithinQuery(fileName), username, password);
+            ChunkManifest manifest = parseManifest(new String(manifestBytes, "UTF-8"));
+
+            for (int i = 0; i < manifest.size(); i++) {
+                String hash = (String) manifest.getChunkHashes().get(i);
+                if (!getChunkStore().contains(hash)) {
+                    byte[] chunk = get(chunksURL + "?action=get&hash=" + hash, username, password);
+                    if (!ChunkManifest.hash(chunk).equals(hash)) {
+                        throw new TransportException("The chunk [" + hash + "] was corrupted during the download");
+                    }
+                    getChunkStore().put(hash, chunk);
+                }
+            }
+
+            File downloadedFile = File.createTempFile("upm", null);
+            getChunkStore().assemble(manifest, downloadedFile);
+            retainChunks(chunksURL, fileName, manifest);
+            return downloadedFile;
+        } catch (IOException e) {
+            throw new TransportException(e);
+        }
+    }
+
+
+    public synchronized void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+
+    private synchronized ChunkStore getChunkStore() {
+        if (chunkStore == null) {
+            chunkStore = ChunkStore.getDefault();
+        }
+        return chunkStore;
+    }
+
+
+    /**
+     * Keep the chunks of the version of the file just transferred and prune
+     * the rest. The transfer itself has already succeeded so a problem here
+     * only means the unused chunks are pruned next time.
+     */
+    private void retainChunks(String chunksURL, String fileName, ChunkManifest manifest) {
+        try {
+            getChunkStore().retain(chunksURL + "?name=" + fileName, manifest);
+        } catch (IOException e) {
+            // Ignore, see above
+        }
+    }
+
+
+    private ChunkManifest parseManifest(String response) throws TransportException {
+        ChunkManifest manifest = ChunkManifest.parse(response);
+        for (int i = 0; i < manifest.size(); i++) {
+            if (!ChunkManifest.isValidHash((String) manifest.getChunkHashes().get(i))) {
+                throw new TransportException("There's been some kind of problem transferring a file.\n\nThe error message is [" + response + "]");
+            }
+        }
+        return manifest;
+    }
+
+
+    private void checkOK(String response, String action) throws TransportException {
+        if (!response.equals("OK")) {
+            throw new TransportException("There's been some kind of problem " + action + " the HTTP server.\n\nThe error message is [" + response + "]");
+        }
+    }
+
+
+    /**
+     * Execute the method with the given state, timing the round trip up to
+     * the response headers
+     */
+    private int execute(HttpMethod method, HttpState state) throws IOException {
+        Metrics.Timer timer = method instanceof GetMethod ? GET_TIMER : POST_TIMER;
+        long start = timer.start();
+        try {
+            return client.executeMethod(null, method, state);
+        } finally {
+            timer.stop(start);
+        }
+    }
+
+
+    /**
+     * Execute a POST and return the response body
+     */
+    private String executePost(PostMethod post, String username, String password) throws TransportException {
+        try {
+            HttpState state = createState(post.getURI().toString(), username, password);
+            int status = execute(post, state);
+            if (status != HttpStatus.SC_OK) {
+                throw new TransportException("There's been some kind of problem talking to the HTTP server.\n\nThe HTTP error message is [" + HttpStatus.getStatusText(status) + "]");
+            }
+            return post.getResponseBodyAsString();
+        } catch (HttpException e) {
+            throw new TransportException(e);
+        } catch (IOException e) {
+            throw new TransportException(e);
+        } finally {
+            post.releaseConnection();
+        }
+    }
+
+
+    /**
+     * The client is shared between calls, and between callers using
+     * different credentials (see TransportRegistry), so the credentials are
+     * kept in a state of their own for each request rather than in the
+     * client's state.
+     */
+    private HttpState createState(String targetLocation, String username, String password) throws MalformedURLException {
+        HttpState state = new HttpState();
+        if (proxyCredentials != null) {
+            state.setProxyCredentials(AuthScope.ANY, proxyCredentials);
+        }
+        if (username != null) {
+            Credentials creds = new UsernamePasswordCredentials(username, password);
+            URL url = new URL(targetLocation);
+            AuthScope authScope = new AuthScope(url.getHost(), url.getPort());
+            state.setCredentials(authScope, creds);
+            state.setAuthenticationPreemptive(true);
+        }
+        return state;
+    }
+
+    
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+        int numRead;
+        while ((numRead = is.read(buffer)) != -1) {
+            os.write(buffer, 0, numRead);
+        }
+    }
+
+
     private String addTrailingSlash(String url) {
         if (url.charAt(url.length() - 1) != '/') {
             url = url + '/';
@@ -300,4 +729,38 @@ public class HTTPTransport extends Transport {
         return retVal;
     }
 
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream is) {
+            super(is);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int numRead = super.read(b, off, len);
+            if (numRead != -1) {
+                count += numRead;
+            }
+            return numRead;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+    }
+
 }
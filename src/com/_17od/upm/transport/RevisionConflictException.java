@@ -0,0 +1,44 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+/**
+ * Thrown when publishing a database fails because another client published
+ * a new revision after the one the changes were based on
+ */
+public class RevisionConflictException extends TransportException {
+
+    private static final long serialVersionUID = 1L;
+
+    private int currentRevision;
+
+    public RevisionConflictException(int expectedRevision, int currentRevision) {
+        super("The remote database was expected to be at revision " + expectedRevision
+                + " but it's now at revision " + currentRevision);
+        this.currentRevision = currentRevision;
+    }
+
+
+    public int getCurrentRevision() {
+        return currentRevision;
+    }
+    
+}
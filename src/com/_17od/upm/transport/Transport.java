@@ -34,6 +34,8 @@ public abstract class Transport {
     
     public abstract void put(String targetLocation, File file) throws TransportException;
 
+    public abstract void publish(String targetLocation, File file, int expectedRevision, String expectedHash, int newRevision, String username, String password) throws TransportException;
+
     public abstract byte[] get(String url, String fileName) throws TransportException;
 
     public abstract byte[] get(String url, String fileName, String username, String password) throws TransportException;
@@ -52,14 +54,20 @@ public abstract class Transport {
     
     public abstract File getRemoteFile(String remoteLocation, String username, String password) throws TransportException;
 
+    public abstract HTTPCache.Entry getRemoteFileIfModified(String remoteLocation, String fileName, String username, String password, HTTPCache.Entry cachedEntry) throws TransportException;
+
+    public abstract HTTPCache.Entry getRemoteFileIfModified(String remoteLocation, String username, String password, HTTPCache.Entry cachedEntry) throws TransportException;
+
+    public abstract void putChunked(String targetLocation, File file, int expectedRevision, String expectedHash, int newRevision, String username, String password) throws TransportException;
+
+    public abstract File getRemoteFileChunked(String remoteLocation, String fileName, String username, String password) throws TransportException;
+
+    /**
+     * @return The shared transport for the URL's scheme and host (see
+     * TransportRegistry) or null if the protocol isn't supported
+     */
     public static Transport getTransportForURL(URL url) {
-        Transport retVal = null;
-        if (url.getProtocol().equals("http")) {
-            retVal = new HTTPTransport();
-        } else if (url.getProtocol().equals("https")) {
-            retVal = new HTTPTransport();
-        }
-        return retVal;
+        return TransportRegistry.getTransport(url);
     }
     
     public static boolean isASupportedProtocol(String protocol) {
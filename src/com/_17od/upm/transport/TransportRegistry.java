@@ -0,0 +1,100 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.net.URL;
+import java.util.HashMap;
+
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+
+/**
+ * Hands out Transports, one per scheme and host, so that repeated syncs,
+ * uploads and deletes against the same server share a configured transport.
+ * All the HTTP transports share one pooled connection manager which keeps
+ * connections (and TLS sessions) open between requests.
+ * 
+ * The transports are configured from the Preferences when they're created so
+ * reset() has to be called when the HTTP options change.
+ */
+public class TransportRegistry {
+
+    public static final int MAX_CONNECTIONS_PER_HOST = 4;
+    public static final int MAX_TOTAL_CONNECTIONS = 20;
+
+    private static HashMap transports = new HashMap();
+    private static MultiThreadedHttpConnectionManager connectionManager;
+
+
+    public static synchronized Transport getTransport(URL url) {
+        if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+            return null;
+        }
+
+        String key = getKey(url);
+        Transport transport = (Transport) transports.get(key);
+        if (transport == null) {
+            transport = new HTTPTransport(getConnectionManager());
+            transports.put(key, transport);
+        }
+        return transport;
+    }
+
+
+    /**
+     * Discard all the cached transports and close their connections. The
+     * next call to getTransport() will create a transport using the
+     * current Preferences.
+     */
+    public static synchronized void reset() {
+        transports.clear();
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+    }
+
+
+    /**
+     * @return The number of connections currently pooled (in use or idle)
+     */
+    public static synchronized int getConnectionsInPool() {
+        return connectionManager == null ? 0 : connectionManager.getConnectionsInPool();
+    }
+
+
+    private static MultiThreadedHttpConnectionManager getConnectionManager() {
+        if (connectionManager == null) {
+            connectionManager = new MultiThreadedHttpConnectionManager();
+            connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+            connectionManager.getParams().setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+            connectionManager.getParams().setStaleCheckingEnabled(true);
+        }
+        return connectionManager;
+    }
+
+
+    private static String getKey(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ':' + port;
+    }
+
+}
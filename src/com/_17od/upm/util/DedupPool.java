@@ -0,0 +1,119 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.lang.ref.WeakReference;
+
+
+/**
+ * A bounded, lossy pool for sharing equal values (user ids, URLs, etc) that
+ * turn up over and over while a batch of accounts is being built.
+ * 
+ * The pool is a fixed size table of weak references indexed by hash code.
+ * A value that collides with a different one simply replaces it, so the
+ * pool never grows beyond its capacity, and because the references are
+ * weak it never keeps a value alive that nothing else is using.
+ */
+public class DedupPool {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private static DedupPool shared = new DedupPool(DEFAULT_CAPACITY);
+
+    private WeakReference[] table;
+    private long lookups;
+    private long hits;
+    private long savedBytes;
+
+
+    /**
+     * @param capacity The number of entries, rounded up to a power of two
+     */
+    public DedupPool(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        table = new WeakReference[size];
+    }
+
+
+    /**
+     * @return The pool shared by everything that builds accounts
+     */
+    public static DedupPool getShared() {
+        return shared;
+    }
+
+
+    public String dedup(String value) {
+        // A String is roughly a 24 byte object plus a 16 byte array header
+        return value == null ? null : (String) dedup(value, 40 + value.length());
+    }
+
+
+    /**
+     * @param value The value to share
+     * @param size The approximate number of bytes saved when a copy of the
+     * value is dropped in favour of the pooled one
+     * @return The pooled value equal to the given one, or the given value
+     * itself if there isn't one
+     */
+    public synchronized Object dedup(Object value, int size) {
+        lookups++;
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (table.length - 1);
+        WeakReference ref = table[index];
+        if (ref != null) {
+            Object pooled = ref.get();
+            if (pooled == value) {
+                return pooled;
+            }
+            if (pooled != null && pooled.equals(value)) {
+                hits++;
+                savedBytes += size;
+                return pooled;
+            }
+        }
+        table[index] = new WeakReference(value);
+        return value;
+    }
+
+
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * @return The approximate number of bytes saved by sharing values since
+     * the pool was created
+     */
+    public synchronized long getSavedBytes() {
+        return savedBytes;
+    }
+
+}
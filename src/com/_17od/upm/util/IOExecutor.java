@@ -0,0 +1,285 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs blocking I/O (loading and saving databases, talking to remote
+ * locations) off the calling thread. Each task gets a virtual thread where
+ * the JVM has them (Java 21 and later) so waiting on the network costs
+ * almost nothing. Otherwise the tasks share a bounded pool of daemon
+ * threads.
+ * 
+ * Tasks name the backend they talk to (see backendFor()) and no more than
+ * maxInFlightPerBackend of them run against the same backend at once. The
+ * rest wait their turn, which is cheap on a virtual thread.
+ * 
+ * Tasks are submitted through a Group. Cancelling the group (when its
+ * database is closed or locked) cancels everything still running in it and
+ * refuses new work.
+ */
+public class IOExecutor {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_BACKEND = 4;
+    public static final String FILE_BACKEND = "file";
+
+    private static final int MAX_POOLED_THREADS = 64;
+
+    private static IOExecutor defaultExecutor;
+
+    private ExecutorService executor;
+    private int maxInFlightPerBackend;
+    private Map backendLimits = new HashMap();
+
+
+    public IOExecutor(ExecutorService executor, int maxInFlightPerBackend) {
+        this.executor = executor;
+        this.maxInFlightPerBackend = maxInFlightPerBackend;
+    }
+
+
+    /**
+     * @return The executor shared by the whole application
+     */
+    public static synchronized IOExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new IOExecutor(newThreadPerTaskExecutor("UPM I/O", MAX_POOLED_THREADS),
+                    DEFAULT_MAX_IN_FLIGHT_PER_BACKEND);
+        }
+        return defaultExecutor;
+    }
+
+
+    /**
+     * Create an executor that gives each task its own virtual thread. On a
+     * JVM without virtual threads the tasks share a pool of up to
+     * maxPlatformThreads daemon threads named after threadName, and queue
+     * when they're all busy.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String threadName, int maxPlatformThreads) {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor", new Class[0]).invoke(null, new Object[0]);
+        } catch (NoSuchMethodException e) {
+            // Fall back to platform threads below
+        } catch (IllegalAccessException e) {
+            // Fall back to platform threads below
+        } catch (InvocationTargetException e) {
+            // Fall back to platform threads below
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue(), new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadName + " " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+
+    /**
+     * @return The backend a URL belongs to, its protocol, host and port
+     */
+    public static String backendFor(String url) {
+        try {
+            URL parsed = new URL(url);
+            int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+            return parsed.getProtocol() + "://" + parsed.getHost().toLowerCase() + ':' + port;
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+
+    public Group newGroup() {
+        return new Group();
+    }
+
+
+    /**
+     * Wait for a submitted task to finish. Any exception the task throws is
+     * rethrown as it is.
+     * @throws CancellationException If the task was cancelled or the calling
+     * thread is interrupted while waiting
+     */
+    public static Object getResult(Future future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for I/O");
+        }
+    }
+
+
+    /**
+     * @return The number of tasks running or waiting to run against the
+     * given backend
+     */
+    public int getInFlight(String backend) {
+        BackendLimit limit;
+        synchronized (backendLimits) {
+            limit = (BackendLimit) backendLimits.get(backend);
+        }
+        return limit == null ? 0 : limit.inFlight.get();
+    }
+
+
+    private BackendLimit getLimit(String backend) {
+        synchronized (backendLimits) {
+            BackendLimit limit = (BackendLimit) backendLimits.get(backend);
+            if (limit == null) {
+                limit = new BackendLimit(maxInFlightPerBackend);
+                backendLimits.put(backend, limit);
+            }
+            return limit;
+        }
+    }
+
+
+    private static class BackendLimit {
+
+        private Semaphore permits;
+        private AtomicInteger inFlight = new AtomicInteger();
+
+        public BackendLimit(int maxInFlight) {
+            permits = new Semaphore(maxInFlight, true);
+        }
+
+    }
+
+
+    /**
+     * The tasks belonging to one owner, typically an open database
+     */
+    public class Group {
+
+        private Set running = new HashSet();
+        private boolean cancelled;
+
+        /**
+         * Run the task against the given backend
+         * @throws CancellationException If the group has been cancelled
+         */
+        public Future submit(final String backend, final Callable task) {
+            final BackendLimit limit = getLimit(backend);
+            // The task leaves the in flight count before its result is set
+            // so anyone who's seen the result sees the count without it.
+            // done() covers tasks cancelled before they got to run.
+            final AtomicBoolean counted = new AtomicBoolean(true);
+            FutureTask future = new FutureTask(new Callable() {
+                public Object call() throws Exception {
+                    limit.permits.acquire();
+                    try {
+                        return task.call();
+                    } finally {
+                        limit.permits.release();
+                        if (counted.compareAndSet(true, false)) {
+                            limit.inFlight.decrementAndGet();
+                        }
+                    }
+                }
+            }) {
+                protected void done() {
+                    if (counted.compareAndSet(true, false)) {
+                        limit.inFlight.decrementAndGet();
+                    }
+                    synchronized (Group.this) {
+                        running.remove(this);
+                    }
+                }
+            };
+            synchronized (this) {
+                if (cancelled) {
+                    throw new CancellationException("The I/O tasks have been cancelled");
+                }
+                running.add(future);
+            }
+            limit.inFlight.incrementAndGet();
+            executor.execute(future);
+            return future;
+        }
+
+        /**
+         * Run the task against the given backend and wait for it to finish.
+         * Any exception the task throws is rethrown as it is.
+         * @throws CancellationException If the group is cancelled or the
+         * calling thread is interrupted while waiting
+         */
+        public Object call(String backend, Callable task) throws Exception {
+            return getResult(submit(backend, task));
+        }
+
+        /**
+         * Interrupt the tasks still running in this group and refuse any
+         * new ones
+         */
+        public void cancel() {
+            ArrayList toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = new ArrayList(running);
+            }
+            for (int i = 0; i < toCancel.size(); i++) {
+                ((Future) toCancel.get(i)).cancel(true);
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+}
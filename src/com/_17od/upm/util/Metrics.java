@@ -0,0 +1,314 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A registry of counters and latency timers for the hot paths (loading,
+ * saving, decrypting, searching and talking to remote locations). Recording
+ * is lock free so it's cheap enough to leave on all the time. The figures
+ * are shown in the diagnostics dialog and can be exported in the Prometheus
+ * text format.
+ */
+public class Metrics {
+
+    public static final String EXPORT_FILE_NAME = "upm-metrics.prom";
+
+    private static final String PREFIX = "upm_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    private ConcurrentHashMap metrics = new ConcurrentHashMap();
+
+
+    /**
+     * @return The registry shared by the whole application
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Get the timer with the given name, creating it if it doesn't exist yet.
+     * Names should be lower case words separated by underscores.
+     */
+    public Timer timer(String name, String help) {
+        Metric timer = (Metric) metrics.get(name);
+        if (timer == null) {
+            metrics.putIfAbsent(name, new Timer(name, help));
+            timer = (Metric) metrics.get(name);
+        }
+        return (Timer) timer;
+    }
+
+
+    /**
+     * Get the counter with the given name, creating it if it doesn't exist
+     * yet
+     */
+    public Counter counter(String name, String help) {
+        Metric counter = (Metric) metrics.get(name);
+        if (counter == null) {
+            metrics.putIfAbsent(name, new Counter(name, help));
+            counter = (Metric) metrics.get(name);
+        }
+        return (Counter) counter;
+    }
+
+
+    /**
+     * @return All the metrics sorted by name
+     */
+    public List getMetrics() {
+        ArrayList sorted = new ArrayList(metrics.values());
+        Collections.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((Metric) o1).getName().compareTo(((Metric) o2).getName());
+            }
+        });
+        return sorted;
+    }
+
+
+    public void writePrometheus(Writer writer) throws IOException {
+        List sorted = getMetrics();
+        for (int i = 0; i < sorted.size(); i++) {
+            ((Metric) sorted.get(i)).writePrometheus(writer);
+        }
+        writer.flush();
+    }
+
+
+    /**
+     * Write the metrics to the given file in the Prometheus text format. The
+     * file is replaced in one go so a collector never reads half of it.
+     */
+    public void exportTo(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            writePrometheus(writer);
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Couldn't write the metrics to " + file);
+            }
+        }
+    }
+
+
+    public abstract static class Metric {
+
+        private String name;
+        private String help;
+
+        protected Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        protected void writeHeader(Writer writer, String fullName, String type) throws IOException {
+            writer.write("# HELP " + fullName + ' ' + help + '\n');
+            writer.write("# TYPE " + fullName + ' ' + type + '\n');
+        }
+
+        abstract void writePrometheus(Writer writer) throws IOException;
+
+    }
+
+
+    public static class Counter extends Metric {
+
+        private AtomicLong value = new AtomicLong();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            value.addAndGet(amount);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        void writePrometheus(Writer writer) throws IOException {
+            String fullName = PREFIX + getName() + "_total";
+            writeHeader(writer, fullName, "counter");
+            writer.write(fullName + ' ' + get() + '\n');
+        }
+
+    }
+
+
+    /**
+     * Records how long something took in a log-linear histogram, like
+     * HdrHistogram does. Every power of two of nanoseconds is split into 8
+     * buckets so a percentile is never more than 12.5% out, and the whole
+     * histogram is a few hundred longs however many times are recorded.
+     */
+    public static class Timer extends Metric {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Anything longer than 2^40ns (about 18 minutes) goes in the last bucket
+        private static final int MAX_MAGNITUDE = 40;
+        private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private AtomicLong count = new AtomicLong();
+        private AtomicLong totalNanos = new AtomicLong();
+        private AtomicLong maxNanos = new AtomicLong();
+
+        Timer(String name, String help) {
+            super(name, help);
+        }
+
+        /**
+         * @return The time to pass to stop() when the timed work is done
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketFor(nanos));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return The time that the given fraction (0 to 1) of the recorded
+         * times were no longer than, or 0 if nothing's been recorded
+         */
+        public long getPercentileNanos(double fraction) {
+            long total = getCount();
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(upperBound(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+
+        static int bucketFor(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+            if (magnitude > MAX_MAGNITUDE) {
+                return BUCKETS - 1;
+            }
+            int subBucket = (int) (nanos >> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return The largest time that goes in the given bucket
+         */
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+        }
+
+        void writePrometheus(Writer writer) throws IOException {
+            String fullName = PREFIX + getName() + "_seconds";
+            writeHeader(writer, fullName, "summary");
+            for (int i = 0; i < QUANTILES.length; i++) {
+                writer.write(fullName + "{quantile=\"" + QUANTILES[i] + "\"} "
+                        + seconds(getPercentileNanos(QUANTILES[i])) + '\n');
+            }
+            writer.write(fullName + "_sum " + seconds(getTotalNanos()) + '\n');
+            writer.write(fullName + "_count " + getCount() + '\n');
+        }
+
+        private static String seconds(long nanos) {
+            return String.valueOf(nanos / 1e9);
+        }
+
+    }
+
+}
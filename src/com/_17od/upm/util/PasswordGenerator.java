@@ -0,0 +1,267 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+
+/**
+ * Generates random passwords containing at least one character from each
+ * required class (lower case, upper case, digits and optionally
+ * punctuation).
+ * 
+ * Rather than generating passwords until one happens to have every class,
+ * one character from each class is picked first, the rest are picked from
+ * the whole alphabet and the lot is shuffled. That takes the same time
+ * whatever the length and needs no retries.
+ * 
+ * All generators share one SecureRandom, which is seeded once, but each
+ * generator buffers random bytes from it so a generator mustn't be used by
+ * more than one thread at a time.
+ */
+public class PasswordGenerator {
+
+    public static final int LOWER_CASE = 1;
+    public static final int UPPER_CASE = 2;
+    public static final int DIGITS = 4;
+    public static final int PUNCTUATION = 8;
+
+    private static final char[][] CLASS_CHARS = {
+        "abcdefghijklmnopqrstuvwxyz".toCharArray(),
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray(),
+        "0123456789".toCharArray(),
+        "~!@#$%^&*(,)_-+=|/<>.?;:".toCharArray()
+    };
+
+    /** The class of each ASCII character, or 0 if it isn't in any */
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    static {
+        for (int i = 0; i < CLASS_CHARS.length; i++) {
+            for (int j = 0; j < CLASS_CHARS[i].length; j++) {
+                CHAR_CLASS[CLASS_CHARS[i][j]] = (byte) (1 << i);
+            }
+        }
+    }
+
+    private static final SecureRandom SHARED_RANDOM = new SecureRandom();
+
+    private static final int RANDOM_BUFFER_SIZE = 256;
+
+    private int length;
+    private int requiredClasses;
+    private char[] alphabet;
+    private char[][] required;
+
+    private Random random;
+    private byte[] randomBytes = new byte[RANDOM_BUFFER_SIZE];
+    private int randomPosition = RANDOM_BUFFER_SIZE;
+
+
+    /**
+     * @param length The length of the passwords
+     * @param includePunctuation Whether to use, and require, punctuation
+     */
+    public PasswordGenerator(int length, boolean includePunctuation) {
+        this(length, LOWER_CASE | UPPER_CASE | DIGITS | (includePunctuation ? PUNCTUATION : 0), SHARED_RANDOM);
+    }
+
+
+    /**
+     * @param classes The character classes to use, e.g. LOWER_CASE | DIGITS
+     * @param random Where the randomness comes from, normally a SecureRandom
+     */
+    public PasswordGenerator(int length, int classes, Random random) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative");
+        }
+        if ((classes & (LOWER_CASE | UPPER_CASE | DIGITS | PUNCTUATION)) == 0) {
+            throw new IllegalArgumentException("At least one character class is needed");
+        }
+        this.length = length;
+        this.random = random;
+
+        int alphabetSize = 0;
+        int classCount = 0;
+        for (int i = 0; i < CLASS_CHARS.length; i++) {
+            if ((classes & (1 << i)) != 0) {
+                alphabetSize += CLASS_CHARS[i].length;
+                classCount++;
+            }
+        }
+        alphabet = new char[alphabetSize];
+        required = new char[classCount][];
+        int position = 0;
+        classCount = 0;
+        for (int i = 0; i < CLASS_CHARS.length; i++) {
+            if ((classes & (1 << i)) != 0) {
+                System.arraycopy(CLASS_CHARS[i], 0, alphabet, position, CLASS_CHARS[i].length);
+                position += CLASS_CHARS[i].length;
+                required[classCount++] = CLASS_CHARS[i];
+            }
+        }
+
+        // A password too short to hold every class can't be made strong
+        this.requiredClasses = length >= required.length ? classes : 0;
+    }
+
+
+    /**
+     * @return A new password. The caller should wipe it when it's done with.
+     */
+    public char[] generate() {
+        char[] password = new char[length];
+        generate(password);
+        return password;
+    }
+
+
+    /**
+     * Generate count passwords at once
+     */
+    public char[][] generate(int count) {
+        char[][] passwords = new char[count][];
+        for (int i = 0; i < count; i++) {
+            passwords[i] = generate();
+        }
+        return passwords;
+    }
+
+
+    /**
+     * Fill password with random characters. Its length must be the length
+     * this generator was created with.
+     */
+    public void generate(char[] password) {
+        int position = 0;
+        if (requiredClasses != 0) {
+            for (int i = 0; i < required.length; i++) {
+                password[position++] = required[i][nextInt(required[i].length)];
+            }
+        }
+        while (position < password.length) {
+            password[position++] = alphabet[nextInt(alphabet.length)];
+        }
+
+        // Fisher-Yates so the required characters can be anywhere
+        if (requiredClasses != 0) {
+            for (int i = password.length - 1; i > 0; i--) {
+                int j = nextInt(i + 1);
+                char c = password[i];
+                password[i] = password[j];
+                password[j] = c;
+            }
+        }
+    }
+
+
+    /**
+     * @return The classes (LOWER_CASE, UPPER_CASE, ...) of the characters in
+     * the password
+     */
+    public static int classesOf(char[] password) {
+        int classes = 0;
+        for (int i = 0; i < password.length; i++) {
+            char c = password[i];
+            if (c < CHAR_CLASS.length) {
+                classes |= CHAR_CLASS[c];
+            }
+        }
+        return classes;
+    }
+
+
+    /**
+     * @return true if the password has at least one character of every
+     * given class
+     */
+    public static boolean hasClasses(char[] password, int classes) {
+        return (classesOf(password) & classes) == classes;
+    }
+
+
+    /**
+     * A rough strength: the bits of entropy a random password of the same
+     * length drawn from the same character classes would have. It says
+     * nothing about dictionary words or patterns.
+     */
+    public static int estimateBits(char[] password) {
+        int poolSize = poolSize(password);
+        if (poolSize < 2) {
+            return 0;
+        }
+        return (int) (password.length * Math.log(poolSize) / Math.log(2));
+    }
+
+
+    /**
+     * @return The number of characters in the classes the password draws
+     * from, counting anything outside them as another 32
+     */
+    public static int poolSize(char[] password) {
+        int poolSize = 0;
+        int classes = 0;
+        boolean other = false;
+        for (int i = 0; i < password.length; i++) {
+            char c = password[i];
+            if (c < CHAR_CLASS.length && CHAR_CLASS[c] != 0) {
+                classes |= CHAR_CLASS[c];
+            } else {
+                other = true;
+            }
+        }
+        for (int i = 0; i < CLASS_CHARS.length; i++) {
+            if ((classes & (1 << i)) != 0) {
+                poolSize += CLASS_CHARS[i].length;
+            }
+        }
+        if (other) {
+            // Spaces, other punctuation and anything beyond ASCII
+            poolSize += 32;
+        }
+        return poolSize;
+    }
+
+
+    /**
+     * An unbiased random number in [0, bound). Bounds up to 256 are served
+     * from buffered bytes, taking a fresh byte when one falls in the
+     * incomplete range at the top.
+     */
+    private int nextInt(int bound) {
+        if (bound > 256) {
+            return random.nextInt(bound);
+        }
+        int limit = 256 - 256 % bound;
+        while (true) {
+            if (randomPosition == RANDOM_BUFFER_SIZE) {
+                random.nextBytes(randomBytes);
+                randomPosition = 0;
+            }
+            int value = randomBytes[randomPosition++] & 0xFF;
+            if (value < limit) {
+                return value % bound;
+            }
+        }
+    }
+
+}
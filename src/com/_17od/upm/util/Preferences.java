@@ -56,6 +56,8 @@ public class Preferences {
         public static final String HTTP_PROXY_USERNAME="http.proxy.username";
         public static final String HTTP_PROXY_PASSWORD="http.proxy.password";
         public static final String HTTPS_ACCEPT_SELFSIGNED_CERTS="https.accept.selfsigned.certs";
+        public static final String HTTP_CHUNKED_TRANSFER="http.chunked.transfer";
+        public static final String REMOTE_DATABASE_COMPRESSION="remote.database.compression";
         
         public static final String XLOC = "window.location.x";
         public static final String YLOC = "window.location.y";
@@ -63,6 +65,11 @@ public class Preferences {
         public static final String WHEIGHT = "window.height";
 
         public static final String LOCALE="locale";
+
+        public static final String AUDIT_BREACHED_PASSWORDS_FILE="audit.breachedPasswordsFile";
+
+        public static final String HISTORY_MAX_VERSIONS="history.maxVersions";
+        public static final String HISTORY_MAX_AGE_DAYS="history.maxAgeDays";
     }
 
     public class DatabaseOptions {
@@ -153,6 +160,19 @@ public class Preferences {
     }
 
 
+    /**
+     * @return The directory the preferences file is kept in. Other per user
+     * files can be kept alongside it.
+     */
+    public static File getConfigDirectory() {
+        String file = propertiesFile;
+        if (file == null) {
+            file = PREF_FILE;
+        }
+        return new File(file).getAbsoluteFile().getParentFile();
+    }
+
+
     public static void save() throws IOException  {
         if (log.isDebugEnabled()) {
             log.debug("Saving properties to the file [" + PREF_FILE + "]");
@@ -75,6 +75,21 @@ public class Util {
         }
     }
 
+    /**
+     * Make the file readable and writable by its owner only (as far as the
+     * platform allows). A directory can also only be entered by its owner.
+     */
+    public static void restrictToOwner(File file) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+        if (file.isDirectory()) {
+            file.setExecutable(false, false);
+            file.setExecutable(true, true);
+        }
+    }
+
     public static Charset defaultCharset() {
         return Charset.forName(
                 new OutputStreamWriter(
@@ -0,0 +1,134 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+
+/**
+ * Times lookups in a generated breach list with and without the fan-out
+ * index. The list holds random hashes in the Pwned Passwords text format
+ * and half the lookups are for hashes that aren't in it. There's no JMH
+ * here so each mode gets a warm up run before the timed ones. Not a unit
+ * test, run it by hand:
+ * 
+ *   java com._17od.upm.audit.BreachedPasswordsBenchmark [hashes] [lookups] [iterations]
+ */
+public class BreachedPasswordsBenchmark {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Stops the JIT throwing the lookups away */
+    private static volatile long sink;
+
+
+    public static void main(String[] args) throws IOException {
+        int hashes = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Random random = new Random(1);
+        byte[][] listed = new byte[hashes][20];
+        for (int i = 0; i < hashes; i++) {
+            random.nextBytes(listed[i]);
+        }
+        File file = File.createTempFile("breached", ".txt");
+        file.deleteOnExit();
+        writeList(listed, file);
+
+        byte[][] queries = new byte[lookups][];
+        for (int i = 0; i < lookups; i++) {
+            if (i % 2 == 0) {
+                queries[i] = listed[random.nextInt(hashes)];
+            } else {
+                queries[i] = new byte[20];
+                random.nextBytes(queries[i]);
+            }
+        }
+
+        System.out.println(hashes + " hashes (" + (file.length() >> 20) + "MB), " + lookups
+                + " lookups, " + iterations + " iterations");
+        BreachedPasswords breached = new BreachedPasswords(file);
+        run("binary search", breached, queries, iterations);
+        long start = System.nanoTime();
+        breached.buildIndex();
+        System.out.println("index built in " + (System.nanoTime() - start) / 1000000 + "ms");
+        run("indexed", breached, queries, iterations);
+        file.delete();
+    }
+
+
+    private static void run(String mode, BreachedPasswords breached, byte[][] queries, int iterations) {
+        long[] times = new long[iterations];
+        long found = 0;
+        for (int i = -1; i < iterations; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < queries.length; j++) {
+                found += breached.getCount(queries[j]);
+            }
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        sink = found;
+        System.out.println(mode + ": " + times[iterations / 2] / queries.length + "ns per lookup");
+    }
+
+
+    private static void writeList(byte[][] hashes, File file) throws IOException {
+        byte[][] sorted = (byte[][]) hashes.clone();
+        Arrays.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                byte[] a = (byte[]) o1;
+                byte[] b = (byte[]) o2;
+                for (int i = 0; i < a.length; i++) {
+                    if (a[i] != b[i]) {
+                        return (a[i] & 0xff) - (b[i] & 0xff);
+                    }
+                }
+                return 0;
+            }
+        });
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            byte[] line = new byte[20 * 2];
+            for (int i = 0; i < sorted.length; i++) {
+                for (int j = 0; j < 20; j++) {
+                    line[j * 2] = (byte) HEX[(sorted[i][j] >> 4) & 0xf];
+                    line[j * 2 + 1] = (byte) HEX[sorted[i][j] & 0xf];
+                }
+                os.write(line);
+                os.write((":" + (i % 1000 + 1) + "\r\n").getBytes("US-ASCII"));
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+}
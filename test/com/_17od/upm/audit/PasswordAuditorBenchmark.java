@@ -0,0 +1,78 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.util.Arrays;
+
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.util.PasswordGenerator;
+
+
+/**
+ * Times a full audit of a large generated vault (one in ten passwords
+ * reused) with a cold cache and again with a warm one after 1% of the
+ * passwords have changed. There's no JMH here so there's a warm up run
+ * before the timed ones. Not a unit test, run it by hand:
+ * 
+ *   java com._17od.upm.audit.PasswordAuditorBenchmark [accounts] [iterations]
+ */
+public class PasswordAuditorBenchmark {
+
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        PasswordDatabase database = new PasswordDatabase();
+        PasswordGenerator generator = new PasswordGenerator(16, true);
+        for (int i = 0; i < accounts; i++) {
+            String password = i % 10 == 0 ? "password" + (i % 1000) : new String(generator.generate());
+            database.addAccount(new AccountInformation("Account " + i, "me", password, "", ""));
+        }
+
+        System.out.println(accounts + " accounts, " + Runtime.getRuntime().availableProcessors()
+                + " processors, " + iterations + " iterations");
+        long[] cold = new long[iterations];
+        long[] warm = new long[iterations];
+        for (int i = -1; i < iterations; i++) {
+            PasswordAuditor auditor = new PasswordAuditor();
+            long start = System.nanoTime();
+            auditor.audit(database);
+            long coldTime = (System.nanoTime() - start) / 1000000;
+
+            for (int j = 0; j < accounts; j += 100) {
+                database.getAccount("Account " + j).setPassword(new String(generator.generate()));
+            }
+            start = System.nanoTime();
+            auditor.audit(database);
+            long warmTime = (System.nanoTime() - start) / 1000000;
+            if (i >= 0) {
+                cold[i] = coldTime;
+                warm[i] = warmTime;
+            }
+        }
+        Arrays.sort(cold);
+        Arrays.sort(warm);
+        System.out.println("cold cache median ms: " + cold[iterations / 2]);
+        System.out.println("warm cache median ms: " + warm[iterations / 2]);
+    }
+
+}
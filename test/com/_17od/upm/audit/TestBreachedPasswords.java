@@ -0,0 +1,145 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com._17od.upm.database.AccountInformation;
+
+
+public class TestBreachedPasswords extends TestCase {
+
+    private File file;
+
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("breached", ".txt");
+        file.deleteOnExit();
+    }
+
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+
+    public void testGetCount() throws Exception {
+        writeList(new String[] {"password", "123456", "letmein", "qwerty", "dragon"}, true, "\r\n");
+        BreachedPasswords breached = new BreachedPasswords(file);
+        assertEquals(1001, breached.getCount(hash("password")));
+        assertEquals(1002, breached.getCount(hash("123456")));
+        assertEquals(1003, breached.getCount(hash("letmein")));
+        assertEquals(1004, breached.getCount(hash("qwerty")));
+        assertEquals(1005, breached.getCount(hash("dragon")));
+        assertEquals(0, breached.getCount(hash("x7#Kq2!vLz9@Rb4m")));
+        assertEquals(0, breached.getCount(hash("")));
+        assertEquals(1001, breached.getCount("password".toCharArray()));
+        assertEquals(0, breached.getCount("Password".toCharArray()));
+    }
+
+
+    public void testLowerCaseWithoutCounts() throws Exception {
+        writeList(new String[] {"password", "letmein"}, false, "\n");
+        BreachedPasswords breached = new BreachedPasswords(file);
+        assertEquals(1, breached.getCount(hash("password")));
+        assertEquals(1, breached.getCount(hash("letmein")));
+        assertEquals(0, breached.getCount(hash("qwerty")));
+    }
+
+
+    public void testEveryEntryOfALargeList() throws Exception {
+        String[] passwords = new String[5000];
+        for (int i = 0; i < passwords.length; i++) {
+            passwords[i] = "password" + i;
+        }
+        writeList(passwords, true, "\r\n");
+        BreachedPasswords breached = new BreachedPasswords(file);
+        BreachedPasswords indexed = new BreachedPasswords(file);
+        indexed.buildIndex();
+        assertTrue(indexed.isIndexed());
+        for (int i = 0; i < passwords.length; i++) {
+            assertTrue(passwords[i], breached.getCount(hash(passwords[i])) > 0);
+            assertEquals(breached.getCount(hash(passwords[i])), indexed.getCount(hash(passwords[i])));
+            assertEquals(0, breached.getCount(hash("other" + i)));
+            assertEquals(0, indexed.getCount(hash("other" + i)));
+        }
+    }
+
+
+    public void testCheckAll() throws Exception {
+        writeList(new String[] {"password", "letmein"}, true, "\r\n");
+        ArrayList accounts = new ArrayList();
+        accounts.add(new AccountInformation("Mail", "me", "password", "", ""));
+        accounts.add(new AccountInformation("bank", "me", "x7#Kq2!vLz9@Rb4m", "", ""));
+        accounts.add(new AccountInformation("Forum", "me", "letmein", "", ""));
+        accounts.add(new AccountInformation("Empty", "me", "", "", ""));
+        accounts.add(new AccountInformation("Admin", "me", "password", "", ""));
+
+        TreeMap breached = new BreachedPasswords(file).checkAll(accounts);
+        assertEquals(Arrays.asList(new String[] {"Admin", "Forum", "Mail"}), new ArrayList(breached.keySet()));
+        assertEquals(new Integer(1001), breached.get("Mail"));
+        assertEquals(new Integer(1002), breached.get("Forum"));
+    }
+
+
+    public void testEmptyFile() throws Exception {
+        BreachedPasswords breached = new BreachedPasswords(file);
+        assertEquals(0, breached.getCount(hash("password")));
+        breached.buildIndex();
+        assertEquals(0, breached.getCount(hash("password")));
+    }
+
+
+    private static byte[] hash(String password) throws IOException {
+        return BreachedPasswords.hash(password.getBytes("UTF-8"));
+    }
+
+
+    /**
+     * Write the list sorted by hash as the Pwned Passwords downloads are
+     */
+    private void writeList(String[] passwords, boolean counts, String newLine) throws IOException {
+        String[] lines = new String[passwords.length];
+        for (int i = 0; i < passwords.length; i++) {
+            String hex = new String(Hex.encodeHex(hash(passwords[i])));
+            lines[i] = (counts ? hex.toUpperCase() : hex) + (counts ? ":" + (1001 + i) : "");
+        }
+        Arrays.sort(lines, String.CASE_INSENSITIVE_ORDER);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < lines.length; i++) {
+                fos.write((lines[i] + newLine).getBytes("US-ASCII"));
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+}
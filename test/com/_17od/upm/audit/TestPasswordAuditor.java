@@ -0,0 +1,116 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.database.AccountHistory;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.util.PasswordGenerator;
+
+
+public class TestPasswordAuditor extends TestCase {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private PasswordDatabase database;
+
+
+    protected void setUp() throws Exception {
+        database = new PasswordDatabase();
+        database.addAccount(new AccountInformation("Bank", "me", "x7#Kq2!vLz9@Rb4m", "", ""));
+        database.addAccount(new AccountInformation("Mail", "me", "password", "", ""));
+        database.addAccount(new AccountInformation("Forum", "me", "password", "", ""));
+        database.addAccount(new AccountInformation("Shop", "me", "password", "", ""));
+        database.addAccount(new AccountInformation("Empty", "me", "", "", ""));
+        database.getChangeLog().reset(0);
+    }
+
+
+    public void testReport() {
+        long now = System.currentTimeMillis();
+        database.getHistory().record("Bank", AccountHistory.PASSWORD, LazySecret.fromString("old"), now - 400 * DAY);
+
+        AuditReport report = new PasswordAuditor(1).audit(database);
+        List findings = report.getFindings();
+        assertEquals(5, findings.size());
+        assertEquals("Bank", finding(report, 0).getAccountName());
+        assertEquals("Empty", finding(report, 1).getAccountName());
+
+        assertFalse(finding(report, 0).isWeak());
+        assertEquals(0, finding(report, 0).getReuseCount());
+        assertEquals(2, finding(report, 2).getReuseCount());
+        // Accounts without a password don't count as reusing one
+        assertEquals(0, finding(report, 1).getReuseCount());
+
+        assertEquals(4, report.getWeakCount());
+        assertEquals(3, report.getReusedCount());
+        assertEquals(1, report.getOlderThanCount(365, now));
+        assertFalse(report.isBreachesChecked());
+        assertEquals(0, report.getBreachedCount());
+    }
+
+
+    public void testCacheFollowsTheDatabase() {
+        PasswordAuditor auditor = new PasswordAuditor(1);
+        auditor.audit(database);
+        assertEquals(3, auditor.getCacheSize());
+
+        database.getAccount("Mail").setPassword("Zq8#Lm2!VxPe4$Nw");
+        database.getAccount("Forum").setPassword("Zq8#Lm2!VxPe4$Nw");
+        database.getAccount("Shop").setPassword("Zq8#Lm2!VxPe4$Nw");
+        AuditReport report = auditor.audit(database);
+        // "password" is no longer used so it's dropped from the cache
+        assertEquals(3, auditor.getCacheSize());
+        assertEquals(1, report.getWeakCount());
+        assertEquals(3, report.getReusedCount());
+    }
+
+
+    public void testLargeVaultInParallel() {
+        PasswordDatabase large = new PasswordDatabase();
+        PasswordGenerator generator = new PasswordGenerator(16, true);
+        for (int i = 0; i < 20000; i++) {
+            String password = i % 10 == 0 ? "shared" + (i % 100) : new String(generator.generate());
+            large.addAccount(new AccountInformation("Account " + i, "me", password, "", ""));
+        }
+
+        AuditReport parallel = new PasswordAuditor(4).audit(large);
+        AuditReport sequential = new PasswordAuditor(1).audit(large);
+        assertEquals(20000, parallel.getFindings().size());
+        assertEquals(2000, parallel.getReusedCount());
+        assertEquals(sequential.getWeakCount(), parallel.getWeakCount());
+        for (int i = 0; i < 20000; i += 97) {
+            assertEquals(finding(sequential, i).getAccountName(), finding(parallel, i).getAccountName());
+            assertEquals(finding(sequential, i).getStrength().getBits(), finding(parallel, i).getStrength().getBits());
+        }
+    }
+
+
+    private static AuditReport.Finding finding(AuditReport report, int i) {
+        return (AuditReport.Finding) report.getFindings().get(i);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.audit;
+
+import junit.framework.TestCase;
+
+
+public class TestPasswordStrength extends TestCase {
+
+    public void testCommonPasswords() {
+        assertCommon("password");
+        assertCommon("123456");
+        assertCommon("P@ssw0rd");
+        assertCommon("Dragon");
+        PasswordStrength strength = PasswordStrength.estimate("password".toCharArray());
+        assertEquals(PasswordStrength.VERY_WEAK, strength.getScore());
+        assertTrue(strength.getBits() < 5);
+    }
+
+
+    public void testPatterns() {
+        assertEquals("auditRepeat", PasswordStrength.estimate("aaaaaaaaaaaa".toCharArray()).getWarning());
+        assertEquals("auditSequence", PasswordStrength.estimate("abcdefghijkl".toCharArray()).getWarning());
+        assertEquals("auditSequence", PasswordStrength.estimate("98765432".toCharArray()).getWarning());
+        assertEquals("auditKeyboard", PasswordStrength.estimate("asdfghjkl".toCharArray()).getWarning());
+        assertEquals("auditYear", PasswordStrength.estimate("1987".toCharArray()).getWarning());
+        assertTrue(PasswordStrength.estimate("qwertyuiop".toCharArray()).getScore() <= PasswordStrength.WEAK);
+        assertTrue(PasswordStrength.estimate("aaaaaaaaaaaaaaaaaaaa".toCharArray()).getScore() <= PasswordStrength.WEAK);
+    }
+
+
+    public void testRandomPasswordsAreStrong() {
+        PasswordStrength strength = PasswordStrength.estimate("x7#Kq2!vLz9@Rb4m".toCharArray());
+        assertEquals(PasswordStrength.VERY_STRONG, strength.getScore());
+        assertNull(strength.getWarning());
+        assertTrue(PasswordStrength.estimate("Tr0ub4dor&3xQ".toCharArray()).getScore() >= PasswordStrength.FAIR);
+    }
+
+
+    public void testShortAndEmpty() {
+        assertEquals(PasswordStrength.VERY_WEAK, PasswordStrength.estimate(new char[0]).getScore());
+        assertEquals("auditEmpty", PasswordStrength.estimate(new char[0]).getWarning());
+        PasswordStrength strength = PasswordStrength.estimate("x7#Kq2!".toCharArray());
+        assertEquals(PasswordStrength.WEAK, strength.getScore());
+        assertEquals("auditShort", strength.getWarning());
+    }
+
+
+    public void testPatternsInsideLongerPasswords() {
+        int plain = PasswordStrength.estimate("Zq8#Lm2!Vx".toCharArray()).getBits();
+        int withWord = PasswordStrength.estimate("Zq8#Lm2!Vxpassword".toCharArray()).getBits();
+        // The common word adds far less than 8 random characters would
+        assertTrue(withWord - plain < 10);
+        assertEquals("auditCommonPassword", PasswordStrength.estimate("Zq8#Lm2!Vxpassword".toCharArray()).getWarning());
+    }
+
+
+    private void assertCommon(String password) {
+        assertEquals(password, "auditCommonPassword", PasswordStrength.estimate(password.toCharArray()).getWarning());
+    }
+
+}
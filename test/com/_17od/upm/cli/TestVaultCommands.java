@@ -0,0 +1,223 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.database.PasswordDatabasePersistence;
+import com._17od.upm.util.Preferences;
+
+
+public class TestVaultCommands extends TestCase {
+
+    private File dir;
+    private File databaseFile;
+
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("upmcli", "");
+        dir.delete();
+        dir.mkdir();
+        System.setProperty("upm.properties", new File(dir, "upm.properties").getPath());
+        Preferences.load();
+
+        PasswordDatabase db = new PasswordDatabase();
+        db.addAccount(new AccountInformation("Hotmail", "bob", "hotpass", "https://hotmail.com", "some\nnotes"));
+        db.addAccount(new AccountInformation("Gmail", "bob@gmail.com", "gpass", "https://mail.google.com", ""));
+        db.addAccount(new AccountInformation("Bank", "12345", "bankpass", "", ""));
+        databaseFile = new File(dir, "test.upm");
+        new PasswordDatabasePersistence("secret".toCharArray()).save(db, databaseFile);
+    }
+
+
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testSearchAndGet() throws Exception {
+        VaultCommands commands = VaultCommands.open(databaseFile, "secret".toCharArray());
+
+        assertEquals("[{\"name\":\"Gmail\",\"url\":\"https://mail.google.com\"},"
+                + "{\"name\":\"Hotmail\",\"url\":\"https://hotmail.com\"}]",
+                commands.execute(new String[] {"search", "MAIL"}));
+        assertEquals("{\"name\":\"Hotmail\",\"userid\":\"bob\",\"password\":\"hotpass\","
+                + "\"url\":\"https://hotmail.com\",\"notes\":\"some\\nnotes\"}",
+                commands.execute(new String[] {"get", "Hotmail"}));
+        assertEquals("{\"name\":\"Bank\",\"password\":\"bankpass\"}",
+                commands.execute(new String[] {"get", "Bank", "password"}));
+
+        try {
+            commands.execute(new String[] {"get", "Bank", "pin"});
+            fail("An unknown field should be rejected");
+        } catch (CommandLineException e) {
+            assertEquals(UPMCommandLine.EXIT_USAGE, e.getExitStatus());
+        }
+    }
+
+
+    public void testWrongPassword() {
+        try {
+            VaultCommands.open(databaseFile, "wrong".toCharArray());
+            fail("The database shouldn't open with the wrong password");
+        } catch (CommandLineException e) {
+            assertEquals(UPMCommandLine.EXIT_ERROR, e.getExitStatus());
+        }
+    }
+
+
+    public void testAddIsSaved() throws Exception {
+        VaultCommands commands = VaultCommands.open(databaseFile, "secret".toCharArray());
+        String result = commands.execute(new String[] {"add", "Work", "--userid", "me", "--generate", "20"});
+        assertTrue(result.startsWith("{\"added\":\"Work\",\"password\":\""));
+
+        PasswordDatabase saved = new PasswordDatabasePersistence().load(databaseFile, "secret".toCharArray());
+        assertEquals("me", saved.getAccount("Work").getUserId());
+        assertEquals(20, saved.getAccount("Work").getPassword().length());
+        assertTrue(result.indexOf(saved.getAccount("Work").getPassword()) != -1);
+
+        try {
+            commands.execute(new String[] {"add", "Work"});
+            fail("Adding an account that already exists should fail");
+        } catch (CommandLineException e) {
+            assertEquals(UPMCommandLine.EXIT_ERROR, e.getExitStatus());
+        }
+    }
+
+
+    public void testExportAndImport() throws Exception {
+        VaultCommands commands = VaultCommands.open(databaseFile, "secret".toCharArray());
+        File exportFile = new File(dir, "export.json");
+        assertEquals("{\"exported\":3,\"file\":\"" + exportFile.getPath().replace("\\", "\\\\") + "\"}",
+                commands.execute(new String[] {"export", exportFile.getPath()}));
+
+        try {
+            commands.execute(new String[] {"import", exportFile.getPath()});
+            fail("Importing accounts that already exist needs a conflict policy");
+        } catch (CommandLineException e) {
+            assertEquals(UPMCommandLine.EXIT_ERROR, e.getExitStatus());
+        }
+        assertEquals("{\"imported\":3,\"overwritten\":0,\"kept\":0,\"renamed\":3}",
+                commands.execute(new String[] {"import", exportFile.getPath(), "--on-conflict", "rename"}));
+        assertEquals("hotpass", new PasswordDatabasePersistence().load(databaseFile, "secret".toCharArray())
+                .getAccount("Hotmail (2)").getPassword());
+    }
+
+
+    public void testDaemon() throws Exception {
+        final VaultDaemon daemon = new VaultDaemon(
+                VaultCommands.open(databaseFile, "secret".toCharArray()), databaseFile.getCanonicalPath(), dir);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    daemon.serve(1, new PrintStream(new ByteArrayOutputStream()));
+                } catch (IOException e) {
+                    fail(e.toString());
+                }
+            }
+        };
+        thread.start();
+        File infoFile = new File(dir, "upm-cli-daemon.properties");
+        for (int i = 0; i < 100 && !infoFile.exists(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertNull(VaultDaemon.Client.connect(dir, "/some/other.upm"));
+        VaultDaemon.Client client = VaultDaemon.Client.connect(dir, null);
+        VaultDaemon.Reply reply = client.execute(new String[] {"get", "Bank", "userid"});
+        assertEquals(UPMCommandLine.EXIT_OK, reply.getStatus());
+        assertEquals("{\"name\":\"Bank\",\"userid\":\"12345\"}", reply.getText());
+        // Any number of requests can go over one connection
+        reply = client.lookup("Hotmail", VaultCommands.PASSWORD);
+        assertEquals(UPMCommandLine.EXIT_OK, reply.getStatus());
+        assertEquals("hotpass", reply.getText());
+        assertEquals(UPMCommandLine.EXIT_ERROR, client.lookup("Nope", VaultCommands.PASSWORD).getStatus());
+        client.close();
+
+        // Changes made behind the daemon's back are picked up
+        PasswordDatabasePersistence persistence = new PasswordDatabasePersistence();
+        PasswordDatabase db = persistence.load(databaseFile, "secret".toCharArray());
+        db.addAccount(new AccountInformation("Added", "u", "p", "", ""));
+        Thread.sleep(1000);
+        persistence.save(db, databaseFile);
+        client = VaultDaemon.Client.connect(dir, databaseFile.getCanonicalPath());
+        assertEquals("p", client.lookup("Added", VaultCommands.PASSWORD).getText());
+
+        assertEquals(UPMCommandLine.EXIT_OK, client.stop().getStatus());
+        client.close();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertFalse(infoFile.exists());
+        assertNull(VaultDaemon.Client.connect(dir, null));
+    }
+
+
+    public void testIdleConnectionDoesntKeepTheDaemonUnlocked() throws Exception {
+        final VaultDaemon daemon = new VaultDaemon(
+                VaultCommands.open(databaseFile, "secret".toCharArray()), databaseFile.getCanonicalPath(), dir);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    daemon.serve(500L, new PrintStream(new ByteArrayOutputStream()));
+                } catch (IOException e) {
+                    fail(e.toString());
+                }
+            }
+        };
+        thread.start();
+        File infoFile = new File(dir, "upm-cli-daemon.properties");
+        for (int i = 0; i < 100 && !infoFile.exists(); i++) {
+            Thread.sleep(50);
+        }
+
+        // Requests keep it unlocked
+        VaultDaemon.Client client = VaultDaemon.Client.connect(dir, null);
+        for (int i = 0; i < 8; i++) {
+            assertEquals("hotpass", client.lookup("Hotmail", VaultCommands.PASSWORD).getText());
+            Thread.sleep(150);
+        }
+        assertTrue(thread.isAlive());
+
+        // An open connection on its own doesn't
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertFalse(infoFile.exists());
+        try {
+            client.lookup("Hotmail", VaultCommands.PASSWORD);
+            fail("The idle connection should have been closed");
+        } catch (IOException e) {
+            // expected
+        }
+        client.close();
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.database.PasswordDatabasePersistence;
+import com._17od.upm.util.IOExecutor;
+
+
+/**
+ * Measures how many password lookups a second the upm-cli daemon answers
+ * for different numbers of concurrent clients. Each client keeps one
+ * connection open and looks up random accounts for the given time. The
+ * clients run on virtual threads where the JVM has them, like the daemon's
+ * connections. Not a unit test, run it by hand:
+ * 
+ *   java com._17od.upm.cli.VaultDaemonBenchmark [accounts] [seconds]
+ */
+public class VaultDaemonBenchmark {
+
+    private static final int[] CLIENTS = {1, 4, 16, 64};
+
+
+    public static void main(String[] args) throws Exception {
+        final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 3) * 1000L;
+
+        File dir = File.createTempFile("upmcli", "");
+        dir.delete();
+        dir.mkdir();
+        System.setProperty("upm.properties", new File(dir, "upm.properties").getPath());
+        File databaseFile = new File(dir, "benchmark.upm");
+        PasswordDatabase db = new PasswordDatabase();
+        for (int i = 0; i < accounts; i++) {
+            db.addAccount(new AccountInformation("Account " + i, "user" + i, "password" + i, "", ""));
+        }
+        new PasswordDatabasePersistence("secret".toCharArray()).save(db, databaseFile);
+
+        final VaultDaemon daemon = new VaultDaemon(VaultCommands.open(databaseFile, "secret".toCharArray()),
+                databaseFile.getCanonicalPath(), dir);
+        final ByteArrayOutputStream started = new ByteArrayOutputStream();
+        Thread server = new Thread() {
+            public void run() {
+                try {
+                    daemon.serve(5, new PrintStream(started));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        server.start();
+        while (started.size() == 0) {
+            Thread.sleep(10);
+        }
+        final File configDirectory = dir;
+        ExecutorService clients = IOExecutor.newThreadPerTaskExecutor("benchmark client", 64);
+        System.out.println(accounts + " accounts, " + Runtime.getRuntime().availableProcessors()
+                + " processors, " + clients.getClass().getSimpleName() + ", " + started.toString().trim());
+
+        for (int run = -1; run < CLIENTS.length; run++) {
+            // The first run warms up with a single client
+            int clientCount = CLIENTS[Math.max(run, 0)];
+            Future[] results = new Future[clientCount];
+            final long end = System.currentTimeMillis() + (run < 0 ? 1000 : millis);
+            for (int i = 0; i < clientCount; i++) {
+                final int seed = i;
+                results[i] = clients.submit(new Callable() {
+                    public Object call() throws Exception {
+                        VaultDaemon.Client client = VaultDaemon.Client.connect(configDirectory, null);
+                        long lookups = 0;
+                        try {
+                            int account = seed;
+                            while (System.currentTimeMillis() < end) {
+                                account = (account * 31 + 17) % accounts;
+                                VaultDaemon.Reply reply = client.lookup("Account " + account, VaultCommands.PASSWORD);
+                                if (!reply.getText().equals("password" + account)) {
+                                    throw new IllegalStateException(reply.getText());
+                                }
+                                lookups++;
+                            }
+                        } finally {
+                            client.close();
+                        }
+                        return new Long(lookups);
+                    }
+                });
+            }
+            long total = 0;
+            for (int i = 0; i < clientCount; i++) {
+                total += ((Long) results[i].get()).longValue();
+            }
+            if (run >= 0) {
+                System.out.println(clientCount + " clients: " + (total * 1000 / millis) + " lookups/s");
+            }
+        }
+
+        clients.shutdown();
+        VaultDaemon.Client client = VaultDaemon.Client.connect(dir, null);
+        client.stop();
+        client.close();
+        server.join();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+}
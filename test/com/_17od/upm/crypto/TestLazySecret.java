@@ -0,0 +1,102 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+public class TestLazySecret extends TestCase {
+
+    public void testRoundTrip() {
+        LazySecret secret = LazySecret.fromString("my s\u00e9cret \u4f60\u597d");
+        assertEquals("my s\u00e9cret \u4f60\u597d", secret.toString());
+        assertTrue(Arrays.equals("my s\u00e9cret \u4f60\u597d".toCharArray(), secret.toChars()));
+    }
+
+
+    public void testFromCharsLeavesInputAlone() {
+        char[] chars = "password".toCharArray();
+        LazySecret secret = LazySecret.fromChars(chars);
+        assertTrue(Arrays.equals("password".toCharArray(), chars));
+        assertEquals("password", secret.toString());
+    }
+
+
+    public void testFromUTF8WipesInput() throws Exception {
+        byte[] bytes = "password".getBytes("UTF-8");
+        LazySecret secret = LazySecret.fromUTF8(bytes);
+        assertTrue(Arrays.equals(new byte[bytes.length], bytes));
+        assertTrue(Arrays.equals("password".getBytes("UTF-8"), secret.toUTF8()));
+    }
+
+
+    public void testEmpty() {
+        assertTrue(LazySecret.fromString("").isEmpty());
+        assertTrue(LazySecret.fromString(null).isEmpty());
+        assertEquals("", LazySecret.EMPTY.toString());
+        assertFalse(LazySecret.fromString("x").isEmpty());
+    }
+
+
+    public void testEquality() {
+        LazySecret a = LazySecret.fromString("password");
+        LazySecret b = LazySecret.fromChars("password".toCharArray());
+        LazySecret c = LazySecret.fromString("Password");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+    }
+
+
+    public void testTamperedCipherTextIsRejected() {
+        byte[] cipherText = SessionCipher.getInstance().encrypt("password".getBytes());
+        cipherText[cipherText.length - 1] ^= 1;
+        try {
+            SessionCipher.getInstance().decrypt(cipherText);
+            fail("Should have got an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // ok to get here
+        }
+    }
+
+
+    public void testKeyStreamAtPosition() {
+        SessionCipher cipher = SessionCipher.getInstance();
+        long nonce = cipher.newNonce();
+        byte[] plainText = "a value long enough to span a few AES blocks".getBytes();
+
+        byte[] whole = (byte[]) plainText.clone();
+        cipher.applyKeyStream(nonce, 5, whole, 0, whole.length);
+        assertFalse(Arrays.equals(plainText, whole));
+
+        // Encrypting in pieces at the matching positions gives the same result
+        byte[] pieces = (byte[]) plainText.clone();
+        cipher.applyKeyStream(nonce, 5, pieces, 0, 13);
+        cipher.applyKeyStream(nonce, 18, pieces, 13, pieces.length - 13);
+        assertTrue(Arrays.equals(whole, pieces));
+
+        cipher.applyKeyStream(nonce, 5, whole, 0, whole.length);
+        assertTrue(Arrays.equals(plainText, whole));
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.crypto;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+public class TestSessionCipher extends TestCase {
+
+    public void testEncryptAndDecrypt() throws Exception {
+        byte[] plainText = "a secret".getBytes("UTF-8");
+        byte[] cipherText = SessionCipher.getInstance().encrypt(plainText);
+        assertEquals(plainText.length + SessionCipher.IV_LENGTH, cipherText.length);
+        assertTrue(Arrays.equals(cipherText, SessionCipher.getInstance().encrypt(plainText)));
+        assertTrue(Arrays.equals(plainText, SessionCipher.getInstance().decrypt(cipherText)));
+    }
+
+
+    public void testThreadsShareTheKeys() throws Exception {
+        final byte[] plainText = "a secret".getBytes("UTF-8");
+        final byte[] cipherText = SessionCipher.getInstance().encrypt(plainText);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            byte[] encrypted = SessionCipher.getInstance().encrypt(plainText);
+                            if (!Arrays.equals(cipherText, encrypted)
+                                    || !Arrays.equals(plainText, SessionCipher.getInstance().decrypt(encrypted))) {
+                                throw new AssertionError("Different result on another thread");
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNull(failure[0]);
+    }
+
+
+    public void testApplyKeyStreamTwiceGivesBackTheOriginal() throws Exception {
+        SessionCipher cipher = SessionCipher.getInstance();
+        long nonce = cipher.newNonce();
+        byte[] buffer = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes("US-ASCII");
+        byte[] original = (byte[]) buffer.clone();
+        cipher.applyKeyStream(nonce, 5, buffer, 3, 20);
+        assertFalse(Arrays.equals(original, buffer));
+        cipher.applyKeyStream(nonce, 5, buffer, 3, 20);
+        assertTrue(Arrays.equals(original, buffer));
+    }
+
+
+    public void testApplyKeyStreamDoesntReuseEncryptsKeyStream() throws Exception {
+        SessionCipher cipher = SessionCipher.getInstance();
+
+        // Encrypting zeros gives the key stream for the IV. Find an IV whose
+        // second half is small enough to be a block number.
+        byte[] encrypted;
+        int extra = 0;
+        do {
+            encrypted = cipher.encrypt(new byte[SessionCipher.IV_LENGTH + extra++]);
+        } while ((encrypted[8] & 0xf8) != 0);
+
+        // A nonce and block number that make up the same counter as the IV
+        long nonce = 0;
+        long block = 0;
+        for (int i = 0; i < 8; i++) {
+            nonce = (nonce << 8) | (encrypted[i] & 0xff);
+            block = (block << 8) | (encrypted[8 + i] & 0xff);
+        }
+        byte[] keyStream = new byte[SessionCipher.IV_LENGTH];
+        cipher.applyKeyStream(nonce, block * SessionCipher.IV_LENGTH, keyStream, 0, keyStream.length);
+
+        byte[] encryptKeyStream = new byte[SessionCipher.IV_LENGTH];
+        System.arraycopy(encrypted, SessionCipher.IV_LENGTH, encryptKeyStream, 0, encryptKeyStream.length);
+        assertFalse(Arrays.equals(encryptKeyStream, keyStream));
+    }
+
+}
@@ -24,9 +24,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Locale;
 
 import junit.framework.TestCase;
 
+import com._17od.upm.util.Translator;
 import com.csvreader.CsvReader;
 
 public class AccountsCSVMarshallerTest extends TestCase {
@@ -178,6 +180,68 @@ public class AccountsCSVMarshallerTest extends TestCase {
         assertEquals(account, (AccountInformation) importedAccounts.get(0));
     }
 
+    public void testEncryptedRoundTrip() throws IOException, ExportException, ImportException {
+        ArrayList accounts = new ArrayList();
+        accounts.add(new AccountInformation("Test Account1", "testuser1",
+                "test password1", "http://www.test.com1", "this is a \ntest note1"));
+
+        File csvFile = File.createTempFile("testEncryptedRoundTrip", ".csv");
+        csvFile.delete();
+        AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+        marshaller.marshal(accounts.iterator(), csvFile, "secret".toCharArray());
+        assertTrue(marshaller.isEncrypted(csvFile));
+
+        ArrayList importedAccounts = new ArrayList();
+        marshaller.unmarshal(csvFile, "secret".toCharArray(), collectInto(importedAccounts));
+        assertEquals(1, importedAccounts.size());
+        assertEquals((AccountInformation) accounts.get(0), (AccountInformation) importedAccounts.get(0));
+
+        Translator.loadBundle(Locale.ENGLISH);
+        try {
+            marshaller.unmarshal(csvFile, "wrong".toCharArray(), collectInto(new ArrayList()));
+            fail("Should have got an ImportException");
+        } catch (ImportException e) {
+            // ok to get here
+        }
+        csvFile.delete();
+    }
+
+    public void testLargeRoundTrip() throws IOException, ExportException, ImportException {
+        int count = 100000;
+        ArrayList accounts = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(new AccountInformation("account " + i, "user" + i,
+                    "password, \"" + i + "\"", "http://example.com/" + i, i % 10 == 0 ? "line 1\nline 2" : ""));
+        }
+
+        File csvFile = File.createTempFile("testLargeRoundTrip", ".csv");
+        csvFile.delete();
+        AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+        long start = System.currentTimeMillis();
+        marshaller.marshal(accounts.iterator(), csvFile, null);
+        long exported = System.currentTimeMillis();
+
+        final ArrayList importedAccounts = new ArrayList(count);
+        marshaller.unmarshal(csvFile, collectInto(importedAccounts));
+        long imported = System.currentTimeMillis();
+        System.out.println("Exported " + count + " accounts in " + (exported - start)
+                + "ms, imported them in " + (imported - exported) + "ms");
+
+        assertEquals(count, importedAccounts.size());
+        for (int i = 0; i < count; i += 997) {
+            assertEquals((AccountInformation) accounts.get(i), (AccountInformation) importedAccounts.get(i));
+        }
+        csvFile.delete();
+    }
+
+    private AccountHandler collectInto(final ArrayList accounts) {
+        return new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        };
+    }
+
     private void assertEquals(AccountInformation expected, AccountInformation actual) {
         assertEquals(expected.getAccountName(), actual.getAccountName());
         assertEquals(new String(expected.getUserId()), new String(actual.getUserId()));
@@ -0,0 +1,110 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import com._17od.upm.util.Util;
+import com.csvreader.CsvWriter;
+
+
+/**
+ * Compares the single threaded CsvReader import with the parallel one on a
+ * generated CSV file. There's no JMH here so each mode gets a few warm up
+ * runs before the timed ones. Not a unit test, run it by hand:
+ * 
+ *   java com._17od.upm.database.CSVParsingBenchmark [accounts] [iterations]
+ */
+public class CSVParsingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File csvFile = File.createTempFile("CSVParsingBenchmark", ".csv");
+        try {
+            writeAccounts(csvFile, numAccounts);
+            System.out.println(numAccounts + " accounts, " + csvFile.length() / 1024 + "KB, "
+                    + Runtime.getRuntime().availableProcessors() + " processors, "
+                    + iterations + " iterations");
+            System.out.println("mode          median ms   accounts/s");
+            run("sequential", csvFile, false, numAccounts, iterations);
+            run("parallel", csvFile, true, numAccounts, iterations);
+        } finally {
+            csvFile.delete();
+        }
+    }
+
+
+    private static void run(String mode, File csvFile, boolean parallel, int numAccounts, int iterations) throws Exception {
+        AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+        final int[] count = new int[1];
+        AccountHandler handler = new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                count[0]++;
+            }
+        };
+
+        long[] times = new long[iterations];
+        for (int i = -2; i < iterations; i++) {
+            count[0] = 0;
+            long start = System.nanoTime();
+            if (parallel) {
+                marshaller.unmarshalParallel(csvFile, Util.defaultCharset(), new ParallelCSVParser(), handler);
+            } else {
+                marshaller.unmarshal(csvFile, handler);
+            }
+            if (count[0] != numAccounts) {
+                throw new IllegalStateException("Read " + count[0] + " accounts, expected " + numAccounts);
+            }
+            if (i >= 0) {
+                times[i] = (System.nanoTime() - start) / 1000000;
+            }
+        }
+
+        Arrays.sort(times);
+        long median = times[iterations / 2];
+        System.out.println(pad(mode, 14) + pad(String.valueOf(median), 12) + numAccounts * 1000L / Math.max(median, 1));
+    }
+
+
+    private static void writeAccounts(File csvFile, int numAccounts) throws Exception {
+        CsvWriter writer = new CsvWriter(new FileWriter(csvFile), ',');
+        for (int i = 0; i < numAccounts; i++) {
+            writer.writeRecord(new String[] {"account " + i, "user" + (i % 500) + "@example.com",
+                    "p@ss, \"word\" " + i, "https://site" + (i % 2000) + ".example.com/login",
+                    i % 5 == 0 ? "some notes\nover two lines" : ""});
+        }
+        writer.close();
+    }
+
+
+    private static String pad(String s, int width) {
+        StringBuffer padded = new StringBuffer(s);
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+}
@@ -81,6 +81,57 @@ public class PasswordDatabasePersistenceTest extends TestCase {
         assertEquals("some notes100", new String(account.getNotes()));
     }
 
+    public void testSaveAndLoadFile() throws CryptoException, IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        PasswordDatabase db = new PasswordDatabase();
+        db.getRevision().setRevision(7);
+        db.getDbOptions().setRemoteLocation("http://localhost/upm/");
+        db.addAccount(new AccountInformation("test account", "auserid", "apassword", "http://www.a.com", "some notes"));
+
+        File f = File.createTempFile("upm", "upm");
+        PasswordDatabasePersistence pers = new PasswordDatabasePersistence(password.toCharArray());
+        pers.save(db, f);
+
+        db = new PasswordDatabasePersistence().load(f, password.toCharArray());
+        assertEquals(7, db.getRevision().getRevision());
+        assertEquals("http://localhost/upm/", db.getDbOptions().getRemoteLocation());
+        AccountInformation account = db.getAccount("test account");
+        assertEquals("apassword", account.getPassword());
+        assertEquals("some notes", account.getNotes());
+
+        try {
+            new PasswordDatabasePersistence().load(f, "wrong".toCharArray());
+            fail("Expected an InvalidPasswordException");
+        } catch (InvalidPasswordException e) {
+            // expected to get here
+        }
+        f.delete();
+    }
+
+    public void testSaveAndLoadCompressedFile() throws CryptoException, IOException, ProblemReadingDatabaseFile, InvalidPasswordException {
+        PasswordDatabase db = new PasswordDatabase();
+        db.getRevision().setRevision(3);
+        for (int i = 0; i < 200; i++) {
+            db.addAccount(new AccountInformation("account " + i, "user" + i, "password" + i, "http://www.example.com/" + i, "notes " + i));
+        }
+
+        PasswordDatabasePersistence pers = new PasswordDatabasePersistence(password.toCharArray());
+        File uncompressedFile = File.createTempFile("upm", "upm");
+        pers.save(db, uncompressedFile);
+        pers.setCompression(DatabaseHeader.COMPRESSION_DEFLATE);
+        File compressedFile = File.createTempFile("upm", "upm");
+        pers.save(db, compressedFile);
+        assertTrue(compressedFile.length() < uncompressedFile.length() / 2);
+
+        db = new PasswordDatabasePersistence().load(compressedFile, password.toCharArray());
+        assertEquals(3, db.getRevision().getRevision());
+        assertEquals(200, db.getAccounts().size());
+        assertEquals("password199", db.getAccount("account 199").getPassword());
+        assertEquals("notes 7", db.getAccount("account 7").getNotes());
+
+        uncompressedFile.delete();
+        compressedFile.delete();
+    }
+
     private File createVer100Db() throws IOException, CryptoException {
         byte[] b = createVer100DbBytes();
         return saveToFile(b);
@@ -0,0 +1,257 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.crypto.LazySecret;
+
+
+public class TestAccountHistory extends TestCase {
+
+    public void testRecordChanges() {
+        AccountHistory history = new AccountHistory();
+        AccountInformation before = new AccountInformation("Mail", "me", "old", "http://mail", "notes");
+        AccountInformation after = new AccountInformation(before);
+        after.setPassword("new");
+        after.setUrl("https://mail");
+        history.recordChanges(before, after, 1000);
+
+        ArrayList entries = history.getEntries("Mail");
+        assertEquals(2, entries.size());
+        AccountHistory.Entry password = (AccountHistory.Entry) entries.get(0);
+        assertEquals(AccountHistory.PASSWORD, password.getField());
+        assertEquals("old", password.getOldValue().toString());
+        assertEquals(1000, password.getTime());
+        assertEquals("http://mail", ((AccountHistory.Entry) entries.get(1)).getOldValue().toString());
+
+        AccountInformation renamed = new AccountInformation(after);
+        renamed.setAccountName("Email");
+        history.recordChanges(after, renamed, 2000);
+        assertEquals(0, history.getEntries("Mail").size());
+        assertEquals(2, history.getEntries("Email").size());
+        assertEquals(1000, history.getLastChanged("Email", AccountHistory.PASSWORD));
+        assertEquals(0, history.getLastChanged("Email", AccountHistory.NOTES));
+    }
+
+
+    public void testFlatPack() throws Exception {
+        AccountHistory history = new AccountHistory();
+        history.record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("p\u00e4ss"), 1000);
+        history.record("Mail", AccountHistory.PASSWORD, LazySecret.fromString(""), 2000);
+        history.record("Bank", AccountHistory.NOTES, LazySecret.fromString("pin 1234"), 3000);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        history.flatPack(os);
+        AccountHistory read = new AccountHistory(new ByteArrayInputStream(os.toByteArray()));
+
+        ArrayList mail = read.getEntries("Mail");
+        assertEquals(2, mail.size());
+        assertEquals("p\u00e4ss", ((AccountHistory.Entry) mail.get(0)).getOldValue().toString());
+        assertEquals("", ((AccountHistory.Entry) mail.get(1)).getOldValue().toString());
+        assertEquals(2000, read.getLastChanged("Mail", AccountHistory.PASSWORD));
+        assertEquals("pin 1234", ((AccountHistory.Entry) read.getEntries("Bank").get(0)).getOldValue().toString());
+    }
+
+
+    public void testSavedNextToDatabase() throws Exception {
+        File file = File.createTempFile("TestAccountHistory", ".upm");
+        File historyFile = new File(file.getPath() + PasswordDatabasePersistence.HISTORY_SUFFIX);
+        try {
+            PasswordDatabase database = new PasswordDatabase();
+            database.addAccount(new AccountInformation("Mail", "me", "new", "", ""));
+            database.getHistory().record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("old"), 1000);
+            new PasswordDatabasePersistence("master".toCharArray()).save(database, file);
+            assertTrue(historyFile.exists());
+
+            PasswordDatabasePersistence persistence = new PasswordDatabasePersistence();
+            PasswordDatabase loaded = persistence.load(file, "master".toCharArray());
+            assertEquals("old", ((AccountHistory.Entry) loaded.getHistory().getEntries("Mail").get(0))
+                    .getOldValue().toString());
+
+            // No history, no file
+            loaded.setHistory(new AccountHistory());
+            persistence.save(loaded, file);
+            assertFalse(historyFile.exists());
+        } finally {
+            file.delete();
+            historyFile.delete();
+        }
+    }
+
+
+
+    public void testNotesStoredAsDeltas() throws Exception {
+        StringBuffer notes = new StringBuffer();
+        for (int i = 0; i < 100; i++) {
+            notes.append("line ").append(i).append('\n');
+        }
+        AccountInformation v1 = new AccountInformation("Mail", "me", "one", "", notes.toString());
+        AccountInformation v2 = new AccountInformation(v1);
+        v2.setNotes(notes.toString().replaceFirst("line 50", "line fifty"));
+        v2.setPassword("two");
+        AccountInformation v3 = new AccountInformation(v2);
+        v3.setNotes(v2.getNotes() + "one more line\n");
+
+        AccountHistory history = new AccountHistory();
+        history.recordChanges(v1, v2, 1000);
+        history.recordChanges(v2, v3, 2000);
+        ArrayList entries = history.getEntries("Mail");
+        assertEquals(3, entries.size());
+        assertFalse(((AccountHistory.Entry) entries.get(0)).isDelta());
+        assertTrue(((AccountHistory.Entry) entries.get(1)).isDelta());
+        assertTrue(((AccountHistory.Entry) entries.get(2)).isDelta());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        history.flatPack(os);
+        // Far smaller than the two old copies of the notes
+        assertTrue(os.size() < notes.length());
+
+        ArrayList versions = new AccountHistory(new ByteArrayInputStream(os.toByteArray())).getVersions(v3);
+        assertEquals(2, versions.size());
+        AccountHistory.Version newest = (AccountHistory.Version) versions.get(0);
+        assertEquals(2000, newest.getTime());
+        assertEquals(v2.getNotes(), newest.getAccount().getNotes());
+        AccountHistory.Version oldest = (AccountHistory.Version) versions.get(1);
+        assertEquals(2, oldest.getChangedFields().length);
+        assertEquals(v1.getNotes(), oldest.getAccount().getNotes());
+        assertEquals("one", oldest.getAccount().getPassword());
+    }
+
+
+    public void testVersionsStopAtUnrecordedChanges() {
+        StringBuffer notes = new StringBuffer();
+        for (int i = 0; i < 100; i++) {
+            notes.append("line ").append(i).append('\n');
+        }
+        AccountInformation v1 = new AccountInformation("Mail", "me", "one", "", notes.toString());
+        AccountInformation v2 = new AccountInformation(v1);
+        v2.setNotes(notes + "more\n");
+        AccountHistory history = new AccountHistory();
+        history.recordChanges(v1, v2, 1000);
+
+        // e.g. a sync replaced the notes without recording it
+        AccountInformation synced = new AccountInformation(v2);
+        synced.setNotes(notes + "something else\n");
+        assertEquals(1, history.getVersions(v2).size());
+        assertEquals(0, history.getVersions(synced).size());
+    }
+
+
+    public void testPrune() {
+        AccountHistory history = new AccountHistory();
+        for (int i = 1; i <= 5; i++) {
+            history.record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("p" + i), i * 1000);
+            history.record("Mail", AccountHistory.USER_ID, LazySecret.fromString("u" + i), i * 1000);
+        }
+        history.record("Deleted", AccountHistory.PASSWORD, LazySecret.fromString("x"), 1000);
+
+        HashSet names = new HashSet();
+        names.add("Mail");
+        assertEquals(5, history.prune(3, 0, 5000, names));
+        assertEquals(0, history.getEntries("Deleted").size());
+        ArrayList entries = history.getEntries("Mail");
+        assertEquals(6, entries.size());
+        assertEquals(3000, ((AccountHistory.Entry) entries.get(0)).getTime());
+
+        assertEquals(2, history.prune(0, 1500, 5000, null));
+        assertEquals(4, history.getEntries("Mail").size());
+        assertEquals(4, history.prune(0, 1, 10000, null));
+        assertTrue(history.isEmpty());
+    }
+
+
+    public void testLoadedLazily() throws Exception {
+        File file = File.createTempFile("TestAccountHistory", ".upm");
+        File historyFile = new File(file.getPath() + PasswordDatabasePersistence.HISTORY_SUFFIX);
+        try {
+            PasswordDatabase database = new PasswordDatabase();
+            database.addAccount(new AccountInformation("Mail", "me", "new", "", ""));
+            database.getHistory().record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("old"), 1000);
+            new PasswordDatabasePersistence("master".toCharArray()).save(database, file);
+            long written = historyFile.lastModified();
+
+            PasswordDatabasePersistence persistence = new PasswordDatabasePersistence();
+            PasswordDatabase loaded = persistence.load(file, "master".toCharArray());
+            assertNotNull(loaded.getHistoryLoader());
+
+            // Saving without looking at the history leaves it alone
+            historyFile.setLastModified(written - 10000);
+            persistence.save(loaded, file);
+            assertEquals(written - 10000, historyFile.lastModified());
+            assertNotNull(loaded.getHistoryLoader());
+
+            assertEquals(1, loaded.getHistory().getEntries("Mail").size());
+            assertNull(loaded.getHistoryLoader());
+
+            // Retention is applied when it's written
+            loaded.getHistory().record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("older"), 2000);
+            persistence.setHistoryRetention(1, 0);
+            persistence.save(loaded, file);
+            ArrayList entries = persistence.load(file, "master".toCharArray()).getHistory().getEntries("Mail");
+            assertEquals(1, entries.size());
+            assertEquals("older", ((AccountHistory.Entry) entries.get(0)).getOldValue().toString());
+        } finally {
+            file.delete();
+            historyFile.delete();
+        }
+    }
+
+
+    public void testRenameDoesntLoadTheHistory() throws Exception {
+        File file = File.createTempFile("TestAccountHistory", ".upm");
+        File historyFile = new File(file.getPath() + PasswordDatabasePersistence.HISTORY_SUFFIX);
+        try {
+            PasswordDatabase database = new PasswordDatabase();
+            database.addAccount(new AccountInformation("Mail", "me", "new", "", ""));
+            database.getHistory().record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("old"), 1000);
+            new PasswordDatabasePersistence("master".toCharArray()).save(database, file);
+
+            PasswordDatabasePersistence persistence = new PasswordDatabasePersistence();
+            PasswordDatabase loaded = persistence.load(file, "master".toCharArray());
+            loaded.renameAccount("Mail", "Webmail");
+            loaded.renameAccount("Webmail", "Email");
+            assertNotNull(loaded.getHistoryLoader());
+            assertTrue(loaded.hasPendingRenames());
+
+            // The renames follow the history when it's loaded
+            assertEquals(1, loaded.getHistory().getEntries("Email").size());
+            assertTrue(loaded.getHistory().getEntries("Mail").isEmpty());
+            assertFalse(loaded.hasPendingRenames());
+
+            // and when it's saved without being looked at
+            loaded = persistence.load(file, "master".toCharArray());
+            loaded.renameAccount("Mail", "Email");
+            persistence.save(loaded, file);
+            assertEquals(1, persistence.load(file, "master".toCharArray()).getHistory().getEntries("Email").size());
+        } finally {
+            file.delete();
+            historyFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Translator;
+import com.csvreader.CsvWriter;
+
+
+public class TestAccountImportPipeline extends TestCase {
+
+    private File csvFile;
+
+
+    protected void setUp() throws Exception {
+        csvFile = File.createTempFile("TestAccountImportPipeline", ".csv");
+    }
+
+
+    protected void tearDown() throws Exception {
+        csvFile.delete();
+    }
+
+
+    public void testScanCountsConflicts() throws Exception {
+        writeAccounts(10);
+        PasswordDatabase database = databaseWith(new String[] {"account 3", "account 7", "other"});
+
+        AccountImportPipeline.Summary summary = new AccountImportPipeline(database).scan(csvFile);
+        assertEquals(10, summary.getAccounts());
+        assertEquals(2, summary.getConflicts());
+        assertEquals("account 3", summary.getConflictNames().get(0));
+        assertEquals("account 7", summary.getConflictNames().get(1));
+        // Scanning doesn't change anything
+        assertEquals(3, database.getAccountsHash().size());
+    }
+
+
+    public void testOverwrite() throws Exception {
+        writeAccounts(10);
+        PasswordDatabase database = databaseWith(new String[] {"account 3"});
+
+        AccountImportPipeline.Result result = new AccountImportPipeline(database)
+                .importAccounts(csvFile, AccountImportPipeline.OVERWRITE);
+        assertEquals(10, result.getImported());
+        assertEquals(1, result.getOverwritten());
+        assertEquals(10, database.getAccountsHash().size());
+        assertEquals("password 3", database.getAccount("account 3").getPassword());
+    }
+
+
+    public void testKeep() throws Exception {
+        writeAccounts(10);
+        PasswordDatabase database = databaseWith(new String[] {"account 3"});
+
+        AccountImportPipeline.Result result = new AccountImportPipeline(database)
+                .importAccounts(csvFile, AccountImportPipeline.KEEP);
+        assertEquals(9, result.getImported());
+        assertEquals(1, result.getKept());
+        assertEquals("existing", database.getAccount("account 3").getPassword());
+    }
+
+
+    public void testRename() throws Exception {
+        writeAccounts(10);
+        PasswordDatabase database = databaseWith(new String[] {"account 3", "account 3 (2)"});
+
+        AccountImportPipeline.Result result = new AccountImportPipeline(database)
+                .importAccounts(csvFile, AccountImportPipeline.RENAME);
+        assertEquals(10, result.getImported());
+        assertEquals(1, result.getRenamed());
+        assertEquals("existing", database.getAccount("account 3").getPassword());
+        assertEquals("password 3", database.getAccount("account 3 (3)").getPassword());
+        assertEquals(12, database.getAccountsHash().size());
+    }
+
+
+    public void testBadFileIsCaughtByScan() throws Exception {
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write("a,b,c,d,e\nnot,enough,columns\n");
+        writer.close();
+        Translator.loadBundle(Locale.ENGLISH);
+        PasswordDatabase database = databaseWith(new String[0]);
+        try {
+            new AccountImportPipeline(database).scan(csvFile);
+            fail("Should have got an ImportException");
+        } catch (ImportException e) {
+            // ok to get here
+        }
+        assertEquals(0, database.getAccountsHash().size());
+    }
+
+
+    public void testLargeImport() throws Exception {
+        int accounts = 100000;
+        writeAccounts(accounts);
+        PasswordDatabase database = databaseWith(new String[0]);
+
+        long start = System.currentTimeMillis();
+        AccountImportPipeline pipeline = new AccountImportPipeline(database);
+        pipeline.scan(csvFile);
+        AccountImportPipeline.Result result = pipeline.importAccounts(csvFile, AccountImportPipeline.OVERWRITE);
+        long millis = System.currentTimeMillis() - start;
+        System.out.println("Imported " + accounts + " accounts in " + millis + "ms");
+
+        assertEquals(accounts, result.getImported());
+        assertEquals(accounts, database.getAccountsHash().size());
+        assertEquals("user99999@example.com", database.getAccount("account 99999").getUserId());
+    }
+
+
+    private void writeAccounts(int count) throws IOException {
+        CsvWriter writer = new CsvWriter(new FileWriter(csvFile), ',');
+        for (int i = 0; i < count; i++) {
+            writer.writeRecord(new String[] {"account " + i, "user" + i + "@example.com",
+                    "password " + i, "http://example.com/" + i, "notes, with a comma"});
+        }
+        writer.close();
+    }
+
+
+    private PasswordDatabase databaseWith(String[] accountNames) {
+        PasswordDatabase database = new PasswordDatabase();
+        for (int i = 0; i < accountNames.length; i++) {
+            database.addAccount(new AccountInformation(accountNames[i], "", "existing", "", ""));
+        }
+        return database;
+    }
+
+}
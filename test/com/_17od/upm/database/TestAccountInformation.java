@@ -24,9 +24,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
+import com._17od.upm.crypto.SessionCipher;
+
 
 public class TestAccountInformation extends TestCase {
 
@@ -101,4 +104,38 @@ public class TestAccountInformation extends TestCase {
         }
     }
     
+
+    public void testSecretsStayEncrypted() throws IOException, ProblemReadingDatabaseFile {
+        AccountInformation ai = new AccountInformation("Hotmail", "user",
+                "p\u00e4ssword", "url", "notes");
+
+        assertEquals(SessionCipher.IV_LENGTH + "p\u00e4ssword".getBytes("UTF-8").length,
+                ai.getPasswordSecret().getEncryptedLength());
+
+        char[] password = ai.getPasswordChars();
+        assertTrue(Arrays.equals("p\u00e4ssword".toCharArray(), password));
+
+        ai.setPassword(password);
+        Arrays.fill(password, (char) 0);
+        assertEquals("p\u00e4ssword", ai.getPassword());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ai.flatPack(os);
+        AccountInformation assembled = new AccountInformation(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals("p\u00e4ssword", assembled.getPassword());
+        assertEquals(ai.getPasswordSecret(), assembled.getPasswordSecret());
+    }
+
+
+    public void testCopySharesSecrets() {
+        AccountInformation ai = new AccountInformation("Hotmail", "user",
+                "password", "url", "notes");
+        AccountInformation copy = new AccountInformation(ai);
+        assertSame(ai.getPasswordSecret(), copy.getPasswordSecret());
+
+        copy.setPassword("changed");
+        assertEquals("password", ai.getPassword());
+        assertEquals("changed", copy.getPassword());
+    }
+
 }
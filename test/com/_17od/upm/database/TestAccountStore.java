@@ -0,0 +1,204 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+
+public class TestAccountStore extends TestCase {
+
+    private static final int FOOTPRINT_ACCOUNTS = 100000;
+
+
+    public void testViewsReadTheStore() throws IOException {
+        AccountInformation account = new AccountInformation("Hotmail",
+                "the userid", "p\u00e4ssword", "http://hotmail.com", "the notes");
+        AccountStore store = new AccountStore();
+        AccountInformation view = store.get(store.add(account));
+
+        assertEquals("Hotmail", view.getAccountName());
+        assertEquals("the userid", view.getUserId());
+        assertEquals("p\u00e4ssword", view.getPassword());
+        assertEquals("http://hotmail.com", view.getUrl());
+        assertEquals("the notes", view.getNotes());
+        assertEquals(account.getPasswordSecret(), view.getPasswordSecret());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        account.flatPack(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        view.flatPack(actual);
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+    }
+
+
+    public void testChangesGoThroughToTheStore() {
+        AccountStore store = new AccountStore();
+        int first = store.add(new AccountInformation("a", "user a", "password a", "url a", "notes a"));
+        int second = store.add(new AccountInformation("b", "user b", "password b", "url b", "notes b"));
+
+        AccountInformation view = store.get(first);
+        view.setPassword("a much longer password than before".toCharArray());
+        view.setUrl("");
+
+        assertEquals("a much longer password than before", store.get(first).getPassword());
+        assertEquals("", store.get(first).getUrl());
+        assertEquals("password b", store.get(second).getPassword());
+        assertEquals("url b", store.get(second).getUrl());
+    }
+
+
+    public void testReplacedValuesAreReclaimed() {
+        AccountStore store = new AccountStore();
+        for (int i = 0; i < 100; i++) {
+            store.add(new AccountInformation("account" + i, "user", "password", "url", "notes"));
+        }
+        store.compact();
+        long allocated = store.getAllocatedBytes();
+
+        AccountInformation view = store.get(50);
+        for (int i = 0; i < 1000; i++) {
+            view.setNotes("notes " + i);
+        }
+        store.compact();
+
+        assertEquals("notes 999", view.getNotes());
+        assertEquals("account99", store.get(99).getAccountName());
+        assertEquals("notes", store.get(10).getNotes());
+        assertEquals("password", store.get(10).getPassword());
+        assertTrue(store.getAllocatedBytes() < allocated + 16);
+    }
+
+
+    public void testRepeatedUserIdsAndHostsAreShared() {
+        AccountStore store = new AccountStore();
+        for (int i = 0; i < 50; i++) {
+            store.add(new AccountInformation("account" + i, "me@example.com", "password" + i,
+                    "https://intranet.example.com/app" + i, ""));
+        }
+        store.compact();
+
+        // 49 repeats of the 14 byte user id and the 28 byte host
+        assertEquals(49 * (14 + 28), store.getSharedBytes());
+        assertEquals("me@example.com", store.get(20).getUserId());
+        assertEquals("https://intranet.example.com/app20", store.get(20).getUrl());
+
+        // Changing a shared value only changes that account
+        store.get(20).setUserId("someone.else@example.com");
+        store.get(21).setUrl("http://other.example.com");
+        store.compact();
+        assertEquals("someone.else@example.com", store.get(20).getUserId());
+        assertEquals("me@example.com", store.get(19).getUserId());
+        assertEquals("me@example.com", store.get(21).getUserId());
+        assertEquals("http://other.example.com", store.get(21).getUrl());
+        assertEquals("https://intranet.example.com/app22", store.get(22).getUrl());
+        assertEquals(48 * 14 + 48 * 28, store.getSharedBytes());
+    }
+
+
+    public void testCopyOfViewIsIndependent() {
+        AccountStore store = new AccountStore();
+        AccountInformation view = store.get(store.add(
+                new AccountInformation("a", "user", "password", "url", "notes")));
+        AccountInformation copy = new AccountInformation(view);
+        copy.setPassword("changed");
+        assertEquals("password", view.getPassword());
+        assertEquals("changed", copy.getPassword());
+    }
+
+
+    public void testAccountsAddedToAStoreBackedDatabaseGoIntoTheStore() {
+        AccountStore store = new AccountStore();
+        HashMap accounts = new HashMap();
+        AccountInformation loaded = store.get(store.add(
+                new AccountInformation("a", "user", "password", "url", "notes")));
+        accounts.put("a", loaded);
+        PasswordDatabase database = new PasswordDatabase(new Revision(), new DatabaseOptions(), accounts, null);
+        database.setAccountStore(store);
+
+        database.addAccount(new AccountInformation("b", "user", "password b", "url", "notes"));
+        database.applyChange("c", new AccountInformation("c", "user", "password c", "url", "notes"));
+        database.applyChange("a", loaded);
+
+        assertEquals(3, store.size());
+        assertTrue(store.holds(database.getAccount("a")));
+        assertTrue(store.holds(database.getAccount("b")));
+        assertTrue(store.holds(database.getAccount("c")));
+        assertEquals("password b", database.getAccount("b").getPassword());
+        assertEquals("password c", database.getAccount("c").getPassword());
+        assertFalse(new AccountStore().holds(loaded));
+    }
+
+
+    /**
+     * Compare the heap used by 100k accounts held as AccountInformation
+     * objects with the same accounts in an AccountStore
+     */
+    public void testFootprint() {
+        long baseline = usedHeap();
+        ArrayList objects = new ArrayList(FOOTPRINT_ACCOUNTS);
+        for (int i = 0; i < FOOTPRINT_ACCOUNTS; i++) {
+            objects.add(createAccount(i));
+        }
+        long objectFootprint = usedHeap() - baseline;
+
+        AccountStore store = new AccountStore(FOOTPRINT_ACCOUNTS);
+        for (int i = 0; i < objects.size(); i++) {
+            store.add((AccountInformation) objects.get(i));
+        }
+        store.compact();
+        objects = null;
+        long storeFootprint = usedHeap() - baseline;
+
+        System.out.println("Footprint per " + FOOTPRINT_ACCOUNTS + " accounts: objects="
+                + objectFootprint / 1024 + "KB, store=" + storeFootprint / 1024 + "KB");
+        assertEquals(FOOTPRINT_ACCOUNTS, store.size());
+        assertTrue("store " + storeFootprint + " objects " + objectFootprint,
+                storeFootprint * 2 < objectFootprint);
+    }
+
+
+    private static AccountInformation createAccount(int i) {
+        return new AccountInformation("account " + i, "user" + i + "@example.com",
+                "pw-" + Integer.toHexString(i * 7919), "https://site" + i + ".example.com/login",
+                i % 4 == 0 ? "notes for account " + i : "");
+    }
+
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+
+public class TestDatabaseMerger extends TestCase {
+
+    private PasswordDatabase local;
+    private PasswordDatabase remote;
+
+
+    public void setUp() {
+        // Both databases start off in sync at revision 5
+        local = createDatabase(5);
+        remote = createDatabase(5);
+    }
+
+
+    public void testNoChanges() {
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertFalse(result.hasRemoteChanges());
+        assertFalse(result.hasLocalChangesToPublish());
+    }
+
+
+    public void testLocalChangeOnly() {
+        local.addAccount(new AccountInformation("a", "newuser", "p", "u", "n"));
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertFalse(result.hasRemoteChanges());
+        assertTrue(result.hasLocalChangesToPublish());
+    }
+
+
+    public void testRemoteChangeOnly() {
+        remote.getRevision().setRevision(6);
+        remote.applyChange("b", new AccountInformation("b", "u2", "newpass", "u", "n"));
+        remote.applyChange("c", null);
+        remote.applyChange("d", new AccountInformation("d", "u4", "p4", "u", "n"));
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertFalse(result.hasLocalChangesToPublish());
+        assertEquals(3, result.getRemoteChanges().size());
+
+        result.applyTo(local);
+        assertEquals("newpass", local.getAccount("b").getPassword());
+        assertNull(local.getAccount("c"));
+        assertEquals("p4", local.getAccount("d").getPassword());
+        assertTrue(local.getChangeLog().isEmpty());
+    }
+
+
+    public void testNonOverlappingChangesMerge() {
+        local.addAccount(new AccountInformation("a", "u1", "localpass", "u", "n"));
+        remote.getRevision().setRevision(6);
+        remote.applyChange("b", new AccountInformation("b", "u2", "remotepass", "u", "n"));
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertTrue(result.hasLocalChangesToPublish());
+        assertEquals(1, result.getRemoteChanges().size());
+
+        result.applyTo(local);
+        assertEquals("localpass", local.getAccount("a").getPassword());
+        assertEquals("remotepass", local.getAccount("b").getPassword());
+    }
+
+
+    public void testConflict() {
+        local.addAccount(new AccountInformation("a", "u1", "localpass", "u", "n"));
+        remote.getRevision().setRevision(6);
+        remote.applyChange("a", new AccountInformation("a", "u1", "remotepass", "u", "n"));
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertEquals(1, result.getConflicts().size());
+        DatabaseMerger.Conflict conflict = (DatabaseMerger.Conflict) result.getConflicts().get(0);
+        assertEquals("a", conflict.getAccountName());
+        assertEquals("p1", conflict.getBase().getPassword());
+        assertEquals("localpass", conflict.getLocal().getPassword());
+        assertEquals("remotepass", conflict.getRemote().getPassword());
+
+        result.resolve(conflict, false);
+        assertFalse(result.hasConflicts());
+        result.applyTo(local);
+        assertEquals("remotepass", local.getAccount("a").getPassword());
+    }
+
+
+    public void testSameChangeOnBothSidesIsNotAConflict() {
+        local.deleteAccount("c");
+        remote.getRevision().setRevision(6);
+        remote.applyChange("c", null);
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertFalse(result.hasRemoteChanges());
+        assertFalse(result.hasLocalChangesToPublish());
+    }
+
+
+    public void testChangeLogKeepsFirstBaseValue() {
+        AccountInformation a = local.getAccount("a");
+        local.deleteAccount("a");
+        local.addAccount(new AccountInformation("a", "u1", "first", "u", "n"));
+        local.addAccount(new AccountInformation("a", "u1", "second", "u", "n"));
+
+        assertEquals(1, local.getChangeLog().size());
+        assertEquals(a.getPassword(), local.getChangeLog().getBaseValue("a").getPassword());
+    }
+
+
+    public void testRenameMergesAsDeleteAndAdd() {
+        AccountInformation a = local.getAccount("a");
+        assertSame(a, local.renameAccount("a", "z"));
+        assertNull(local.getAccount("a"));
+        assertSame(a, local.getAccount("z"));
+        assertEquals("z", a.getAccountName());
+
+        assertEquals(2, local.getChangeLog().size());
+        assertEquals("p1", local.getChangeLog().getBaseValue("a").getPassword());
+        assertTrue(local.getChangeLog().isChanged("z"));
+        assertNull(local.getChangeLog().getBaseValue("z"));
+
+        remote.getRevision().setRevision(6);
+        remote.applyChange("b", new AccountInformation("b", "u2", "remotepass", "u", "n"));
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertFalse(result.hasConflicts());
+        assertTrue(result.hasLocalChangesToPublish());
+        result.applyTo(local);
+        assertNull(local.getAccount("a"));
+        assertEquals("p1", local.getAccount("z").getPassword());
+        assertEquals("remotepass", local.getAccount("b").getPassword());
+    }
+
+
+    public void testRenameToExistingNameFails() {
+        try {
+            local.renameAccount("a", "b");
+            fail("Renaming onto an existing account should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("p1", local.getAccount("a").getPassword());
+        assertTrue(local.getChangeLog().isEmpty());
+    }
+
+
+    public void testUnknownBaseNeverDeletes() {
+        // A database with no record of the last sync, e.g. one that's been
+        // edited offline after being downloaded
+        HashMap accounts = new HashMap();
+        accounts.put("a", new AccountInformation("a", "u1", "p1", "u", "n"));
+        accounts.put("b", new AccountInformation("b", "u2", "changed", "u", "n"));
+        local = new PasswordDatabase(accounts);
+        local.addAccount(new AccountInformation("e", "u5", "p5", "u", "n"));
+        remote.applyChange("d", new AccountInformation("d", "u4", "p4", "u", "n"));
+
+        DatabaseMerger.MergeResult result = new DatabaseMerger().merge(local, remote);
+        assertTrue(result.hasLocalChangesToPublish());
+        assertEquals(1, result.getConflicts().size());
+        DatabaseMerger.Conflict conflict = (DatabaseMerger.Conflict) result.getConflicts().get(0);
+        assertEquals("b", conflict.getAccountName());
+        assertNull(conflict.getBase());
+
+        // Accounts only one side has are kept, not deleted
+        assertEquals(2, result.getRemoteChanges().size());
+        assertFalse(result.getRemoteChanges().containsValue(null));
+        result.applyTo(local);
+        assertEquals("p1", local.getAccount("a").getPassword());
+        assertEquals("changed", local.getAccount("b").getPassword());
+        assertEquals("p3", local.getAccount("c").getPassword());
+        assertEquals("p4", local.getAccount("d").getPassword());
+        assertEquals("p5", local.getAccount("e").getPassword());
+    }
+
+
+    private PasswordDatabase createDatabase(int revision) {
+        HashMap accounts = new HashMap();
+        accounts.put("a", new AccountInformation("a", "u1", "p1", "u", "n"));
+        accounts.put("b", new AccountInformation("b", "u2", "p2", "u", "n"));
+        accounts.put("c", new AccountInformation("c", "u3", "p3", "u", "n"));
+        Revision r = new Revision();
+        r.setRevision(revision);
+        return new PasswordDatabase(r, new DatabaseOptions(), accounts, null);
+    }
+
+}
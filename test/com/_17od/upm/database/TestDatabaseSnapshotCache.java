@@ -0,0 +1,202 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.crypto.LazySecret;
+
+
+public class TestDatabaseSnapshotCache extends TestCase {
+
+    private File dir;
+    private DatabaseSnapshotCache cache;
+
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("upmsnapshot", "");
+        dir.delete();
+        dir.mkdir();
+        cache = new DatabaseSnapshotCache(new File(dir, "snapshot.db"), new File(dir, "snapshot.key"));
+    }
+
+
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testSaveAndLoad() throws Exception {
+        PasswordDatabase db = new PasswordDatabase();
+        db.addAccount(new AccountInformation("account1", "user1", "secretpassword", "http://a.com", "notes1"));
+        db.addAccount(new AccountInformation("account2", "user2", "password2", "http://b.com", "notes2"));
+        cache.save(db);
+
+        PasswordDatabase loaded = cache.load();
+        assertEquals(2, loaded.getAccounts().size());
+        assertEquals("secretpassword", loaded.getAccount("account1").getPassword());
+        assertNull(loaded.getDatabaseFile());
+
+        // The offline changes are kept with the snapshot
+        assertFalse(loaded.getChangeLog().isBaseKnown());
+        assertEquals(2, loaded.getChangeLog().size());
+        assertTrue(loaded.getChangeLog().isChanged("account1"));
+        assertNull(loaded.getChangeLog().getBaseValue("account1"));
+
+        // The snapshot mustn't be readable without the key
+        String contents = new String(readFile(new File(dir, "snapshot.db")), "ISO-8859-1");
+        assertEquals(-1, contents.indexOf("secretpassword"));
+        assertEquals(-1, contents.indexOf("account1"));
+    }
+
+
+    public void testChangeLogBaseSurvives() throws Exception {
+        PasswordDatabase db = new PasswordDatabase();
+        db.addAccount(new AccountInformation("account1", "user1", "password1", "http://a.com", "notes1"));
+        db.getChangeLog().reset(7);
+        db.addAccount(new AccountInformation("account2", "user2", "password2", "http://b.com", "notes2"));
+        cache.save(db);
+
+        PasswordDatabase loaded = cache.load();
+        assertEquals(7, loaded.getChangeLog().getBaseRevision());
+        assertEquals(1, loaded.getChangeLog().size());
+        assertTrue(loaded.getChangeLog().isChanged("account2"));
+
+        // Without the change log the last sync isn't known
+        new File(dir, "snapshot.db" + PasswordDatabasePersistence.CHANGES_SUFFIX).delete();
+        loaded = cache.load();
+        assertFalse(loaded.getChangeLog().isBaseKnown());
+        assertTrue(loaded.getChangeLog().isEmpty());
+    }
+
+
+    public void testUnloadedHistoryIsCopiedNotDecrypted() throws Exception {
+        PasswordDatabase db = new PasswordDatabase();
+        db.addAccount(new AccountInformation("account1", "user1", "password2", "http://a.com", "notes1"));
+        db.getHistory().record("account1", AccountHistory.PASSWORD,
+                LazySecret.fromString("password1"), System.currentTimeMillis());
+        cache.save(db);
+
+        PasswordDatabase loaded = cache.load();
+        cache.save(loaded);
+        assertNotNull("The history shouldn't have been loaded", loaded.getHistoryLoader());
+
+        loaded = cache.load();
+        assertEquals(1, loaded.getHistory().getEntries("account1").size());
+    }
+
+
+    public void testPreparedSnapshotIsWhatGetsWritten() throws Exception {
+        PasswordDatabase db = new PasswordDatabase();
+        db.addAccount(new AccountInformation("account1", "user1", "password1", "http://a.com", "notes1"));
+        DatabaseSnapshotCache.Snapshot first = cache.prepare(db);
+
+        // Changes made after the snapshot was taken aren't in it
+        db.addAccount(new AccountInformation("account2", "user2", "password2", "http://b.com", "notes2"));
+        db.addAccount(new AccountInformation("account1", "user1", "changed", "http://a.com", "notes1"));
+        DatabaseSnapshotCache.Snapshot second = cache.prepare(db);
+        assertFalse(new File(dir, "snapshot.db").exists());
+
+        second.write();
+        // Written out of order, the earlier snapshot mustn't replace the later one
+        first.write();
+
+        PasswordDatabase loaded = cache.load();
+        assertEquals(2, loaded.getAccounts().size());
+        assertEquals("changed", loaded.getAccount("account1").getPassword());
+    }
+
+
+    public void testNoSnapshot() {
+        assertNull(cache.load());
+    }
+
+
+    public void testUnusableSnapshot() throws Exception {
+        cache.save(new PasswordDatabase());
+
+        // A different key
+        new File(dir, "snapshot.key").delete();
+        cache.save(new PasswordDatabase());
+        new File(dir, "snapshot.key").delete();
+        FileOutputStream fos = new FileOutputStream(new File(dir, "snapshot.key"));
+        fos.write("0123456789012345678901234567890123456789012345678901234567890123".getBytes("US-ASCII"));
+        fos.close();
+        assertNull(cache.load());
+
+        // A corrupt snapshot
+        fos = new FileOutputStream(new File(dir, "snapshot.db"));
+        fos.write("not a database".getBytes("US-ASCII"));
+        fos.close();
+        assertNull(cache.load());
+    }
+
+
+    public void testApplyDifferences() {
+        PasswordDatabase local = new PasswordDatabase();
+        local.applyChange("unchanged", new AccountInformation("unchanged", "u", "p", "", ""));
+        local.applyChange("modified", new AccountInformation("modified", "u", "old", "", ""));
+        local.applyChange("removed", new AccountInformation("removed", "u", "p", "", ""));
+        local.applyChange("editedLocally", new AccountInformation("editedLocally", "u", "p", "", ""));
+        local.addAccount(new AccountInformation("editedLocally", "u", "local", "", ""));
+
+        PasswordDatabase fresh = new PasswordDatabase();
+        fresh.applyChange("unchanged", new AccountInformation("unchanged", "u", "p", "", ""));
+        fresh.applyChange("modified", new AccountInformation("modified", "u", "new", "", ""));
+        fresh.applyChange("added", new AccountInformation("added", "u", "p", "", ""));
+        fresh.applyChange("editedLocally", new AccountInformation("editedLocally", "u", "backend", "", ""));
+
+        assertEquals(3, DatabaseSnapshotCache.applyDifferences(local, fresh));
+        assertEquals("new", local.getAccount("modified").getPassword());
+        assertNotNull(local.getAccount("added"));
+        assertNull(local.getAccount("removed"));
+        assertEquals("local", local.getAccount("editedLocally").getPassword());
+        assertEquals(1, local.getChangeLog().size());
+
+        // Nothing more to do the second time around
+        assertEquals(0, DatabaseSnapshotCache.applyDifferences(local, fresh));
+    }
+
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += fis.read(data, offset, data.length - offset);
+            }
+        } finally {
+            fis.close();
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Translator;
+import com._17od.upm.util.Util;
+import com.csvreader.CsvReader;
+import com.csvreader.CsvWriter;
+
+
+public class TestParallelCSVParser extends TestCase {
+
+    private static final String TRICKY_CSV =
+            "plain,fields,here,http://a.com,notes\r\n" +
+            "\"quoted, with comma\",\"with \"\"quotes\"\"\",\"multi\nline\",url,\"\"\n" +
+            "  padded  ,\t tabbed\t,\"  kept  \",x,y\n" +
+            "\n" +
+            "trailing,comma,,,\r" +
+            "a,b,c,d,\"last\r\nquoted\"";
+
+    private File csvFile;
+
+
+    protected void setUp() throws Exception {
+        csvFile = File.createTempFile("TestParallelCSVParser", ".csv");
+    }
+
+
+    protected void tearDown() throws Exception {
+        csvFile.delete();
+    }
+
+
+    public void testParsesLikeCsvReader() throws IOException {
+        ArrayList expected = new ArrayList();
+        CsvReader csvReader = new CsvReader(new StringReader(TRICKY_CSV));
+        while (csvReader.readRecord()) {
+            expected.add(csvReader.getValues());
+        }
+
+        ArrayList actual = ParallelCSVParser.parseRecords(TRICKY_CSV);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertRecordEquals((String[]) expected.get(i), (String[]) actual.get(i));
+        }
+    }
+
+
+    public void testChunksSplitOnRecordBoundaries() throws Exception {
+        StringBuffer csv = new StringBuffer();
+        for (int i = 0; i < 200; i++) {
+            csv.append(TRICKY_CSV).append('\n');
+        }
+        byte[] bytes = csv.toString().getBytes("UTF-8");
+        ArrayList whole = ParallelCSVParser.parseRecords(csv.toString());
+
+        // Tiny chunks so plenty of them fall inside quoted newlines
+        int[] boundaries = ParallelCSVParser.findChunkBoundaries(ByteBuffer.wrap(bytes), 7);
+        assertTrue(boundaries.length > 100);
+        ArrayList pieces = new ArrayList();
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            String chunk = new String(bytes, boundaries[i], boundaries[i + 1] - boundaries[i], "UTF-8");
+            pieces.addAll(ParallelCSVParser.parseRecords(chunk));
+        }
+
+        assertEquals(whole.size(), pieces.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertRecordEquals((String[]) whole.get(i), (String[]) pieces.get(i));
+        }
+    }
+
+
+    public void testParallelMatchesSequential() throws Exception {
+        writeAccounts(100000, false);
+        AccountsCSVMarshaller marshaller = new AccountsCSVMarshaller();
+        ArrayList sequential = new ArrayList();
+        marshaller.unmarshal(csvFile, collectInto(sequential));
+        ArrayList parallel = new ArrayList();
+        marshaller.unmarshalParallel(csvFile, Util.defaultCharset(), new ParallelCSVParser(4), collectInto(parallel));
+
+        assertEquals(100000, parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            AccountInformation expected = (AccountInformation) sequential.get(i);
+            AccountInformation actual = (AccountInformation) parallel.get(i);
+            assertEquals(expected.getAccountName(), actual.getAccountName());
+            assertEquals(expected.getUserIdSecret(), actual.getUserIdSecret());
+            assertEquals(expected.getPasswordSecret(), actual.getPasswordSecret());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getNotesSecret(), actual.getNotesSecret());
+        }
+    }
+
+
+    public void testBadRecordIsReported() throws Exception {
+        writeAccounts(50000, true);
+        Translator.loadBundle(Locale.ENGLISH);
+        ArrayList accounts = new ArrayList();
+        try {
+            new AccountsCSVMarshaller().unmarshalParallel(csvFile, Util.defaultCharset(),
+                    new ParallelCSVParser(4), collectInto(accounts));
+            fail("Should have got an ImportException");
+        } catch (ImportException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("line 40,001") > -1);
+        }
+        assertEquals(40000, accounts.size());
+    }
+
+
+    private void writeAccounts(int count, boolean withBadRecord) throws IOException {
+        CsvWriter writer = new CsvWriter(new FileWriter(csvFile), ',');
+        for (int i = 0; i < count; i++) {
+            if (withBadRecord && i == 40000) {
+                writer.writeRecord(new String[] {"only", "three", "fields"});
+                continue;
+            }
+            writer.writeRecord(new String[] {"account " + i, "user" + (i % 100) + "@example.com",
+                    "pass\"word, " + i, "https://example.com/" + i,
+                    i % 3 == 0 ? "multi\r\nline notes " + i : ""});
+        }
+        writer.close();
+    }
+
+
+    private AccountHandler collectInto(final ArrayList accounts) {
+        return new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        };
+    }
+
+
+    private void assertRecordEquals(String[] expected, String[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+}
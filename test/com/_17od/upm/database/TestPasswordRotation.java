@@ -0,0 +1,156 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.crypto.LazySecret;
+import com._17od.upm.util.PasswordGenerator;
+
+
+public class TestPasswordRotation extends TestCase {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private PasswordDatabase database;
+
+
+    protected void setUp() throws Exception {
+        database = new PasswordDatabase();
+        database.addAccount(new AccountInformation("Bank", "me", "Str0ng!Passw0rd#1", "https://www.bank.com/login", ""));
+        database.addAccount(new AccountInformation("Bank app", "me", "weak", "https://bank.com", ""));
+        database.addAccount(new AccountInformation("Mail", "me", "password", "http://user@mail.example.org:8080/", ""));
+        database.addAccount(new AccountInformation("Notes", "", "secret", "", ""));
+        database.getChangeLog().reset(0);
+    }
+
+
+    public void testHostOf() {
+        assertEquals("www.bank.com", PasswordRotation.hostOf("https://www.Bank.com/login?x=1"));
+        assertEquals("mail.example.org", PasswordRotation.hostOf("http://user@mail.example.org:8080/"));
+        assertEquals("example.com", PasswordRotation.hostOf("example.com/path"));
+        assertNull(PasswordRotation.hostOf(""));
+        assertNull(PasswordRotation.hostOf(null));
+    }
+
+
+    public void testSelectByHost() {
+        PasswordRotation rotation = new PasswordRotation(database);
+        assertEquals(list(new String[] {"Bank", "Bank app"}), rotation.select(new PasswordRotation.Query("bank.com", 0, 0)));
+        assertEquals(list(new String[] {"Bank"}), rotation.select(new PasswordRotation.Query("www.bank.com", 0, 0)));
+        assertEquals(4, rotation.select(new PasswordRotation.Query(null, 0, 0)).size());
+        assertEquals(0, rotation.select(new PasswordRotation.Query("ank.com", 0, 0)).size());
+    }
+
+
+    public void testSelectByAgeAndStrength() {
+        long now = System.currentTimeMillis();
+        database.getHistory().record("Bank app", AccountHistory.PASSWORD, LazySecret.fromString("old"), now - 10 * DAY);
+        database.getHistory().record("Mail", AccountHistory.PASSWORD, LazySecret.fromString("old"), now - 100 * DAY);
+
+        PasswordRotation rotation = new PasswordRotation(database);
+        // Never rotated counts as old
+        assertEquals(list(new String[] {"Bank", "Mail", "Notes"}), rotation.select(new PasswordRotation.Query(null, 90, 0)));
+        assertEquals(list(new String[] {"Bank app", "Mail", "Notes"}), rotation.select(new PasswordRotation.Query(null, 0, 60)));
+        assertEquals(list(new String[] {"Mail", "Notes"}), rotation.select(new PasswordRotation.Query(null, 90, 60)));
+    }
+
+
+    public void testRotateWithHostPolicies() {
+        PasswordRotation rotation = new PasswordRotation(database);
+        rotation.setDefaultPolicy(new PasswordRotation.Policy(20, true));
+        rotation.setPolicy("bank.com", new PasswordRotation.Policy(8, false));
+        rotation.setPolicy("www.bank.com", new PasswordRotation.Policy(12, false));
+
+        PasswordRotation.Result result = rotation.rotate(list(new String[] {"Bank", "Bank app", "Mail", "Missing"}));
+        assertEquals(3, result.getRotated());
+
+        char[] bank = database.getAccount("Bank").getPasswordChars();
+        assertEquals(12, bank.length);
+        assertEquals(0, PasswordGenerator.classesOf(bank) & PasswordGenerator.PUNCTUATION);
+        assertEquals(8, database.getAccount("Bank app").getPasswordChars().length);
+        char[] mail = database.getAccount("Mail").getPasswordChars();
+        assertEquals(20, mail.length);
+        assertTrue(PasswordGenerator.hasClasses(mail, PasswordGenerator.PUNCTUATION));
+        assertEquals("secret", database.getAccount("Notes").getPassword());
+        assertEquals("me", database.getAccount("Bank").getUserId());
+
+        // The old passwords are kept and the change is synced like any other
+        ArrayList history = database.getHistory().getEntries("Mail");
+        assertEquals(1, history.size());
+        assertEquals("password", ((AccountHistory.Entry) history.get(0)).getOldValue().toString());
+        assertTrue(database.getChangeLog().isChanged("Mail"));
+        assertEquals("password", database.getChangeLog().getBaseValue("Mail").getPassword());
+        assertTrue(database.getHistory().getLastChanged("Mail", AccountHistory.PASSWORD) > 0);
+    }
+
+
+    public void testUndo() {
+        PasswordRotation rotation = new PasswordRotation(database);
+        PasswordRotation.Result result = rotation.rotate(list(new String[] {"Bank", "Mail"}));
+        result.undo();
+        assertEquals("Str0ng!Passw0rd#1", database.getAccount("Bank").getPassword());
+        assertEquals("password", database.getAccount("Mail").getPassword());
+        assertTrue(database.getHistory().isEmpty());
+        assertTrue(database.getChangeLog().isEmpty());
+    }
+
+
+    public void testUndoKeepsEarlierChanges() {
+        database.addAccount(new AccountInformation("Mail", "someone else", "password", "http://user@mail.example.org:8080/", ""));
+        PasswordRotation rotation = new PasswordRotation(database);
+        rotation.rotate(list(new String[] {"Bank", "Mail"})).undo();
+
+        // Mail was changed before the rotation so it still needs syncing
+        assertFalse(database.getChangeLog().isChanged("Bank"));
+        assertTrue(database.getChangeLog().isChanged("Mail"));
+        assertEquals("me", database.getChangeLog().getBaseValue("Mail").getUserId());
+    }
+
+
+    public void testThousandsOfAccounts() {
+        PasswordDatabase big = new PasswordDatabase();
+        ArrayList names = new ArrayList();
+        for (int i = 0; i < 10000; i++) {
+            big.addAccount(new AccountInformation("account " + i, "user", "password" + i,
+                    "https://host" + (i % 50) + ".example.com/", ""));
+        }
+        long start = System.currentTimeMillis();
+        PasswordRotation rotation = new PasswordRotation(big);
+        names = rotation.select(new PasswordRotation.Query("example.com", 90, 80));
+        PasswordRotation.Result result = rotation.rotate(names);
+        long took = System.currentTimeMillis() - start;
+        assertEquals(10000, result.getRotated());
+        assertTrue("Rotating 10000 accounts took " + took + "ms", took < 10000);
+    }
+
+
+    private static ArrayList list(String[] names) {
+        ArrayList list = new ArrayList();
+        for (int i = 0; i < names.length; i++) {
+            list.add(names[i]);
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.ImportException;
+
+
+public class TestBitwardenJSONFormat extends TestCase {
+
+    private File file;
+
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("TestBitwardenJSONFormat", ".json");
+        file.delete();
+    }
+
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+
+    public void testRoundTrip() throws Exception {
+        ArrayList accounts = new ArrayList();
+        accounts.add(new AccountInformation("Hotmail", "me@hotmail.com", "pa\"ss\\word",
+                "http://www.hotmail.com/", "line 1\nline 2\ttab\u0001"));
+        accounts.add(new AccountInformation("Caf\u00e9", "", "\u00fc\u00f1\u00ee", "", ""));
+
+        BitwardenJSONFormat format = new BitwardenJSONFormat();
+        format.exportAccounts(accounts.iterator(), file);
+        ArrayList imported = importAll(format);
+
+        assertEquals(2, imported.size());
+        AccountInformation hotmail = (AccountInformation) imported.get(0);
+        assertEquals("Hotmail", hotmail.getAccountName());
+        assertEquals("me@hotmail.com", hotmail.getUserId());
+        assertEquals("pa\"ss\\word", hotmail.getPassword());
+        assertEquals("http://www.hotmail.com/", hotmail.getUrl());
+        assertEquals("line 1\nline 2\ttab\u0001", hotmail.getNotes());
+        AccountInformation cafe = (AccountInformation) imported.get(1);
+        assertEquals("Caf\u00e9", cafe.getAccountName());
+        assertEquals("\u00fc\u00f1\u00ee", cafe.getPassword());
+        assertEquals("", cafe.getUrl());
+    }
+
+
+    public void testBitwardenExport() throws Exception {
+        write("{\"encrypted\": false, \"folders\": [{\"id\": \"f1\", \"name\": \"Email\"}],"
+                + "\"items\": ["
+                + "{\"id\": \"1\", \"folderId\": \"f1\", \"type\": 1, \"name\": \"Gmail\", \"notes\": null,"
+                + " \"favorite\": true, \"fields\": [{\"name\": \"pin\", \"value\": \"1234\", \"type\": 0}],"
+                + " \"login\": {\"uris\": [{\"match\": null, \"uri\": \"https://mail.google.com\"},"
+                + " {\"match\": 3, \"uri\": \"https://google.com\"}], \"username\": \"bob\","
+                + " \"password\": \"s\\u00e9cret\", \"totp\": null}, \"collectionIds\": null},"
+                + "{\"id\": \"2\", \"type\": 2, \"name\": \"Alarm code\", \"notes\": \"4321\","
+                + " \"secureNote\": {\"type\": 0}},"
+                + "{\"id\": \"3\", \"type\": 1, \"name\": \"\", \"login\": {\"uris\": null,"
+                + " \"username\": \"anon\", \"password\": \"x\"}}"
+                + "]}");
+
+        ArrayList imported = importAll(new BitwardenJSONFormat());
+        assertEquals(3, imported.size());
+        AccountInformation gmail = (AccountInformation) imported.get(0);
+        assertEquals("Gmail", gmail.getAccountName());
+        assertEquals("bob", gmail.getUserId());
+        assertEquals("s\u00e9cret", gmail.getPassword());
+        assertEquals("https://mail.google.com", gmail.getUrl());
+        assertEquals("", gmail.getNotes());
+        AccountInformation note = (AccountInformation) imported.get(1);
+        assertEquals("Alarm code", note.getAccountName());
+        assertEquals("4321", note.getNotes());
+        assertEquals("", note.getPassword());
+        assertEquals("anon", ((AccountInformation) imported.get(2)).getAccountName());
+    }
+
+
+    public void testEncryptedExportRejected() throws Exception {
+        write("{\"encrypted\": true, \"items\": [{\"name\": \"2.abc|def\"}]}");
+        try {
+            importAll(new BitwardenJSONFormat());
+            fail("Encrypted exports can't be read");
+        } catch (ImportException e) {
+            // expected
+        }
+    }
+
+
+    public void testJsonReader() throws Exception {
+        JsonReader json = new JsonReader(new StringReader(
+                "{\"a\": [1, -2.5e3, true, null, {\"b\": \"\\\"\\n\\u0041\"}], \"c\": {}}"));
+        assertEquals(JsonReader.BEGIN_OBJECT, json.next());
+        assertEquals(JsonReader.NAME, json.next());
+        assertEquals("a", json.getString());
+        assertEquals(JsonReader.BEGIN_ARRAY, json.next());
+        assertEquals(JsonReader.NUMBER, json.next());
+        assertEquals("1", json.getString());
+        assertEquals(JsonReader.NUMBER, json.next());
+        assertEquals("-2.5e3", json.getString());
+        assertEquals(JsonReader.BOOLEAN, json.next());
+        assertEquals(JsonReader.NULL, json.next());
+        assertEquals(JsonReader.BEGIN_OBJECT, json.next());
+        assertEquals(JsonReader.NAME, json.next());
+        assertEquals(JsonReader.STRING, json.next());
+        assertEquals("\"\nA", json.getString());
+        assertEquals(JsonReader.END_OBJECT, json.next());
+        assertEquals(JsonReader.END_ARRAY, json.next());
+        assertEquals(JsonReader.NAME, json.next());
+        json.skipValue();
+        assertEquals(JsonReader.END_OBJECT, json.next());
+        assertEquals(JsonReader.END_DOCUMENT, json.next());
+
+        json = new JsonReader(new StringReader("{\"a\": [1, 2}"));
+        try {
+            json.skipValue();
+            fail("Mismatched brackets should be rejected");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+
+    private ArrayList importAll(AccountImporter importer) throws Exception {
+        final ArrayList accounts = new ArrayList();
+        importer.importAccounts(file, new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        });
+        return accounts;
+    }
+
+
+    private void write(String text) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(text);
+        writer.close();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountImportPipeline;
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.PasswordDatabase;
+
+
+public class TestColumnMappingCSVImporter extends TestCase {
+
+    private File file;
+
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("TestColumnMappingCSVImporter", ".csv");
+    }
+
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+
+    public void testLastPassHeader() throws Exception {
+        write("url,username,password,extra,name,grouping,fav\n"
+                + "http://sn,,,\"secure, note\",Alarm,Home,0\n"
+                + "https://example.com,bob,secret,,Example,,1\n");
+
+        ArrayList imported = importAll(new ColumnMappingCSVImporter());
+        assertEquals(2, imported.size());
+        AccountInformation alarm = (AccountInformation) imported.get(0);
+        assertEquals("Alarm", alarm.getAccountName());
+        assertEquals("secure, note", alarm.getNotes());
+        AccountInformation example = (AccountInformation) imported.get(1);
+        assertEquals("Example", example.getAccountName());
+        assertEquals("bob", example.getUserId());
+        assertEquals("secret", example.getPassword());
+        assertEquals("https://example.com", example.getUrl());
+    }
+
+
+    public void testOnePassword() throws Exception {
+        write("Title,Url,Username,Password,OTPAuth,Favorite,Archived,Tags,Notes\n"
+                + "Bank,https://bank.example,me,\"p,w\",,false,false,,\"multi\nline\"\n"
+                + ",https://untitled.example,,x,,false,false,,\n");
+
+        ArrayList imported = importAll(new OnePasswordCSVImporter());
+        assertEquals(2, imported.size());
+        AccountInformation bank = (AccountInformation) imported.get(0);
+        assertEquals("Bank", bank.getAccountName());
+        assertEquals("me", bank.getUserId());
+        assertEquals("p,w", bank.getPassword());
+        assertEquals("https://bank.example", bank.getUrl());
+        assertEquals("multi\nline", bank.getNotes());
+        assertEquals("https://untitled.example", ((AccountInformation) imported.get(1)).getAccountName());
+    }
+
+
+    public void testExplicitColumns() throws Exception {
+        write("secret,bob,Example\n");
+        ColumnMappingCSVImporter importer = new ColumnMappingCSVImporter();
+        importer.setColumns(new int[] {2, 1, 0, -1, -1}, false);
+
+        ArrayList imported = importAll(importer);
+        assertEquals(1, imported.size());
+        AccountInformation example = (AccountInformation) imported.get(0);
+        assertEquals("Example", example.getAccountName());
+        assertEquals("bob", example.getUserId());
+        assertEquals("secret", example.getPassword());
+        assertEquals("", example.getUrl());
+    }
+
+
+    public void testThroughPipeline() throws Exception {
+        write("name,password\nfirst,1\nsecond,2\n");
+        PasswordDatabase database = new PasswordDatabase();
+        database.addAccount(new AccountInformation("first", "", "0", "", ""));
+
+        AccountImportPipeline pipeline = new AccountImportPipeline(database, new ColumnMappingCSVImporter());
+        AccountImportPipeline.Result result = pipeline.importAccounts(file, AccountImportPipeline.RENAME);
+        assertEquals(2, result.getImported());
+        assertEquals(1, result.getRenamed());
+        assertEquals("0", database.getAccount("first").getPassword());
+        assertEquals("1", database.getAccount("first (2)").getPassword());
+        assertEquals("2", database.getAccount("second").getPassword());
+    }
+
+
+    private ArrayList importAll(AccountImporter importer) throws Exception {
+        final ArrayList accounts = new ArrayList();
+        importer.importAccounts(file, new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        });
+        return accounts;
+    }
+
+
+    private void write(String text) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(text);
+        writer.close();
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.database.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.database.AccountHandler;
+import com._17od.upm.database.AccountInformation;
+
+
+public class TestKeePassXMLFormat extends TestCase {
+
+    private File file;
+
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("TestKeePassXMLFormat", ".xml");
+        file.delete();
+    }
+
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+
+    public void testRoundTrip() throws Exception {
+        ArrayList accounts = new ArrayList();
+        accounts.add(new AccountInformation("Hotmail", "me@hotmail.com", "pa<ss>&\"word\"",
+                "http://www.hotmail.com/", "line 1\nline 2"));
+        accounts.add(new AccountInformation("Caf\u00e9", "", "\u00fc\u00f1\u00ee\u00e7\u00f8d\u00e9", "", "bell\u0007"));
+
+        KeePassXMLFormat format = new KeePassXMLFormat();
+        format.exportAccounts(accounts.iterator(), file);
+        ArrayList imported = importAll(format);
+
+        assertEquals(2, imported.size());
+        AccountInformation hotmail = (AccountInformation) imported.get(0);
+        assertEquals("Hotmail", hotmail.getAccountName());
+        assertEquals("me@hotmail.com", hotmail.getUserId());
+        assertEquals("pa<ss>&\"word\"", hotmail.getPassword());
+        assertEquals("http://www.hotmail.com/", hotmail.getUrl());
+        assertEquals("line 1\nline 2", hotmail.getNotes());
+        AccountInformation cafe = (AccountInformation) imported.get(1);
+        assertEquals("Caf\u00e9", cafe.getAccountName());
+        assertEquals("\u00fc\u00f1\u00ee\u00e7\u00f8d\u00e9", cafe.getPassword());
+        // Control characters can't be put in XML
+        assertEquals("bell", cafe.getNotes());
+    }
+
+
+    public void testSkipsHistoryAndRecycleBin() throws Exception {
+        write("<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"yes\"?>\n"
+                + "<KeePassFile><Meta><RecycleBinEnabled>True</RecycleBinEnabled>"
+                + "<RecycleBinUUID>BIN=</RecycleBinUUID></Meta><Root>"
+                + "<Group><UUID>ROOT=</UUID><Name>Database</Name>"
+                + entry("Bank", "old password")
+                + "<Group><UUID>SUB=</UUID><Name>Email</Name>"
+                + "<Entry><UUID>E1=</UUID>" + string("Title", "Gmail") + string("Password", "new")
+                + "<History>" + entry("Gmail", "older") + "</History></Entry>"
+                + "</Group>"
+                + "<Group><UUID>BIN=</UUID><Name>Recycle Bin</Name>" + entry("Deleted", "x") + "</Group>"
+                + entry("", "no title")
+                + "</Group></Root></KeePassFile>");
+
+        ArrayList imported = importAll(new KeePassXMLFormat());
+        assertEquals(3, imported.size());
+        assertEquals("Bank", ((AccountInformation) imported.get(0)).getAccountName());
+        AccountInformation gmail = (AccountInformation) imported.get(1);
+        assertEquals("Gmail", gmail.getAccountName());
+        assertEquals("new", gmail.getPassword());
+        assertEquals("", gmail.getUserId());
+        assertEquals("Untitled", ((AccountInformation) imported.get(2)).getAccountName());
+    }
+
+
+    public void testKeePassX() throws Exception {
+        write("<!DOCTYPE KEEPASSX_DATABASE>\n<database><group><title>Internet</title>"
+                + "<entry><title>Forum</title><username>bob</username><password>secret</password>"
+                + "<url>http://forum.example.com</url><comment>one<br/>two</comment></entry>"
+                + "</group></database>");
+
+        ArrayList imported = importAll(new KeePassXMLFormat());
+        assertEquals(1, imported.size());
+        AccountInformation forum = (AccountInformation) imported.get(0);
+        assertEquals("Forum", forum.getAccountName());
+        assertEquals("bob", forum.getUserId());
+        assertEquals("secret", forum.getPassword());
+        assertEquals("http://forum.example.com", forum.getUrl());
+        assertEquals("one\ntwo", forum.getNotes());
+    }
+
+
+    public void testRegistered() {
+        assertTrue(AccountFormats.findImporter(new File("keepass.xml")) instanceof KeePassXMLFormat);
+        assertTrue(AccountFormats.findExporter(new File("keepass.XML")) instanceof KeePassXMLFormat);
+        assertTrue(AccountFormats.findImporter(new File("export.csv")) instanceof UPMCSVFormat);
+        assertNull(AccountFormats.findExporter(new File("export.doc")));
+        assertEquals(5, AccountFormats.getImporters().size());
+        assertEquals(3, AccountFormats.getExporters().size());
+    }
+
+
+    private ArrayList importAll(AccountImporter importer) throws Exception {
+        final ArrayList accounts = new ArrayList();
+        importer.importAccounts(file, new AccountHandler() {
+            public void handleAccount(AccountInformation account) {
+                accounts.add(account);
+            }
+        });
+        return accounts;
+    }
+
+
+    private void write(String text) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(text);
+        writer.close();
+    }
+
+
+    private static String entry(String title, String password) {
+        return "<Entry><UUID>X=</UUID>" + string("Title", title) + string("Password", password) + "</Entry>";
+    }
+
+
+    private static String string(String key, String value) {
+        return "<String><Key>" + key + "</Key><Value>" + value + "</Value></String>";
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.util.Arrays;
+
+import com._17od.upm.database.AccountInformation;
+import com._17od.upm.database.DatabaseHeader;
+import com._17od.upm.database.PasswordDatabase;
+import com._17od.upm.database.PasswordDatabasePersistence;
+import com._17od.upm.util.Preferences;
+
+
+/**
+ * Measures the bytes on the wire and the end to end latency of a sync round
+ * trip (save, publish, download, load) against LocalHTTPServer with and
+ * without compression. Not a unit test, run it by hand:
+ * 
+ *   java com._17od.upm.transport.CompressionBenchmark [accounts] [iterations]
+ */
+public class CompressionBenchmark {
+
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+
+    public static void main(String[] args) throws Exception {
+        int numAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Preferences.load();
+        PasswordDatabase database = createDatabase(numAccounts);
+
+        System.out.println(numAccounts + " accounts, " + iterations + " iterations");
+        System.out.println("scenario                     file bytes   wire bytes   median ms");
+        run("v3, no compression", database, DatabaseHeader.COMPRESSION_NONE, false, iterations);
+        run("v3, gzip transport", database, DatabaseHeader.COMPRESSION_NONE, true, iterations);
+        run("v4, deflate", database, DatabaseHeader.COMPRESSION_DEFLATE, false, iterations);
+        run("v4, deflate + gzip transport", database, DatabaseHeader.COMPRESSION_DEFLATE, true, iterations);
+    }
+
+
+    private static void run(String scenario, PasswordDatabase database, String compression,
+            boolean gzipTransport, int iterations) throws Exception {
+        LocalHTTPServer server = new LocalHTTPServer();
+        server.setGzipResponses(gzipTransport);
+        server.start();
+        try {
+            HTTPTransport transport = new HTTPTransport();
+            PasswordDatabasePersistence pers = new PasswordDatabasePersistence(PASSWORD);
+            pers.setCompression(compression);
+
+            File uploadDir = File.createTempFile("upmbench", "");
+            uploadDir.delete();
+            uploadDir.mkdir();
+            File fileToUpload = new File(uploadDir, "upm.db");
+
+            long[] times = new long[iterations];
+            long wireBytes = 0;
+            for (int i = 0; i < iterations; i++) {
+                server.resetCounters();
+                long start = System.nanoTime();
+
+                database.getRevision().setRevision(i + 1);
+                pers.save(database, fileToUpload);
+                transport.publish(server.getURL(), fileToUpload, i, null, i + 1, null, null);
+                File downloadedFile = transport.getRemoteFile(server.getURL(), "upm.db", null, null);
+                PasswordDatabase downloaded = pers.load(downloadedFile);
+                downloadedFile.delete();
+
+                times[i] = System.nanoTime() - start;
+                wireBytes = server.getBytesReceived() + server.getBytesSent();
+                if (downloaded.getAccounts().size() != database.getAccounts().size()) {
+                    throw new IllegalStateException("Round trip lost accounts");
+                }
+            }
+
+            Arrays.sort(times);
+            System.out.println(pad(scenario, 29) + pad(String.valueOf(fileToUpload.length()), 13)
+                    + pad(String.valueOf(wireBytes), 13) + (times[iterations / 2] / 1000000));
+
+            fileToUpload.delete();
+            uploadDir.delete();
+        } finally {
+            server.stop();
+        }
+    }
+
+
+    private static PasswordDatabase createDatabase(int numAccounts) {
+        PasswordDatabase database = new PasswordDatabase();
+        for (int i = 0; i < numAccounts; i++) {
+            database.addAccount(new AccountInformation("Account " + i, "user" + i + "@example.com",
+                    "pw-" + Integer.toHexString(i * 7919), "https://www.example" + (i % 50) + ".com/login",
+                    "Notes for account " + i));
+        }
+        return database;
+    }
+
+
+    private static String pad(String s, int width) {
+        StringBuffer buf = new StringBuffer(s);
+        while (buf.length() < width) {
+            buf.append(' ');
+        }
+        return buf.toString();
+    }
+
+}
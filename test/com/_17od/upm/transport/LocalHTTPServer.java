@@ -0,0 +1,642 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A local stand-in for the PHP scripts in server/http so that the transport
+ * code can be tested without a real web server. Files are kept in a temporary
+ * document root. The number of bytes going over the wire in each direction is
+ * counted so tests can check how much a transfer actually moved.
+ */
+public class LocalHTTPServer {
+
+    private HttpServer server;
+    private File documentRoot;
+    private File chunkDir;
+
+    private long bytesReceived;
+    private long bytesSent;
+    private int chunksReceived;
+    private int failAfterChunks = -1;
+    private boolean failMoves;
+    private int uploadsReceived;
+    private boolean truncateDownloads;
+    private boolean sendBadChecksums;
+    private boolean sendETags = true;
+    private boolean gzipResponses;
+    private int notModifiedResponses;
+    private HashSet clientAddresses = new HashSet();
+    private String lastAuthorization;
+
+
+    public LocalHTTPServer() throws IOException {
+        documentRoot = File.createTempFile("upmserver", "");
+        documentRoot.delete();
+        documentRoot.mkdir();
+        chunkDir = new File(documentRoot, "chunks");
+        chunkDir.mkdir();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    LocalHTTPServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+
+    public void start() {
+        server.start();
+    }
+
+
+    public void stop() {
+        server.stop(0);
+        delete(documentRoot);
+    }
+
+
+    public String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+
+    public File getDocumentRoot() {
+        return documentRoot;
+    }
+
+
+    public synchronized void resetCounters() {
+        bytesReceived = 0;
+        bytesSent = 0;
+        chunksReceived = 0;
+        notModifiedResponses = 0;
+        clientAddresses.clear();
+    }
+
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+
+    public synchronized int getChunksReceived() {
+        return chunksReceived;
+    }
+
+
+    /**
+     * Simulate a dropped connection after the given number of chunk uploads
+     * (-1 to never fail)
+     */
+    public synchronized void setFailAfterChunks(int failAfterChunks) {
+        this.failAfterChunks = failAfterChunks;
+    }
+
+
+    /**
+     * Reply FILE_WASNT_MOVED to every upload, as upload.php does when it
+     * can't move the uploaded file into place
+     */
+    public synchronized void setFailMoves(boolean failMoves) {
+        this.failMoves = failMoves;
+    }
+
+
+    /**
+     * @return The number of requests made to upload.php
+     */
+    public synchronized int getUploadsReceived() {
+        return uploadsReceived;
+    }
+
+
+    /**
+     * @return The number of distinct client connections requests arrived on
+     */
+    public synchronized int getConnectionCount() {
+        return clientAddresses.size();
+    }
+
+
+    public synchronized int getNotModifiedResponses() {
+        return notModifiedResponses;
+    }
+
+
+    /**
+     * @return The Authorization header sent with the last request, null if
+     * there wasn't one
+     */
+    public synchronized String getLastAuthorization() {
+        return lastAuthorization;
+    }
+
+
+    /**
+     * Whether to send an ETag with plain files. Without one clients have to
+     * fall back to If-Modified-Since.
+     */
+    public synchronized void setSendETags(boolean sendETags) {
+        this.sendETags = sendETags;
+    }
+
+
+    /**
+     * Whether to gzip plain files for clients that send Accept-Encoding: gzip
+     */
+    public synchronized void setGzipResponses(boolean gzipResponses) {
+        this.gzipResponses = gzipResponses;
+    }
+
+
+    /**
+     * Simulate a dropped connection halfway through sending a plain file
+     */
+    public synchronized void setTruncateDownloads(boolean truncateDownloads) {
+        this.truncateDownloads = truncateDownloads;
+    }
+
+
+    /**
+     * Send a Content-MD5 header that doesn't match the file being sent
+     */
+    public synchronized void setSendBadChecksums(boolean sendBadChecksums) {
+        this.sendBadChecksums = sendBadChecksums;
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readFully(exchange.getRequestBody());
+        synchronized (this) {
+            bytesReceived += body.length;
+            clientAddresses.add(exchange.getRemoteAddress());
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        }
+
+        String script = exchange.getRequestURI().getPath().substring(1);
+        HashMap params = new HashMap();
+        parseParams(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        HashMap files = new HashMap();
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            parseMultipart(body, contentType.substring(contentType.indexOf("boundary=") + 9), params, files);
+        } else if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseParams(new String(body, "ISO-8859-1"), params);
+        }
+
+        if (script.equals("upload.php")) {
+            handleUpload(exchange, files);
+        } else if (script.equals("deletefile.php")) {
+            handleDelete(exchange, params);
+        } else if (script.equals("publish.php")) {
+            handlePublish(exchange, params, files);
+        } else if (script.equals("chunks.php")) {
+            handleChunks(exchange, params, files);
+        } else {
+            File file = new File(documentRoot, new File(script).getName());
+            if (file.isFile()) {
+                sendFile(exchange, file);
+            } else {
+                send(exchange, 404, new byte[0]);
+            }
+        }
+    }
+
+
+    private void handleUpload(HttpExchange exchange, HashMap files) throws IOException {
+        UploadedFile userFile = (UploadedFile) files.get("userfile");
+        if (userFile == null) {
+            sendText(exchange, "FILE_WASNT_UPLOADED");
+            return;
+        }
+        boolean failMove;
+        synchronized (this) {
+            uploadsReceived++;
+            failMove = failMoves;
+        }
+        if (failMove) {
+            sendText(exchange, "FILE_WASNT_MOVED");
+            return;
+        }
+        File file = new File(documentRoot, new File(userFile.fileName).getName());
+        if (file.exists()) {
+            sendText(exchange, "FILE_ALREADY_EXISTS");
+        } else {
+            writeFile(file, userFile.data);
+            new File(documentRoot, file.getName() + ".revision").delete();
+            sendText(exchange, "OK");
+        }
+    }
+
+
+    /**
+     * Mirrors server/http/publish.php
+     */
+    private void handlePublish(HttpExchange exchange, HashMap params, HashMap files) throws IOException {
+        UploadedFile userFile = (UploadedFile) files.get("userfile");
+        if (userFile == null) {
+            sendText(exchange, "FILE_WASNT_UPLOADED");
+            return;
+        }
+        sendText(exchange, publish(new File(userFile.fileName).getName(), userFile.data, params));
+    }
+
+
+    /**
+     * The revision checked replace shared by publish.php and chunks.php's
+     * commit. Publishes are serialised on the server object, standing in for
+     * the scripts' flock().
+     */
+    private String publish(String fileName, byte[] data, HashMap params) throws IOException {
+        int expectedRevision;
+        int revision;
+        try {
+            expectedRevision = Integer.parseInt((String) params.get("expectedRevision"));
+            revision = Integer.parseInt((String) params.get("revision"));
+        } catch (NumberFormatException e) {
+            return "INVALID_REVISION";
+        }
+        String expectedHash = (String) params.get("expectedHash");
+
+        File tempFile = File.createTempFile("upm", null, documentRoot);
+        writeFile(tempFile, data);
+
+        synchronized (this) {
+            File file = new File(documentRoot, fileName);
+            File revisionFile = new File(documentRoot, fileName + ".revision");
+            int currentRevision = expectedRevision;
+            boolean conflict = false;
+            if (revisionFile.exists()) {
+                currentRevision = Integer.parseInt(new String(readFile(revisionFile), "UTF-8"));
+                conflict = currentRevision != expectedRevision;
+            } else if (file.exists()) {
+                currentRevision = -1;
+                conflict = !ChunkManifest.hash(readFile(file)).equals(expectedHash);
+            }
+            if (conflict) {
+                tempFile.delete();
+                return "REVISION_CONFLICT " + currentRevision;
+            }
+            file.delete();
+            tempFile.renameTo(file);
+            writeFile(revisionFile, String.valueOf(revision).getBytes("UTF-8"));
+            return "OK";
+        }
+    }
+
+
+    private void handleDelete(HttpExchange exchange, HashMap params) throws IOException {
+        File file = new File(documentRoot, new File((String) params.get("fileToDelete")).getName());
+        if (!file.exists()) {
+            sendText(exchange, "FILE_DOESNT_EXIST");
+        } else if (!file.delete()) {
+            sendText(exchange, "FILE_WASNT_DELETED");
+        } else {
+            sendText(exchange, "OK");
+        }
+    }
+
+
+    private void handleChunks(HttpExchange exchange, HashMap params, HashMap files) throws IOException {
+        String action = (String) params.get("action");
+        if ("missing".equals(action)) {
+            StringBuffer missing = new StringBuffer();
+            ChunkManifest manifest = ChunkManifest.parse((String) params.get("hashes"));
+            for (int i = 0; i < manifest.size(); i++) {
+                String hash = (String) manifest.getChunkHashes().get(i);
+                if (!new File(chunkDir, hash).exists()) {
+                    missing.append(hash).append('\n');
+                }
+            }
+            sendText(exchange, missing.toString());
+        } else if ("put".equals(action)) {
+            synchronized (this) {
+                if (failAfterChunks != -1 && chunksReceived >= failAfterChunks) {
+                    send(exchange, 500, new byte[0]);
+                    return;
+                }
+                chunksReceived++;
+            }
+            String hash = (String) params.get("hash");
+            UploadedFile chunk = (UploadedFile) files.get("chunk");
+            if (!ChunkManifest.isValidHash(hash) || chunk == null) {
+                sendText(exchange, "CHUNK_WASNT_UPLOADED");
+            } else if (!ChunkManifest.hash(chunk.data).equals(hash)) {
+                sendText(exchange, "CHUNK_HASH_MISMATCH");
+            } else {
+                writeFile(new File(chunkDir, hash), chunk.data);
+                sendText(exchange, "OK");
+            }
+        } else if ("commit".equals(action)) {
+            ChunkManifest manifest = ChunkManifest.parse((String) params.get("hashes"));
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            for (int i = 0; i < manifest.size(); i++) {
+                File chunkFile = new File(chunkDir, (String) manifest.getChunkHashes().get(i));
+                if (!chunkFile.exists()) {
+                    sendText(exchange, "MISSING_CHUNKS");
+                    return;
+                }
+                contents.write(readFile(chunkFile));
+            }
+            String name = new File((String) params.get("name")).getName();
+            String response = publish(name, contents.toByteArray(), params);
+            if (response.equals("OK")) {
+                writeFile(new File(chunkDir, name + ".manifest"), manifest.toString().getBytes("UTF-8"));
+            }
+            sendText(exchange, response);
+        } else if ("manifest".equals(action)) {
+            String name = new File((String) params.get("name")).getName();
+            File file = new File(documentRoot, name);
+            if (!file.exists()) {
+                send(exchange, 404, new byte[0]);
+                return;
+            }
+            ChunkManifest manifest = ChunkManifest.fromFile(file, ChunkManifest.DEFAULT_CHUNK_SIZE, new ChunkStore(chunkDir));
+            sendText(exchange, manifest.toString());
+        } else if ("get".equals(action)) {
+            String hash = (String) params.get("hash");
+            if (!ChunkManifest.isValidHash(hash) || !new File(chunkDir, hash).exists()) {
+                send(exchange, 404, new byte[0]);
+            } else {
+                send(exchange, 200, readFile(new File(chunkDir, hash)));
+            }
+        } else {
+            sendText(exchange, "UNKNOWN_ACTION");
+        }
+    }
+
+
+    private void sendFile(HttpExchange exchange, File file) throws IOException {
+        byte[] contents = readFile(file);
+        boolean truncate;
+        boolean eTags;
+        boolean gzip;
+        String eTag = '"' + DigestUtils.md5Hex(contents) + '"';
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        synchronized (this) {
+            truncate = truncateDownloads;
+            eTags = sendETags;
+            gzip = gzipResponses && acceptEncoding != null && acceptEncoding.indexOf("gzip") != -1;
+        }
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzos = new GZIPOutputStream(compressed);
+            gzos.write(contents);
+            gzos.close();
+            contents = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        byte[] md5 = DigestUtils.md5(contents);
+        synchronized (this) {
+            if (sendBadChecksums) {
+                md5[0]++;
+            }
+        }
+
+        // Work out if the client's copy is still current, preferring the
+        // ETag over the modification date like a real server would
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        boolean notModified;
+        if (eTags && ifNoneMatch != null) {
+            notModified = ifNoneMatch.equals(eTag);
+        } else if (ifModifiedSince != null) {
+            notModified = ifModifiedSince.equals(formatDate(file.lastModified()));
+        } else {
+            notModified = false;
+        }
+
+        if (eTags) {
+            exchange.getResponseHeaders().add("ETag", eTag);
+        }
+        exchange.getResponseHeaders().add("Last-Modified", formatDate(file.lastModified()));
+        if (notModified) {
+            synchronized (this) {
+                notModifiedResponses++;
+            }
+            send(exchange, 304, new byte[0]);
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-MD5", new String(Base64.encodeBase64(md5), "US-ASCII"));
+        if (!truncate) {
+            send(exchange, 200, contents);
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, contents.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(contents, 0, contents.length / 2);
+        os.flush();
+        synchronized (this) {
+            bytesSent += contents.length / 2;
+        }
+        // Closing the exchange now drops the connection with the body
+        // only half sent
+    }
+
+
+    private void sendText(HttpExchange exchange, String text) throws IOException {
+        send(exchange, 200, text.getBytes("UTF-8"));
+    }
+
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+        synchronized (this) {
+            bytesSent += body.length;
+        }
+    }
+
+
+    private static String formatDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+
+    private static void parseParams(String s, HashMap params) throws UnsupportedEncodingException {
+        if (s == null) {
+            return;
+        }
+        StringTokenizer tokenizer = new StringTokenizer(s, "&");
+        while (tokenizer.hasMoreTokens()) {
+            String pair = tokenizer.nextToken();
+            int i = pair.indexOf('=');
+            if (i > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"),
+                        URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+            }
+        }
+    }
+
+
+    private static void parseMultipart(byte[] body, String boundary, HashMap params, HashMap files) throws UnsupportedEncodingException {
+        byte[] delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+        int pos = indexOf(body, delimiter, 0);
+        while (pos != -1) {
+            int headersStart = pos + delimiter.length + 2;
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes("ISO-8859-1"), headersStart);
+            int next = indexOf(body, delimiter, headersStart);
+            if (headersEnd == -1 || next == -1) {
+                break;
+            }
+            String headers = new String(body, headersStart, headersEnd - headersStart, "ISO-8859-1");
+            int dataStart = headersEnd + 4;
+            byte[] data = new byte[next - 2 - dataStart];
+            System.arraycopy(body, dataStart, data, 0, data.length);
+
+            String name = headerValue(headers, "name=\"");
+            String fileName = headerValue(headers, "filename=\"");
+            if (fileName != null) {
+                files.put(name, new UploadedFile(fileName, data));
+            } else {
+                params.put(name, new String(data, "UTF-8"));
+            }
+            pos = next;
+        }
+    }
+
+
+    private static String headerValue(String headers, String prefix) {
+        int i = headers.indexOf(prefix);
+        if (prefix.equals("name=\"")) {
+            // Don't match the "name=" in "filename="
+            while (i > 0 && headers.charAt(i - 1) != ' ' && headers.charAt(i - 1) != ';') {
+                i = headers.indexOf(prefix, i + 1);
+            }
+        }
+        if (i == -1) {
+            return null;
+        }
+        int start = i + prefix.length();
+        return headers.substring(start, headers.indexOf('"', start));
+    }
+
+
+    private static int indexOf(byte[] array, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int numRead;
+        while ((numRead = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, numRead);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
+
+    private static byte[] readFile(File file) throws IOException {
+        return readFully(new FileInputStream(file));
+    }
+
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+
+
+    private static class UploadedFile {
+        private String fileName;
+        private byte[] data;
+
+        UploadedFile(String fileName, byte[] data) {
+            this.fileName = fileName;
+            this.data = data;
+        }
+    }
+
+}
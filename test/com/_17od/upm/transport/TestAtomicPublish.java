@@ -0,0 +1,227 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Preferences;
+
+
+public class TestAtomicPublish extends TestCase {
+
+    private LocalHTTPServer server;
+    private HTTPTransport transport;
+    private File uploadDir;
+
+
+    public void setUp() throws Exception {
+        Preferences.load();
+
+        server = new LocalHTTPServer();
+        server.start();
+
+        transport = new HTTPTransport();
+
+        uploadDir = File.createTempFile("upmupload", "");
+        uploadDir.delete();
+        uploadDir.mkdir();
+    }
+
+
+    public void tearDown() throws Exception {
+        server.stop();
+        delete(uploadDir);
+    }
+
+
+    public void testPublish() throws Exception {
+        transport.publish(server.getURL(), createFile("revision 1"), 0, null, 1, null, null);
+        assertEquals("revision 1", readRemoteFile());
+
+        transport.publish(server.getURL(), createFile("revision 2"), 1, null, 2, null, null);
+        assertEquals("revision 2", readRemoteFile());
+        assertNoTempFilesLeft();
+    }
+
+
+    public void testStaleRevisionIsRejected() throws Exception {
+        transport.publish(server.getURL(), createFile("revision 1"), 0, null, 1, null, null);
+        transport.publish(server.getURL(), createFile("revision 2"), 1, null, 2, null, null);
+
+        try {
+            transport.publish(server.getURL(), createFile("also revision 2"), 1, null, 2, null, null);
+            fail("Expected a RevisionConflictException");
+        } catch (RevisionConflictException e) {
+            assertEquals(2, e.getCurrentRevision());
+        }
+        assertEquals("revision 2", readRemoteFile());
+        assertNoTempFilesLeft();
+    }
+
+
+    public void testUploadIsNeverSentTwice() throws Exception {
+        server.setFailMoves(true);
+        try {
+            transport.put(server.getURL(), createFile("uploaded", "uploaded"));
+            fail("Expected a TransportException");
+        } catch (TransportException e) {
+            assertTrue(e.getMessage().indexOf("FILE_WASNT_MOVED") != -1);
+        }
+        assertEquals(1, server.getUploadsReceived());
+    }
+
+
+    public void testFileWithoutRevisionIsCheckedByHash() throws Exception {
+        // A database uploaded with upload.php has no revision on the server
+        File uploaded = createFile("uploaded", "uploaded");
+        transport.put(server.getURL(), uploaded);
+
+        try {
+            transport.publish(server.getURL(), createFile("revision 1"), 0,
+                    ChunkManifest.hash("something else".getBytes("UTF-8")), 1, null, null);
+            fail("Expected a RevisionConflictException");
+        } catch (RevisionConflictException e) {
+            assertEquals(-1, e.getCurrentRevision());
+        }
+        try {
+            transport.publish(server.getURL(), createFile("revision 1"), 0, null, 1, null, null);
+            fail("Expected a RevisionConflictException");
+        } catch (RevisionConflictException e) {
+            assertEquals(-1, e.getCurrentRevision());
+        }
+        assertEquals("uploaded", readRemoteFile());
+
+        transport.publish(server.getURL(), createFile("revision 1"), 0, ChunkManifest.hash(uploaded), 1, null, null);
+        assertEquals("revision 1", readRemoteFile());
+
+        // From now on it's checked by revision
+        try {
+            transport.publish(server.getURL(), createFile("also revision 1"), 0, ChunkManifest.hash(uploaded), 1, null, null);
+            fail("Expected a RevisionConflictException");
+        } catch (RevisionConflictException e) {
+            assertEquals(1, e.getCurrentRevision());
+        }
+        assertNoTempFilesLeft();
+    }
+
+
+    public void testConcurrentWritersDontClobberEachOther() throws Exception {
+        transport.publish(server.getURL(), createFile("revision 1"), 0, null, 1, null, null);
+
+        final int[] successes = new int[1];
+        final int[] conflicts = new int[1];
+        final Exception[] failure = new Exception[1];
+        Thread[] writers = new Thread[8];
+        for (int i = 0; i < writers.length; i++) {
+            final File file = createFile("writer " + i, "writer" + i);
+            writers[i] = new Thread() {
+                public void run() {
+                    try {
+                        new HTTPTransport().publish(server.getURL(), file, 1, null, 2, null, null);
+                        synchronized (successes) {
+                            successes[0]++;
+                        }
+                    } catch (RevisionConflictException e) {
+                        synchronized (successes) {
+                            conflicts[0]++;
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].join();
+        }
+
+        assertNull(failure[0]);
+        assertEquals(1, successes[0]);
+        assertEquals(writers.length - 1, conflicts[0]);
+        assertTrue(readRemoteFile().startsWith("writer "));
+        assertNoTempFilesLeft();
+    }
+
+
+    private File createFile(String contents) throws IOException {
+        return createFile(contents, "");
+    }
+
+
+    /**
+     * Every upload has to be called upm.db but the writers need their own
+     * copies so each one gets its own sub directory
+     */
+    private File createFile(String contents, String subDir) throws IOException {
+        File dir = new File(uploadDir, subDir);
+        dir.mkdir();
+        File file = new File(dir, "upm.db");
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(contents.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+
+    private String readRemoteFile() throws IOException {
+        File file = new File(server.getDocumentRoot(), "upm.db");
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += fis.read(data, offset, data.length - offset);
+            }
+        } finally {
+            fis.close();
+        }
+        return new String(data, "UTF-8");
+    }
+
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+
+
+    private void assertNoTempFilesLeft() {
+        String[] names = server.getDocumentRoot().list();
+        for (int i = 0; i < names.length; i++) {
+            assertFalse(names[i], names[i].endsWith(".tmp"));
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+public class TestChunkStore extends TestCase {
+
+    private File dir;
+    private ChunkStore store;
+
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("upmchunks", "");
+        dir.delete();
+        store = new ChunkStore(dir);
+    }
+
+
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testPutAndGet() throws Exception {
+        byte[] chunk = "some chunk".getBytes("US-ASCII");
+        String hash = ChunkManifest.hash(chunk);
+        assertFalse(store.contains(hash));
+        store.put(hash, chunk);
+        assertTrue(store.contains(hash));
+        assertTrue(Arrays.equals(chunk, store.get(hash)));
+    }
+
+
+    public void testCorruptChunkIsDiscarded() throws Exception {
+        byte[] chunk = "some chunk".getBytes("US-ASCII");
+        String hash = ChunkManifest.hash(chunk);
+        FileOutputStream fos = new FileOutputStream(new File(dir, hash));
+        fos.write("something else".getBytes("US-ASCII"));
+        fos.close();
+
+        assertFalse(store.contains(hash));
+        assertFalse(new File(dir, hash).exists());
+        try {
+            store.get(hash);
+            fail("A missing chunk shouldn't be returned");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+
+    public void testAssembleChecksChunks() throws Exception {
+        byte[] chunk = "some chunk".getBytes("US-ASCII");
+        String hash = ChunkManifest.hash(chunk);
+        store.put(hash, chunk);
+        FileOutputStream fos = new FileOutputStream(new File(dir, hash));
+        fos.write("something else".getBytes("US-ASCII"));
+        fos.close();
+
+        File file = File.createTempFile("upm", null);
+        try {
+            store.assemble(manifest(new String[] {hash}), file);
+            fail("A corrupt chunk shouldn't be assembled");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    public void testRetainPrunesUnusedChunks() throws Exception {
+        String a = putChunk("a");
+        String b = putChunk("b");
+        String c = putChunk("c");
+
+        store.retain("http://host/chunks.php?name=one", manifest(new String[] {a, b}));
+        store.retain("http://host/chunks.php?name=two", manifest(new String[] {b}));
+        assertTrue(store.contains(a));
+        assertTrue(store.contains(b));
+        assertFalse(store.contains(c));
+
+        // A new version of the first file no longer needs the first chunk
+        store.retain("http://host/chunks.php?name=one", manifest(new String[] {b}));
+        assertFalse(store.contains(a));
+        assertTrue(store.contains(b));
+    }
+
+
+    private String putChunk(String contents) throws IOException {
+        byte[] chunk = contents.getBytes("US-ASCII");
+        String hash = ChunkManifest.hash(chunk);
+        store.put(hash, chunk);
+        return hash;
+    }
+
+
+    private ChunkManifest manifest(String[] hashes) {
+        return new ChunkManifest(new ArrayList(Arrays.asList(hashes)));
+    }
+
+}
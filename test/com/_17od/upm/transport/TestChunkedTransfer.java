@@ -0,0 +1,187 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Preferences;
+
+
+public class TestChunkedTransfer extends TestCase {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    private LocalHTTPServer server;
+    private HTTPTransport transport;
+    private File fileToUpload;
+
+
+    public void setUp() throws Exception {
+        Preferences.load();
+
+        server = new LocalHTTPServer();
+        server.start();
+
+        transport = new HTTPTransport();
+        transport.setChunkStore(new ChunkStore(createTempDir()));
+
+        fileToUpload = File.createTempFile("tmp", ".upm");
+        byte[] contents = new byte[FILE_SIZE];
+        new Random(42).nextBytes(contents);
+        FileOutputStream fos = new FileOutputStream(fileToUpload);
+        fos.write(contents);
+        fos.close();
+    }
+
+
+    public void tearDown() throws Exception {
+        server.stop();
+        fileToUpload.delete();
+    }
+
+
+    public void testPutAndGet() throws Exception {
+        transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+        assertTrue(Arrays.equals(readFile(fileToUpload),
+                readFile(new File(server.getDocumentRoot(), fileToUpload.getName()))));
+
+        // Download with an empty chunk store so every chunk has to be fetched
+        HTTPTransport downloader = new HTTPTransport();
+        downloader.setChunkStore(new ChunkStore(createTempDir()));
+        File downloadedFile = downloader.getRemoteFileChunked(server.getURL(), fileToUpload.getName(), null, null);
+        assertTrue(Arrays.equals(readFile(fileToUpload), readFile(downloadedFile)));
+        downloadedFile.delete();
+    }
+
+
+    public void testSmallChangeOnlyUploadsChangedChunk() throws Exception {
+        transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+
+        changeOneByte(fileToUpload, FILE_SIZE / 2);
+        server.resetCounters();
+        transport.putChunked(server.getURL(), fileToUpload, 1, null, 2, null, null);
+
+        assertEquals(1, server.getChunksReceived());
+        assertTrue("Uploaded " + server.getBytesReceived() + " bytes",
+                server.getBytesReceived() < 2 * ChunkManifest.DEFAULT_CHUNK_SIZE);
+        assertTrue(Arrays.equals(readFile(fileToUpload),
+                readFile(new File(server.getDocumentRoot(), fileToUpload.getName()))));
+    }
+
+
+    public void testSmallChangeOnlyDownloadsChangedChunk() throws Exception {
+        HTTPTransport downloader = new HTTPTransport();
+        downloader.setChunkStore(new ChunkStore(createTempDir()));
+
+        transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+        downloader.getRemoteFileChunked(server.getURL(), fileToUpload.getName(), null, null).delete();
+
+        changeOneByte(fileToUpload, 10);
+        transport.putChunked(server.getURL(), fileToUpload, 1, null, 2, null, null);
+        server.resetCounters();
+        File downloadedFile = downloader.getRemoteFileChunked(server.getURL(), fileToUpload.getName(), null, null);
+
+        assertTrue("Downloaded " + server.getBytesSent() + " bytes",
+                server.getBytesSent() < 2 * ChunkManifest.DEFAULT_CHUNK_SIZE);
+        assertTrue(Arrays.equals(readFile(fileToUpload), readFile(downloadedFile)));
+        downloadedFile.delete();
+    }
+
+
+    public void testStaleRevisionIsRejected() throws Exception {
+        transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+        byte[] published = readFile(new File(server.getDocumentRoot(), fileToUpload.getName()));
+
+        changeOneByte(fileToUpload, 10);
+        try {
+            transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+            fail("Expected a RevisionConflictException");
+        } catch (RevisionConflictException e) {
+            assertEquals(1, e.getCurrentRevision());
+        }
+        assertTrue(Arrays.equals(published, readFile(new File(server.getDocumentRoot(), fileToUpload.getName()))));
+
+        transport.putChunked(server.getURL(), fileToUpload, 1, null, 2, null, null);
+        assertTrue(Arrays.equals(readFile(fileToUpload),
+                readFile(new File(server.getDocumentRoot(), fileToUpload.getName()))));
+    }
+
+
+    public void testInterruptedUploadResumes() throws Exception {
+        int totalChunks = FILE_SIZE / ChunkManifest.DEFAULT_CHUNK_SIZE;
+        server.setFailAfterChunks(5);
+        try {
+            transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+            fail("Expected the upload to fail");
+        } catch (TransportException e) {
+            // expected to get here
+        }
+        assertFalse(new File(server.getDocumentRoot(), fileToUpload.getName()).exists());
+
+        server.setFailAfterChunks(-1);
+        server.resetCounters();
+        transport.putChunked(server.getURL(), fileToUpload, 0, null, 1, null, null);
+
+        assertEquals(totalChunks - 5, server.getChunksReceived());
+        assertTrue(Arrays.equals(readFile(fileToUpload),
+                readFile(new File(server.getDocumentRoot(), fileToUpload.getName()))));
+    }
+
+
+    private void changeOneByte(File file, int position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(position);
+        int b = raf.read();
+        raf.seek(position);
+        raf.write(b ^ 0xff);
+        raf.close();
+    }
+
+
+    private File createTempDir() throws IOException {
+        File dir = File.createTempFile("upmchunks", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+
+    private byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        int offset = 0;
+        int numRead;
+        while (offset < bytes.length && (numRead = fis.read(bytes, offset, bytes.length - offset)) >= 0) {
+            offset += numRead;
+        }
+        fis.close();
+        return bytes;
+    }
+
+}
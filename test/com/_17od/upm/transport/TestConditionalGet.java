@@ -0,0 +1,160 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Preferences;
+
+
+public class TestConditionalGet extends TestCase {
+
+    private LocalHTTPServer server;
+    private HTTPTransport transport;
+    private HTTPCache cache;
+    private File cacheDir;
+    private File remoteFile;
+
+
+    public void setUp() throws Exception {
+        Preferences.load();
+
+        server = new LocalHTTPServer();
+        server.start();
+
+        transport = new HTTPTransport();
+
+        cacheDir = File.createTempFile("upmcache", "");
+        cacheDir.delete();
+        cache = new HTTPCache(cacheDir);
+
+        remoteFile = new File(server.getDocumentRoot(), "upm.db");
+        writeFile(remoteFile, "version 1");
+    }
+
+
+    public void tearDown() throws Exception {
+        server.stop();
+        File[] files = cacheDir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        cacheDir.delete();
+    }
+
+
+    public void testNotModifiedWithETag() throws Exception {
+        fetchAndCache();
+
+        server.resetCounters();
+        HTTPCache.Entry entry = transport.getRemoteFileIfModified(server.getURL(), "upm.db", null, null, cache.get("key"));
+        assertTrue(entry.isNotModified());
+        assertEquals(1, server.getNotModifiedResponses());
+        assertEquals(0, server.getBytesSent());
+        assertEquals("version 1", readFile(entry.getFile()));
+    }
+
+
+    public void testModifiedWithETag() throws Exception {
+        fetchAndCache();
+
+        writeFile(remoteFile, "version 2");
+        HTTPCache.Entry entry = transport.getRemoteFileIfModified(server.getURL(), "upm.db", null, null, cache.get("key"));
+        assertFalse(entry.isNotModified());
+        assertEquals("version 2", readFile(entry.getFile()));
+        entry.getFile().delete();
+    }
+
+
+    public void testIfModifiedSince() throws Exception {
+        server.setSendETags(false);
+        HTTPCache.Entry entry = fetchAndCache();
+        assertNull(entry.getETag());
+        assertNotNull(entry.getLastModified());
+
+        server.resetCounters();
+        entry = transport.getRemoteFileIfModified(server.getURL(), "upm.db", null, null, cache.get("key"));
+        assertTrue(entry.isNotModified());
+        assertEquals(0, server.getBytesSent());
+
+        writeFile(remoteFile, "version 2");
+        remoteFile.setLastModified(remoteFile.lastModified() + 10000);
+        entry = transport.getRemoteFileIfModified(server.getURL(), "upm.db", null, null, cache.get("key"));
+        assertFalse(entry.isNotModified());
+        assertEquals("version 2", readFile(entry.getFile()));
+        entry.getFile().delete();
+    }
+
+
+    public void testCacheSurvivesReload() throws Exception {
+        HTTPCache.Entry entry = fetchAndCache();
+
+        HTTPCache reloadedCache = new HTTPCache(cacheDir);
+        HTTPCache.Entry cachedEntry = reloadedCache.get("key");
+        assertEquals(entry.getETag(), cachedEntry.getETag());
+        assertEquals(entry.getLastModified(), cachedEntry.getLastModified());
+        assertEquals("version 1", readFile(cachedEntry.getFile()));
+
+        reloadedCache.remove("key");
+        assertNull(reloadedCache.get("key"));
+        assertNull(new HTTPCache(cacheDir).get("key"));
+    }
+
+
+    private HTTPCache.Entry fetchAndCache() throws Exception {
+        HTTPCache.Entry entry = transport.getRemoteFileIfModified(server.getURL(), "upm.db", null, null, null);
+        assertFalse(entry.isNotModified());
+        cache.put("key", entry.getETag(), entry.getLastModified(), entry.getFile());
+        entry.getFile().delete();
+        return entry;
+    }
+
+
+    private static void writeFile(File file, String contents) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(contents.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+
+    private static String readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += fis.read(data, offset, data.length - offset);
+            }
+        } finally {
+            fis.close();
+        }
+        return new String(data, "UTF-8");
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com._17od.upm.util.Preferences;
+
+
+public class TestStreamingDownload extends TestCase {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 17;
+
+    private LocalHTTPServer server;
+    private HTTPTransport transport;
+    private byte[] contents;
+
+
+    public void setUp() throws Exception {
+        Preferences.load();
+
+        server = new LocalHTTPServer();
+        server.start();
+
+        transport = new HTTPTransport();
+
+        contents = new byte[FILE_SIZE];
+        new Random(42).nextBytes(contents);
+        FileOutputStream fos = new FileOutputStream(new File(server.getDocumentRoot(), "upm.db"));
+        fos.write(contents);
+        fos.close();
+    }
+
+
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+
+    public void testDownload() throws Exception {
+        File downloadedFile = transport.getRemoteFile(server.getURL(), "upm.db", null, null);
+        try {
+            assertTrue(Arrays.equals(contents, readFile(downloadedFile)));
+        } finally {
+            downloadedFile.delete();
+        }
+    }
+
+
+    public void testGzippedDownload() throws Exception {
+        // Random bytes don't compress so use some text
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 10000; i++) {
+            text.append("account ").append(i).append('\n');
+        }
+        FileOutputStream fos = new FileOutputStream(new File(server.getDocumentRoot(), "text.txt"));
+        fos.write(text.toString().getBytes("UTF-8"));
+        fos.close();
+
+        server.setGzipResponses(true);
+        server.resetCounters();
+        File downloadedFile = transport.getRemoteFile(server.getURL(), "text.txt", null, null);
+        try {
+            assertEquals(text.toString(), new String(readFile(downloadedFile), "UTF-8"));
+            assertTrue(server.getBytesSent() < text.length() / 2);
+        } finally {
+            downloadedFile.delete();
+        }
+
+        assertEquals(text.toString(), new String(transport.get(server.getURL(), "text.txt"), "UTF-8"));
+    }
+
+
+    public void testTruncatedDownloadFails() throws Exception {
+        server.setTruncateDownloads(true);
+        int tempFilesBefore = countTempFiles();
+        try {
+            transport.getRemoteFile(server.getURL(), "upm.db", null, null);
+            fail("Expected a TransportException");
+        } catch (TransportException e) {
+            // expected
+        }
+        assertEquals(tempFilesBefore, countTempFiles());
+    }
+
+
+    public void testChecksumMismatchFails() throws Exception {
+        server.setSendBadChecksums(true);
+        int tempFilesBefore = countTempFiles();
+        try {
+            transport.getRemoteFile(server.getURL(), "upm.db", null, null);
+            fail("Expected a TransportException");
+        } catch (TransportException e) {
+            // expected
+        }
+        assertEquals(tempFilesBefore, countTempFiles());
+    }
+
+
+    public void testMissingFileFails() throws Exception {
+        try {
+            transport.getRemoteFile(server.getURL(), "doesntexist.db", null, null);
+            fail("Expected a TransportException");
+        } catch (TransportException e) {
+            // expected
+        }
+    }
+
+
+    private int countTempFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int count = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].startsWith("upm") && names[i].endsWith(".tmp")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += fis.read(data, offset, data.length - offset);
+            }
+        } finally {
+            fis.close();
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.transport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com._17od.upm.util.Preferences;
+
+
+public class TestTransportRegistry extends TestCase {
+
+    private LocalHTTPServer server;
+
+
+    public void setUp() throws Exception {
+        Preferences.load();
+        TransportRegistry.reset();
+
+        server = new LocalHTTPServer();
+        server.start();
+
+        FileOutputStream fos = new FileOutputStream(new File(server.getDocumentRoot(), "upm.db"));
+        fos.write("contents".getBytes("UTF-8"));
+        fos.close();
+    }
+
+
+    public void tearDown() throws Exception {
+        server.stop();
+        TransportRegistry.reset();
+    }
+
+
+    public void testSameTransportPerSchemeAndHost() throws Exception {
+        Transport transport = Transport.getTransportForURL(new URL("http://example.com/upm/"));
+        assertSame(transport, Transport.getTransportForURL(new URL("http://example.com:80/other/")));
+        assertSame(transport, Transport.getTransportForURL(new URL("http://EXAMPLE.com/")));
+        assertNotSame(transport, Transport.getTransportForURL(new URL("https://example.com/upm/")));
+        assertNotSame(transport, Transport.getTransportForURL(new URL("http://example.org/upm/")));
+        assertNotSame(transport, Transport.getTransportForURL(new URL("http://example.com:8080/upm/")));
+        assertNull(Transport.getTransportForURL(new URL("file:///tmp/upm.db")));
+    }
+
+
+    public void testResetCreatesNewTransports() throws Exception {
+        Transport transport = Transport.getTransportForURL(new URL("http://example.com/upm/"));
+        TransportRegistry.reset();
+        assertNotSame(transport, Transport.getTransportForURL(new URL("http://example.com/upm/")));
+    }
+
+
+    public void testConnectionsAreReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Transport transport = Transport.getTransportForURL(new URL(server.getURL()));
+            assertEquals("contents", new String(transport.get(server.getURL(), "upm.db"), "UTF-8"));
+        }
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, TransportRegistry.getConnectionsInPool());
+    }
+
+
+    public void testCredentialsAreNotSharedBetweenCallers() throws Exception {
+        Transport transport = Transport.getTransportForURL(new URL(server.getURL()));
+        transport.get(server.getURL(), "upm.db", "alice", "secret");
+        assertEquals("Basic " + new String(Base64.encodeBase64("alice:secret".getBytes("US-ASCII")), "US-ASCII"),
+                server.getLastAuthorization());
+
+        // Another caller of the same shared transport without credentials
+        transport = Transport.getTransportForURL(new URL(server.getURL()));
+        transport.get(server.getURL(), "upm.db");
+        assertNull(server.getLastAuthorization());
+    }
+
+
+    public void testConcurrentRequestsAreLimitedPerHost() throws Exception {
+        final Transport transport = Transport.getTransportForURL(new URL(server.getURL()));
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 5; j++) {
+                            transport.get(server.getURL(), "upm.db");
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNull(failure[0]);
+        assertTrue(server.getConnectionCount() <= TransportRegistry.MAX_CONNECTIONS_PER_HOST);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+
+/**
+ * Compares PasswordGenerator with the old approach of creating a
+ * SecureRandom per password and regenerating until every character class
+ * turns up. There's no JMH here so each mode gets a warm up run before the
+ * timed ones. Not a unit test, run it by hand:
+ * 
+ *   java com._17od.upm.util.PasswordGeneratorBenchmark [passwords] [length] [iterations]
+ */
+public class PasswordGeneratorBenchmark {
+
+    private static final char[] EXTRA_ALLOWED_CHARS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789~!@#$%^&*(,)_-+=|/<>.?;:".toCharArray();
+
+    private static final int ALL_CLASSES = PasswordGenerator.LOWER_CASE | PasswordGenerator.UPPER_CASE
+            | PasswordGenerator.DIGITS | PasswordGenerator.PUNCTUATION;
+
+
+    /** Stops the JIT throwing the passwords away */
+    private static volatile long sink;
+
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.println(count + " passwords of " + length + " characters, " + iterations + " iterations");
+        System.out.println("mode          median ms   passwords/s");
+        run("rejection", count, length, iterations, false);
+        run("generator", count, length, iterations, true);
+    }
+
+
+    private static void run(String mode, int count, int length, int iterations, boolean generator) {
+        long[] times = new long[iterations];
+        long checksum = 0;
+        for (int i = -1; i < iterations; i++) {
+            long start = System.nanoTime();
+            if (generator) {
+                PasswordGenerator passwordGenerator = new PasswordGenerator(length, true);
+                char[] password = new char[length];
+                for (int j = 0; j < count; j++) {
+                    passwordGenerator.generate(password);
+                    checksum += password[0];
+                }
+            } else {
+                for (int j = 0; j < count; j++) {
+                    char[] password;
+                    do {
+                        password = oldGenerate(length);
+                    } while (!oldIsStrong(password));
+                    checksum += password[0];
+                }
+            }
+            if (i >= 0) {
+                times[i] = (System.nanoTime() - start) / 1000000;
+            }
+        }
+        Arrays.sort(times);
+        long median = Math.max(1, times[iterations / 2]);
+        sink = checksum;
+        System.out.println(pad(mode, 14) + pad(String.valueOf(median), 12) + (count * 1000L / median));
+    }
+
+
+    /**
+     * What AccountDialog used to do
+     */
+    private static char[] oldGenerate(int length) {
+        SecureRandom random = new SecureRandom();
+        char[] password = new char[length];
+        for (int i = 0; i < length; i++) {
+            password[i] = EXTRA_ALLOWED_CHARS[random.nextInt(EXTRA_ALLOWED_CHARS.length)];
+        }
+        return password;
+    }
+
+
+    private static boolean oldIsStrong(char[] password) {
+        String[] classes = {"ABCDEFGHIJKLMNOPQRSTUVWXYZ", "abcdefghijklmnopqrstuvwxyz", "0123456789",
+                "~!@#$%^&*(,)_-+=|/<>.?;:"};
+        for (int k = 0; k < classes.length; k++) {
+            boolean found = false;
+            for (int i = 0; i < password.length && !found; i++) {
+                for (int j = 0; j < classes[k].length(); j++) {
+                    if (password[i] == classes[k].charAt(j)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return PasswordGenerator.hasClasses(password, ALL_CLASSES);
+    }
+
+
+    private static String pad(String s, int width) {
+        StringBuffer padded = new StringBuffer(s);
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+}
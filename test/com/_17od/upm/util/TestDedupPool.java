@@ -0,0 +1,56 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import junit.framework.TestCase;
+
+
+public class TestDedupPool extends TestCase {
+
+    public void testEqualValuesAreShared() {
+        DedupPool pool = new DedupPool(16);
+        String first = pool.dedup(new String("me@example.com"));
+        String second = pool.dedup(new String("me@example.com"));
+        assertSame(first, second);
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getLookups());
+        assertEquals(40 + 14, pool.getSavedBytes());
+    }
+
+
+    public void testPoolIsBounded() {
+        DedupPool pool = new DedupPool(4);
+        for (int i = 0; i < 1000; i++) {
+            pool.dedup("value" + i);
+        }
+        // Nothing repeated so nothing shared, and the pool is still 4 entries
+        assertEquals(0, pool.getHits());
+        String value = new String("value999");
+        String pooled = pool.dedup(value);
+        assertEquals(value, pooled);
+    }
+
+
+    public void testNullIsPassedThrough() {
+        assertNull(new DedupPool(4).dedup((String) null));
+    }
+
+}
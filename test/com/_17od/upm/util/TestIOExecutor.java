@@ -0,0 +1,140 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+
+public class TestIOExecutor extends TestCase {
+
+    private IOExecutor executor = new IOExecutor(IOExecutor.newThreadPerTaskExecutor("test I/O", 16), 2);
+
+
+    public void testInFlightIsLimitedPerBackend() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        IOExecutor.Group group = executor.newGroup();
+        Future[] futures = new Future[10];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = group.submit("http://example.com:80", new Callable() {
+                public Object call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return null;
+                }
+            });
+        }
+        // A different backend isn't held up by the busy one
+        assertEquals("done", group.call(IOExecutor.FILE_BACKEND, new Callable() {
+            public Object call() {
+                return "done";
+            }
+        }));
+        for (int i = 0; i < futures.length; i++) {
+            futures[i].get();
+        }
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, executor.getInFlight("http://example.com:80"));
+    }
+
+
+    public void testTaskHasLeftTheInFlightCountOnceItsResultIsSeen() throws Exception {
+        IOExecutor.Group group = executor.newGroup();
+        for (int i = 0; i < 200; i++) {
+            group.call("http://example.com:80", new Callable() {
+                public Object call() {
+                    return null;
+                }
+            });
+            assertEquals(0, executor.getInFlight("http://example.com:80"));
+        }
+    }
+
+
+    public void testCallRethrowsTheTasksException() throws Exception {
+        try {
+            executor.newGroup().call(IOExecutor.FILE_BACKEND, new Callable() {
+                public Object call() throws Exception {
+                    throw new IOException("disk on fire");
+                }
+            });
+            fail("The task's exception should have been rethrown");
+        } catch (IOException e) {
+            assertEquals("disk on fire", e.getMessage());
+        }
+    }
+
+
+    public void testCancelInterruptsRunningTasksAndRefusesNewOnes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        IOExecutor.Group group = executor.newGroup();
+        group.submit(IOExecutor.FILE_BACKEND, new Callable() {
+            public Object call() {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Other groups carry on regardless
+        IOExecutor.Group other = executor.newGroup();
+        group.cancel();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(group.isCancelled());
+        assertFalse(other.isCancelled());
+        try {
+            group.submit(IOExecutor.FILE_BACKEND, new Callable() {
+                public Object call() {
+                    return null;
+                }
+            });
+            fail("A cancelled group shouldn't accept new tasks");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+
+    public void testBackendFor() {
+        assertEquals("http://example.com:80", IOExecutor.backendFor("http://Example.com/upm/upm.db"));
+        assertEquals("https://example.com:8443", IOExecutor.backendFor("https://example.com:8443/upm"));
+        assertEquals("not a url", IOExecutor.backendFor("not a url"));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+
+public class TestMetrics extends TestCase {
+
+    public void testPercentilesAreWithinABucket() {
+        Metrics.Timer timer = new Metrics().timer("load", "Loading");
+        for (int i = 1; i <= 1000; i++) {
+            timer.record(i * 1000L);
+        }
+        assertEquals(1000, timer.getCount());
+        assertEquals(1000000, timer.getMaxNanos());
+        assertEquals(500500000L, timer.getTotalNanos());
+        assertWithin(500000, timer.getPercentileNanos(0.5));
+        assertWithin(990000, timer.getPercentileNanos(0.99));
+        assertEquals(1000000, timer.getPercentileNanos(1));
+    }
+
+
+    public void testBucketsCoverEveryValue() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, 1L << 40, Long.MAX_VALUE};
+        for (int i = 0; i < values.length; i++) {
+            int bucket = Metrics.Timer.bucketFor(values[i]);
+            if (values[i] <= 1L << 40) {
+                assertTrue(values[i] + " is above its bucket", values[i] <= Metrics.Timer.upperBound(bucket));
+            }
+            if (bucket > 0) {
+                assertTrue(values[i] + " belongs in an earlier bucket", values[i] > Metrics.Timer.upperBound(bucket - 1));
+            }
+        }
+    }
+
+
+    public void testMetricsAreSharedByName() {
+        Metrics metrics = new Metrics();
+        metrics.counter("requests", "Requests").increment();
+        metrics.counter("requests", "Requests").add(2);
+        assertEquals(3, metrics.counter("requests", "Requests").get());
+        assertSame(metrics.timer("save", "Saving"), metrics.timer("save", "Saving"));
+    }
+
+
+    public void testPrometheusExport() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.timer("decrypt", "Decrypting").record(2000000);
+        metrics.counter("http_received_bytes", "Bytes received").add(512);
+
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        String expected =
+                "# HELP upm_decrypt_seconds Decrypting\n"
+                + "# TYPE upm_decrypt_seconds summary\n"
+                + "upm_decrypt_seconds{quantile=\"0.5\"} 0.002\n"
+                + "upm_decrypt_seconds{quantile=\"0.9\"} 0.002\n"
+                + "upm_decrypt_seconds{quantile=\"0.99\"} 0.002\n"
+                + "upm_decrypt_seconds_sum 0.002\n"
+                + "upm_decrypt_seconds_count 1\n"
+                + "# HELP upm_http_received_bytes_total Bytes received\n"
+                + "# TYPE upm_http_received_bytes_total counter\n"
+                + "upm_http_received_bytes_total 512\n";
+        assertEquals(expected, writer.toString());
+
+        File file = File.createTempFile("upm", ".prom");
+        try {
+            metrics.exportTo(file);
+            byte[] exported = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(exported);
+            } finally {
+                in.close();
+            }
+            assertEquals(expected, new String(exported, "UTF-8"));
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " isn't within 12.5% of " + expected,
+                Math.abs(actual - expected) <= expected / 8);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Universal Password Manager
+ * Copyright (C) 2005-2013 Adrian Smith
+ *
+ * This file is part of Universal Password Manager.
+ *   
+ * Universal Password Manager is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Universal Password Manager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Universal Password Manager; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com._17od.upm.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class TestPasswordGenerator extends TestCase {
+
+    private static final int ALL_CLASSES = PasswordGenerator.LOWER_CASE | PasswordGenerator.UPPER_CASE
+            | PasswordGenerator.DIGITS | PasswordGenerator.PUNCTUATION;
+
+
+    public void testClassesOf() {
+        assertTrue(PasswordGenerator.hasClasses("Klfjjru!234".toCharArray(), PasswordGenerator.UPPER_CASE));
+        assertFalse(PasswordGenerator.hasClasses("kllfmjiugiwug@#$%%^k856".toCharArray(), PasswordGenerator.UPPER_CASE));
+        assertTrue(PasswordGenerator.hasClasses("hghtkghjKLLP123%^&".toCharArray(), PasswordGenerator.LOWER_CASE));
+        assertFalse(PasswordGenerator.hasClasses("KGHJLMBCX78990^&**".toCharArray(), PasswordGenerator.LOWER_CASE));
+        assertTrue(PasswordGenerator.hasClasses("Kghkfrjgir*&^$%4523".toCharArray(), PasswordGenerator.DIGITS));
+        assertFalse(PasswordGenerator.hasClasses("KJHHGhnnfhhshd&*()hghg".toCharArray(), PasswordGenerator.DIGITS));
+        assertTrue(PasswordGenerator.hasClasses("Jajjggj*hgjf12364".toCharArray(), PasswordGenerator.PUNCTUATION));
+        assertFalse(PasswordGenerator.hasClasses("JKhghgloeor159645".toCharArray(), PasswordGenerator.PUNCTUATION));
+        assertEquals(0, PasswordGenerator.classesOf("\u00e9 \"".toCharArray()));
+        assertEquals(ALL_CLASSES, PasswordGenerator.classesOf("aZ9:".toCharArray()));
+    }
+
+
+    public void testLength() {
+        assertEquals(10, new PasswordGenerator(10, true).generate().length);
+        assertEquals(10, new PasswordGenerator(10, false).generate().length);
+        assertEquals(7, new PasswordGenerator(7, true).generate().length);
+        assertEquals(7, new PasswordGenerator(7, false).generate().length);
+        assertEquals(0, new PasswordGenerator(0, true).generate().length);
+    }
+
+
+    public void testAlwaysHasEveryClass() {
+        PasswordGenerator withPunctuation = new PasswordGenerator(4, true);
+        PasswordGenerator withoutPunctuation = new PasswordGenerator(3, false);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(ALL_CLASSES, PasswordGenerator.classesOf(withPunctuation.generate()));
+            char[] password = withoutPunctuation.generate();
+            assertEquals(ALL_CLASSES & ~PasswordGenerator.PUNCTUATION, PasswordGenerator.classesOf(password));
+        }
+    }
+
+
+    public void testEveryCharacterAndPosition() {
+        // The required characters are shuffled so each class turns up
+        // everywhere, and every character of the alphabet gets used
+        PasswordGenerator generator = new PasswordGenerator(4, ALL_CLASSES, new Random(42));
+        boolean[] seen = new boolean[128];
+        int[] classAtPosition = new int[4];
+        for (int i = 0; i < 20000; i++) {
+            char[] password = generator.generate();
+            for (int j = 0; j < password.length; j++) {
+                seen[password[j]] = true;
+                classAtPosition[j] |= PasswordGenerator.classesOf(new char[] {password[j]});
+            }
+        }
+        int alphabet = 0;
+        for (int i = 0; i < seen.length; i++) {
+            if (seen[i]) {
+                alphabet++;
+            }
+        }
+        assertEquals(86, alphabet);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(ALL_CLASSES, classAtPosition[i]);
+        }
+    }
+
+
+    public void testBulk() {
+        char[][] passwords = new PasswordGenerator(16, true).generate(1000);
+        assertEquals(1000, passwords.length);
+        for (int i = 0; i < passwords.length; i++) {
+            assertEquals(16, passwords[i].length);
+            assertTrue(PasswordGenerator.hasClasses(passwords[i], ALL_CLASSES));
+        }
+        assertFalse(new String(passwords[0]).equals(new String(passwords[1])));
+    }
+
+
+    public void testLongPassword() {
+        // Long enough for the shuffle to need more than a byte of randomness
+        char[] password = new PasswordGenerator(1000, false).generate();
+        assertEquals(1000, password.length);
+        assertEquals(0, PasswordGenerator.classesOf(password) & PasswordGenerator.PUNCTUATION);
+    }
+
+}